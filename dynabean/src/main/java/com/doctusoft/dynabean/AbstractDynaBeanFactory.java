@@ -1,8 +1,13 @@
 package com.doctusoft.dynabean;
 
 import com.doctusoft.dynabean.BeanDefinition.GetterMethod;
+import com.doctusoft.dynabean.BeanDefinition.PropertySlot;
+import com.doctusoft.dynabean.DynaBeanInstance.LazyValue;
 
+import java.io.IOException;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.Map.*;
 
@@ -27,10 +32,34 @@ public abstract class AbstractDynaBeanFactory implements DynaBeanFactory {
     
     protected abstract BeanDefinition getOrComputeBeanDefinition(Class<?> beanInterfaceClass);
     
+    /**
+     * Returns the class loader in which the proxy classes of the given bean interface are defined. The default
+     * implementation returns the class loader of the factory.
+     */
+    protected ClassLoader proxyClassLoader(Class<?> beanInterfaceClass) {
+        return classLoader;
+    }
+    
+    /**
+     * Returns the layout of the property storage of the dynabean instances of the given bean interface. The default
+     * implementation returns {@link StorageLayout#ADAPTIVE}.
+     */
+    protected StorageLayout storageLayout(Class<?> beanInterfaceClass) {
+        return StorageLayout.ADAPTIVE;
+    }
+    
+    /**
+     * Returns how the types of the property values of the dynabean instances of the given bean interface are checked.
+     * The default implementation returns {@link TypeChecking#ON_READ}.
+     */
+    protected TypeChecking typeChecking(Class<?> beanInterfaceClass) {
+        return TypeChecking.ON_READ;
+    }
+    
     @SuppressWarnings("unchecked")
     public <T> T create(Class<T> beanInterfaceClass) {
         BeanDefinition beanDefinition = getOrComputeBeanDefinition(beanInterfaceClass);
-        return DynaBeanInstance.createProxy(beanDefinition, new TreeMap<String, Object>());
+        return DynaBeanInstance.createProxy(beanDefinition, beanDefinition.newStorage());
     }
     
     @SuppressWarnings("unchecked")
@@ -40,19 +69,18 @@ public abstract class AbstractDynaBeanFactory implements DynaBeanFactory {
             throw new IllegalStateException(
                 "Wrong beanDefinition returned: " + beanDefinition + " for: " + beanInterfaceClass);
         }
-        TreeMap<String, Object> propertiesMap = new TreeMap<>(initialValues);
-        TreeSet<String> propertyNames = new TreeSet<>();
-        for (MethodDefinition methodDefinition : beanDefinition.getMethodDefinitions().values()) {
-            if (methodDefinition instanceof GetterMethod) {
-                propertyNames.add(((GetterMethod) methodDefinition).propertyName);
-            }
-        }
-        for (Iterator<Entry<String, Object>> it = propertiesMap.entrySet().iterator(); it.hasNext(); ) {
-            if (!propertyNames.contains(it.next().getKey())) {
-                it.remove();
+        PropertyStorage storage = beanDefinition.newStorage();
+        for (Entry<String, ?> entry : initialValues.entrySet()) {
+            Object value = entry.getValue();
+            if (value != null) {
+                PropertySlot slot = beanDefinition.getPropertySlot(entry.getKey());
+                if (slot != null && slot.isReadable()) {
+                    checkInitialValue(beanDefinition, slot, value);
+                    storage.write(slot.index, value);
+                }
             }
         }
-        return DynaBeanInstance.createProxy(beanDefinition, propertiesMap);
+        return DynaBeanInstance.createProxy(beanDefinition, storage);
     }
     
     public <T> T createWithInitializer(Class<T> beanInterfaceClass, PropertyInitializer initializer) {
@@ -61,7 +89,7 @@ public abstract class AbstractDynaBeanFactory implements DynaBeanFactory {
             throw new IllegalStateException(
                 "Wrong beanDefinition returned: " + beanDefinition + " for: " + beanInterfaceClass);
         }
-        TreeMap<String, Object> propertiesMap = new TreeMap<>();
+        PropertyStorage storage = beanDefinition.newStorage();
         for (Entry<Method, MethodDefinition> e : beanDefinition.getMethodDefinitions().entrySet()) {
             MethodDefinition methodDefinition = e.getValue();
             if (methodDefinition instanceof GetterMethod) {
@@ -69,43 +97,280 @@ public abstract class AbstractDynaBeanFactory implements DynaBeanFactory {
                 String propertyName = getter.propertyName;
                 Method method = e.getKey();
                 Object value = initializer.get(propertyName, method);
-                propertiesMap.put(propertyName, value);
+                if (value != null) {
+                    PropertySlot slot = beanDefinition.getPropertySlot(propertyName);
+                    checkInitialValue(beanDefinition, slot, value);
+                    storage.write(slot.index, value);
+                }
             }
         }
-        return DynaBeanInstance.createProxy(beanDefinition, propertiesMap);
+        return DynaBeanInstance.createProxy(beanDefinition, storage);
     }
     
+    public <T> T createWithLazyInitializer(Class<T> beanInterfaceClass, PropertyInitializer initializer,
+        boolean threadSafe) {
+        requireNonNull(initializer, "initializer");
+        BeanDefinition beanDefinition = getOrComputeBeanDefinition(beanInterfaceClass);
+        if (!beanDefinition.beanInterfaceClass.equals(beanInterfaceClass)) {
+            throw new IllegalStateException(
+                "Wrong beanDefinition returned: " + beanDefinition + " for: " + beanInterfaceClass);
+        }
+        PropertyStorage storage = beanDefinition.newStorage();
+        boolean strict = beanDefinition.typeChecking == TypeChecking.STRICT;
+        for (PropertySlot slot : beanDefinition.readablePropertySlots()) {
+            String propertyName = slot.propertyName;
+            PropertySlot checkedSlot = strict ? slot : null;
+            storage.write(slot.index, new LazyValue(initializer, propertyName, slot.getter, threadSafe, checkedSlot));
+        }
+        return DynaBeanInstance.createProxy(beanDefinition, storage, true);
+    }
+    
+    private static void checkInitialValue(BeanDefinition beanDefinition, PropertySlot slot, Object value) {
+        if (beanDefinition.typeChecking == TypeChecking.STRICT && !slot.accepts(value)) {
+            throw BeanDefinition.notInstanceOf(value, slot.type);
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
     public <T> T copyProperties(Class<T> beanInterfaceClass, T instance) {
         requireNonNull(instance);
-        BeanDefinition beanDefinition = getOrComputeBeanDefinition(beanInterfaceClass);
-
-        Object[] noArgs = {};
-        TreeMap<String, Object> propertiesMap = new TreeMap<>();
-        DynaBeanInstance dynabean = DynaBeanInstance.asDynaBeanInstanceOrNull(instance);
-        if (dynabean != null && dynabean.beanDefinition.equals(beanDefinition)) {
-            return (T) dynabean.cloneProxy();
-        }
-        try {
-            for (Entry<Method, MethodDefinition> entry : beanDefinition.getMethodDefinitions().entrySet()) {
-                if (entry.getValue() instanceof GetterMethod) {
-                    GetterMethod getter = (GetterMethod) entry.getValue();
-                    Object propertyValue = entry.getKey().invoke(instance, noArgs);
-                    if (propertyValue != null) {
-                        propertiesMap.put(getter.propertyName, copyPropertyValue(propertyValue));
-                    }
+        return (T) getOrComputeBeanDefinition(beanInterfaceClass).getCopyPlan().copy(instance, false);
+    }
+    
+    public <T> List<T> copyAll(Class<T> beanInterfaceClass, Collection<? extends T> instances) {
+        return mapAll(beanInterfaceClass, instances);
+    }
+    
+    @SuppressWarnings("unchecked")
+    public <T> T mapProperties(Class<T> beanInterfaceClass, Object source) {
+        requireNonNull(source);
+        return (T) getOrComputeBeanDefinition(beanInterfaceClass).getCopyPlan().copy(source, false);
+    }
+    
+    @SuppressWarnings("unchecked")
+    public <T> List<T> mapAll(Class<T> beanInterfaceClass, Collection<?> sources) {
+        final CopyPlan copyPlan = getOrComputeBeanDefinition(beanInterfaceClass).getCopyPlan();
+        final Object[] copies = sources.toArray();
+        ParallelSupport.forEachRange(copies.length, new ParallelSupport.RangeAction() {
+            public void apply(int from, int to) {
+                for (int i = from; i < to; ++i) {
+                    copies[i] = copyPlan.copy(copies[i], false);
                 }
             }
-        } catch (ReflectiveOperationException e) {
-            throw new RuntimeException("Failed to copy properties. " + e.getMessage(), e);
+        });
+        return (List<T>) new ArrayList<>(Arrays.asList(copies));
+    }
+    
+    @SuppressWarnings("unchecked")
+    public <V> V copyGraph(V value) {
+        return (V) copyPropertyValue(value, true);
+    }
+    
+    @SuppressWarnings("unchecked")
+    public <V> V copyGraphPreservingReferences(V value) {
+        return (V) new GraphCopier().copyGraph(value);
+    }
+    
+    public Map<String, Object> asMap(Object bean) {
+        DynaBeanInstance dynabean = DynaBeanInstance.asDynaBeanInstanceOrNull(bean);
+        if (dynabean == null) {
+            throw new IllegalArgumentException("Not a dynabean instance: " + bean);
+        }
+        return new BeanPropertyMap(dynabean.beanDefinition, dynabean);
+    }
+    
+    public <T> Patch<T> compilePatch(Class<T> beanInterfaceClass, Map<String, ?> propertyValues) {
+        requireNonNull(propertyValues, "propertyValues");
+        return new Patch<>(getOrComputeBeanDefinition(beanInterfaceClass), propertyValues);
+    }
+    
+    public <T> T applyPatch(T bean, Map<String, ?> propertyValues) {
+        requireNonNull(propertyValues, "propertyValues");
+        DynaBeanInstance dynabean = DynaBeanInstance.asDynaBeanInstanceOrNull(bean);
+        if (dynabean == null) {
+            throw new IllegalArgumentException("Not a dynabean instance: " + bean);
+        }
+        return new Patch<T>(dynabean.beanDefinition, propertyValues).applyTo(bean);
+    }
+    
+    @SuppressWarnings("unchecked")
+    public <T> T snapshot(T bean) {
+        return (T) asVersionedDynaBeanInstance(bean).snapshotProxy(bean);
+    }
+    
+    public long getVersion(Object bean) {
+        return asVersionedDynaBeanInstance(bean).version();
+    }
+
+    public <T> ByteBuffer encode(Class<T> beanInterfaceClass, T bean) {
+        requireNonNull(bean);
+        return getOrComputeBeanDefinition(beanInterfaceClass).getBufferLayout().encode(bean);
+    }
+    
+    public <T> T wrap(Class<T> beanInterfaceClass, ByteBuffer buffer) {
+        requireNonNull(buffer, "buffer");
+        return BufferBean.createProxy(getOrComputeBeanDefinition(beanInterfaceClass).getBufferLayout(), buffer);
+    }
+    
+    public <V> V view(Class<V> viewInterfaceClass, Object bean) {
+        DynaBeanInstance dynabean = DynaBeanInstance.asDynaBeanInstanceOrNull(bean);
+        if (dynabean == null) {
+            DynaBeanView view = DynaBeanView.asDynaBeanViewOrNull(bean);
+            if (view == null) {
+                throw new IllegalArgumentException("Not a dynabean instance: " + bean);
+            }
+            dynabean = view.target;
+        }
+        BeanDefinition viewDefinition = getOrComputeBeanDefinition(viewInterfaceClass);
+        return DynaBeanView.createProxy(dynabean.beanDefinition.getOrComputeViewDefinition(viewDefinition), dynabean);
+    }
+
+    public <T> BeanComparator.Builder<T> comparing(Class<T> beanInterfaceClass) {
+        return new BeanComparator.Builder<>(getOrComputeBeanDefinition(beanInterfaceClass));
+    }
+    
+    public <T> ColumnarBeanList<T> createColumnarList(Class<T> beanInterfaceClass) {
+        return new ColumnarBeanList<>(getOrComputeBeanDefinition(beanInterfaceClass));
+    }
+
+    public <T> IndexedBeanCollection<T> createIndexedCollection(Class<T> beanInterfaceClass) {
+        return new IndexedBeanCollection<>(getOrComputeBeanDefinition(beanInterfaceClass), false);
+    }
+    
+    public <T> IndexedBeanCollection<T> createSharedIndexedCollection(Class<T> beanInterfaceClass) {
+        return new IndexedBeanCollection<>(getOrComputeBeanDefinition(beanInterfaceClass), true);
+    }
+
+    public <T> BeanPool<T> createPool(Class<T> beanInterfaceClass, int maxIdlePerThread) {
+        return new BeanPool<>(getOrComputeBeanDefinition(beanInterfaceClass), maxIdlePerThread);
+    }
+    
+    public <T> BeanJournal<T> openJournal(Class<T> beanInterfaceClass, Path path) throws IOException {
+        return BeanJournal.open(getOrComputeBeanDefinition(beanInterfaceClass), path);
+    }
+    
+    public <T> DelimitedLoader.Builder<T> delimitedLoader(Class<T> beanInterfaceClass) {
+        return new DelimitedLoader.Builder<>(getOrComputeBeanDefinition(beanInterfaceClass));
+    }
+    
+    public StorageStats getStorageStats(Class<?> beanInterfaceClass) {
+        return getOrComputeBeanDefinition(beanInterfaceClass).getStorageStats();
+    }
+    
+    public void enableAccessProfiling(Class<?> beanInterfaceClass, int samplingInterval) {
+        BeanDefinition beanDefinition = getOrComputeBeanDefinition(beanInterfaceClass);
+        beanDefinition.accessProfiler = new AccessProfiler(beanDefinition, samplingInterval);
+    }
+    
+    public void disableAccessProfiling(Class<?> beanInterfaceClass) {
+        getOrComputeBeanDefinition(beanInterfaceClass).accessProfiler = null;
+    }
+    
+    public AccessReport getAccessReport(Class<?> beanInterfaceClass) {
+        return getOrComputeBeanDefinition(beanInterfaceClass).getAccessReport();
+    }
+    
+    public BeanFootprint estimateFootprint(Object bean, boolean deep) {
+        DynaBeanInstance dynabean = asDynaBeanInstance(bean);
+        FootprintEstimator estimator = new FootprintEstimator(deep);
+        estimator.exclude(bean);
+        long shallowBytes = dynabean.estimateShallowBytes();
+        long retainedBytes = shallowBytes + dynabean.estimateValueBytes(estimator);
+        return new BeanFootprint(dynabean.beanDefinition.beanInterfaceClass, deep, 1, shallowBytes, retainedBytes);
+    }
+    
+    public void enableFootprintTracking(Class<?> beanInterfaceClass) {
+        BeanDefinition beanDefinition = getOrComputeBeanDefinition(beanInterfaceClass);
+        beanDefinition.footprintTracker = new FootprintTracker(beanDefinition);
+    }
+    
+    public void disableFootprintTracking(Class<?> beanInterfaceClass) {
+        getOrComputeBeanDefinition(beanInterfaceClass).footprintTracker = null;
+    }
+    
+    public BeanFootprint getFootprint(Class<?> beanInterfaceClass, boolean deep) {
+        BeanDefinition beanDefinition = getOrComputeBeanDefinition(beanInterfaceClass);
+        FootprintTracker tracker = beanDefinition.footprintTracker;
+        return tracker != null ? tracker.estimate(deep) : new BeanFootprint(beanInterfaceClass, deep, 0, 0L, 0L);
+    }
+    
+    public <T> BeanDiff<T> diff(T from, T to) {
+        DynaBeanInstance fromInstance = asDynaBeanInstance(from);
+        DynaBeanInstance toInstance = asDynaBeanInstanceOfType(to, fromInstance.beanDefinition);
+        BitSet changed = new BitSet();
+        ArrayList<Object> newValues = new ArrayList<>();
+        fromInstance.diff(toInstance, changed, newValues);
+        return new BeanDiff<>(fromInstance.beanDefinition, changed, newValues.toArray());
+    }
+    
+    @SuppressWarnings("unchecked")
+    public <T> MergeResult<T> merge(T base, T ours, T theirs) {
+        DynaBeanInstance baseInstance = asDynaBeanInstance(base);
+        BeanDefinition beanDefinition = baseInstance.beanDefinition;
+        asDynaBeanInstanceOfType(ours, beanDefinition);
+        asDynaBeanInstanceOfType(theirs, beanDefinition);
+        BeanDiff<T> ourDiff = diff(base, ours);
+        BeanDiff<T> theirDiff = diff(base, theirs);
+        T merged = (T) baseInstance.cloneProxy();
+        DynaBeanInstance mergedInstance = DynaBeanInstance.asDynaBeanInstanceOrNull(merged);
+        BitSet ourChanges = ourDiff.changedIndexes();
+        BitSet theirChanges = theirDiff.changedIndexes();
+        Object[] ourValues = ourDiff.newValues();
+        Object[] theirValues = theirDiff.newValues();
+        BitSet allChanges = (BitSet) ourChanges.clone();
+        allChanges.or(theirChanges);
+        PropertySlot[] slots = beanDefinition.propertySlots();
+        ArrayList<MergeResult.Conflict> conflicts = new ArrayList<>();
+        int ourPosition = 0;
+        int theirPosition = 0;
+        for (int i = allChanges.nextSetBit(0); i >= 0; i = allChanges.nextSetBit(i + 1)) {
+            boolean ourChange = ourChanges.get(i);
+            boolean theirChange = theirChanges.get(i);
+            Object ourValue = ourChange ? ourValues[ourPosition++] : null;
+            Object theirValue = theirChange ? theirValues[theirPosition++] : null;
+            Object value = ourChange ? ourValue : theirValue;
+            if (ourChange && theirChange && !Objects.equals(ourValue, theirValue)) {
+                String propertyName = slots[i].propertyName;
+                conflicts.add(new MergeResult.Conflict(propertyName, baseInstance.get(i), ourValue, theirValue));
+            }
+            mergedInstance.set(slots[i], copyPropertyValue(value));
+        }
+        return new MergeResult<>(merged, conflicts);
+    }
+    
+    private static DynaBeanInstance asVersionedDynaBeanInstance(Object bean) {
+        DynaBeanInstance dynabean = asDynaBeanInstance(bean);
+        if (!dynabean.isVersioned()) {
+            throw new IllegalArgumentException("Not a versioned dynabean instance: " + bean);
+        }
+        return dynabean;
+    }
+    
+    private static DynaBeanInstance asDynaBeanInstance(Object bean) {
+        DynaBeanInstance dynabean = DynaBeanInstance.asDynaBeanInstanceOrNull(bean);
+        if (dynabean == null) {
+            throw new IllegalArgumentException("Not a dynabean instance: " + bean);
+        }
+        return dynabean;
+    }
+    
+    private static DynaBeanInstance asDynaBeanInstanceOfType(Object bean, BeanDefinition beanDefinition) {
+        DynaBeanInstance dynabean = asDynaBeanInstance(bean);
+        if (!dynabean.beanDefinition.equals(beanDefinition)) {
+            throw new IllegalArgumentException("Not a dynabean instance of " + beanDefinition.beanInterfaceClass
+                + ": " + bean);
         }
-        return DynaBeanInstance.createProxy(beanDefinition, propertiesMap);
+        return dynabean;
     }
 
     protected BeanDefinition computeBeanDefinition(Class<?> beanInterfaceClass) {
         if (!beanInterfaceClass.isInterface()) {
             throw new IllegalArgumentException("Not an interface: " + beanInterfaceClass);
         }
-        BeanDefinition.Builder builder = new BeanDefinition.Builder(classLoader, beanInterfaceClass);
+        ClassLoader proxyClassLoader = proxyClassLoader(beanInterfaceClass);
+        BeanDefinition.Builder builder = new BeanDefinition.Builder(proxyClassLoader, beanInterfaceClass)
+            .storageLayout(storageLayout(beanInterfaceClass))
+            .typeChecking(typeChecking(beanInterfaceClass));
         for (Class<?> superInterface : collectAllSuperInterface(beanInterfaceClass)) {
             builder.mergeSuperclassDefinition(getOrComputeBeanDefinition(superInterface));
         }
@@ -0,0 +1,83 @@
+package com.doctusoft.dynabean;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import static java.util.Objects.*;
+
+/**
+ * Internal, sampling counter of the getter and setter calls of the dynabean instances of a single type. Each call is
+ * sampled with a probability of 1 / samplingInterval, and every sampled call is counted as samplingInterval calls.
+ * The counters are striped by thread to limit the contention between threads accessing beans of the same type.
+ */
+final class AccessProfiler {
+    
+    private static final int STRIPES = 8;
+    
+    /**
+     * The number of counters fitting in a cache line of 64 bytes, which separates the stripes from each other, so
+     * threads counting in different stripes do not invalidate each other's cache lines.
+     */
+    private static final int PADDING = 8;
+    
+    private final BeanDefinition beanDefinition;
+    
+    final int samplingInterval;
+    
+    private final int countSlots;
+    
+    private final int stripeLength;
+    
+    /**
+     * The counters of all stripes, each preceded by padding: the reads and the writes of the property with slot index
+     * i are counted at stripe * stripeLength + PADDING + i * 2 and the next position.
+     */
+    private final AtomicLongArray counters;
+    
+    private final long startedAt = System.currentTimeMillis();
+    
+    AccessProfiler(BeanDefinition beanDefinition, int samplingInterval) {
+        if (samplingInterval < 1) {
+            throw new IllegalArgumentException("Sampling interval must be positive: " + samplingInterval);
+        }
+        this.beanDefinition = requireNonNull(beanDefinition, "beanDefinition");
+        this.samplingInterval = samplingInterval;
+        this.countSlots = beanDefinition.countPropertySlots();
+        this.stripeLength = PADDING + countSlots * 2;
+        this.counters = new AtomicLongArray(STRIPES * stripeLength + PADDING);
+    }
+    
+    /**
+     * Counts the given call if it is sampled. Calls of methods other than getters and setters are ignored.
+     */
+    void sample(MethodDefinition methodDefinition) {
+        if (samplingInterval > 1 && ThreadLocalRandom.current().nextInt(samplingInterval) != 0) {
+            return;
+        }
+        int position;
+        if (methodDefinition instanceof BeanDefinition.GetterMethod) {
+            position = ((BeanDefinition.GetterMethod) methodDefinition).slotIndex * 2;
+        } else if (methodDefinition instanceof BeanDefinition.SetterMethod) {
+            position = ((BeanDefinition.SetterMethod) methodDefinition).slotIndex * 2 + 1;
+        } else {
+            return;
+        }
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        counters.addAndGet(stripe * stripeLength + PADDING + position, samplingInterval);
+    }
+    
+    AccessReport report() {
+        long[] reads = new long[countSlots];
+        long[] writes = new long[countSlots];
+        for (int stripe = 0; stripe < STRIPES; ++stripe) {
+            for (int i = 0; i < countSlots; ++i) {
+                int position = stripe * stripeLength + PADDING + i * 2;
+                reads[i] += counters.get(position);
+                writes[i] += counters.get(position + 1);
+            }
+        }
+        return new AccessReport(beanDefinition.beanInterfaceClass, beanDefinition.getPropertySlots(), samplingInterval,
+            System.currentTimeMillis() - startedAt, reads, writes);
+    }
+    
+}
@@ -0,0 +1,123 @@
+package com.doctusoft.dynabean;
+
+import com.doctusoft.dynabean.BeanDefinition.PropertySlot;
+
+import java.util.*;
+
+import static java.util.Objects.*;
+
+/**
+ * An immutable snapshot of the property access statistics of a dynabean type, collected by sampling the getter and
+ * setter calls since the profiling was enabled. The counts are estimates: each sampled call is counted as many times
+ * as the sampling interval.
+ *
+ * @see DynaBeanFactory#enableAccessProfiling(Class, int)
+ */
+public final class AccessReport {
+    
+    private final Class<?> beanInterfaceClass;
+    
+    private final int samplingInterval;
+    
+    private final long elapsedMillis;
+    
+    /**
+     * The estimated reads, writes and 1 if readable (otherwise 0) per property name.
+     */
+    private final LinkedHashMap<String, long[]> counts = new LinkedHashMap<>();
+    
+    AccessReport(Class<?> beanInterfaceClass, List<PropertySlot> slots, int samplingInterval, long elapsedMillis,
+        long[] reads, long[] writes) {
+        this.beanInterfaceClass = requireNonNull(beanInterfaceClass, "beanInterfaceClass");
+        this.samplingInterval = samplingInterval;
+        this.elapsedMillis = elapsedMillis;
+        for (PropertySlot slot : slots) {
+            long readable = slot.isReadable() ? 1L : 0L;
+            counts.put(slot.propertyName, new long[] { reads[slot.index], writes[slot.index], readable });
+        }
+    }
+    
+    public Class<?> getBeanInterfaceClass() {
+        return beanInterfaceClass;
+    }
+    
+    /**
+     * Returns the sampling interval, or 0 if profiling was not enabled for the bean type.
+     */
+    public int getSamplingInterval() {
+        return samplingInterval;
+    }
+    
+    /**
+     * Returns the time elapsed since the profiling was enabled, in milliseconds.
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+    
+    /**
+     * Returns the names of all the properties of the bean type in their natural order.
+     */
+    public Set<String> getPropertyNames() {
+        return Collections.unmodifiableSet(counts.keySet());
+    }
+    
+    public long getEstimatedReads(String propertyName) {
+        return countsOf(propertyName)[0];
+    }
+    
+    public long getEstimatedWrites(String propertyName) {
+        return countsOf(propertyName)[1];
+    }
+    
+    /**
+     * Returns the names of the properties whose getters were not called in any of the sampled calls, in their natural
+     * order. Properties without a getter are not included.
+     */
+    public List<String> getUnreadPropertyNames() {
+        ArrayList<String> unread = new ArrayList<>();
+        for (Map.Entry<String, long[]> entry : counts.entrySet()) {
+            long[] propertyCounts = entry.getValue();
+            if (propertyCounts[0] == 0 && propertyCounts[2] == 1L) {
+                unread.add(entry.getKey());
+            }
+        }
+        return unread;
+    }
+    
+    /**
+     * Returns the names of the properties ordered by their estimated number of reads and writes, the most accessed
+     * first.
+     */
+    public List<String> getPropertyNamesByAccessCount() {
+        ArrayList<String> propertyNames = new ArrayList<>(counts.keySet());
+        Collections.sort(propertyNames, new Comparator<String>() {
+            public int compare(String name1, String name2) {
+                long[] counts1 = counts.get(name1);
+                long[] counts2 = counts.get(name2);
+                return Long.compare(counts2[0] + counts2[1], counts1[0] + counts1[1]);
+            }
+        });
+        return propertyNames;
+    }
+    
+    private long[] countsOf(String propertyName) {
+        long[] propertyCounts = counts.get(propertyName);
+        if (propertyCounts == null) {
+            throw new IllegalArgumentException("Unknown property: " + propertyName + " for: " + beanInterfaceClass);
+        }
+        return propertyCounts;
+    }
+    
+    public String toString() {
+        StringBuilder sb = new StringBuilder("AccessReport(type=").append(beanInterfaceClass.getSimpleName())
+            .append(", samplingInterval=").append(samplingInterval);
+        for (Map.Entry<String, long[]> entry : counts.entrySet()) {
+            long[] propertyCounts = entry.getValue();
+            sb.append(", ").append(entry.getKey())
+                .append("=").append(propertyCounts[0]).append("r/").append(propertyCounts[1]).append("w");
+        }
+        return sb.append(")").toString();
+    }
+    
+}
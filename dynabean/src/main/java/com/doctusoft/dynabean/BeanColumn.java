@@ -0,0 +1,486 @@
+package com.doctusoft.dynabean;
+
+import com.doctusoft.dynabean.BeanDefinition.PropertySlot;
+
+import java.util.*;
+
+import static com.doctusoft.dynabean.BeanDefinition.notInstanceOf;
+import static java.util.Objects.*;
+
+/**
+ * Internal storage of a single property of many beans of the same type in one array. Primitive properties are stored
+ * in primitive arrays, so reading and comparing them does not involve boxing.
+ */
+abstract class BeanColumn {
+    
+    static BeanColumn create(PropertySlot slot, int capacity) {
+        Class<?> type = slot.type;
+        if (type == int.class || type == short.class || type == byte.class || type == char.class) {
+            return new IntColumn(slot, capacity);
+        } else if (type == long.class) {
+            return new LongColumn(slot, capacity);
+        } else if (type == double.class || type == float.class) {
+            return new DoubleColumn(slot, capacity);
+        } else if (type == boolean.class) {
+            return new BooleanColumn(slot, capacity);
+        } else if (type.isEnum()) {
+            return new DictionaryColumn(slot, capacity, ValueDictionary.forEnum(type));
+        } else {
+            return new ObjectColumn(slot, capacity);
+        }
+    }
+    
+    final PropertySlot slot;
+    
+    BeanColumn(PropertySlot slot) {
+        this.slot = requireNonNull(slot);
+    }
+    
+    /**
+     * Returns the value stored at the given row boxed to the wrapper of the property type, or null if not set.
+     */
+    abstract Object get(int row);
+    
+    abstract void set(int row, Object value);
+    
+    abstract int capacity();
+    
+    abstract void resize(int capacity);
+    
+    /**
+     * Reorders the first {@code order.length} rows so that the new row i holds the values of the old row order[i].
+     */
+    abstract void permute(int[] order);
+    
+    boolean isNull(int row) {
+        return false;
+    }
+    
+    /**
+     * Compares the values of the two rows in their natural order, both rows must hold non-null values.
+     */
+    abstract int compareRows(int row1, int row2);
+    
+    final void ensureCapacity(int minCapacity) {
+        int capacity = capacity();
+        if (minCapacity > capacity) {
+            resize(Math.max(minCapacity, capacity + (capacity >> 1) + 1));
+        }
+    }
+    
+    final void checkType(Object value) {
+        if (!slot.wrap.isInstance(value)) {
+            throw notInstanceOf(value, slot.type);
+        }
+    }
+    
+    static final class IntColumn extends BeanColumn {
+        
+        int[] values;
+        
+        IntColumn(PropertySlot slot, int capacity) {
+            super(slot);
+            this.values = new int[capacity];
+        }
+        
+        Object get(int row) {
+            int value = values[row];
+            Class<?> type = slot.type;
+            if (type == int.class) {
+                return value;
+            } else if (type == short.class) {
+                return (short) value;
+            } else if (type == byte.class) {
+                return (byte) value;
+            } else {
+                return (char) value;
+            }
+        }
+        
+        void set(int row, Object value) {
+            if (value == null) {
+                values[row] = 0;
+            } else {
+                checkType(value);
+                values[row] = value instanceof Character ? (Character) value : ((Number) value).intValue();
+            }
+        }
+        
+        int capacity() {
+            return values.length;
+        }
+        
+        void resize(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+        
+        void permute(int[] order) {
+            int[] permuted = new int[values.length];
+            for (int i = 0; i < order.length; ++i) {
+                permuted[i] = values[order[i]];
+            }
+            values = permuted;
+        }
+        
+        int compareRows(int row1, int row2) {
+            int x = values[row1];
+            int y = values[row2];
+            return (x < y) ? -1 : ((x == y) ? 0 : 1);
+        }
+    }
+    
+    static final class LongColumn extends BeanColumn {
+        
+        long[] values;
+        
+        LongColumn(PropertySlot slot, int capacity) {
+            super(slot);
+            this.values = new long[capacity];
+        }
+        
+        Object get(int row) {
+            return values[row];
+        }
+        
+        void set(int row, Object value) {
+            if (value == null) {
+                values[row] = 0L;
+            } else {
+                checkType(value);
+                values[row] = (Long) value;
+            }
+        }
+        
+        int capacity() {
+            return values.length;
+        }
+        
+        void resize(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+        
+        void permute(int[] order) {
+            long[] permuted = new long[values.length];
+            for (int i = 0; i < order.length; ++i) {
+                permuted[i] = values[order[i]];
+            }
+            values = permuted;
+        }
+        
+        int compareRows(int row1, int row2) {
+            long x = values[row1];
+            long y = values[row2];
+            return (x < y) ? -1 : ((x == y) ? 0 : 1);
+        }
+    }
+    
+    static final class DoubleColumn extends BeanColumn {
+        
+        double[] values;
+        
+        DoubleColumn(PropertySlot slot, int capacity) {
+            super(slot);
+            this.values = new double[capacity];
+        }
+        
+        Object get(int row) {
+            double value = values[row];
+            return slot.type == float.class ? (Object) (float) value : (Object) value;
+        }
+        
+        void set(int row, Object value) {
+            if (value == null) {
+                values[row] = 0d;
+            } else {
+                checkType(value);
+                values[row] = ((Number) value).doubleValue();
+            }
+        }
+        
+        int capacity() {
+            return values.length;
+        }
+        
+        void resize(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+        
+        void permute(int[] order) {
+            double[] permuted = new double[values.length];
+            for (int i = 0; i < order.length; ++i) {
+                permuted[i] = values[order[i]];
+            }
+            values = permuted;
+        }
+        
+        int compareRows(int row1, int row2) {
+            return Double.compare(values[row1], values[row2]);
+        }
+    }
+    
+    static final class BooleanColumn extends BeanColumn {
+        
+        boolean[] values;
+        
+        BooleanColumn(PropertySlot slot, int capacity) {
+            super(slot);
+            this.values = new boolean[capacity];
+        }
+        
+        Object get(int row) {
+            return values[row];
+        }
+        
+        void set(int row, Object value) {
+            if (value == null) {
+                values[row] = false;
+            } else {
+                checkType(value);
+                values[row] = (Boolean) value;
+            }
+        }
+        
+        int capacity() {
+            return values.length;
+        }
+        
+        void resize(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+        
+        void permute(int[] order) {
+            boolean[] permuted = new boolean[values.length];
+            for (int i = 0; i < order.length; ++i) {
+                permuted[i] = values[order[i]];
+            }
+            values = permuted;
+        }
+        
+        int compareRows(int row1, int row2) {
+            boolean x = values[row1];
+            return (x == values[row2]) ? 0 : (x ? 1 : -1);
+        }
+    }
+    
+    static final class ObjectColumn extends BeanColumn {
+        
+        Object[] values;
+        
+        ObjectColumn(PropertySlot slot, int capacity) {
+            super(slot);
+            this.values = new Object[capacity];
+        }
+        
+        Object get(int row) {
+            return values[row];
+        }
+        
+        void set(int row, Object value) {
+            values[row] = value;
+        }
+        
+        int capacity() {
+            return values.length;
+        }
+        
+        void resize(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+        
+        void permute(int[] order) {
+            Object[] permuted = new Object[values.length];
+            for (int i = 0; i < order.length; ++i) {
+                permuted[i] = values[order[i]];
+            }
+            values = permuted;
+        }
+        
+        boolean isNull(int row) {
+            return values[row] == null;
+        }
+        
+        @SuppressWarnings("unchecked")
+        int compareRows(int row1, int row2) {
+            return ((Comparable<Object>) values[row1]).compareTo(values[row2]);
+        }
+    }
+    
+    
+    /**
+     * Stores the codes of the values assigned by a {@link ValueDictionary} instead of references to the values. The
+     * codes are stored in a byte array as long as the dictionary has at most 256 codes, then in a char array up to 65536
+     * codes, and in an int array above that.
+     */
+    static final class DictionaryColumn extends BeanColumn {
+        
+        final ValueDictionary dictionary;
+        
+        private byte[] byteCodes;
+        
+        private char[] charCodes;
+        
+        private int[] intCodes;
+        
+        DictionaryColumn(PropertySlot slot, int capacity, ValueDictionary dictionary) {
+            super(slot);
+            this.dictionary = requireNonNull(dictionary, "dictionary");
+            int size = dictionary.size();
+            if (size <= 1 << 8) {
+                byteCodes = new byte[capacity];
+            } else if (size <= 1 << 16) {
+                charCodes = new char[capacity];
+            } else {
+                intCodes = new int[capacity];
+            }
+        }
+        
+        /**
+         * Creates a dictionary encoded copy of the first size rows of the given column.
+         */
+        static DictionaryColumn encode(BeanColumn column, int size, ValueDictionary dictionary) {
+            DictionaryColumn encoded = new DictionaryColumn(column.slot, column.capacity(), dictionary);
+            for (int row = 0; row < size; ++row) {
+                encoded.set(row, column.get(row));
+            }
+            return encoded;
+        }
+        
+        int code(int row) {
+            if (byteCodes != null) {
+                return byteCodes[row] & 0xFF;
+            } else if (charCodes != null) {
+                return charCodes[row];
+            } else {
+                return intCodes[row];
+            }
+        }
+        
+        Object get(int row) {
+            return dictionary.decode(code(row));
+        }
+        
+        void set(int row, Object value) {
+            int code = dictionary.encode(value);
+            if (byteCodes != null) {
+                if (code <= 0xFF) {
+                    byteCodes[row] = (byte) code;
+                    return;
+                }
+                widen(code);
+            }
+            if (charCodes != null) {
+                if (code <= 0xFFFF) {
+                    charCodes[row] = (char) code;
+                    return;
+                }
+                widen(code);
+            }
+            intCodes[row] = code;
+        }
+        
+        private void widen(int code) {
+            int capacity = capacity();
+            if (code <= 0xFFFF) {
+                charCodes = new char[capacity];
+                for (int row = 0; row < capacity; ++row) {
+                    charCodes[row] = (char) (byteCodes[row] & 0xFF);
+                }
+            } else {
+                intCodes = new int[capacity];
+                for (int row = 0; row < capacity; ++row) {
+                    intCodes[row] = code(row);
+                }
+                charCodes = null;
+            }
+            byteCodes = null;
+        }
+        
+        int capacity() {
+            if (byteCodes != null) {
+                return byteCodes.length;
+            } else if (charCodes != null) {
+                return charCodes.length;
+            } else {
+                return intCodes.length;
+            }
+        }
+        
+        void resize(int capacity) {
+            if (byteCodes != null) {
+                byteCodes = Arrays.copyOf(byteCodes, capacity);
+            } else if (charCodes != null) {
+                charCodes = Arrays.copyOf(charCodes, capacity);
+            } else {
+                intCodes = Arrays.copyOf(intCodes, capacity);
+            }
+        }
+        
+        void permute(int[] order) {
+            if (byteCodes != null) {
+                byte[] permuted = new byte[byteCodes.length];
+                for (int i = 0; i < order.length; ++i) {
+                    permuted[i] = byteCodes[order[i]];
+                }
+                byteCodes = permuted;
+            } else if (charCodes != null) {
+                char[] permuted = new char[charCodes.length];
+                for (int i = 0; i < order.length; ++i) {
+                    permuted[i] = charCodes[order[i]];
+                }
+                charCodes = permuted;
+            } else {
+                int[] permuted = new int[intCodes.length];
+                for (int i = 0; i < order.length; ++i) {
+                    permuted[i] = intCodes[order[i]];
+                }
+                intCodes = permuted;
+            }
+        }
+        
+        boolean isNull(int row) {
+            return code(row) == 0;
+        }
+        
+        @SuppressWarnings("unchecked")
+        int compareRows(int row1, int row2) {
+            int code1 = code(row1);
+            int code2 = code(row2);
+            if (code1 == code2) {
+                return 0;
+            }
+            if (dictionary.isOrdered()) {
+                return code1 < code2 ? -1 : 1;
+            }
+            return ((Comparable<Object>) dictionary.decode(code1)).compareTo(dictionary.decode(code2));
+        }
+        
+        /**
+         * Copies the codes of the rows [from, to) into the given array, starting at its first position.
+         */
+        void codes(int from, int to, int[] target) {
+            if (byteCodes != null) {
+                for (int row = from; row < to; ++row) {
+                    target[row - from] = byteCodes[row] & 0xFF;
+                }
+            } else if (charCodes != null) {
+                for (int row = from; row < to; ++row) {
+                    target[row - from] = charCodes[row];
+                }
+            } else {
+                System.arraycopy(intCodes, from, target, 0, to - from);
+            }
+        }
+        
+        /**
+         * Marks the rows among the first size rows whose value has the given code.
+         */
+        void filterCode(int code, int size, BitSet result) {
+            for (int row = 0; row < size; ++row) {
+                if (code(row) == code) {
+                    result.set(row);
+                }
+            }
+        }
+    }
+
+}
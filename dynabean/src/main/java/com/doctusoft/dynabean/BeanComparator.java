@@ -0,0 +1,216 @@
+package com.doctusoft.dynabean;
+
+import com.doctusoft.dynabean.BeanDefinition.PropertySlot;
+import com.doctusoft.dynabean.ParallelSupport.IndexComparator;
+import com.doctusoft.dynabean.ParallelSupport.RangeAction;
+
+import java.util.*;
+
+import static java.util.Objects.*;
+
+/**
+ * A precompiled comparator ordering beans by one or more of their properties. Property names are resolved once when
+ * the comparator is built by the {@link Builder} returned from {@link DynaBeanFactory#comparing(Class)}, and values
+ * are read directly from the storage of dynabean instances instead of calling their getters.
+ * <p>
+ * Properties of primitive types are compared by their values (and never null), all other properties must have a type
+ * implementing {@link Comparable}. By default null values are treated as smaller than any other value, thus they come
+ * first in ascending and last in descending order, which can be overridden per property by {@link NullOrdering}.
+ * <p>
+ * Besides being a {@link Comparator}, it offers sorting methods which read each property value only once per bean
+ * (instead of twice per comparison) and sort large collections in parallel.
+ *
+ * @param <T> the type of beans compared
+ */
+public final class BeanComparator<T> implements Comparator<T> {
+    
+    public enum NullOrdering {
+        NULLS_FIRST, NULLS_LAST
+    }
+    
+    final BeanDefinition beanDefinition;
+    
+    private final SortKey[] keys;
+    
+    private BeanComparator(BeanDefinition beanDefinition, SortKey[] keys) {
+        this.beanDefinition = beanDefinition;
+        this.keys = keys;
+    }
+    
+    public int compare(T bean1, T bean2) {
+        BeanProperties properties1 = DynaBeanInstance.propertiesOrNull(bean1);
+        BeanProperties properties2 = DynaBeanInstance.propertiesOrNull(bean2);
+        for (SortKey key : keys) {
+            PropertySlot slot = key.slot;
+            Object value1 = properties1 == null ? slot.readFrom((Object) bean1) : slot.readFrom(properties1);
+            Object value2 = properties2 == null ? slot.readFrom((Object) bean2) : slot.readFrom(properties2);
+            int result = key.compareValues(value1, value2);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+    
+    /**
+     * Sorts the given list. The sort is stable and runs in parallel for large lists. The values of the compared
+     * properties are read only once per element before sorting, so the list must not be modified concurrently.
+     *
+     * @param list the list to sort, its {@code ListIterator} must support the {@code set} operation
+     */
+    @SuppressWarnings("unchecked")
+    public void sort(List<T> list) {
+        final Object[] beans = list.toArray();
+        int size = beans.length;
+        final BeanColumn[] keyColumns = new BeanColumn[keys.length];
+        for (int k = 0; k < keys.length; ++k) {
+            keyColumns[k] = BeanColumn.create(keys[k].slot, size);
+        }
+        ParallelSupport.forEachRange(size, new RangeAction() {
+            public void apply(int from, int to) {
+                for (int row = from; row < to; ++row) {
+                    Object bean = beans[row];
+                    BeanProperties properties = DynaBeanInstance.propertiesOrNull(bean);
+                    for (int k = 0; k < keys.length; ++k) {
+                        PropertySlot slot = keys[k].slot;
+                        keyColumns[k].set(row, properties == null ? slot.readFrom(bean) : slot.readFrom(properties));
+                    }
+                }
+            }
+        });
+        int[] order = sortIndexes(size, keyColumns);
+        ListIterator<T> it = list.listIterator();
+        for (int index : order) {
+            it.next();
+            it.set((T) beans[index]);
+        }
+    }
+    
+    /**
+     * Sorts the given columnar list in place by comparing its columns directly, without creating any bean instances or
+     * boxing primitive values. The sort is stable and runs in parallel for large lists.
+     */
+    public void sort(ColumnarBeanList<T> list) {
+        BeanColumn[] keyColumns = new BeanColumn[keys.length];
+        for (int k = 0; k < keys.length; ++k) {
+            keyColumns[k] = list.getColumn(keys[k].slot.propertyName);
+        }
+        list.reorder(sortIndexes(list.size(), keyColumns));
+    }
+    
+    private int[] sortIndexes(int size, final BeanColumn[] keyColumns) {
+        return ParallelSupport.sortIndexes(size, new IndexComparator() {
+            public int compare(int row1, int row2) {
+                for (int k = 0; k < keys.length; ++k) {
+                    int result = keys[k].compareRows(keyColumns[k], row1, row2);
+                    if (result != 0) {
+                        return result;
+                    }
+                }
+                return 0;
+            }
+        });
+    }
+    
+    public String toString() {
+        return "BeanComparator(type=" + beanDefinition.beanInterfaceClass.getSimpleName()
+            + ", keys=" + Arrays.toString(keys) + ")";
+    }
+    
+    private static final class SortKey {
+        
+        final PropertySlot slot;
+        final boolean descending;
+        final boolean nullsFirst;
+        
+        SortKey(PropertySlot slot, boolean descending, boolean nullsFirst) {
+            this.slot = slot;
+            this.descending = descending;
+            this.nullsFirst = nullsFirst;
+        }
+        
+        @SuppressWarnings("unchecked")
+        int compareValues(Object value1, Object value2) {
+            if (value1 == null || value2 == null) {
+                return compareNulls(value1 == null, value2 == null);
+            }
+            int result = ((Comparable<Object>) value1).compareTo(value2);
+            return descending ? -result : result;
+        }
+        
+        int compareRows(BeanColumn column, int row1, int row2) {
+            boolean null1 = column.isNull(row1);
+            boolean null2 = column.isNull(row2);
+            if (null1 || null2) {
+                return compareNulls(null1, null2);
+            }
+            int result = column.compareRows(row1, row2);
+            return descending ? -result : result;
+        }
+        
+        private int compareNulls(boolean null1, boolean null2) {
+            if (null1 == null2) {
+                return 0;
+            }
+            return null1 == nullsFirst ? -1 : 1;
+        }
+        
+        public String toString() {
+            return slot.propertyName + (descending ? " DESC" : " ASC") + (nullsFirst ? " NULLS FIRST" : " NULLS LAST");
+        }
+    }
+    
+    /**
+     * Collects the properties to order by, in order of their precedence.
+     *
+     * @param <T> the type of beans compared
+     */
+    public static final class Builder<T> {
+        
+        private final BeanDefinition beanDefinition;
+        
+        private final ArrayList<SortKey> keys = new ArrayList<>();
+        
+        Builder(BeanDefinition beanDefinition) {
+            this.beanDefinition = requireNonNull(beanDefinition, "beanDefinition");
+        }
+        
+        public Builder<T> ascending(String propertyName) {
+            return ascending(propertyName, NullOrdering.NULLS_FIRST);
+        }
+        
+        public Builder<T> ascending(String propertyName, NullOrdering nullOrdering) {
+            return orderBy(propertyName, false, nullOrdering);
+        }
+        
+        public Builder<T> descending(String propertyName) {
+            return descending(propertyName, NullOrdering.NULLS_LAST);
+        }
+        
+        public Builder<T> descending(String propertyName, NullOrdering nullOrdering) {
+            return orderBy(propertyName, true, nullOrdering);
+        }
+        
+        private Builder<T> orderBy(String propertyName, boolean descending, NullOrdering nullOrdering) {
+            requireNonNull(nullOrdering, "nullOrdering");
+            PropertySlot slot = beanDefinition.getPropertySlot(propertyName);
+            if (slot == null || !slot.isReadable()) {
+                throw new IllegalArgumentException(
+                    "Unknown property: " + propertyName + " for: " + beanDefinition.beanInterfaceClass);
+            }
+            if (!slot.type.isPrimitive() && !Comparable.class.isAssignableFrom(slot.type)) {
+                throw new IllegalArgumentException("Property " + propertyName + " is not comparable: " + slot.type);
+            }
+            keys.add(new SortKey(slot, descending, nullOrdering == NullOrdering.NULLS_FIRST));
+            return this;
+        }
+        
+        public BeanComparator<T> build() {
+            if (keys.isEmpty()) {
+                throw new IllegalStateException("No properties to compare by");
+            }
+            return new BeanComparator<>(beanDefinition, keys.toArray(new SortKey[keys.size()]));
+        }
+    }
+    
+}
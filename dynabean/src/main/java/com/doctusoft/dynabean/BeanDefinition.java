@@ -2,8 +2,11 @@ package com.doctusoft.dynabean;
 
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.doctusoft.dynabean.Primitives.wrap;
 import static java.util.Objects.*;
@@ -18,12 +21,72 @@ final class BeanDefinition {
     final Class<?> beanInterfaceClass;
     
     private final LinkedHashMap<Method, MethodDefinition> propertyMethodMap;
+    
+    private final PropertySlot[] propertySlots;
+    
+    private final HashMap<String, PropertySlot> propertySlotMap;
+    
+    private final PropertySlot[] readablePropertySlots;
+    
+    /**
+     * The view definitions by their view interfaces. They are attached to the view interface classes, so they are kept
+     * as long as the view interface is loaded, without this definition keeping the class loaders of the view
+     * interfaces alive.
+     */
+    private final ClassValue<AtomicReference<DynaBeanView.ViewDefinition>> viewDefinitionCache =
+        new ClassValue<AtomicReference<DynaBeanView.ViewDefinition>>() {
+            protected AtomicReference<DynaBeanView.ViewDefinition> computeValue(Class<?> viewInterfaceClass) {
+                return new AtomicReference<>();
+            }
+        };
+    
+    private volatile CopyPlan copyPlan;
+    
+    private volatile BufferLayout bufferLayout;
+    
+    private final ConcurrentHashMap<String, ValueDictionary> dictionaries = new ConcurrentHashMap<>(4);
+    
+    private final StorageProfile storageProfile;
+    
+    final TypeChecking typeChecking;
+    
+    /**
+     * The profiler of the getter and setter calls if profiling is enabled, otherwise null.
+     */
+    volatile AccessProfiler accessProfiler;
+    
+    /**
+     * The tracker of the instances created if footprint tracking is enabled, otherwise null.
+     */
+    volatile FootprintTracker footprintTracker;
 
     private BeanDefinition(ClassLoader classLoader, Class<?> beanInterfaceClass,
-        LinkedHashMap<Method, MethodDefinition> propertyMethodMap) {
+        LinkedHashMap<Method, MethodDefinition> propertyMethodMap, StorageLayout storageLayout,
+        TypeChecking typeChecking) {
         this.classLoader = requireNonNull(classLoader, "classLoader");
         this.beanInterfaceClass = requireNonNull(beanInterfaceClass, "beanInterfaceClass");
         this.propertyMethodMap = requireNonNull(propertyMethodMap, "propertyMethodMap");
+        this.propertySlots = computePropertySlots(propertyMethodMap);
+        this.propertySlotMap = new HashMap<>();
+        ArrayList<PropertySlot> readable = new ArrayList<>(propertySlots.length);
+        for (PropertySlot slot : propertySlots) {
+            propertySlotMap.put(slot.propertyName, slot);
+            if (slot.isReadable()) {
+                readable.add(slot);
+            }
+        }
+        for (Map.Entry<Method, MethodDefinition> e : propertyMethodMap.entrySet()) {
+            if (e.getValue() instanceof GetterMethod) {
+                GetterMethod getter = (GetterMethod) e.getValue();
+                e.setValue(getter.withSlotIndex(propertySlotMap.get(getter.propertyName).index));
+            } else if (e.getValue() instanceof SetterMethod) {
+                SetterMethod setter = (SetterMethod) e.getValue();
+                e.setValue(setter.withSlotIndex(propertySlotMap.get(setter.propertyName).index));
+            }
+        }
+        this.readablePropertySlots = readable.toArray(new PropertySlot[readable.size()]);
+        this.storageProfile = new StorageProfile(propertySlots.length, storageLayout);
+        this.typeChecking = requireNonNull(typeChecking, "typeChecking");
     }
 
     public MethodDefinition getMethodDefinition(Method method) {
@@ -33,7 +96,107 @@ final class BeanDefinition {
     public Map<Method, MethodDefinition> getMethodDefinitions() {
         return Collections.unmodifiableMap(propertyMethodMap);
     }
+    
+    /**
+     * Returns the slot of the given property or null if the bean has no getter nor setter for that property.
+     */
+    public PropertySlot getPropertySlot(String propertyName) {
+        return propertySlotMap.get(propertyName);
+    }
+    
+    /**
+     * Returns all the property slots of the bean in the natural order of their property names.
+     */
+    public List<PropertySlot> getPropertySlots() {
+        return Collections.unmodifiableList(Arrays.asList(propertySlots));
+    }
+    
+    /**
+     * Returns the internal array of all the property slots, indexed by {@link PropertySlot#index}. The returned array
+     * must not be modified.
+     */
+    PropertySlot[] propertySlots() {
+        return propertySlots;
+    }
+    
+    /**
+     * Returns the slots of the properties having a getter method, in the natural order of their property names. The
+     * returned array must not be modified.
+     */
+    PropertySlot[] readablePropertySlots() {
+        return readablePropertySlots;
+    }
+    
+    public int countPropertySlots() {
+        return propertySlots.length;
+    }
 
+    CopyPlan getCopyPlan() {
+        CopyPlan plan = copyPlan;
+        if (plan == null) {
+            copyPlan = plan = new CopyPlan(this);
+        }
+        return plan;
+    }
+    
+    BufferLayout getBufferLayout() {
+        BufferLayout layout = bufferLayout;
+        if (layout == null) {
+            bufferLayout = layout = new BufferLayout(this);
+        }
+        return layout;
+    }
+
+    /**
+     * Returns the (cached) mapping for viewing instances of this bean type as the type of the given viewDefinition.
+     *
+     * @throws IllegalArgumentException if the two bean types have properties with incompatible types
+     */
+    DynaBeanView.ViewDefinition getOrComputeViewDefinition(BeanDefinition viewDefinition) {
+        AtomicReference<DynaBeanView.ViewDefinition> cached =
+            viewDefinitionCache.get(viewDefinition.beanInterfaceClass);
+        DynaBeanView.ViewDefinition def = cached.get();
+        if (def != null && def.viewDefinition == viewDefinition) {
+            return def;
+        }
+        def = new DynaBeanView.ViewDefinition(viewDefinition, this);
+        cached.set(def);
+        return def;
+    }
+
+    /**
+     * Returns the dictionary shared by the dictionary encoded columns of the given property of this bean type.
+     */
+    ValueDictionary getDictionary(PropertySlot slot) {
+        ValueDictionary dictionary = dictionaries.get(slot.propertyName);
+        if (dictionary != null) {
+            return dictionary;
+        }
+        dictionary = slot.type.isEnum() ? ValueDictionary.forEnum(slot.type) : new ValueDictionary.SharedDictionary();
+        ValueDictionary old = dictionaries.putIfAbsent(slot.propertyName, dictionary);
+        return old == null ? dictionary : old;
+    }
+    
+    /**
+     * Returns a new, empty property storage for an instance of this type, in the layout currently chosen for it.
+     */
+    PropertyStorage newStorage() {
+        return storageProfile.newStorage();
+    }
+    
+    StorageStats getStorageStats() {
+        return storageProfile.getStats(beanInterfaceClass);
+    }
+    
+    AccessReport getAccessReport() {
+        AccessProfiler profiler = accessProfiler;
+        if (profiler == null) {
+            long[] noCounts = new long[propertySlots.length];
+            return new AccessReport(beanInterfaceClass, getPropertySlots(), 0, 0L, noCounts, noCounts);
+        }
+        return profiler.report();
+    }
+    
     public boolean equals(Object obj) {
         if (obj == this) return true;
         if (obj instanceof BeanDefinition) {
@@ -47,6 +210,37 @@ final class BeanDefinition {
         return beanInterfaceClass.hashCode();
     }
 
+    private static PropertySlot[] computePropertySlots(Map<Method, MethodDefinition> methodDefinitions) {
+        TreeMap<String, ArrayList<Method>> getters = new TreeMap<>();
+        for (Map.Entry<Method, MethodDefinition> e : methodDefinitions.entrySet()) {
+            MethodDefinition methodDefinition = e.getValue();
+            String propertyName;
+            if (methodDefinition instanceof GetterMethod) {
+                propertyName = ((GetterMethod) methodDefinition).propertyName;
+            } else if (methodDefinition instanceof SetterMethod) {
+                propertyName = ((SetterMethod) methodDefinition).propertyName;
+            } else {
+                continue;
+            }
+            ArrayList<Method> methods = getters.get(propertyName);
+            if (methods == null) {
+                methods = new ArrayList<>(1);
+                getters.put(propertyName, methods);
+            }
+            if (methodDefinition instanceof GetterMethod) {
+                methods.add(e.getKey());
+            }
+        }
+        PropertySlot[] slots = new PropertySlot[getters.size()];
+        int index = 0;
+        for (Map.Entry<String, ArrayList<Method>> e : getters.entrySet()) {
+            ArrayList<Method> methods = e.getValue();
+            slots[index] = new PropertySlot(index, e.getKey(), methods.toArray(new Method[methods.size()]));
+            ++index;
+        }
+        return slots;
+    }
+
     private static MethodDefinition defineIfProperty(Method method) {
         if (JvmInternals.isDefaultMethod(method)) {
             Class<?> declaringClass = method.getDeclaringClass();
@@ -61,6 +255,14 @@ final class BeanDefinition {
                     "Private Lookup{" + privateLookup + "} failed to unreflectSpecial on method: " + method, e);
             }
         }
+        return defineAccessorOrNull(method);
+    }
+
+    /**
+     * Returns the definition of the given method if it is a getter or setter by its name and signature, otherwise null.
+     * The method can be declared by any class or interface.
+     */
+    static MethodDefinition defineAccessorOrNull(Method method) {
         String methodName = method.getName();
         if (methodName.length() < 4) {
             return null;
@@ -94,6 +296,10 @@ final class BeanDefinition {
 
         private LinkedHashMap<Method, MethodDefinition> methodDefinitionMap;
 
+        private StorageLayout storageLayout = StorageLayout.ADAPTIVE;
+
+        private TypeChecking typeChecking = TypeChecking.ON_READ;
+
         Builder(ClassLoader classLoader, Class<?> beanInterfaceClass) {
             this.classLoader = requireNonNull(classLoader, "classLoader");
             this.beanInterfaceClass = requireNonNull(beanInterfaceClass, "beanInterfaceClass");
@@ -117,13 +323,127 @@ final class BeanDefinition {
             return this;
         }
 
+        public Builder storageLayout(StorageLayout storageLayout) {
+            this.storageLayout = requireNonNull(storageLayout, "storageLayout");
+            return this;
+        }
+
+        public Builder typeChecking(TypeChecking typeChecking) {
+            this.typeChecking = requireNonNull(typeChecking, "typeChecking");
+            return this;
+        }
+
         public BeanDefinition build() {
             LinkedHashMap<Method, MethodDefinition> theMap = methodDefinitionMap;
             methodDefinitionMap = null;
-            return new BeanDefinition(classLoader, beanInterfaceClass, theMap);
+            boolean readChecks = typeChecking == TypeChecking.ON_READ;
+            boolean writeChecks = typeChecking != TypeChecking.STRICT;
+            for (Map.Entry<Method, MethodDefinition> e : theMap.entrySet()) {
+                if (e.getValue() instanceof GetterMethod) {
+                    e.setValue(((GetterMethod) e.getValue()).withReadChecks(readChecks));
+                } else if (e.getValue() instanceof SetterMethod) {
+                    e.setValue(((SetterMethod) e.getValue()).withWriteChecks(writeChecks));
+                }
+            }
+            return new BeanDefinition(classLoader, beanInterfaceClass, theMap, storageLayout, typeChecking);
         }
     }
 
+    /**
+     * Describes a single property of the bean: its position among all properties of the bean (ordered by their names)
+     * and the types declared by its getters. Properties with only a setter method have a slot as well, but they are
+     * not readable.
+     */
+    static final class PropertySlot {
+        
+        final int index;
+        final String propertyName;
+        final Class<?> type;
+        final Class<?> wrap;
+        final Object defaultValue;
+        final Method getter;
+        private final Class<?>[] getterTypes;
+        
+        private PropertySlot(int index, String propertyName, Method[] getters) {
+            this.index = index;
+            this.propertyName = requireNonNull(propertyName);
+            this.getterTypes = new Class<?>[getters.length];
+            Method mostSpecificGetter = null;
+            Class<?> mostSpecific = Object.class;
+            for (int i = 0; i < getters.length; ++i) {
+                Class<?> getterType = getters[i].getReturnType();
+                getterTypes[i] = getterType;
+                Class<?> wrapped = Primitives.wrap(mostSpecific);
+                boolean moreSpecific = getterType.isPrimitive()
+                    ? wrapped.isAssignableFrom(Primitives.wrap(getterType))
+                    : wrapped != getterType && wrapped.isAssignableFrom(getterType);
+                if (moreSpecific || mostSpecificGetter == null) {
+                    mostSpecific = getterType;
+                    mostSpecificGetter = getters[i];
+                }
+            }
+            this.getter = mostSpecificGetter;
+            this.type = mostSpecific;
+            this.wrap = Primitives.wrap(mostSpecific);
+            this.defaultValue = mostSpecific.isPrimitive() ? Primitives.defaultValue(mostSpecific) : null;
+        }
+        
+        /**
+         * Reads the value of this property from the given properties, substituting the default of primitive types.
+         */
+        Object readFrom(BeanProperties properties) {
+            Object value = properties.get(propertyName);
+            return value == null ? defaultValue : value;
+        }
+        
+        /**
+         * Reads the value of this property from any implementation of the bean interface: directly from the storage of
+         * dynabeans or by calling the getter method of other implementations.
+         */
+        Object readFrom(Object bean) {
+            BeanProperties properties = DynaBeanInstance.propertiesOrNull(bean);
+            if (properties != null) {
+                return readFrom(properties);
+            }
+            if (getter == null) {
+                throw new IllegalStateException("Property is not readable: " + propertyName);
+            }
+            try {
+                Object value = getter.invoke(bean);
+                return value == null ? defaultValue : value;
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Failed to read property: " + propertyName + ". " + e.getMessage(), e);
+            } catch (InvocationTargetException e) {
+                Throwable targetException = e.getTargetException();
+                throw new RuntimeException(
+                    "Failed to read property: " + propertyName + ". " + targetException.getMessage(), targetException);
+            }
+        }
+        
+        boolean isReadable() {
+            return getterTypes.length > 0;
+        }
+        
+        /**
+         * Returns true if the given value can be stored in this slot without any of its getters throwing when called.
+         */
+        boolean accepts(Object value) {
+            if (value == null) {
+                return true;
+            }
+            for (Class<?> getterType : getterTypes) {
+                if (!Primitives.wrap(getterType).isInstance(value)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        public String toString() {
+            return "PropertySlot(" + index + ": " + propertyName + ")";
+        }
+    }
+    
     static final class GetterMethod implements MethodDefinition {
         
         final Class<?> type;
@@ -131,11 +451,44 @@ final class BeanDefinition {
         final String propertyName;
         final Object defaultValue;
         
+        /**
+         * Whether the type of the stored value is checked on every read, see {@link TypeChecking}.
+         */
+        final boolean readChecks;
+        
+        /**
+         * The index of the slot of the property in the bean definition of this getter, or -1 if it is not part of one.
+         */
+        final int slotIndex;
+        
         private GetterMethod(Class<?> type, String propertyName) {
+            this(type, propertyName, true, -1);
+        }
+        
+        private GetterMethod(Class<?> type, String propertyName, boolean readChecks, int slotIndex) {
             this.type = requireNonNull(type);
             this.wrap = Primitives.wrap(type);
             this.propertyName = requireNonNull(propertyName);
             this.defaultValue = type.isPrimitive() ? Primitives.defaultValue(type) : null;
+            this.readChecks = readChecks;
+            this.slotIndex = slotIndex;
+        }
+        
+        /**
+         * Returns this getter if it checks its reads as required, otherwise an equivalent getter which does.
+         * Getters are shared between the definitions of an interface and its sub-interfaces, which might check types
+         * differently.
+         */
+        GetterMethod withReadChecks(boolean readChecks) {
+            return this.readChecks == readChecks ? this : new GetterMethod(type, propertyName, readChecks, slotIndex);
+        }
+        
+        /**
+         * Returns this getter if it has the given slot index, otherwise an equivalent getter which does. The slots of
+         * the same property may differ between an interface and its sub-interfaces.
+         */
+        GetterMethod withSlotIndex(int slotIndex) {
+            return this.slotIndex == slotIndex ? this : new GetterMethod(type, propertyName, readChecks, slotIndex);
         }
         
         public Object invoke(Object proxy, BeanProperties beanProperties, Object... arguments) {
@@ -143,7 +496,7 @@ final class BeanDefinition {
             Object value = beanProperties.get(propertyName);
             if (value == null) {
                 return defaultValue;
-            } else if (wrap.isInstance(value)) {
+            } else if (!readChecks || wrap.isInstance(value)) {
                 return value;
             } else {
                 throw notInstanceOf(value, type);
@@ -157,16 +510,49 @@ final class BeanDefinition {
         final Class<?> wrap;
         final String propertyName;
         
+        /**
+         * Whether the argument is checked against the type of the setter. Strict definitions check it against the types
+         * of all the getters of the property when storing it instead, see {@link TypeChecking#STRICT}.
+         */
+        final boolean writeChecks;
+        
+        /**
+         * The index of the slot of the property in the bean definition of this setter, or -1 if it is not part of one.
+         */
+        final int slotIndex;
+        
         private SetterMethod(Class<?> type, String propertyName) {
+            this(type, propertyName, true, -1);
+        }
+        
+        private SetterMethod(Class<?> type, String propertyName, boolean writeChecks, int slotIndex) {
             this.type = requireNonNull(type);
             this.wrap = Primitives.wrap(type);
             this.propertyName = requireNonNull(propertyName);
+            this.writeChecks = writeChecks;
+            this.slotIndex = slotIndex;
+        }
+        
+        /**
+         * Returns this setter if it checks its arguments as required, otherwise an equivalent setter which does.
+         */
+        SetterMethod withWriteChecks(boolean writeChecks) {
+            return this.writeChecks == writeChecks
+                ? this
+                : new SetterMethod(type, propertyName, writeChecks, slotIndex);
+        }
+        
+        /**
+         * Returns this setter if it has the given slot index, otherwise an equivalent setter which does.
+         */
+        SetterMethod withSlotIndex(int slotIndex) {
+            return this.slotIndex == slotIndex ? this : new SetterMethod(type, propertyName, writeChecks, slotIndex);
         }
         
         public Object invoke(Object proxy, BeanProperties beanProperties, Object... arguments) {
             checkArguments(1, arguments);
             Object value = arguments[0];
-            if ((value == null && wrap == type) || wrap.isInstance(value)) {
+            if (!writeChecks || (value == null && wrap == type) || wrap.isInstance(value)) {
                 beanProperties.set(propertyName, value);
                 return null;
             } else {
@@ -177,14 +563,26 @@ final class BeanDefinition {
     
     static final class DefaultMethod implements MethodDefinition {
         
+        private static final Object[] NO_ARGS = {};
+        
         final MethodHandle methodHandle;
         
+        /**
+         * The method handle adapted to the (Object, Object[])Object type once, so that it can be called with
+         * invokeExact without binding or adapting it on each invocation.
+         */
+        private final MethodHandle spreader;
+        
         private DefaultMethod(MethodHandle methodHandle) {
             this.methodHandle = methodHandle;
+            int countArguments = methodHandle.type().parameterCount() - 1;
+            this.spreader = methodHandle
+                .asType(methodHandle.type().generic())
+                .asSpreader(Object[].class, countArguments);
         }
         
         public Object invoke(Object proxy, BeanProperties beanProperties, Object... arguments) throws Throwable {
-            return methodHandle.bindTo(proxy).invokeWithArguments(arguments);
+            return (Object) spreader.invokeExact(proxy, arguments == null ? NO_ARGS : arguments);
         }
     }
     
@@ -195,7 +593,7 @@ final class BeanDefinition {
         }
     }
     
-    private static IllegalArgumentException notInstanceOf(Object value, Class<?> type) {
+    static IllegalArgumentException notInstanceOf(Object value, Class<?> type) {
         return new IllegalArgumentException(value + " is not an instance of type: " + type);
     }
     
@@ -0,0 +1,122 @@
+package com.doctusoft.dynabean;
+
+import com.doctusoft.dynabean.BeanDefinition.PropertySlot;
+
+import java.util.*;
+
+import static java.util.Objects.*;
+
+/**
+ * The differences between two dynabean instances of the same type, computed by {@link DynaBeanFactory#diff(Object,
+ * Object)}: the set of the changed properties (by their position in the property order of the bean type) and their
+ * new values. A diff can be applied to any number of dynabean instances, in which case it works like a {@link Patch}.
+ * <p>
+ * The values are not copied: all instances the diff is applied to will share the same value objects, just as if the
+ * same objects were passed to their setters.
+ *
+ * @param <T> the type of dynabeans this diff was computed for
+ */
+public final class BeanDiff<T> {
+    
+    final BeanDefinition beanDefinition;
+    
+    private final BitSet changed;
+    
+    private final Object[] values;
+    
+    BeanDiff(BeanDefinition beanDefinition, BitSet changed, Object[] values) {
+        this.beanDefinition = requireNonNull(beanDefinition, "beanDefinition");
+        this.changed = requireNonNull(changed, "changed");
+        this.values = requireNonNull(values, "values");
+    }
+    
+    @SuppressWarnings("unchecked")
+    public Class<T> getBeanInterfaceClass() {
+        return (Class<T>) beanDefinition.beanInterfaceClass;
+    }
+    
+    public boolean isEmpty() {
+        return values.length == 0;
+    }
+    
+    public int size() {
+        return values.length;
+    }
+    
+    /**
+     * Returns the names of the changed properties in their natural order.
+     */
+    public List<String> getChangedPropertyNames() {
+        PropertySlot[] slots = beanDefinition.propertySlots();
+        ArrayList<String> propertyNames = new ArrayList<>(values.length);
+        for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+            propertyNames.add(slots[i].propertyName);
+        }
+        return Collections.unmodifiableList(propertyNames);
+    }
+    
+    public boolean isChanged(String propertyName) {
+        PropertySlot slot = beanDefinition.getPropertySlot(propertyName);
+        return slot != null && changed.get(slot.index);
+    }
+    
+    /**
+     * Returns the new value of the given property, which is null either if the property was reset or if it did not
+     * change, see {@link #isChanged(String)}.
+     */
+    public Object getNewValue(String propertyName) {
+        PropertySlot slot = beanDefinition.getPropertySlot(propertyName);
+        if (slot == null || !changed.get(slot.index)) {
+            return null;
+        }
+        return values[position(slot.index)];
+    }
+    
+    BitSet changedIndexes() {
+        return changed;
+    }
+    
+    /**
+     * Returns the new values of the changed properties in the order of their indexes. Must not be modified.
+     */
+    Object[] newValues() {
+        return values;
+    }
+    
+    private int position(int index) {
+        return changed.get(0, index).cardinality();
+    }
+    
+    /**
+     * Writes all the changed values of this diff into the given dynabean instance atomically, the same way as
+     * {@link Patch#applyTo(Object)} does.
+     *
+     * @param bean a dynabean instance of the type (or a subtype) this diff was computed for
+     * @return the same bean instance
+     * @throws IllegalArgumentException if the given bean is not a compatible dynabean instance
+     */
+    public T applyTo(T bean) {
+        DynaBeanInstance instance = DynaBeanInstance.asDynaBeanInstanceOrNull(bean);
+        if (instance == null) {
+            throw new IllegalArgumentException("Not a dynabean instance: " + bean);
+        }
+        if (!beanDefinition.beanInterfaceClass.isAssignableFrom(instance.beanDefinition.beanInterfaceClass)) {
+            throw new IllegalArgumentException("Cannot apply diff for: " + beanDefinition.beanInterfaceClass
+                + " on: " + instance);
+        }
+        PropertySlot[] allSlots = beanDefinition.propertySlots();
+        PropertySlot[] slots = new PropertySlot[values.length];
+        int position = 0;
+        for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+            slots[position++] = allSlots[i];
+        }
+        instance.setAll(slots, values);
+        return bean;
+    }
+    
+    public String toString() {
+        return "BeanDiff(type=" + beanDefinition.beanInterfaceClass.getSimpleName()
+            + ", changed=" + getChangedPropertyNames() + ")";
+    }
+    
+}
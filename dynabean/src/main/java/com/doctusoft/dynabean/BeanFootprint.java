@@ -0,0 +1,78 @@
+package com.doctusoft.dynabean;
+
+import static java.util.Objects.*;
+
+/**
+ * An immutable estimate of the memory taken by a dynabean instance, or by all the tracked instances of a dynabean
+ * type. The estimates are computed from the storage layout of the beans and the types of their property values,
+ * assuming a 64-bit JVM with compressed references; they do not need an agent, and they are not exact.
+ * <p>
+ * The shallow size covers the proxy, its invocation handler and the property storage of the beans. The retained size
+ * adds the property values which are not shared by design (enum constants and cached boxed values are not), each
+ * counted once: strings with their characters, collections and maps with their internal structure, and nested
+ * dynabeans by their shallow size. Deep estimates add the elements of collections, maps and arrays and the property
+ * values of nested dynabeans as well, recursively.
+ *
+ * @see DynaBeanFactory#estimateFootprint(Object, boolean)
+ * @see DynaBeanFactory#getFootprint(Class, boolean)
+ */
+public final class BeanFootprint {
+    
+    private final Class<?> beanInterfaceClass;
+    
+    private final boolean deep;
+    
+    private final long instances;
+    
+    private final long shallowBytes;
+    
+    private final long retainedBytes;
+    
+    BeanFootprint(Class<?> beanInterfaceClass, boolean deep, long instances, long shallowBytes, long retainedBytes) {
+        this.beanInterfaceClass = requireNonNull(beanInterfaceClass, "beanInterfaceClass");
+        this.deep = deep;
+        this.instances = instances;
+        this.shallowBytes = shallowBytes;
+        this.retainedBytes = retainedBytes;
+    }
+    
+    public Class<?> getBeanInterfaceClass() {
+        return beanInterfaceClass;
+    }
+    
+    /**
+     * Returns whether the estimate includes the contents of nested collections and dynabeans.
+     */
+    public boolean isDeep() {
+        return deep;
+    }
+    
+    /**
+     * Returns the number of beans estimated: 1 for a single bean, or the number of tracked instances alive.
+     */
+    public long getInstances() {
+        return instances;
+    }
+    
+    public long getShallowBytes() {
+        return shallowBytes;
+    }
+    
+    public long getRetainedBytes() {
+        return retainedBytes;
+    }
+    
+    public double getAverageShallowBytes() {
+        return instances == 0 ? 0.0 : (double) shallowBytes / instances;
+    }
+    
+    public double getAverageRetainedBytes() {
+        return instances == 0 ? 0.0 : (double) retainedBytes / instances;
+    }
+    
+    public String toString() {
+        return "BeanFootprint(type=" + beanInterfaceClass.getSimpleName() + ", deep=" + deep
+            + ", instances=" + instances + ", shallowBytes=" + shallowBytes + ", retainedBytes=" + retainedBytes + ")";
+    }
+    
+}
@@ -0,0 +1,616 @@
+package com.doctusoft.dynabean;
+
+import com.doctusoft.dynabean.BeanDefinition.PropertySlot;
+import com.doctusoft.dynabean.JournalRecords.Record;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+import static java.nio.file.StandardOpenOption.*;
+import static java.util.Objects.*;
+
+/**
+ * An append-only journal file recording the changes of dynabean instances of the same type, from which the beans can
+ * be rebuilt after a restart. Instead of the whole bean, every setter call of a journaled bean appends a compact record
+ * of the bean id, the property and the new value, so the cost of a change does not depend on the size of the bean.
+ * <p>
+ * Records are collected in memory and written to the file in batches. They are durable only after {@link #commit()}:
+ * concurrent commits are grouped, so a single {@link FileChannel#force(boolean)} call makes the records of all the
+ * waiting threads durable. When the journal is {@link DynaBeanFactory#openJournal(Class, Path) opened}, the records of
+ * the file are replayed to rebuild the beans, and a record torn by a crash ends the journal. Since records are only
+ * appended, the file grows with every change, until it is rewritten by {@link #compact()} to contain only the last
+ * value of each property of the live beans.
+ * <p>
+ * Property values of primitive wrapper types, strings and enums are encoded compactly, other values are written by
+ * Java serialization. Setting a value which cannot be encoded, or which cannot be appended to the file, is rejected by
+ * throwing an exception from the setter, which leaves the property unchanged.
+ * <p>
+ * A journal can be shared between threads.
+ *
+ * @param <T> the type of the journaled beans
+ */
+public final class BeanJournal<T> implements Closeable {
+    
+    /**
+     * The number of bytes buffered in memory, above which the records are written to the file without waiting for a
+     * commit.
+     */
+    static final int WRITE_THRESHOLD = 64 * 1024;
+    
+    final BeanDefinition beanDefinition;
+    
+    private final Path path;
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    
+    private final Condition syncFinished = lock.newCondition();
+    
+    private final Object compactionLock = new Object();
+    
+    private final Listener listener = new Listener();
+    
+    private final IdentityHashMap<DynaBeanInstance, Long> beanIds = new IdentityHashMap<>();
+    
+    private final TreeMap<Long, T> beans = new TreeMap<>();
+    
+    private FileChannel channel;
+    
+    private byte[] buffer = new byte[8192];
+    
+    private int buffered;
+    
+    /**
+     * The total number of bytes appended, written to the file and forced to the storage device since the journal was
+     * opened. They are independent of the positions in the file, which are reset by compaction.
+     */
+    private long appendedBytes;
+    
+    private long writtenBytes;
+    
+    private long durableBytes;
+    
+    private boolean syncing;
+    
+    private boolean closed;
+    
+    private long nextBeanId = 1L;
+    
+    private long recordCount;
+    
+    private long commitCount;
+    
+    private long syncCount;
+    
+    private BeanJournal(BeanDefinition beanDefinition, Path path) {
+        this.beanDefinition = requireNonNull(beanDefinition, "beanDefinition");
+        this.path = requireNonNull(path, "path");
+    }
+    
+    /**
+     * Opens the journal at the given path, replaying its records if the file exists, or creating a new one.
+     */
+    static <T> BeanJournal<T> open(BeanDefinition beanDefinition, Path path) throws IOException {
+        BeanJournal<T> journal = new BeanJournal<>(beanDefinition, path);
+        if (Files.exists(path) && Files.size(path) > 0) {
+            journal.replay();
+        } else {
+            journal.createFile();
+        }
+        return journal;
+    }
+    
+    private void createFile() throws IOException {
+        channel = FileChannel.open(path, CREATE, WRITE, TRUNCATE_EXISTING);
+        writeFully(channel, ByteBuffer.wrap(JournalRecords.header(beanDefinition)));
+        channel.force(true);
+    }
+    
+    private void replay() throws IOException {
+        long validLength;
+        boolean schemaChanged;
+        try (FileChannel readChannel = FileChannel.open(path, READ)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(readChannel)));
+            validLength = JournalRecords.headerLength(in);
+            int[] ordinalToSlot = JournalRecords.readHeader(in, beanDefinition);
+            schemaChanged = !isIdentity(ordinalToSlot);
+            PropertySlot[] slots = beanDefinition.propertySlots();
+            Record record;
+            while ((record = JournalRecords.readRecord(in)) != null) {
+                replay(record, ordinalToSlot, slots);
+                validLength += record.bytes.length;
+            }
+        }
+        for (DynaBeanInstance instance : beanIds.keySet()) {
+            instance.addListener(listener);
+        }
+        channel = FileChannel.open(path, WRITE);
+        channel.truncate(validLength);
+        channel.position(validLength);
+        if (schemaChanged) {
+            compact();
+        }
+    }
+    
+    private boolean isIdentity(int[] ordinalToSlot) {
+        if (ordinalToSlot.length != beanDefinition.propertySlots().length) {
+            return false;
+        }
+        for (int i = 0; i < ordinalToSlot.length; ++i) {
+            if (ordinalToSlot[i] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private void replay(Record record, int[] ordinalToSlot, PropertySlot[] slots) throws IOException {
+        nextBeanId = Math.max(nextBeanId, record.beanId + 1);
+        T bean = beans.get(record.beanId);
+        if (record.kind == JournalRecords.DELETE) {
+            if (bean != null) {
+                beans.remove(record.beanId);
+                beanIds.remove(DynaBeanInstance.asDynaBeanInstanceOrNull(bean));
+            }
+            return;
+        }
+        if (bean == null) {
+            bean = register(record.beanId, DynaBeanInstance.<T>createProxy(beanDefinition, beanDefinition.newStorage()));
+        }
+        if (record.kind == JournalRecords.SET && record.ordinal >= 0 && record.ordinal < ordinalToSlot.length) {
+            int slotIndex = ordinalToSlot[record.ordinal];
+            if (slotIndex >= 0) {
+                PropertySlot slot = slots[slotIndex];
+                Object value = record.readValue(slot, beanDefinition.classLoader);
+                DynaBeanInstance.asDynaBeanInstanceOrNull(bean).set(slot, value);
+            }
+        }
+    }
+    
+    private T register(long beanId, T bean) {
+        beans.put(beanId, bean);
+        beanIds.put(DynaBeanInstance.asDynaBeanInstanceOrNull(bean), beanId);
+        return bean;
+    }
+    
+    @SuppressWarnings("unchecked")
+    public Class<T> getBeanInterfaceClass() {
+        return (Class<T>) beanDefinition.beanInterfaceClass;
+    }
+    
+    public Path getPath() {
+        return path;
+    }
+    
+    /**
+     * Creates a new, empty dynabean instance whose changes are recorded in this journal.
+     */
+    public T create() {
+        lock.lock();
+        try {
+            checkOpen();
+            long beanId = nextBeanId++;
+            append(JournalRecords.record(JournalRecords.CREATE, beanId));
+            T bean = register(beanId, DynaBeanInstance.<T>createProxy(beanDefinition, beanDefinition.newStorage()));
+            DynaBeanInstance.asDynaBeanInstanceOrNull(bean).addListener(listener);
+            return bean;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Starts recording the changes of the given dynabean instance, recording its current property values as well. The
+     * bean must not be changed by other threads while it is being attached.
+     *
+     * @return the id of the bean in this journal
+     * @throws IllegalArgumentException if the bean is not a dynabean instance of the type of this journal, or one of its
+     *                                  property values cannot be journaled
+     */
+    public long attach(T bean) {
+        DynaBeanInstance instance = DynaBeanInstance.asDynaBeanInstanceOrNull(bean);
+        if (instance == null || !instance.beanDefinition.equals(beanDefinition)) {
+            throw new IllegalArgumentException(
+                "Not a dynabean instance of " + beanDefinition.beanInterfaceClass + ": " + bean);
+        }
+        // the setters of the bean notify its listeners and write the new value while holding its monitor, so no value
+        // can change between registering the listener and recording the values
+        synchronized (instance) {
+            long existingId = getId(bean);
+            if (existingId >= 0) {
+                return existingId;
+            }
+            instance.addListener(listener);
+            lock.lock();
+            try {
+                checkOpen();
+                long beanId = nextBeanId;
+                ByteArrayOutputStream records = new ByteArrayOutputStream();
+                byte[] createRecord = JournalRecords.record(JournalRecords.CREATE, beanId);
+                records.write(createRecord, 0, createRecord.length);
+                int count = 1;
+                PropertySlot[] slots = beanDefinition.propertySlots();
+                for (int i = 0; i < slots.length; ++i) {
+                    Object value = instance.get(i);
+                    if (value != null) {
+                        byte[] setRecord = JournalRecords.setRecord(beanId, slots[i], value);
+                        records.write(setRecord, 0, setRecord.length);
+                        ++count;
+                    }
+                }
+                append(records.toByteArray(), count);
+                ++nextBeanId;
+                register(beanId, bean);
+                return beanId;
+            } catch (RuntimeException e) {
+                instance.removeListener(listener);
+                throw e;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * Records the deletion of the given bean and stops recording its changes. The bean itself is not changed, but it
+     * will not be rebuilt when the journal is replayed.
+     *
+     * @return whether the bean was journaled
+     */
+    public boolean delete(T bean) {
+        DynaBeanInstance instance = DynaBeanInstance.asDynaBeanInstanceOrNull(bean);
+        if (instance == null) {
+            return false;
+        }
+        lock.lock();
+        try {
+            checkOpen();
+            Long beanId = beanIds.get(instance);
+            if (beanId == null) {
+                return false;
+            }
+            append(JournalRecords.record(JournalRecords.DELETE, beanId));
+            beanIds.remove(instance);
+            beans.remove(beanId);
+        } finally {
+            lock.unlock();
+        }
+        instance.removeListener(listener);
+        return true;
+    }
+    
+    /**
+     * Returns the journaled bean with the given id, or null if there is no such bean.
+     */
+    public T get(long beanId) {
+        lock.lock();
+        try {
+            return beans.get(beanId);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Returns the id of the given bean in this journal, or -1 if it is not journaled.
+     */
+    public long getId(Object bean) {
+        DynaBeanInstance instance = DynaBeanInstance.asDynaBeanInstanceOrNull(bean);
+        lock.lock();
+        try {
+            Long beanId = instance == null ? null : beanIds.get(instance);
+            return beanId == null ? -1L : beanId;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Returns a copy of the map of all the journaled beans, by their ids in ascending order.
+     */
+    public SortedMap<Long, T> getBeans() {
+        lock.lock();
+        try {
+            return Collections.unmodifiableSortedMap(new TreeMap<>(beans));
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Makes all the records appended so far durable. If another thread is forcing the file to the storage device,
+     * the calling thread waits for it, then forces all the records appended in the meantime by the waiting threads in a
+     * single step.
+     */
+    public void commit() throws IOException {
+        lock.lock();
+        try {
+            checkOpen();
+            ++commitCount;
+            long target = appendedBytes;
+            while (durableBytes < target) {
+                if (syncing) {
+                    syncFinished.awaitUninterruptibly();
+                    continue;
+                }
+                writeBuffer();
+                long syncTarget = writtenBytes;
+                FileChannel syncChannel = channel;
+                syncing = true;
+                lock.unlock();
+                try {
+                    syncChannel.force(false);
+                } finally {
+                    lock.lock();
+                    syncing = false;
+                    syncFinished.signalAll();
+                }
+                ++syncCount;
+                durableBytes = Math.max(durableBytes, syncTarget);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Rewrites the journal file to contain only the records needed to rebuild the current beans: the creation of each
+     * live bean and the last value of each of its properties set. The records of the current file are compacted without
+     * blocking the journaled beans, only the records appended in the meantime are copied while holding the lock of the
+     * journal. The compacted file replaces the current one atomically, and it is durable when this method returns.
+     */
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            long compactedLength;
+            lock.lock();
+            try {
+                checkOpen();
+                writeBuffer();
+                compactedLength = channel.position();
+            } finally {
+                lock.unlock();
+            }
+            Path compactedPath = path.resolveSibling(path.getFileName() + ".compact");
+            try (FileChannel compacted = FileChannel.open(compactedPath, CREATE, WRITE, TRUNCATE_EXISTING)) {
+                writeCompacted(compacted, compactedLength);
+                lock.lock();
+                try {
+                    while (syncing) {
+                        syncFinished.awaitUninterruptibly();
+                    }
+                    writeBuffer();
+                    long tailLength = channel.position() - compactedLength;
+                    try (FileChannel readChannel = FileChannel.open(path, READ)) {
+                        long copied = 0;
+                        while (copied < tailLength) {
+                            copied += readChannel.transferTo(compactedLength + copied, tailLength - copied, compacted);
+                        }
+                    }
+                    compacted.force(true);
+                    Files.move(compactedPath, path, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+                    channel.close();
+                    channel = FileChannel.open(path, WRITE);
+                    channel.position(channel.size());
+                    durableBytes = writtenBytes;
+                } finally {
+                    lock.unlock();
+                }
+            } finally {
+                Files.deleteIfExists(compactedPath);
+            }
+        }
+    }
+    
+    /**
+     * Writes the compacted records of the first given bytes of the journal file into the given channel.
+     */
+    private void writeCompacted(FileChannel compacted, long length) throws IOException {
+        LinkedHashMap<Long, byte[][]> lastValues = new LinkedHashMap<>();
+        int countSlots = beanDefinition.propertySlots().length;
+        try (FileChannel readChannel = FileChannel.open(path, READ)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(readChannel)));
+            long position = JournalRecords.headerLength(in);
+            int[] ordinalToSlot = JournalRecords.readHeader(in, beanDefinition);
+            Record record;
+            while (position < length && (record = JournalRecords.readRecord(in)) != null) {
+                position += record.bytes.length;
+                if (record.kind == JournalRecords.DELETE) {
+                    lastValues.remove(record.beanId);
+                    continue;
+                }
+                byte[][] values = lastValues.get(record.beanId);
+                if (values == null) {
+                    values = new byte[countSlots][];
+                    lastValues.put(record.beanId, values);
+                }
+                if (record.kind == JournalRecords.SET && record.ordinal >= 0 && record.ordinal < ordinalToSlot.length) {
+                    int slotIndex = ordinalToSlot[record.ordinal];
+                    if (slotIndex >= 0) {
+                        values[slotIndex] = record.isNullValue() ? null : record.withOrdinal(slotIndex);
+                    }
+                }
+            }
+        }
+        OutputStream out = new BufferedOutputStream(Channels.newOutputStream(compacted));
+        out.write(JournalRecords.header(beanDefinition));
+        for (Map.Entry<Long, byte[][]> entry : lastValues.entrySet()) {
+            out.write(JournalRecords.record(JournalRecords.CREATE, entry.getKey()));
+            for (byte[] value : entry.getValue()) {
+                if (value != null) {
+                    out.write(value);
+                }
+            }
+        }
+        out.flush();
+    }
+    
+    /**
+     * Writes and forces the buffered records, stops recording the changes of the journaled beans, and closes the file.
+     */
+    public void close() throws IOException {
+        ArrayList<DynaBeanInstance> instances;
+        synchronized (compactionLock) {
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                while (syncing) {
+                    syncFinished.awaitUninterruptibly();
+                }
+                closed = true;
+                instances = new ArrayList<>(beanIds.keySet());
+                beanIds.clear();
+                beans.clear();
+                try {
+                    writeBuffer();
+                    channel.force(false);
+                } finally {
+                    channel.close();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        for (DynaBeanInstance instance : instances) {
+            instance.removeListener(listener);
+        }
+    }
+    
+    /**
+     * Returns the number of records appended since the journal was opened.
+     */
+    public long getRecordCount() {
+        lock.lock();
+        try {
+            return recordCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public long getCommitCount() {
+        lock.lock();
+        try {
+            return commitCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Returns the number of times the file was forced to the storage device by {@link #commit()}. It is less than the
+     * number of commits if concurrent commits were grouped, or if there was nothing to commit.
+     */
+    public long getSyncCount() {
+        lock.lock();
+        try {
+            return syncCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Journal is closed: " + path);
+        }
+    }
+    
+    private void append(byte[] record) {
+        append(record, 1);
+    }
+    
+    /**
+     * Appends the given records to the buffer, writing the buffer to the file if it is full. If the buffer cannot be
+     * written, the records are dropped from it, so the rejected change is not written by a later commit either. Must be
+     * called while holding the lock.
+     *
+     * @param records the framed records concatenated
+     * @param count   the number of the records
+     */
+    private void append(byte[] records, int count) {
+        if (buffered + records.length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, buffered + records.length));
+        }
+        System.arraycopy(records, 0, buffer, buffered, records.length);
+        buffered += records.length;
+        appendedBytes += records.length;
+        recordCount += count;
+        if (buffered >= WRITE_THRESHOLD) {
+            try {
+                writeBuffer();
+            } catch (IOException | RuntimeException e) {
+                buffered -= records.length;
+                appendedBytes -= records.length;
+                recordCount -= count;
+                throw new IllegalStateException("Cannot write journal: " + path, e);
+            }
+        }
+    }
+    
+    /**
+     * Writes the buffered records to the file. If they cannot be written, the bytes written partially are truncated,
+     * and the records are kept in the buffer.
+     */
+    private void writeBuffer() throws IOException {
+        if (buffered > 0) {
+            long position = channel.position();
+            try {
+                writeFully(channel, ByteBuffer.wrap(buffer, 0, buffered));
+            } catch (IOException | RuntimeException e) {
+                try {
+                    channel.truncate(position);
+                    channel.position(position);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+            writtenBytes += buffered;
+            buffered = 0;
+        }
+    }
+    
+    private static void writeFully(FileChannel channel, ByteBuffer byteBuffer) throws IOException {
+        while (byteBuffer.hasRemaining()) {
+            channel.write(byteBuffer);
+        }
+    }
+    
+    public String toString() {
+        return "BeanJournal(type=" + beanDefinition.beanInterfaceClass.getSimpleName() + ", path=" + path
+            + ", records=" + getRecordCount() + ")";
+    }
+    
+    private final class Listener implements PropertyChangeListener {
+        
+        /**
+         * Called while the bean is locked until its new value is written, so the records of each bean are appended in
+         * the order its values are written. Encodes the record before taking the lock of the journal, so setters of
+         * different beans do not wait for the serialization of each other's values, and fills in the id of the bean
+         * while holding it.
+         */
+        public void propertyChanging(DynaBeanInstance bean, String propertyName, Object oldValue, Object newValue) {
+            PropertySlot slot = beanDefinition.getPropertySlot(propertyName);
+            byte[] record = JournalRecords.setRecord(0L, slot, newValue);
+            lock.lock();
+            try {
+                Long beanId = beanIds.get(bean);
+                if (beanId == null || closed) {
+                    return;
+                }
+                JournalRecords.assignBeanId(record, beanId);
+                append(record);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+    
+}
@@ -0,0 +1,130 @@
+package com.doctusoft.dynabean;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import static java.util.Objects.*;
+
+/**
+ * A pool of reusable dynabean instances of the same type, for workloads creating and dropping a large number of
+ * short-lived beans. Released instances are cleared in place and kept in a free list of the releasing thread, from
+ * which later {@link #acquire()} calls of the same thread are served without allocating a new proxy and its storage.
+ * <p>
+ * A pool can be shared between threads. Released beans must not be used (or referenced) any more by the caller, since
+ * they will be handed out again by a following {@link #acquire()} call. The pool keeps usage statistics as well.
+ *
+ * @param <T> the type of the pooled beans
+ */
+public final class BeanPool<T> {
+    
+    final BeanDefinition beanDefinition;
+    
+    private final int maxIdlePerThread;
+    
+    private final ThreadLocal<ArrayDeque<Object>> freeLists = new ThreadLocal<ArrayDeque<Object>>() {
+        protected ArrayDeque<Object> initialValue() {
+            return new ArrayDeque<>();
+        }
+    };
+    
+    private final AtomicLong acquireCount = new AtomicLong();
+    
+    private final AtomicLong missCount = new AtomicLong();
+    
+    private final AtomicLong releaseCount = new AtomicLong();
+    
+    private final AtomicLong discardCount = new AtomicLong();
+    
+    private final AtomicInteger idleCount = new AtomicInteger();
+    
+    BeanPool(BeanDefinition beanDefinition, int maxIdlePerThread) {
+        if (maxIdlePerThread < 0) {
+            throw new IllegalArgumentException("Negative maxIdlePerThread: " + maxIdlePerThread);
+        }
+        this.beanDefinition = requireNonNull(beanDefinition, "beanDefinition");
+        this.maxIdlePerThread = maxIdlePerThread;
+    }
+    
+    @SuppressWarnings("unchecked")
+    public Class<T> getBeanInterfaceClass() {
+        return (Class<T>) beanDefinition.beanInterfaceClass;
+    }
+    
+    /**
+     * Returns an empty dynabean instance, either a previously released one or a new one if the free list of the current
+     * thread is empty (counted as a miss).
+     */
+    @SuppressWarnings("unchecked")
+    public T acquire() {
+        acquireCount.incrementAndGet();
+        Object bean = freeLists.get().pollLast();
+        if (bean != null) {
+            idleCount.decrementAndGet();
+            DynaBeanInstance.asDynaBeanInstanceOrNull(bean).reuse();
+            return (T) bean;
+        }
+        missCount.incrementAndGet();
+        return DynaBeanInstance.createProxy(beanDefinition, beanDefinition.newStorage());
+    }
+    
+    /**
+     * Clears all the properties of the given bean and puts it into the free list of the current thread, unless that is
+     * already full, in which case the bean is discarded.
+     *
+     * @throws IllegalArgumentException if the bean is not a dynabean instance of the type of this pool, if it is
+     *                                  already released, or if it is still an element of an
+     *                                  {@link IndexedBeanCollection} or attached to a {@link BeanJournal}
+     */
+    public void release(T bean) {
+        DynaBeanInstance dynabean = DynaBeanInstance.asDynaBeanInstanceOrNull(bean);
+        if (dynabean == null || !dynabean.beanDefinition.equals(beanDefinition)) {
+            throw new IllegalArgumentException(
+                "Not a dynabean instance of " + beanDefinition.beanInterfaceClass + ": " + bean);
+        }
+        ArrayDeque<Object> freeList = freeLists.get();
+        boolean discard = freeList.size() >= maxIdlePerThread;
+        dynabean.release(!discard);
+        releaseCount.incrementAndGet();
+        if (discard) {
+            discardCount.incrementAndGet();
+            return;
+        }
+        freeList.addLast(bean);
+        idleCount.incrementAndGet();
+    }
+    
+    public long getAcquireCount() {
+        return acquireCount.get();
+    }
+    
+    /**
+     * Returns the number of {@link #acquire()} calls which had to create a new instance.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+    
+    public long getReleaseCount() {
+        return releaseCount.get();
+    }
+    
+    /**
+     * Returns the number of released beans which were dropped because the free list of the thread was full.
+     */
+    public long getDiscardCount() {
+        return discardCount.get();
+    }
+    
+    /**
+     * Returns the number of beans currently waiting in the free lists of all threads.
+     */
+    public int getIdleCount() {
+        return idleCount.get();
+    }
+    
+    public String toString() {
+        return "BeanPool(type=" + beanDefinition.beanInterfaceClass.getSimpleName() + ", idle=" + getIdleCount()
+            + ", acquired=" + getAcquireCount() + ", missed=" + getMissCount() + ")";
+    }
+    
+}
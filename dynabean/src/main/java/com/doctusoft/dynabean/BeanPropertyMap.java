@@ -0,0 +1,141 @@
+package com.doctusoft.dynabean;
+
+import com.doctusoft.dynabean.BeanDefinition.PropertySlot;
+
+import java.util.*;
+
+import static com.doctusoft.dynabean.BeanDefinition.notInstanceOf;
+import static java.util.Objects.*;
+
+/**
+ * Internal implementation of the live {@link Map} view of a dynabean's properties, see
+ * {@link DynaBeanFactory#asMap(Object)}.
+ */
+final class BeanPropertyMap extends AbstractMap<String, Object> {
+    
+    private final BeanDefinition beanDefinition;
+    
+    private final BeanProperties properties;
+    
+    private final PropertySlot[] readableSlots;
+    
+    BeanPropertyMap(BeanDefinition beanDefinition, BeanProperties properties) {
+        this.beanDefinition = requireNonNull(beanDefinition, "beanDefinition");
+        this.properties = requireNonNull(properties, "properties");
+        this.readableSlots = beanDefinition.readablePropertySlots();
+    }
+    
+    public int size() {
+        return readableSlots.length;
+    }
+    
+    public boolean containsKey(Object key) {
+        return readableSlotOrNull(key) != null;
+    }
+    
+    public Object get(Object key) {
+        PropertySlot slot = readableSlotOrNull(key);
+        return slot == null ? null : slot.readFrom(properties);
+    }
+    
+    public Object put(String key, Object value) {
+        PropertySlot slot = readableSlotOrNull(key);
+        if (slot == null) {
+            throw new IllegalArgumentException(
+                "Unknown property: " + key + " for: " + beanDefinition.beanInterfaceClass);
+        }
+        return write(slot, value);
+    }
+    
+    public Object remove(Object key) {
+        throw new UnsupportedOperationException("Properties cannot be removed from dynabeans: " + key);
+    }
+    
+    public void clear() {
+        throw new UnsupportedOperationException("Properties cannot be removed from dynabeans");
+    }
+    
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            public int size() {
+                return readableSlots.length;
+            }
+            
+            public Iterator<Entry<String, Object>> iterator() {
+                return new Iterator<Entry<String, Object>>() {
+                    private int index;
+                    
+                    public boolean hasNext() {
+                        return index < readableSlots.length;
+                    }
+                    
+                    public Entry<String, Object> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        return new PropertyEntry(readableSlots[index++]);
+                    }
+                    
+                    public void remove() {
+                        throw new UnsupportedOperationException("Properties cannot be removed from dynabeans");
+                    }
+                };
+            }
+        };
+    }
+    
+    private PropertySlot readableSlotOrNull(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        PropertySlot slot = beanDefinition.getPropertySlot((String) key);
+        return slot != null && slot.isReadable() ? slot : null;
+    }
+    
+    private Object write(PropertySlot slot, Object value) {
+        if (!slot.accepts(value)) {
+            throw notInstanceOf(value, slot.type);
+        }
+        Object previous = slot.readFrom(properties);
+        properties.set(slot.propertyName, value);
+        return previous;
+    }
+    
+    private final class PropertyEntry implements Entry<String, Object> {
+        
+        private final PropertySlot slot;
+        
+        PropertyEntry(PropertySlot slot) {
+            this.slot = slot;
+        }
+        
+        public String getKey() {
+            return slot.propertyName;
+        }
+        
+        public Object getValue() {
+            return slot.readFrom(properties);
+        }
+        
+        public Object setValue(Object value) {
+            return write(slot, value);
+        }
+        
+        public boolean equals(Object obj) {
+            if (obj instanceof Entry) {
+                Entry<?, ?> other = (Entry<?, ?>) obj;
+                return slot.propertyName.equals(other.getKey()) && Objects.equals(getValue(), other.getValue());
+            }
+            return false;
+        }
+        
+        public int hashCode() {
+            return slot.propertyName.hashCode() ^ Objects.hashCode(getValue());
+        }
+        
+        public String toString() {
+            return slot.propertyName + "=" + getValue();
+        }
+    }
+    
+}
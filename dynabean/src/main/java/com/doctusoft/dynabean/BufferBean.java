@@ -0,0 +1,119 @@
+package com.doctusoft.dynabean;
+
+import com.doctusoft.dynabean.BeanDefinition.PropertySlot;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+
+import static java.util.Objects.*;
+
+/**
+ * Internal invocation handler of the read-only beans returned by {@link DynaBeanFactory#wrap(Class, ByteBuffer)}. The
+ * getters decode only their own property from the buffer, on every call, thus nothing is decoded for the properties
+ * which are never read. The buffer is not copied.
+ */
+final class BufferBean implements InvocationHandler, BeanProperties {
+    
+    @SuppressWarnings("unchecked")
+    static <T> T createProxy(BufferLayout layout, ByteBuffer buffer) {
+        int base = buffer.position();
+        int length = layout.checkEncoded(buffer, base);
+        BufferBean invoker = new BufferBean(layout, buffer.duplicate(), base, length);
+        buffer.position(base + length);
+        Class<?>[] interfaces = { layout.beanDefinition.beanInterfaceClass };
+        return (T) Proxy.newProxyInstance(layout.beanDefinition.classLoader, interfaces, invoker);
+    }
+    
+    static BufferBean asBufferBeanOrNull(Object instance) {
+        if (instance == null || !Proxy.isProxyClass(instance.getClass())) return null;
+        InvocationHandler invocationHandler = Proxy.getInvocationHandler(instance);
+        return invocationHandler instanceof BufferBean ? (BufferBean) invocationHandler : null;
+    }
+    
+    final BufferLayout layout;
+    
+    private final ByteBuffer buffer;
+    
+    private final int base;
+    
+    private final int length;
+    
+    private BufferBean(BufferLayout layout, ByteBuffer buffer, int base, int length) {
+        this.layout = requireNonNull(layout);
+        this.buffer = requireNonNull(buffer);
+        this.base = base;
+        this.length = length;
+    }
+    
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+                case "equals":
+                    Object other = args[0];
+                    return other != null && Proxy.isProxyClass(other.getClass())
+                        && equals(Proxy.getInvocationHandler(other));
+                case "hashCode":
+                    return hashCode();
+                default:
+                    return toString();
+            }
+        }
+        BeanDefinition beanDefinition = layout.beanDefinition;
+        MethodDefinition methodDefinition = beanDefinition.getMethodDefinition(method);
+        if (methodDefinition != null) {
+            return methodDefinition.invoke(proxy, this, args);
+        }
+        throw new UnsupportedOperationException("Unimplemented dynabean method: " + method);
+    }
+    
+    public Object get(String propertyName) {
+        PropertySlot slot = layout.beanDefinition.getPropertySlot(propertyName);
+        return slot == null ? null : layout.decode(buffer, base, slot.index);
+    }
+    
+    public void set(String propertyName, Object value) {
+        throw new UnsupportedOperationException("Beans backed by buffers are read-only");
+    }
+    
+    /**
+     * Decodes all the properties set into the given storage of a dynabean instance of the same type.
+     */
+    void decodeInto(PropertyStorage storage) {
+        int countSlots = layout.beanDefinition.propertySlots().length;
+        for (int index = 0; index < countSlots; ++index) {
+            if (layout.isSet(buffer, base, index)) {
+                storage.write(index, layout.decode(buffer, base, index));
+            }
+        }
+    }
+    
+    /**
+     * Two beans backed by buffers are equal if their types and their encoded bytes are the same.
+     */
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        if (obj instanceof BufferBean) {
+            BufferBean other = (BufferBean) obj;
+            return layout == other.layout && length == other.length && encodedBytes().equals(other.encodedBytes());
+        }
+        return false;
+    }
+    
+    public int hashCode() {
+        return 31 * layout.beanDefinition.hashCode() + encodedBytes().hashCode();
+    }
+    
+    private ByteBuffer encodedBytes() {
+        ByteBuffer bytes = buffer.duplicate();
+        bytes.limit(base + length).position(base);
+        return bytes;
+    }
+    
+    public String toString() {
+        return "DynaBeanBuffer(type=" + layout.beanDefinition.beanInterfaceClass.getSimpleName()
+            + ", length=" + length + ")";
+    }
+    
+}
@@ -0,0 +1,271 @@
+package com.doctusoft.dynabean;
+
+import com.doctusoft.dynabean.BeanDefinition.PropertySlot;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+import static java.util.Objects.*;
+
+/**
+ * Internal binary layout of the property values of a dynabean type in a byte buffer, derived from its
+ * {@link BeanDefinition}, which allows decoding a single property without reading the others. An encoded bean consists
+ * of:
+ * <ul>
+ * <li>the fingerprint of the layout (int) and the length of the encoded bean (int)</li>
+ * <li>a bitmap of the properties set</li>
+ * <li>a fixed size section holding the values of the properties of primitive, primitive wrapper and enum types (the
+ * latter by their ordinals) at offsets computed from the types of the properties</li>
+ * <li>an offset table holding the positions of the values of the other properties relative to the start of the
+ * encoded bean, followed by those values: strings in UTF-8, other values serialized, each prefixed by its length</li>
+ * </ul>
+ * The fingerprint is computed from the name of the bean interface and the names and types of its properties, so a
+ * buffer encoded by another version of the interface is rejected instead of being misread.
+ */
+final class BufferLayout {
+    
+    static final int HEADER_LENGTH = 8;
+    
+    final BeanDefinition beanDefinition;
+    
+    final int fingerprint;
+    
+    private final PropertySlot[] slots;
+    
+    /**
+     * The offset of the value of each property relative to the start of the encoded bean: in the fixed size section for
+     * fixed size properties, or of the entry in the offset table for the others.
+     */
+    private final int[] offsets;
+    
+    private final boolean[] fixedSize;
+    
+    private final Object[][] enumConstants;
+    
+    private final int variableSectionOffset;
+    
+    BufferLayout(BeanDefinition beanDefinition) {
+        this.beanDefinition = requireNonNull(beanDefinition, "beanDefinition");
+        this.slots = beanDefinition.propertySlots();
+        this.offsets = new int[slots.length];
+        this.fixedSize = new boolean[slots.length];
+        this.enumConstants = new Object[slots.length][];
+        CRC32 crc = new CRC32();
+        crc.update(beanDefinition.beanInterfaceClass.getName().getBytes(StandardCharsets.UTF_8));
+        int offset = HEADER_LENGTH + (slots.length + 7) / 8;
+        for (PropertySlot slot : slots) {
+            int size = fixedSizeOf(slot.type);
+            if (size > 0) {
+                fixedSize[slot.index] = true;
+                offsets[slot.index] = offset;
+                offset += size;
+            }
+            StringBuilder signature = new StringBuilder(slot.propertyName).append(':').append(slot.type.getName());
+            if (slot.type.isEnum()) {
+                enumConstants[slot.index] = slot.type.getEnumConstants();
+                for (Object constant : enumConstants[slot.index]) {
+                    signature.append(',').append(((Enum<?>) constant).name());
+                }
+            }
+            crc.update(signature.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        for (PropertySlot slot : slots) {
+            if (!fixedSize[slot.index]) {
+                offsets[slot.index] = offset;
+                offset += 4;
+            }
+        }
+        this.variableSectionOffset = offset;
+        this.fingerprint = (int) crc.getValue();
+    }
+    
+    private static int fixedSizeOf(Class<?> type) {
+        Class<?> primitive = Primitives.unwrap(type);
+        if (primitive == boolean.class || primitive == byte.class) {
+            return 1;
+        } else if (primitive == short.class || primitive == char.class) {
+            return 2;
+        } else if (primitive == int.class || primitive == float.class || type.isEnum()) {
+            return 4;
+        } else if (primitive == long.class || primitive == double.class) {
+            return 8;
+        }
+        return 0;
+    }
+    
+    /**
+     * Encodes the property values of the given bean, which can be any implementation of the bean interface, into a new
+     * buffer ready to be read.
+     *
+     * @throws IllegalArgumentException if a property value cannot be serialized
+     */
+    ByteBuffer encode(Object bean) {
+        BeanProperties properties = DynaBeanInstance.propertiesOrNull(bean);
+        byte[][] variableValues = new byte[slots.length][];
+        Object[] values = new Object[slots.length];
+        int length = variableSectionOffset;
+        for (PropertySlot slot : slots) {
+            Object value;
+            if (properties != null) {
+                value = properties.get(slot.propertyName);
+            } else {
+                value = slot.isReadable() ? slot.readFrom(bean) : null;
+            }
+            if (value != null && !slot.accepts(value)) {
+                throw BeanDefinition.notInstanceOf(value, slot.type);
+            }
+            values[slot.index] = value;
+            if (value != null && !fixedSize[slot.index]) {
+                byte[] bytes = encodeVariable(slot, value);
+                variableValues[slot.index] = bytes;
+                length += 4 + bytes.length;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(0, fingerprint);
+        buffer.putInt(4, length);
+        int position = variableSectionOffset;
+        for (PropertySlot slot : slots) {
+            Object value = values[slot.index];
+            if (value == null) {
+                continue;
+            }
+            int index = slot.index;
+            int bitmapOffset = HEADER_LENGTH + (index >>> 3);
+            buffer.put(bitmapOffset, (byte) (buffer.get(bitmapOffset) | 1 << (index & 7)));
+            if (fixedSize[index]) {
+                putFixed(buffer, offsets[index], value);
+            } else {
+                byte[] bytes = variableValues[index];
+                buffer.putInt(offsets[index], position);
+                buffer.putInt(position, bytes.length);
+                buffer.position(position + 4);
+                buffer.put(bytes);
+                position += 4 + bytes.length;
+            }
+        }
+        buffer.clear();
+        return buffer;
+    }
+    
+    private static void putFixed(ByteBuffer buffer, int offset, Object value) {
+        if (value instanceof Boolean) {
+            buffer.put(offset, (byte) ((Boolean) value ? 1 : 0));
+        } else if (value instanceof Byte) {
+            buffer.put(offset, (Byte) value);
+        } else if (value instanceof Short) {
+            buffer.putShort(offset, (Short) value);
+        } else if (value instanceof Character) {
+            buffer.putChar(offset, (Character) value);
+        } else if (value instanceof Integer) {
+            buffer.putInt(offset, (Integer) value);
+        } else if (value instanceof Float) {
+            buffer.putFloat(offset, (Float) value);
+        } else if (value instanceof Long) {
+            buffer.putLong(offset, (Long) value);
+        } else if (value instanceof Double) {
+            buffer.putDouble(offset, (Double) value);
+        } else {
+            buffer.putInt(offset, ((Enum<?>) value).ordinal());
+        }
+    }
+    
+    private static byte[] encodeVariable(PropertySlot slot, Object value) {
+        if (slot.type == String.class) {
+            return ((String) value).getBytes(StandardCharsets.UTF_8);
+        }
+        if (!(value instanceof Serializable)) {
+            throw new IllegalArgumentException("Cannot encode value of property: " + slot.propertyName + ": " + value);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        } catch (NotSerializableException e) {
+            throw new IllegalArgumentException("Cannot encode value of property: " + slot.propertyName + ": " + value,
+                e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * Checks that the given buffer holds a bean encoded in this layout at the given position, and returns its length.
+     *
+     * @throws IllegalArgumentException if the buffer holds something else
+     */
+    int checkEncoded(ByteBuffer buffer, int base) {
+        if (buffer.limit() - base < HEADER_LENGTH || buffer.getInt(base) != fingerprint) {
+            throw new IllegalArgumentException("Buffer does not hold an encoded " + beanDefinition.beanInterfaceClass);
+        }
+        int length = buffer.getInt(base + 4);
+        if (length < variableSectionOffset || length > buffer.limit() - base) {
+            throw new IllegalArgumentException("Truncated encoded " + beanDefinition.beanInterfaceClass);
+        }
+        return length;
+    }
+    
+    boolean isSet(ByteBuffer buffer, int base, int index) {
+        return (buffer.get(base + HEADER_LENGTH + (index >>> 3)) & 1 << (index & 7)) != 0;
+    }
+    
+    /**
+     * Decodes the value of the property with the given index of the bean encoded at the given position, or returns
+     * null if it is not set.
+     */
+    Object decode(ByteBuffer buffer, int base, int index) {
+        if (!isSet(buffer, base, index)) {
+            return null;
+        }
+        int offset = base + offsets[index];
+        if (fixedSize[index]) {
+            return getFixed(buffer, offset, index);
+        }
+        int position = base + buffer.getInt(offset);
+        byte[] bytes = new byte[buffer.getInt(position)];
+        ByteBuffer source = buffer.duplicate();
+        source.position(position + 4);
+        source.get(bytes);
+        PropertySlot slot = slots[index];
+        if (slot.type == String.class) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        return deserialize(slot, bytes);
+    }
+    
+    private Object getFixed(ByteBuffer buffer, int offset, int index) {
+        if (enumConstants[index] != null) {
+            return enumConstants[index][buffer.getInt(offset)];
+        }
+        Class<?> type = Primitives.unwrap(slots[index].type);
+        if (type == boolean.class) {
+            return buffer.get(offset) != 0;
+        } else if (type == byte.class) {
+            return buffer.get(offset);
+        } else if (type == short.class) {
+            return buffer.getShort(offset);
+        } else if (type == char.class) {
+            return buffer.getChar(offset);
+        } else if (type == int.class) {
+            return buffer.getInt(offset);
+        } else if (type == float.class) {
+            return buffer.getFloat(offset);
+        } else if (type == long.class) {
+            return buffer.getLong(offset);
+        } else {
+            return buffer.getDouble(offset);
+        }
+    }
+    
+    private Object deserialize(PropertySlot slot, byte[] bytes) {
+        try (ObjectInputStream in =
+                 new RestrictedObjectInputStream(new ByteArrayInputStream(bytes), slot, beanDefinition.classLoader)) {
+            return in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Cannot decode value of property: " + slot.propertyName, e);
+        }
+    }
+    
+}
@@ -0,0 +1,351 @@
+package com.doctusoft.dynabean;
+
+import com.doctusoft.dynabean.BeanColumn.*;
+
+import java.util.*;
+
+/**
+ * Internal implementation of the aggregations of {@link ColumnarBeanList}. The values are read from the primitive
+ * arrays of the columns in tight loops, without boxing or creating bean instances. Large lists are split into ranges
+ * aggregated in parallel, whose partial results are merged in the order of the ranges.
+ * <p>
+ * Grouping first maps the rows of a range to group indexes: dictionary encoded and boolean key columns map their codes
+ * directly, other key columns look up their values in a hash map. The values are then accumulated into the arrays of
+ * the groups by a separate loop per value column type.
+ */
+final class ColumnAggregation {
+    
+    private ColumnAggregation() {}
+    
+    static ColumnSummary summarize(final BeanColumn valueColumn, int size, final BitSet rows) {
+        checkNumeric(valueColumn);
+        Groups total = ParallelSupport.reduceRanges(size, new ParallelSupport.RangeReducer<Groups>() {
+            public Groups apply(int from, int to) {
+                Groups groups = new Groups(isIntegral(valueColumn), 1);
+                if (rows == null) {
+                    summarizeRange(valueColumn, from, to, groups);
+                } else {
+                    int[] rowGroups = new int[to - from];
+                    excludeRows(rows, from, to, rowGroups);
+                    accumulate(valueColumn, from, to, rowGroups, groups);
+                }
+                return groups;
+            }
+            
+            public Groups merge(Groups left, Groups right) {
+                left.merge(right);
+                return left;
+            }
+        });
+        return total.summary(0, valueColumn.slot.propertyName);
+    }
+    
+    /**
+     * @param valueColumn the column of the values to summarize per group, or null to count the rows only
+     */
+    static Map<Object, ColumnSummary> groupBy(final BeanColumn keyColumn, final BeanColumn valueColumn, int size,
+        final BitSet rows) {
+        if (valueColumn != null) {
+            checkNumeric(valueColumn);
+        }
+        final boolean integral = valueColumn == null || isIntegral(valueColumn);
+        final int countCodes =
+            keyColumn instanceof DictionaryColumn ? ((DictionaryColumn) keyColumn).dictionary.size() : 0;
+        Groups total = ParallelSupport.reduceRanges(size, new ParallelSupport.RangeReducer<Groups>() {
+            public Groups apply(int from, int to) {
+                int[] rowGroups = new int[to - from];
+                Groups groups = mapGroups(keyColumn, from, to, rowGroups, integral, countCodes);
+                if (rows != null) {
+                    excludeRows(rows, from, to, rowGroups);
+                }
+                accumulate(valueColumn, from, to, rowGroups, groups);
+                return groups;
+            }
+            
+            public Groups merge(Groups left, Groups right) {
+                left.merge(right);
+                return left;
+            }
+        });
+        String propertyName = valueColumn == null ? keyColumn.slot.propertyName : valueColumn.slot.propertyName;
+        LinkedHashMap<Object, ColumnSummary> result = new LinkedHashMap<>();
+        for (int group = 0; group < total.size(); ++group) {
+            if (total.counts[group] > 0) {
+                result.put(total.keys.get(group), total.summary(group, propertyName));
+            }
+        }
+        return result;
+    }
+    
+    private static void checkNumeric(BeanColumn column) {
+        if (!(column instanceof IntColumn || column instanceof LongColumn || column instanceof DoubleColumn)) {
+            throw new IllegalArgumentException("Not a numeric property: " + column.slot.propertyName);
+        }
+    }
+    
+    private static boolean isIntegral(BeanColumn column) {
+        return !(column instanceof DoubleColumn);
+    }
+    
+    /**
+     * Maps the rows of the given range to the indexes of the groups of their keys.
+     *
+     * @param countCodes the size of the dictionary of a dictionary encoded key column, read once for all the ranges,
+     *                   since shared dictionaries can grow in the meantime, while the groups of the ranges must match
+     */
+    private static Groups mapGroups(BeanColumn keyColumn, int from, int to, int[] rowGroups, boolean integral,
+        int countCodes) {
+        if (keyColumn instanceof DictionaryColumn) {
+            DictionaryColumn dictionaryColumn = (DictionaryColumn) keyColumn;
+            ValueDictionary dictionary = dictionaryColumn.dictionary;
+            Groups groups = new Groups(integral, countCodes);
+            for (int code = 0; code < countCodes; ++code) {
+                groups.keys.add(dictionary.decode(code));
+            }
+            dictionaryColumn.codes(from, to, rowGroups);
+            return groups;
+        }
+        if (keyColumn instanceof BooleanColumn) {
+            Groups groups = new Groups(integral, 2);
+            groups.keys.add(Boolean.FALSE);
+            groups.keys.add(Boolean.TRUE);
+            boolean[] values = ((BooleanColumn) keyColumn).values;
+            for (int row = from; row < to; ++row) {
+                rowGroups[row - from] = values[row] ? 1 : 0;
+            }
+            return groups;
+        }
+        Groups groups = new Groups(integral, 16);
+        groups.indexes = new HashMap<>();
+        for (int row = from; row < to; ++row) {
+            rowGroups[row - from] = groups.groupOf(keyColumn.get(row));
+        }
+        return groups;
+    }
+    
+    /**
+     * Marks the rows of the given range which are not in the given set to be skipped.
+     */
+    private static void excludeRows(BitSet rows, int from, int to, int[] rowGroups) {
+        for (int row = rows.nextClearBit(from); row < to; row = rows.nextClearBit(row + 1)) {
+            rowGroups[row - from] = -1;
+        }
+    }
+    
+    /**
+     * Accumulates all the values of the given range into the single group of the given groups.
+     */
+    private static void summarizeRange(BeanColumn valueColumn, int from, int to, Groups groups) {
+        groups.counts[0] += to - from;
+        if (valueColumn instanceof IntColumn) {
+            int[] values = ((IntColumn) valueColumn).values;
+            long sum = 0L;
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int row = from; row < to; ++row) {
+                int value = values[row];
+                sum += value;
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            groups.addLongs(0, sum, min, max);
+        } else if (valueColumn instanceof LongColumn) {
+            long[] values = ((LongColumn) valueColumn).values;
+            long sum = 0L;
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (int row = from; row < to; ++row) {
+                long value = values[row];
+                sum += value;
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            groups.addLongs(0, sum, min, max);
+        } else {
+            double[] values = ((DoubleColumn) valueColumn).values;
+            double sum = 0d;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int row = from; row < to; ++row) {
+                double value = values[row];
+                sum += value;
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            groups.addDoubles(0, sum, min, max);
+        }
+    }
+    
+    /**
+     * Accumulates the values of the given range into the groups the rows are mapped to, skipping the rows mapped to -1.
+     * Only the rows are counted if the value column is null.
+     */
+    private static void accumulate(BeanColumn valueColumn, int from, int to, int[] rowGroups, Groups groups) {
+        long[] counts = groups.counts;
+        if (valueColumn == null) {
+            for (int i = 0; i < rowGroups.length; ++i) {
+                int group = rowGroups[i];
+                if (group >= 0) {
+                    ++counts[group];
+                }
+            }
+        } else if (valueColumn instanceof IntColumn || valueColumn instanceof LongColumn) {
+            int[] intValues = valueColumn instanceof IntColumn ? ((IntColumn) valueColumn).values : null;
+            long[] longValues = valueColumn instanceof LongColumn ? ((LongColumn) valueColumn).values : null;
+            long[] sums = groups.longSums;
+            long[] mins = groups.longMins;
+            long[] maxs = groups.longMaxs;
+            for (int row = from; row < to; ++row) {
+                int group = rowGroups[row - from];
+                if (group < 0) {
+                    continue;
+                }
+                long value = intValues != null ? intValues[row] : longValues[row];
+                ++counts[group];
+                sums[group] += value;
+                mins[group] = Math.min(mins[group], value);
+                maxs[group] = Math.max(maxs[group], value);
+            }
+        } else {
+            double[] values = ((DoubleColumn) valueColumn).values;
+            double[] sums = groups.doubleSums;
+            double[] mins = groups.doubleMins;
+            double[] maxs = groups.doubleMaxs;
+            for (int row = from; row < to; ++row) {
+                int group = rowGroups[row - from];
+                if (group < 0) {
+                    continue;
+                }
+                double value = values[row];
+                ++counts[group];
+                sums[group] += value;
+                mins[group] = Math.min(mins[group], value);
+                maxs[group] = Math.max(maxs[group], value);
+            }
+        }
+    }
+    
+    /**
+     * Partial aggregates of the groups of a range, in arrays indexed by the group. Groups of dictionary encoded and
+     * boolean keys are indexed by their codes in every range, while groups of other keys are indexed in the order their
+     * keys were first seen in the range, and are resolved by the map of the indexes.
+     */
+    private static final class Groups {
+        
+        final boolean integral;
+        
+        final ArrayList<Object> keys = new ArrayList<>();
+        
+        HashMap<Object, Integer> indexes;
+        
+        long[] counts;
+        
+        long[] longSums;
+        
+        long[] longMins;
+        
+        long[] longMaxs;
+        
+        double[] doubleSums;
+        
+        double[] doubleMins;
+        
+        double[] doubleMaxs;
+        
+        Groups(boolean integral, int capacity) {
+            this.integral = integral;
+            counts = new long[capacity];
+            if (integral) {
+                longSums = new long[capacity];
+                longMins = new long[capacity];
+                longMaxs = new long[capacity];
+                Arrays.fill(longMins, Long.MAX_VALUE);
+                Arrays.fill(longMaxs, Long.MIN_VALUE);
+            } else {
+                doubleSums = new double[capacity];
+                doubleMins = new double[capacity];
+                doubleMaxs = new double[capacity];
+                Arrays.fill(doubleMins, Double.POSITIVE_INFINITY);
+                Arrays.fill(doubleMaxs, Double.NEGATIVE_INFINITY);
+            }
+        }
+        
+        int size() {
+            return indexes == null ? counts.length : keys.size();
+        }
+        
+        int groupOf(Object key) {
+            Integer index = indexes.get(key);
+            if (index != null) {
+                return index;
+            }
+            int group = keys.size();
+            if (group == counts.length) {
+                grow(group * 2);
+            }
+            keys.add(key);
+            indexes.put(key, group);
+            return group;
+        }
+        
+        private void grow(int capacity) {
+            int oldCapacity = counts.length;
+            counts = Arrays.copyOf(counts, capacity);
+            if (integral) {
+                longSums = Arrays.copyOf(longSums, capacity);
+                longMins = Arrays.copyOf(longMins, capacity);
+                longMaxs = Arrays.copyOf(longMaxs, capacity);
+                Arrays.fill(longMins, oldCapacity, capacity, Long.MAX_VALUE);
+                Arrays.fill(longMaxs, oldCapacity, capacity, Long.MIN_VALUE);
+            } else {
+                doubleSums = Arrays.copyOf(doubleSums, capacity);
+                doubleMins = Arrays.copyOf(doubleMins, capacity);
+                doubleMaxs = Arrays.copyOf(doubleMaxs, capacity);
+                Arrays.fill(doubleMins, oldCapacity, capacity, Double.POSITIVE_INFINITY);
+                Arrays.fill(doubleMaxs, oldCapacity, capacity, Double.NEGATIVE_INFINITY);
+            }
+        }
+        
+        void addLongs(int group, long sum, long min, long max) {
+            longSums[group] += sum;
+            longMins[group] = Math.min(longMins[group], min);
+            longMaxs[group] = Math.max(longMaxs[group], max);
+        }
+        
+        void addDoubles(int group, double sum, double min, double max) {
+            doubleSums[group] += sum;
+            doubleMins[group] = Math.min(doubleMins[group], min);
+            doubleMaxs[group] = Math.max(doubleMaxs[group], max);
+        }
+        
+        /**
+         * Adds the aggregates of the groups of the following range to the ones of this range.
+         */
+        void merge(Groups other) {
+            for (int otherGroup = 0; otherGroup < other.size(); ++otherGroup) {
+                if (other.counts[otherGroup] == 0) {
+                    continue;
+                }
+                int group = indexes == null ? otherGroup : groupOf(other.keys.get(otherGroup));
+                counts[group] += other.counts[otherGroup];
+                if (integral) {
+                    addLongs(group, other.longSums[otherGroup], other.longMins[otherGroup],
+                        other.longMaxs[otherGroup]);
+                } else {
+                    addDoubles(group, other.doubleSums[otherGroup], other.doubleMins[otherGroup],
+                        other.doubleMaxs[otherGroup]);
+                }
+            }
+        }
+        
+        ColumnSummary summary(int group, String propertyName) {
+            if (integral) {
+                return new ColumnSummary(propertyName, true, counts[group], longSums[group], longMins[group],
+                    longMaxs[group], 0d, 0d, 0d);
+            }
+            return new ColumnSummary(propertyName, false, counts[group], 0L, 0L, 0L, doubleSums[group],
+                doubleMins[group], doubleMaxs[group]);
+        }
+    }
+    
+}
@@ -0,0 +1,127 @@
+package com.doctusoft.dynabean;
+
+import static java.util.Objects.*;
+
+/**
+ * Snapshot of the count, sum, minimum and maximum of the values of a numeric property of the elements of a
+ * {@link ColumnarBeanList}, or of a group of them. Properties of integral types are summarized exactly as longs, which
+ * are available by {@link #getLongSum()}, {@link #getLongMin()} and {@link #getLongMax()} as well.
+ *
+ * @see ColumnarBeanList#summarize(String)
+ * @see ColumnarBeanList#groupBy(String, String)
+ */
+public final class ColumnSummary {
+    
+    private final String propertyName;
+    
+    private final boolean integral;
+    
+    private final long count;
+    
+    private final long longSum;
+    
+    private final long longMin;
+    
+    private final long longMax;
+    
+    private final double doubleSum;
+    
+    private final double doubleMin;
+    
+    private final double doubleMax;
+    
+    ColumnSummary(String propertyName, boolean integral, long count, long longSum, long longMin, long longMax,
+        double doubleSum, double doubleMin, double doubleMax) {
+        this.propertyName = requireNonNull(propertyName, "propertyName");
+        this.integral = integral;
+        this.count = count;
+        this.longSum = longSum;
+        this.longMin = longMin;
+        this.longMax = longMax;
+        this.doubleSum = doubleSum;
+        this.doubleMin = doubleMin;
+        this.doubleMax = doubleMax;
+    }
+    
+    public String getPropertyName() {
+        return propertyName;
+    }
+    
+    /**
+     * Returns whether the property is of an integral type, so its values are summarized as longs.
+     */
+    public boolean isIntegral() {
+        return integral;
+    }
+    
+    public long getCount() {
+        return count;
+    }
+    
+    public double getSum() {
+        return integral ? longSum : doubleSum;
+    }
+    
+    /**
+     * Returns the minimum of the values, or {@link Double#NaN} if there are none.
+     */
+    public double getMin() {
+        return count == 0 ? Double.NaN : integral ? longMin : doubleMin;
+    }
+    
+    /**
+     * Returns the maximum of the values, or {@link Double#NaN} if there are none.
+     */
+    public double getMax() {
+        return count == 0 ? Double.NaN : integral ? longMax : doubleMax;
+    }
+    
+    /**
+     * Returns the arithmetic mean of the values, or {@link Double#NaN} if there are none.
+     */
+    public double getAverage() {
+        return count == 0 ? Double.NaN : getSum() / count;
+    }
+    
+    /**
+     * Returns the exact sum of the values of an integral property, which may overflow just like adding longs does.
+     *
+     * @throws IllegalStateException if the property is not of an integral type
+     */
+    public long getLongSum() {
+        checkIntegral();
+        return longSum;
+    }
+    
+    /**
+     * Returns the minimum of the values of an integral property, or {@link Long#MAX_VALUE} if there are none.
+     *
+     * @throws IllegalStateException if the property is not of an integral type
+     */
+    public long getLongMin() {
+        checkIntegral();
+        return longMin;
+    }
+    
+    /**
+     * Returns the maximum of the values of an integral property, or {@link Long#MIN_VALUE} if there are none.
+     *
+     * @throws IllegalStateException if the property is not of an integral type
+     */
+    public long getLongMax() {
+        checkIntegral();
+        return longMax;
+    }
+    
+    private void checkIntegral() {
+        if (!integral) {
+            throw new IllegalStateException("Not an integral property: " + propertyName);
+        }
+    }
+    
+    public String toString() {
+        return "ColumnSummary(property=" + propertyName + ", count=" + count + ", sum=" + getSum()
+            + ", min=" + getMin() + ", max=" + getMax() + ")";
+    }
+    
+}
@@ -0,0 +1,351 @@
+package com.doctusoft.dynabean;
+
+import com.doctusoft.dynabean.BeanDefinition.PropertySlot;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+import static java.util.Objects.*;
+
+/**
+ * A list of beans of the same type which stores the values of each property in a separate array (column) instead of
+ * allocating a dynabean instance per element. Properties of primitive types are stored in primitive arrays, so a large
+ * number of beans can be kept, sorted and scanned with a fraction of the memory and without boxing.
+ * <p>
+ * The elements returned by {@link #get(int)} are lightweight views of a position in the list: their getters and setters
+ * read and write the columns directly. Views are not dynabeans themselves, use {@link #detach(int)} to obtain an
+ * independent dynabean instance with the values of a position. Elements cannot be removed, only the whole list can be
+ * cleared.
+ * <p>
+ * Properties of enum types are stored as small integer codes. The same can be requested for other properties with a
+ * few distinct values (like status or currency codes) by {@link #dictionaryEncode(String)}: their values are replaced
+ * by codes of a dictionary shared by all the columnar lists of the same bean type, which shrinks the memory used and
+ * makes {@link #filterEqual(String, Object)} compare codes instead of values.
+ * <p>
+ * Numeric properties can be aggregated by {@link #summarize(String)} and {@link #groupBy(String, String)} reading the
+ * columns directly, in parallel for large lists.
+ * <p>
+ * This class is NOT thread-safe.
+ *
+ * @param <T> the type of the beans stored
+ */
+public final class ColumnarBeanList<T> extends AbstractList<T> implements RandomAccess {
+    
+    private static final int DEFAULT_CAPACITY = 16;
+    
+    final BeanDefinition beanDefinition;
+    
+    final BeanColumn[] columns;
+    
+    private int size;
+    
+    ColumnarBeanList(BeanDefinition beanDefinition) {
+        this(beanDefinition, DEFAULT_CAPACITY);
+    }
+    
+    ColumnarBeanList(BeanDefinition beanDefinition, int initialCapacity) {
+        this.beanDefinition = requireNonNull(beanDefinition, "beanDefinition");
+        List<PropertySlot> slots = beanDefinition.getPropertySlots();
+        this.columns = new BeanColumn[slots.size()];
+        for (PropertySlot slot : slots) {
+            columns[slot.index] = BeanColumn.create(slot, initialCapacity);
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    public Class<T> getBeanInterfaceClass() {
+        return (Class<T>) beanDefinition.beanInterfaceClass;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Returns a view of the bean stored at the given position. The view reflects later changes of that position,
+     * including the ones made by sorting the list.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        checkIndex(index);
+        Class<?>[] interfaces = { beanDefinition.beanInterfaceClass };
+        return (T) Proxy.newProxyInstance(beanDefinition.classLoader, interfaces, new Row(index));
+    }
+    
+    /**
+     * Returns a new dynabean instance initialized with the values currently stored at the given position.
+     */
+    public T detach(int index) {
+        checkIndex(index);
+        PropertyStorage storage = beanDefinition.newStorage();
+        for (BeanColumn column : columns) {
+            storage.write(column.slot.index, column.get(index));
+        }
+        return DynaBeanInstance.createProxy(beanDefinition, storage);
+    }
+    
+    /**
+     * Overwrites all the properties stored at the given position with the values of the given bean.
+     *
+     * @return a detached copy of the previous values, see {@link #detach(int)}
+     */
+    public T set(int index, T bean) {
+        checkBean(bean);
+        T previous = detach(index);
+        writeRow(index, bean);
+        return previous;
+    }
+    
+    /**
+     * Appends the property values of the given bean, which can be a dynabean or any other implementation of the bean
+     * interface. The bean itself is not referenced by the list.
+     */
+    public boolean add(T bean) {
+        checkBean(bean);
+        ensureCapacity(size + 1);
+        writeRow(size, bean);
+        ++size;
+        ++modCount;
+        return true;
+    }
+    
+    public void clear() {
+        for (BeanColumn column : columns) {
+            for (int i = 0; i < size; ++i) {
+                column.set(i, null);
+            }
+        }
+        size = 0;
+        ++modCount;
+    }
+    
+    public void ensureCapacity(int minCapacity) {
+        for (BeanColumn column : columns) {
+            column.ensureCapacity(minCapacity);
+        }
+    }
+    
+    /**
+     * Stores the values of the given property as codes of a dictionary shared by all the columnar lists of this bean
+     * type, including the values already in the list. Only useful for properties with few distinct values, as values
+     * are never removed from the dictionary.
+     *
+     * @throws IllegalArgumentException if the property is unknown or of a primitive type
+     */
+    public void dictionaryEncode(String propertyName) {
+        BeanColumn column = getColumn(propertyName);
+        if (column instanceof BeanColumn.DictionaryColumn) {
+            return;
+        }
+        PropertySlot slot = column.slot;
+        if (slot.type.isPrimitive()) {
+            throw new IllegalArgumentException("Cannot dictionary encode primitive property: " + propertyName);
+        }
+        columns[slot.index] = BeanColumn.DictionaryColumn.encode(column, size, beanDefinition.getDictionary(slot));
+    }
+    
+    /**
+     * Returns the positions of the elements whose given property equals the given value (which may be null). For
+     * dictionary encoded properties only the codes are compared.
+     *
+     * @throws IllegalArgumentException if the property is unknown
+     */
+    public BitSet filterEqual(String propertyName, Object value) {
+        BeanColumn column = getColumn(propertyName);
+        BitSet result = new BitSet(size);
+        if (column instanceof BeanColumn.DictionaryColumn) {
+            BeanColumn.DictionaryColumn dictionaryColumn = (BeanColumn.DictionaryColumn) column;
+            int code = dictionaryColumn.dictionary.codeOf(value);
+            if (code >= 0) {
+                dictionaryColumn.filterCode(code, size, result);
+            }
+        } else {
+            for (int row = 0; row < size; ++row) {
+                if (Objects.equals(column.get(row), value)) {
+                    result.set(row);
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Returns the count, sum, minimum and maximum of the values of the given numeric property of all the elements.
+     *
+     * @throws IllegalArgumentException if the property is unknown or not of a primitive numeric type
+     */
+    public ColumnSummary summarize(String propertyName) {
+        return summarize(propertyName, null);
+    }
+    
+    /**
+     * Returns the count, sum, minimum and maximum of the values of the given numeric property of the elements at the
+     * given positions, e.g. the result of {@link #filterEqual(String, Object)}, or of all the elements if rows is null.
+     *
+     * @throws IllegalArgumentException if the property is unknown or not of a primitive numeric type
+     */
+    public ColumnSummary summarize(String propertyName, BitSet rows) {
+        return ColumnAggregation.summarize(getColumn(propertyName), size, rows);
+    }
+    
+    /**
+     * Groups the elements by the values of the given key property, and summarizes the values of the given numeric
+     * property per group. Groups without elements are omitted. The groups of enum, boolean and dictionary encoded keys
+     * are ordered by their codes, others by the position of their first element.
+     *
+     * @throws IllegalArgumentException if a property is unknown or the value property is not of a primitive numeric
+     *                                  type
+     */
+    public Map<Object, ColumnSummary> groupBy(String keyPropertyName, String valuePropertyName) {
+        return groupBy(keyPropertyName, valuePropertyName, null);
+    }
+    
+    /**
+     * Same as {@link #groupBy(String, String)}, considering only the elements at the given positions, or all the
+     * elements if rows is null.
+     */
+    public Map<Object, ColumnSummary> groupBy(String keyPropertyName, String valuePropertyName, BitSet rows) {
+        BeanColumn valueColumn = getColumn(requireNonNull(valuePropertyName, "valuePropertyName"));
+        return ColumnAggregation.groupBy(getColumn(keyPropertyName), valueColumn, size, rows);
+    }
+    
+    /**
+     * Returns the number of elements per the values of the given key property, in the order of
+     * {@link #groupBy(String, String)}.
+     *
+     * @throws IllegalArgumentException if the property is unknown
+     */
+    public Map<Object, Long> countBy(String keyPropertyName) {
+        Map<Object, ColumnSummary> groups = ColumnAggregation.groupBy(getColumn(keyPropertyName), null, size, null);
+        LinkedHashMap<Object, Long> counts = new LinkedHashMap<>();
+        for (Map.Entry<Object, ColumnSummary> entry : groups.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().getCount());
+        }
+        return counts;
+    }
+    
+    /**
+     * Appends the given number of rows with all properties unset, to be filled by writing the columns directly.
+     *
+     * @return the index of the first row appended
+     */
+    int appendRows(int count) {
+        int first = size;
+        ensureCapacity(size + count);
+        size += count;
+        ++modCount;
+        return first;
+    }
+    
+    BeanColumn getColumn(String propertyName) {
+        PropertySlot slot = beanDefinition.getPropertySlot(propertyName);
+        if (slot == null) {
+            throw new IllegalArgumentException(
+                "Unknown property: " + propertyName + " for: " + beanDefinition.beanInterfaceClass);
+        }
+        return columns[slot.index];
+    }
+    
+    /**
+     * Reorders the elements so that the new position i holds the element of the old position order[i].
+     */
+    void reorder(int[] order) {
+        if (order.length != size) {
+            throw new IllegalArgumentException("Expected order of " + size + " elements, got: " + order.length);
+        }
+        for (BeanColumn column : columns) {
+            column.permute(order);
+        }
+        ++modCount;
+    }
+    
+    private void writeRow(int row, Object bean) {
+        BeanProperties properties = DynaBeanInstance.propertiesOrNull(bean);
+        for (BeanColumn column : columns) {
+            PropertySlot slot = column.slot;
+            if (properties != null) {
+                column.set(row, properties.get(slot.propertyName));
+            } else if (slot.isReadable()) {
+                column.set(row, slot.readFrom(bean));
+            }
+        }
+    }
+    
+    private void checkBean(Object bean) {
+        if (!beanDefinition.beanInterfaceClass.isInstance(bean)) {
+            throw new IllegalArgumentException(
+                "Not an instance of " + beanDefinition.beanInterfaceClass + ": " + bean);
+        }
+    }
+    
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+    
+    /**
+     * The invocation handler of the views returned by {@link #get(int)}.
+     */
+    private final class Row implements InvocationHandler, BeanProperties {
+        
+        private final int index;
+        
+        Row(int index) {
+            this.index = index;
+        }
+        
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        Object other = args[0];
+                        return other != null && Proxy.isProxyClass(other.getClass())
+                            && equals(Proxy.getInvocationHandler(other));
+                    case "hashCode":
+                        return hashCode();
+                    default:
+                        return toString();
+                }
+            }
+            MethodDefinition methodDefinition = beanDefinition.getMethodDefinition(method);
+            if (methodDefinition != null) {
+                return methodDefinition.invoke(proxy, this, args);
+            }
+            throw new UnsupportedOperationException("Unimplemented dynabean method: " + method);
+        }
+        
+        public Object get(String propertyName) {
+            PropertySlot slot = beanDefinition.getPropertySlot(propertyName);
+            return slot == null ? null : columns[slot.index].get(index);
+        }
+        
+        public void set(String propertyName, Object value) {
+            getColumn(propertyName).set(index, value);
+        }
+        
+        private ColumnarBeanList<?> list() {
+            return ColumnarBeanList.this;
+        }
+        
+        public boolean equals(Object obj) {
+            if (obj == this) return true;
+            if (obj instanceof ColumnarBeanList.Row) {
+                ColumnarBeanList<?>.Row other = (ColumnarBeanList<?>.Row) obj;
+                return index == other.index && list() == other.list();
+            }
+            return false;
+        }
+        
+        public int hashCode() {
+            return 31 * System.identityHashCode(list()) + index;
+        }
+        
+        public String toString() {
+            return "DynaBeanRow(type=" + beanDefinition.beanInterfaceClass.getSimpleName() + ", index=" + index + ")";
+        }
+    }
+    
+}
@@ -0,0 +1,195 @@
+package com.doctusoft.dynabean;
+
+import com.doctusoft.dynabean.BeanDefinition.GetterMethod;
+import com.doctusoft.dynabean.BeanDefinition.PropertySlot;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.*;
+import java.util.*;
+
+import static com.doctusoft.dynabean.DynaBeanInstance.copyPropertyValue;
+import static java.util.Objects.*;
+
+/**
+ * Internal plan of copying the properties of other objects into new dynabean instances of a type. It is computed once
+ * per {@link BeanDefinition}, and it caches a {@link SourceReader} per class of the objects copied: the getters of the
+ * class matching the properties of the bean type by their names, as method handles, so copying does not look up
+ * methods, allocate arguments or check access per object.
+ */
+final class CopyPlan {
+    
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    
+    final BeanDefinition beanDefinition;
+    
+    private final ClassValue<SourceReader> sourceReaders = new ClassValue<SourceReader>() {
+        protected SourceReader computeValue(Class<?> sourceClass) {
+            return new SourceReader(beanDefinition, sourceClass);
+        }
+    };
+    
+    CopyPlan(BeanDefinition beanDefinition) {
+        this.beanDefinition = requireNonNull(beanDefinition, "beanDefinition");
+    }
+    
+    /**
+     * Creates a new dynabean instance with the copied property values of the given instance, which can be an instance
+     * of any other type as well, in which case its properties are mapped by their names.
+     *
+     * @param parallel whether large lists and sets among the property values should be copied in parallel
+     * @throws IllegalArgumentException if a property of the instance has a type incompatible with this bean type
+     */
+    Object copy(Object instance, boolean parallel) {
+        requireNonNull(instance);
+        DynaBeanInstance dynabean = DynaBeanInstance.asDynaBeanInstanceOrNull(instance);
+        if (dynabean != null && dynabean.beanDefinition.equals(beanDefinition)) {
+            return dynabean.cloneProxy(parallel);
+        }
+        PropertyStorage storage = beanDefinition.newStorage();
+        BufferBean bufferBean = BufferBean.asBufferBeanOrNull(instance);
+        if (bufferBean != null && bufferBean.layout.beanDefinition.equals(beanDefinition)) {
+            bufferBean.decodeInto(storage);
+        } else {
+            sourceReaders.get(instance.getClass()).copyInto(instance, storage, parallel);
+        }
+        return DynaBeanInstance.createProxy(beanDefinition, storage);
+    }
+    
+    /**
+     * The getters of a class matching the properties of the bean type by name. Instances of proxy classes backed by
+     * {@link BeanProperties} (dynabeans, views, columnar rows) are read by property name instead of their getters.
+     * <p>
+     * It is cached in a {@link ClassValue} of the source class, so it only holds slot indexes, names and handles: a
+     * reference to the bean definition would keep the class loader of the bean interface reachable as long as the
+     * source class is loaded.
+     */
+    private static final class SourceReader {
+        
+        private final int[] slotIndexes;
+        
+        private final String[] propertyNames;
+        
+        private final MethodHandle[] getterHandles;
+        
+        SourceReader(BeanDefinition beanDefinition, Class<?> sourceClass) {
+            LinkedHashMap<PropertySlot, Method> matched = new LinkedHashMap<>();
+            for (Method method : sourceClass.getMethods()) {
+                if (method.isBridge() || Modifier.isStatic(method.getModifiers())
+                    || method.getDeclaringClass() == Object.class) {
+                    continue;
+                }
+                MethodDefinition accessor = BeanDefinition.defineAccessorOrNull(method);
+                if (!(accessor instanceof GetterMethod)) {
+                    continue;
+                }
+                GetterMethod getter = (GetterMethod) accessor;
+                PropertySlot slot = beanDefinition.getPropertySlot(getter.propertyName);
+                if (slot == null || matched.containsKey(slot)) {
+                    continue;
+                }
+                if (!slot.wrap.isAssignableFrom(getter.wrap)) {
+                    throw new IllegalArgumentException("Cannot copy " + sourceClass + " to "
+                        + beanDefinition.beanInterfaceClass + ": " + method + " is incompatible with type: "
+                        + slot.type);
+                }
+                matched.put(slot, method);
+            }
+            int count = matched.size();
+            this.slotIndexes = new int[count];
+            this.propertyNames = new String[count];
+            this.getterHandles = new MethodHandle[count];
+            boolean proxyClass = Proxy.isProxyClass(sourceClass);
+            int i = 0;
+            for (Map.Entry<PropertySlot, Method> entry : matched.entrySet()) {
+                slotIndexes[i] = entry.getKey().index;
+                propertyNames[i] = entry.getKey().propertyName;
+                Method getter = entry.getValue();
+                getterHandles[i] = getterHandle(proxyClass ? interfaceDeclaration(sourceClass, getter) : getter);
+                ++i;
+            }
+        }
+        
+        void copyInto(Object instance, PropertyStorage storage, boolean parallel) {
+            BeanProperties properties = DynaBeanInstance.propertiesOrNull(instance);
+            for (int i = 0; i < slotIndexes.length; ++i) {
+                Object propertyValue;
+                if (properties != null) {
+                    propertyValue = properties.get(propertyNames[i]);
+                } else {
+                    propertyValue = invokeGetter(getterHandles[i], instance);
+                }
+                if (propertyValue != null) {
+                    storage.write(slotIndexes[i], copyPropertyValue(propertyValue, parallel));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns a handle of the given getter, or any other instance method without parameters, adapted to (Object) ->
+     * Object. Methods of non-public classes are looked up in the public classes and interfaces they are inherited from,
+     * so the handle dispatches to the same method.
+     */
+    static MethodHandle getterHandle(Method getter) {
+        Method publicGetter = publicDeclarationOrNull(getter.getDeclaringClass(), getter.getName());
+        if (publicGetter != null) {
+            try {
+                return MethodHandles.publicLookup().unreflect(publicGetter).asType(GETTER_TYPE);
+            } catch (IllegalAccessException e) {
+                // declared in a package not exported to the library
+            }
+        }
+        try {
+            return MethodHandles.lookup().unreflect(JvmInternals.makeAccessible(getter)).asType(GETTER_TYPE);
+        } catch (IllegalAccessException | RuntimeException e) {
+            throw new IllegalArgumentException("Cannot access getter: " + getter, e);
+        }
+    }
+    
+    /**
+     * Returns the declaration of the given getter of a proxy class in the interfaces it implements, since the methods
+     * of proxy classes may be defined in a module not readable by the library. Handles of interface methods dispatch
+     * to the invocation handler of the proxy the same way.
+     */
+    private static Method interfaceDeclaration(Class<?> proxyClass, Method getter) {
+        for (Class<?> proxyInterface : proxyClass.getInterfaces()) {
+            try {
+                return proxyInterface.getMethod(getter.getName());
+            } catch (NoSuchMethodException e) {
+                // declared by another interface
+            }
+        }
+        return getter;
+    }
+    
+    private static Method publicDeclarationOrNull(Class<?> type, String methodName) {
+        if (Modifier.isPublic(type.getModifiers())) {
+            try {
+                return type.getMethod(methodName);
+            } catch (NoSuchMethodException e) {
+                return null;
+            }
+        }
+        for (Class<?> superInterface : type.getInterfaces()) {
+            Method method = publicDeclarationOrNull(superInterface, methodName);
+            if (method != null) {
+                return method;
+            }
+        }
+        Class<?> superclass = type.getSuperclass();
+        return superclass == null ? null : publicDeclarationOrNull(superclass, methodName);
+    }
+    
+    private static Object invokeGetter(MethodHandle getterHandle, Object instance) {
+        try {
+            return (Object) getterHandle.invokeExact(instance);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException("Failed to copy properties. " + e.getMessage(), e);
+        }
+    }
+    
+}
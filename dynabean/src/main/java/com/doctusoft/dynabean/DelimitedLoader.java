@@ -0,0 +1,707 @@
+package com.doctusoft.dynabean;
+
+import com.doctusoft.dynabean.BeanColumn.*;
+import com.doctusoft.dynabean.BeanDefinition.PropertySlot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import static java.util.Objects.*;
+
+/**
+ * Bulk loader of beans from delimited text files, such as CSV and TSV files. The first line of a file is its header:
+ * it names the property of each column, and is mapped to the properties of the bean type once per file. Each other
+ * non-empty line becomes a bean, in the order of the lines.
+ * <p>
+ * The file is memory-mapped in chunks split at line boundaries, and the chunks are parsed in parallel on the fork-join
+ * pool of the library. Values of primitive and primitive wrapper types are parsed straight from the bytes of the file,
+ * strings are decoded as UTF-8, and enums by their names. Loading into a {@link ColumnarBeanList} writes the values of
+ * primitive properties into its columns without boxing them.
+ * <p>
+ * Fields may be enclosed in double quotes, which may contain the delimiter and doubled quotes, but not line breaks.
+ * Empty fields leave their properties unset, and so do missing fields at the end of a line; fields beyond the columns
+ * of the header are ignored. Lines may end with either LF or CRLF.
+ * <p>
+ * Loaders are immutable and thread-safe.
+ *
+ * @param <T> the type of the beans loaded
+ * @see DynaBeanFactory#delimitedLoader(Class)
+ */
+public final class DelimitedLoader<T> {
+    
+    private static final int DEFAULT_CHUNK_BYTES = 8 << 20;
+    
+    private static final byte QUOTE = '"';
+    
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    
+    private final BeanDefinition beanDefinition;
+    
+    private final byte delimiter;
+    
+    private final boolean ignoreUnknownColumns;
+    
+    private final int chunkBytes;
+    
+    DelimitedLoader(BeanDefinition beanDefinition, byte delimiter, boolean ignoreUnknownColumns, int chunkBytes) {
+        this.beanDefinition = requireNonNull(beanDefinition, "beanDefinition");
+        this.delimiter = delimiter;
+        this.ignoreUnknownColumns = ignoreUnknownColumns;
+        this.chunkBytes = chunkBytes;
+    }
+    
+    /**
+     * Loads the lines of the given file into new dynabean instances.
+     *
+     * @return a new, modifiable list of the beans in the order of the lines
+     * @throws IOException              if the file cannot be read
+     * @throws IllegalArgumentException if the header names an unknown property, or a value cannot be parsed
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> load(Path path) throws IOException {
+        final Chunks chunks = new Chunks(path);
+        final Object[] beans = new Object[chunks.countRows];
+        ParallelSupport.forEachRange(chunks.buffers.length, 1, new ParallelSupport.RangeAction() {
+            public void apply(int from, int to) {
+                for (int chunk = from; chunk < to; ++chunk) {
+                    new BeanParser(chunks, chunk, beans).parse();
+                }
+            }
+        });
+        return (List<T>) new ArrayList<>(Arrays.asList(beans));
+    }
+    
+    /**
+     * Loads the lines of the given file into a new columnar list.
+     *
+     * @return a new list of the beans in the order of the lines
+     * @throws IOException              if the file cannot be read
+     * @throws IllegalArgumentException if the header names an unknown property, or a value cannot be parsed
+     */
+    public ColumnarBeanList<T> loadColumnar(Path path) throws IOException {
+        final Chunks chunks = new Chunks(path);
+        final ColumnarBeanList<T> list = new ColumnarBeanList<>(beanDefinition, chunks.countRows);
+        list.appendRows(chunks.countRows);
+        ParallelSupport.forEachRange(chunks.buffers.length, 1, new ParallelSupport.RangeAction() {
+            public void apply(int from, int to) {
+                for (int chunk = from; chunk < to; ++chunk) {
+                    new ColumnParser(chunks, chunk, list.columns).parse();
+                }
+            }
+        });
+        return list;
+    }
+    
+    /**
+     * The memory-mapped chunks of a file, the columns of its header and the number of rows in each chunk.
+     */
+    private final class Chunks {
+        
+        final Column[] columns;
+        
+        final ByteBuffer[] buffers;
+        
+        /**
+         * The index of the first row of each chunk.
+         */
+        final int[] firstRows;
+        
+        final int countRows;
+        
+        Chunks(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                long dataStart = nextLineStart(channel, 0L, size);
+                columns = parseHeader(channel, dataStart);
+                ArrayList<ByteBuffer> mapped = new ArrayList<>();
+                for (long start = dataStart; start < size; ) {
+                    long end = nextLineStart(channel, Math.min(size, start + chunkBytes), size);
+                    if (end - start > Integer.MAX_VALUE) {
+                        throw new IllegalArgumentException("Line too long at: " + start + " in: " + path);
+                    }
+                    mapped.add(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+                    start = end;
+                }
+                buffers = mapped.toArray(new ByteBuffer[mapped.size()]);
+            }
+            final int[] counts = new int[buffers.length];
+            ParallelSupport.forEachRange(buffers.length, 1, new ParallelSupport.RangeAction() {
+                public void apply(int from, int to) {
+                    for (int chunk = from; chunk < to; ++chunk) {
+                        counts[chunk] = countRows(buffers[chunk]);
+                    }
+                }
+            });
+            firstRows = new int[buffers.length];
+            long total = 0L;
+            for (int chunk = 0; chunk < buffers.length; ++chunk) {
+                firstRows[chunk] = (int) total;
+                total += counts[chunk];
+            }
+            if (total > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("Too many lines to load: " + total + " in: " + path);
+            }
+            countRows = (int) total;
+        }
+        
+        private Column[] parseHeader(FileChannel channel, long dataStart) throws IOException {
+            if (dataStart > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Header too long");
+            }
+            ByteBuffer header = ByteBuffer.allocate((int) dataStart);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException("Unexpected end of file in the header");
+                }
+            }
+            int from = 0;
+            if (dataStart >= 3 && (header.get(0) & 0xFF) == 0xEF && (header.get(1) & 0xFF) == 0xBB
+                && (header.get(2) & 0xFF) == 0xBF) {
+                from = 3;
+            }
+            int end = lineEnd(header, from, header.limit());
+            final ArrayList<Column> columns = new ArrayList<>();
+            if (end > from) {
+                new LineParser(header) {
+                    void field(int column, int from, int to, boolean quoted) {
+                        columns.add(toColumn(text(from, to, quoted)));
+                    }
+                }.parseLine(from, end);
+            }
+            return columns.toArray(new Column[columns.size()]);
+        }
+        
+        private Column toColumn(String propertyName) {
+            PropertySlot slot = beanDefinition.getPropertySlot(propertyName);
+            if (slot == null) {
+                if (ignoreUnknownColumns) {
+                    return null;
+                }
+                throw new IllegalArgumentException(
+                    "Unknown property: " + propertyName + " for: " + beanDefinition.beanInterfaceClass);
+            }
+            return new Column(slot);
+        }
+    }
+    
+    /**
+     * Returns the position after the first line feed at or after position - 1, or the size if there is none.
+     */
+    private static long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+        if (position >= size) {
+            return size;
+        }
+        long from = Math.max(0L, position - 1);
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (from < size) {
+            buffer.clear();
+            int read = channel.read(buffer, from);
+            if (read < 0) {
+                break;
+            }
+            for (int i = 0; i < read; ++i) {
+                if (buffer.get(i) == '\n') {
+                    return from + i + 1;
+                }
+            }
+            from += read;
+        }
+        return size;
+    }
+    
+    /**
+     * Returns the end of the line starting at the given position, excluding the line break.
+     */
+    private static int lineEnd(ByteBuffer buffer, int position, int limit) {
+        int end = position;
+        while (end < limit && buffer.get(end) != '\n') {
+            ++end;
+        }
+        return end > position && buffer.get(end - 1) == '\r' ? end - 1 : end;
+    }
+    
+    private static int countRows(ByteBuffer buffer) {
+        int count = 0;
+        int limit = buffer.limit();
+        int lineStart = 0;
+        for (int i = 0; i < limit; ++i) {
+            if (buffer.get(i) == '\n') {
+                if (!isBlank(buffer, lineStart, i)) ++count;
+                lineStart = i + 1;
+            }
+        }
+        if (!isBlank(buffer, lineStart, limit)) ++count;
+        return count;
+    }
+    
+    private static boolean isBlank(ByteBuffer buffer, int from, int to) {
+        return to == from || (to == from + 1 && buffer.get(from) == '\r');
+    }
+    
+    /**
+     * Splits the lines of a chunk into fields, and passes the fields of the mapped columns to the subclass.
+     */
+    private abstract class LineParser {
+        
+        final ByteBuffer buffer;
+        
+        private byte[] scratch = new byte[64];
+        
+        LineParser(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+        
+        /**
+         * Parses the non-empty lines of the buffer, calling {@link #startRow()} before the fields of each.
+         */
+        final void parseLines() {
+            int limit = buffer.limit();
+            for (int position = 0; position < limit; ) {
+                int end = lineEnd(buffer, position, limit);
+                if (end > position) {
+                    startRow();
+                    parseLine(position, end);
+                }
+                int next = end;
+                while (next < limit && buffer.get(next) != '\n') {
+                    ++next;
+                }
+                position = next + 1;
+            }
+        }
+        
+        final void parseLine(int from, int end) {
+            int column = 0;
+            int position = from;
+            while (true) {
+                int fieldEnd;
+                int next;
+                boolean quoted = position < end && buffer.get(position) == QUOTE;
+                if (quoted) {
+                    fieldEnd = position + 1;
+                    while (true) {
+                        if (fieldEnd >= end) {
+                            throw new IllegalArgumentException(
+                                "Unterminated quoted field in: " + text(from, end, false));
+                        }
+                        if (buffer.get(fieldEnd) == QUOTE) {
+                            if (fieldEnd + 1 < end && buffer.get(fieldEnd + 1) == QUOTE) {
+                                fieldEnd += 2;
+                                continue;
+                            }
+                            break;
+                        }
+                        ++fieldEnd;
+                    }
+                    next = fieldEnd + 1;
+                    if (next < end && buffer.get(next) != delimiter) {
+                        throw new IllegalArgumentException("Delimiter expected after quoted field in: "
+                            + text(from, end, false));
+                    }
+                    ++position;
+                } else {
+                    fieldEnd = position;
+                    while (fieldEnd < end && buffer.get(fieldEnd) != delimiter) {
+                        ++fieldEnd;
+                    }
+                    next = fieldEnd;
+                }
+                field(column++, position, fieldEnd, quoted);
+                if (next >= end) {
+                    return;
+                }
+                position = next + 1;
+            }
+        }
+        
+        void startRow() {
+        }
+        
+        abstract void field(int column, int from, int to, boolean quoted);
+        
+        /**
+         * Decodes the bytes of a field as UTF-8, replacing doubled quotes with single ones in quoted fields.
+         */
+        final String text(int from, int to, boolean quoted) {
+            if (scratch.length < to - from) {
+                scratch = new byte[Math.max(to - from, scratch.length * 2)];
+            }
+            int length = 0;
+            for (int i = from; i < to; ++i) {
+                byte b = buffer.get(i);
+                scratch[length++] = b;
+                if (quoted && b == QUOTE) ++i;
+            }
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+        
+        final long parseLong(Column column, int from, int to) {
+            int i = from;
+            boolean negative = false;
+            if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+                negative = buffer.get(i++) == '-';
+            }
+            if (i == to) {
+                throw column.invalidValue(text(from, to, false));
+            }
+            long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+            long multiplyLimit = limit / 10;
+            long result = 0L;
+            for (; i < to; ++i) {
+                int digit = buffer.get(i) - '0';
+                if (digit < 0 || digit > 9 || result < multiplyLimit) {
+                    throw column.invalidValue(text(from, to, false));
+                }
+                result *= 10;
+                if (result < limit + digit) {
+                    throw column.invalidValue(text(from, to, false));
+                }
+                result -= digit;
+            }
+            return negative ? result : -result;
+        }
+        
+        final int parseInt(Column column, int from, int to, int min, int max) {
+            long value = parseLong(column, from, to);
+            if (value < min || value > max) {
+                throw column.invalidValue(text(from, to, false));
+            }
+            return (int) value;
+        }
+        
+        /**
+         * Parses plain decimals of at most 18 digits directly, which is exact when the digits fit in the 53 bits of
+         * the mantissa of a double and the power of ten is a double itself. Other numbers are parsed by
+         * {@link Double#parseDouble(String)}.
+         */
+        final double parseDouble(Column column, int from, int to) {
+            int i = from;
+            boolean negative = false;
+            if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+                negative = buffer.get(i++) == '-';
+            }
+            long digits = 0L;
+            int countDigits = 0;
+            int scale = 0;
+            boolean point = false;
+            for (; i < to && countDigits <= 18; ++i) {
+                byte b = buffer.get(i);
+                if (b >= '0' && b <= '9') {
+                    digits = digits * 10 + (b - '0');
+                    ++countDigits;
+                    if (point) ++scale;
+                } else if (b == '.' && !point) {
+                    point = true;
+                } else {
+                    break;
+                }
+            }
+            if (i == to && countDigits > 0 && digits < 1L << 53 && scale < POWERS_OF_TEN.length) {
+                double value = digits / POWERS_OF_TEN[scale];
+                return negative ? -value : value;
+            }
+            try {
+                return Double.parseDouble(text(from, to, false));
+            } catch (NumberFormatException e) {
+                throw column.invalidValue(text(from, to, false));
+            }
+        }
+        
+        final boolean parseBoolean(Column column, int from, int to) {
+            String text = text(from, to, false);
+            if (text.equalsIgnoreCase("true")) {
+                return true;
+            } else if (text.equalsIgnoreCase("false")) {
+                return false;
+            }
+            throw column.invalidValue(text);
+        }
+        
+        final char parseChar(Column column, int from, int to, boolean quoted) {
+            String text = text(from, to, quoted);
+            if (text.length() != 1) {
+                throw column.invalidValue(text);
+            }
+            return text.charAt(0);
+        }
+        
+        /**
+         * Parses the value of a field boxed, or returns null if it is empty.
+         */
+        final Object parseValue(Column column, int from, int to, boolean quoted) {
+            if (from == to) {
+                return null;
+            }
+            switch (column.kind) {
+                case Column.INT:
+                    return parseInt(column, from, to, Integer.MIN_VALUE, Integer.MAX_VALUE);
+                case Column.LONG:
+                    return parseLong(column, from, to);
+                case Column.SHORT:
+                    return (short) parseInt(column, from, to, Short.MIN_VALUE, Short.MAX_VALUE);
+                case Column.BYTE:
+                    return (byte) parseInt(column, from, to, Byte.MIN_VALUE, Byte.MAX_VALUE);
+                case Column.CHAR:
+                    return parseChar(column, from, to, quoted);
+                case Column.DOUBLE:
+                    return parseDouble(column, from, to);
+                case Column.FLOAT:
+                    return parseFloat(column, from, to);
+                case Column.BOOLEAN:
+                    return parseBoolean(column, from, to);
+                case Column.ENUM:
+                    return column.parseEnum(text(from, to, quoted));
+                default:
+                    return text(from, to, quoted);
+            }
+        }
+        
+        final float parseFloat(Column column, int from, int to) {
+            try {
+                return Float.parseFloat(text(from, to, false));
+            } catch (NumberFormatException e) {
+                throw column.invalidValue(text(from, to, false));
+            }
+        }
+    }
+    
+    /**
+     * Parses a chunk into new dynabean instances, stored at the rows of the chunk.
+     */
+    private final class BeanParser extends LineParser {
+        
+        private final Column[] columns;
+        
+        private final Object[] beans;
+        
+        private int row;
+        
+        private PropertyStorage storage;
+        
+        BeanParser(Chunks chunks, int chunk, Object[] beans) {
+            super(chunks.buffers[chunk]);
+            this.columns = chunks.columns;
+            this.beans = beans;
+            this.row = chunks.firstRows[chunk];
+        }
+        
+        void parse() {
+            parseLines();
+            finishRow();
+        }
+        
+        void startRow() {
+            finishRow();
+            storage = beanDefinition.newStorage();
+        }
+        
+        private void finishRow() {
+            if (storage != null) {
+                beans[row++] = DynaBeanInstance.createProxy(beanDefinition, storage);
+            }
+        }
+        
+        void field(int index, int from, int to, boolean quoted) {
+            if (index < columns.length && columns[index] != null) {
+                Column column = columns[index];
+                storage.write(column.slot.index, parseValue(column, from, to, quoted));
+            }
+        }
+    }
+    
+    /**
+     * Parses a chunk into the rows of a columnar list, writing primitive values into the arrays of its columns.
+     */
+    private final class ColumnParser extends LineParser {
+        
+        private final Column[] columns;
+        
+        private final BeanColumn[] targets;
+        
+        private int row;
+        
+        ColumnParser(Chunks chunks, int chunk, BeanColumn[] listColumns) {
+            super(chunks.buffers[chunk]);
+            this.columns = chunks.columns;
+            this.targets = new BeanColumn[columns.length];
+            for (int i = 0; i < columns.length; ++i) {
+                if (columns[i] != null) {
+                    targets[i] = listColumns[columns[i].slot.index];
+                }
+            }
+            this.row = chunks.firstRows[chunk] - 1;
+        }
+        
+        void parse() {
+            parseLines();
+        }
+        
+        void startRow() {
+            ++row;
+        }
+        
+        void field(int index, int from, int to, boolean quoted) {
+            if (index >= columns.length || columns[index] == null || from == to) {
+                return;
+            }
+            Column column = columns[index];
+            BeanColumn target = targets[index];
+            if (target instanceof IntColumn) {
+                int value;
+                if (column.kind == Column.CHAR) {
+                    value = parseChar(column, from, to, quoted);
+                } else if (column.kind == Column.SHORT) {
+                    value = parseInt(column, from, to, Short.MIN_VALUE, Short.MAX_VALUE);
+                } else if (column.kind == Column.BYTE) {
+                    value = parseInt(column, from, to, Byte.MIN_VALUE, Byte.MAX_VALUE);
+                } else {
+                    value = parseInt(column, from, to, Integer.MIN_VALUE, Integer.MAX_VALUE);
+                }
+                ((IntColumn) target).values[row] = value;
+            } else if (target instanceof LongColumn) {
+                ((LongColumn) target).values[row] = parseLong(column, from, to);
+            } else if (target instanceof DoubleColumn) {
+                ((DoubleColumn) target).values[row] = column.kind == Column.FLOAT
+                    ? parseFloat(column, from, to)
+                    : parseDouble(column, from, to);
+            } else if (target instanceof BooleanColumn) {
+                ((BooleanColumn) target).values[row] = parseBoolean(column, from, to);
+            } else {
+                target.set(row, parseValue(column, from, to, quoted));
+            }
+        }
+    }
+    
+    /**
+     * A column of the header mapped to a property, with the kind of parsing its values need.
+     */
+    private static final class Column {
+        
+        static final int STRING = 0;
+        static final int INT = 1;
+        static final int LONG = 2;
+        static final int SHORT = 3;
+        static final int BYTE = 4;
+        static final int CHAR = 5;
+        static final int DOUBLE = 6;
+        static final int FLOAT = 7;
+        static final int BOOLEAN = 8;
+        static final int ENUM = 9;
+        
+        final PropertySlot slot;
+        
+        final int kind;
+        
+        Column(PropertySlot slot) {
+            this.slot = slot;
+            this.kind = kindOf(slot);
+        }
+        
+        private static int kindOf(PropertySlot slot) {
+            Class<?> type = Primitives.unwrap(slot.type);
+            if (type == int.class) {
+                return INT;
+            } else if (type == long.class) {
+                return LONG;
+            } else if (type == short.class) {
+                return SHORT;
+            } else if (type == byte.class) {
+                return BYTE;
+            } else if (type == char.class) {
+                return CHAR;
+            } else if (type == double.class) {
+                return DOUBLE;
+            } else if (type == float.class) {
+                return FLOAT;
+            } else if (type == boolean.class) {
+                return BOOLEAN;
+            } else if (type.isEnum()) {
+                return ENUM;
+            } else if (type.isAssignableFrom(String.class)) {
+                return STRING;
+            }
+            throw new IllegalArgumentException("Cannot parse values of property: " + slot.propertyName + " of type: "
+                + slot.type);
+        }
+        
+        @SuppressWarnings("unchecked")
+        Object parseEnum(String name) {
+            try {
+                return Enum.valueOf((Class) slot.type, name);
+            } catch (IllegalArgumentException e) {
+                throw invalidValue(name);
+            }
+        }
+        
+        IllegalArgumentException invalidValue(String text) {
+            return new IllegalArgumentException("Invalid value of property: " + slot.propertyName + ": " + text);
+        }
+    }
+    
+    /**
+     * Builder of {@link DelimitedLoader}s, which parse comma separated files by default.
+     *
+     * @param <T> the type of the beans loaded
+     */
+    public static final class Builder<T> {
+        
+        private final BeanDefinition beanDefinition;
+        
+        private byte delimiter = ',';
+        
+        private boolean ignoreUnknownColumns;
+        
+        private int chunkBytes = DEFAULT_CHUNK_BYTES;
+        
+        Builder(BeanDefinition beanDefinition) {
+            this.beanDefinition = requireNonNull(beanDefinition, "beanDefinition");
+        }
+        
+        /**
+         * Sets the character separating the fields, such as ',' or '\t'.
+         *
+         * @throws IllegalArgumentException if the delimiter is not an ASCII character, or is a quote or line break
+         */
+        public Builder<T> delimiter(char delimiter) {
+            if (delimiter > 0x7F || delimiter == QUOTE || delimiter == '\n' || delimiter == '\r') {
+                throw new IllegalArgumentException("Invalid delimiter: " + delimiter);
+            }
+            this.delimiter = (byte) delimiter;
+            return this;
+        }
+        
+        /**
+         * Makes the loader skip the columns whose names are not properties of the bean type, instead of rejecting the
+         * file.
+         */
+        public Builder<T> ignoreUnknownColumns() {
+            this.ignoreUnknownColumns = true;
+            return this;
+        }
+        
+        /**
+         * Sets the approximate number of bytes parsed by a single task, 8 MB by default.
+         *
+         * @throws IllegalArgumentException if the size is not positive
+         */
+        public Builder<T> chunkBytes(int chunkBytes) {
+            if (chunkBytes < 1) {
+                throw new IllegalArgumentException("Chunk size must be positive: " + chunkBytes);
+            }
+            this.chunkBytes = chunkBytes;
+            return this;
+        }
+        
+        public DelimitedLoader<T> build() {
+            return new DelimitedLoader<>(beanDefinition, delimiter, ignoreUnknownColumns, chunkBytes);
+        }
+    }
+    
+}
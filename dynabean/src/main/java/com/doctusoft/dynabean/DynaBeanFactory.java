@@ -1,5 +1,10 @@
 package com.doctusoft.dynabean;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -22,8 +27,9 @@ public interface DynaBeanFactory {
      * Creates a new dynabean instance of the given beanInterfaceClass, but unlike {@link #create(Class)} the caller can
      * specify custom initial values for the properties of that instance.
      * <p>
-     * It is supported to set initial values for read-only properties as well. No type checks are done on the values,
-     * thus if misused, calling the getters of the returned instance could potentially throw {@link ClassCastException}.
+     * It is supported to set initial values for read-only properties as well. No type checks are done on the values
+     * (unless the factory uses {@link TypeChecking#STRICT}), thus if misused, calling the getters of the returned
+     * instance could potentially throw {@link ClassCastException}.
      * <p>
      * To get the initial values the given initializer will be called for each property with a getter method. The name
      * of the property and its getter {@link java.lang.reflect.Method} will be passed to the initializer and the
@@ -37,12 +43,34 @@ public interface DynaBeanFactory {
      */
     <T> T createWithInitializer(Class<T> beanInterfaceClass, PropertyInitializer initializer);
     
+    /**
+     * Creates a new dynabean instance of the given beanInterfaceClass, whose properties are initialized lazily by the
+     * given initializer. Unlike {@link #createWithInitializer(Class, PropertyInitializer)}, the initializer is not
+     * called when the instance is created, but on the first access of each property, and the returned value is
+     * memoized in the instance. Setting a property before reading it skips its initialization.
+     * <p>
+     * Cloning the instance does not force the initialization of its properties: the clone will call the initializer
+     * independently for the ones not accessed yet. Comparing or hashing the instance initializes all of its properties.
+     * <p>
+     * Unless threadSafe is true, the initializer could be called more than once for the same property when the bean
+     * is shared between threads. The initialized values are type checked only if the factory uses
+     * {@link TypeChecking#STRICT}, as with {@link #createWithInitializer(Class, PropertyInitializer)}.
+     *
+     * @param beanInterfaceClass the class of the interface to create an instance of
+     * @param initializer        a callback to determine the initial value for the properties
+     * @param threadSafe         whether the initialization should be safe for beans shared between threads
+     * @param <T>                The generic type of the dynabean to instantiate
+     * @return a new dynabean instance initialized lazily by the initializer
+     */
+    <T> T createWithLazyInitializer(Class<T> beanInterfaceClass, PropertyInitializer initializer, boolean threadSafe);
+    
     /**
      * Creates a new dynabean instance of the given beanInterfaceClass, but unlike {@link #create(Class)} the caller can
      * specify custom initial values for the properties of that instance.
      * <p>
-     * It is supported to set initial values for read-only properties as well. No type checks are done on the values,
-     * thus if misused, calling the getters of the returned instance could potentially throw {@link ClassCastException}.
+     * It is supported to set initial values for read-only properties as well. No type checks are done on the values
+     * (unless the factory uses {@link TypeChecking#STRICT}), thus if misused, calling the getters of the returned
+     * instance could potentially throw {@link ClassCastException}.
      * <p>
      * Properties without an initial value will act as in case of an empty dynabean instance: unless set otherwise by
      * calling the setters, they will return either null or the default of their primitive type.
@@ -53,6 +81,21 @@ public interface DynaBeanFactory {
      * @return a new dynabean instance initialized with values given in the properties map
      */
     <T> T createWithInitialValues(Class<T> beanInterfaceClass, Map<String, ?> initialValues);
+    
+    /**
+     * Returns a live {@link Map} view of the properties of the given dynabean instance, without copying them. The keys
+     * of the map are the names of all the properties with a getter method, in their natural order, and the values are
+     * the ones the getters would return. Changes of the bean are visible through the map and vice versa.
+     * <p>
+     * The set of keys is fixed: putting a value for an unknown property throws {@link IllegalArgumentException}, just
+     * like putting a value of incompatible type does, while removing entries is not supported. Putting null resets the
+     * property to null or the default of its primitive type. Read-only properties can be set through the map as well.
+     *
+     * @param bean a dynabean instance
+     * @return the map view of the bean's properties
+     * @throws IllegalArgumentException if bean is not a dynabean instance
+     */
+    Map<String, Object> asMap(Object bean);
 
     /**
      * Creates a new dynabean instance pre-initialized with the copied property values of the given instance.
@@ -68,4 +111,353 @@ public interface DynaBeanFactory {
      */
     <T> T copyProperties(Class<T> beanInterfaceClass, T instance);
     
+    /**
+     * Copies all the given instances the same way as {@link #copyProperties(Class, Object)} does, splitting the work
+     * across a fork-join pool for large collections. The getters to call on instances which are not dynabeans of the
+     * given type are resolved only once per class of the instances, and cached for later copies.
+     *
+     * @param beanInterfaceClass the class of the interface to create instances of
+     * @param instances          the original instances from which the property values are copied, none can be null
+     * @param <T>                The generic type of the dynabeans to instantiate
+     * @return a new list of the newly created dynabean instances in the order of the original instances
+     */
+    <T> List<T> copyAll(Class<T> beanInterfaceClass, Collection<? extends T> instances);
+    
+    /**
+     * Creates a new dynabean instance of the given beanInterfaceClass with the property values of the given source,
+     * which can be a dynabean of another type or any object with getters, like a DTO. Properties are mapped by their
+     * names, and copied the same way as by {@link #copyProperties(Class, Object)}. Properties of the bean type missing
+     * from the source are left unset, other properties of the source are ignored.
+     * <p>
+     * The getters of each class of sources are matched to the properties once, and their types are checked then.
+     *
+     * @param beanInterfaceClass the class of the interface to create an instance of
+     * @param source             the object from which the property values are copied
+     * @param <T>                The generic type of the dynabean to instantiate
+     * @return the newly created dynabean instance
+     * @throws IllegalArgumentException if a getter of the source returns a type incompatible with the same property
+     */
+    <T> T mapProperties(Class<T> beanInterfaceClass, Object source);
+    
+    /**
+     * Maps all the given sources the same way as {@link #mapProperties(Class, Object)} does, splitting the work across
+     * a fork-join pool for large collections.
+     *
+     * @param beanInterfaceClass the class of the interface to create instances of
+     * @param sources            the objects from which the property values are copied, none can be null
+     * @param <T>                The generic type of the dynabeans to instantiate
+     * @return a new list of the newly created dynabean instances in the order of the sources
+     * @throws IllegalArgumentException if a getter of a source returns a type incompatible with the same property
+     */
+    <T> List<T> mapAll(Class<T> beanInterfaceClass, Collection<?> sources);
+    
+    /**
+     * Creates a deep copy of the given value by the same rules {@link #copyProperties(Class, Object)} applies to property
+     * values: dynabeans are cloned, lists and sets are copied, other values implementing the Cloneable interface are
+     * cloned, recursively. The elements of large lists and sets are copied in parallel using a fork-join pool, while the
+     * order of their elements is preserved.
+     *
+     * @param value the root of the object graph to copy, e.g. a dynabean instance or a list of them
+     * @param <V>   The type of the value
+     * @return the copy
+     */
+    <V> V copyGraph(V value);
+    
+    /**
+     * Creates a deep copy of the given value by the same rules as {@link #copyGraph(Object)}, but preserving the shape
+     * of the object graph: dynabeans, lists and sets referenced from multiple places of the graph are copied only once,
+     * and all the references point to that single copy in the result. Cyclic graphs are supported, and the depth of the
+     * graph is not limited by the stack size. The copy is performed on the calling thread.
+     *
+     * @param value the root of the object graph to copy, e.g. a dynabean instance or a list of them
+     * @param <V>   The type of the value
+     * @return the copy
+     */
+    <V> V copyGraphPreservingReferences(V value);
+    
+    /**
+     * Compiles the given property values into a {@link Patch} which can be applied to any number of dynabean instances
+     * of the given beanInterfaceClass. Property names are resolved and values are type checked once during
+     * compilation, unlike when calling the setters one by one.
+     * <p>
+     * Read-only properties can be patched as well. A null value resets the property, so its getter will return either
+     * null or the default of its primitive type.
+     *
+     * @param beanInterfaceClass the class of the interface the patch will be applied to
+     * @param propertyValues     a map containing the new values per the name of the properties
+     * @param <T>                The generic type of the dynabean to patch
+     * @return the compiled patch
+     * @throws IllegalArgumentException if the map contains an unknown property or a value of incompatible type
+     */
+    <T> Patch<T> compilePatch(Class<T> beanInterfaceClass, Map<String, ?> propertyValues);
+    
+    /**
+     * Writes all the given property values into the given dynabean instance in one pass. It is the equivalent of
+     * compiling a {@link Patch} for the type of the bean by {@link #compilePatch(Class, Map)} and applying it once.
+     *
+     * @param bean           the dynabean instance to update
+     * @param propertyValues a map containing the new values per the name of the properties
+     * @param <T>            The generic type of the dynabean to patch
+     * @return the same bean instance
+     * @throws IllegalArgumentException if bean is not a dynabean instance, or if the map contains an unknown property
+     *                                  or a value of incompatible type
+     */
+    <T> T applyPatch(T bean, Map<String, ?> propertyValues);
+    
+    /**
+     * Returns a frozen view of the current version of the given dynabean instance stored in the
+     * {@link StorageLayout#VERSIONED} layout. Taking a snapshot copies nothing and does not block the writers of the
+     * bean: the snapshot keeps returning the property values of the version it was taken of, all from the same version,
+     * while the bean itself moves on. The setters of the snapshot throw {@link UnsupportedOperationException}, but its
+     * clone is a mutable bean.
+     * <p>
+     * Every single setter call and every {@link Patch} applied publishes a new version of a versioned bean. Patches
+     * are published atomically: readers see either none or all of their values.
+     *
+     * @param bean a dynabean instance in the versioned layout, or a snapshot of one
+     * @param <T>  The generic type of the dynabean
+     * @return the snapshot of the bean, or the same instance if it is a snapshot itself
+     * @throws IllegalArgumentException if bean is not a dynabean instance in the versioned layout
+     * @see Patch#applyIfVersion(Object, long)
+     */
+    <T> T snapshot(T bean);
+    
+    /**
+     * Returns the number of the current version of the given dynabean instance stored in the
+     * {@link StorageLayout#VERSIONED} layout, or the number of the version a snapshot was taken of. Version numbers
+     * start at zero and increase with every update of the bean.
+     *
+     * @throws IllegalArgumentException if bean is not a dynabean instance in the versioned layout
+     */
+    long getVersion(Object bean);
+    
+    /**
+     * Encodes the property values of the given instance of the bean interface into a new buffer, in a binary layout
+     * which allows {@link #wrap(Class, ByteBuffer)} to decode each property separately. Primitive, primitive wrapper
+     * and enum values are stored at fixed offsets, strings in UTF-8, and other values by Java serialization.
+     *
+     * @param beanInterfaceClass the bean interface defining the properties to encode
+     * @param bean               any instance of the bean interface
+     * @param <T>                The generic type of the dynabean
+     * @return a new buffer holding the encoded bean between its position and limit
+     * @throws IllegalArgumentException if a property value is of incompatible type or cannot be serialized
+     */
+    <T> ByteBuffer encode(Class<T> beanInterfaceClass, T bean);
+    
+    /**
+     * Returns a read-only bean over the bean encoded by {@link #encode(Class, Object)} at the position of the given
+     * buffer, and advances the position of the buffer past the encoded bean, so consecutive beans can be wrapped one by
+     * one. Nothing is decoded in advance: each getter call decodes the value of its own property from the buffer, which
+     * is not copied and must not be modified while the bean is in use.
+     * <p>
+     * The setters of the returned bean throw {@link UnsupportedOperationException}, and it is not a dynabean instance.
+     * Use {@link #copyProperties(Class, Object)} to decode it into a mutable dynabean instance. Serialized values are
+     * only decoded into the declared type of their property, its type arguments, enums, primitive wrappers, strings
+     * and the standard collections: the getter of a value holding any other class throws
+     * {@link IllegalStateException}.
+     *
+     * @param beanInterfaceClass the bean interface the buffer was encoded for
+     * @param buffer             the buffer holding the encoded bean at its position
+     * @param <T>                The generic type of the dynabean
+     * @return the read-only bean backed by the buffer
+     * @throws IllegalArgumentException if the buffer does not hold a bean encoded for the same version of the interface
+     */
+    <T> T wrap(Class<T> beanInterfaceClass, ByteBuffer buffer);
+    
+    /**
+     * Returns an instance of the given viewInterfaceClass which is backed by the properties of the given dynabean
+     * instance. Properties are mapped by their names and nothing is copied: reading the view's getters returns the
+     * current values of the original bean, while calling its setters changes the original bean.
+     * <p>
+     * The property types of the two interfaces are checked for compatibility once per pair of types. Getters of the
+     * view for properties the original bean does not have will return null, or the default of their primitive type, and
+     * their setters will throw {@link UnsupportedOperationException}.
+     *
+     * @param viewInterfaceClass the class of the interface to view the bean as
+     * @param bean               a dynabean instance or another view of one
+     * @param <V>                The generic type of the view
+     * @return the view instance
+     * @throws IllegalArgumentException if bean is not a dynabean instance or its property types are incompatible
+     */
+    <V> V view(Class<V> viewInterfaceClass, Object bean);
+    
+    /**
+     * Returns a builder of a {@link BeanComparator} ordering instances of the given beanInterfaceClass by their
+     * properties. The comparator can also sort lists of beans and {@link ColumnarBeanList}s in parallel.
+     *
+     * @param beanInterfaceClass the class of the interface to compare instances of
+     * @param <T>                The generic type of the beans to compare
+     * @return a new builder without any properties to compare by
+     */
+    <T> BeanComparator.Builder<T> comparing(Class<T> beanInterfaceClass);
+    
+    /**
+     * Creates a new, empty {@link ColumnarBeanList} for storing a large number of beans of the given beanInterfaceClass
+     * in property columns instead of separate dynabean instances.
+     *
+     * @param beanInterfaceClass the class of the interface of the beans to store
+     * @param <T>                The generic type of the beans to store
+     * @return the new, empty list
+     */
+    <T> ColumnarBeanList<T> createColumnarList(Class<T> beanInterfaceClass);
+    
+    /**
+     * Creates a new, empty {@link IndexedBeanCollection} of dynabean instances of the given beanInterfaceClass, which
+     * is NOT thread-safe.
+     *
+     * @param beanInterfaceClass the class of the interface of the beans to store
+     * @param <T>                The generic type of the beans to store
+     * @return the new, empty collection without any indexes declared
+     */
+    <T> IndexedBeanCollection<T> createIndexedCollection(Class<T> beanInterfaceClass);
+    
+    /**
+     * Creates a new, empty {@link IndexedBeanCollection} of dynabean instances of the given beanInterfaceClass, which
+     * can be shared between threads. Queries are executed concurrently, while changes are applied exclusively.
+     *
+     * @param beanInterfaceClass the class of the interface of the beans to store
+     * @param <T>                The generic type of the beans to store
+     * @return the new, empty collection without any indexes declared
+     */
+    <T> IndexedBeanCollection<T> createSharedIndexedCollection(Class<T> beanInterfaceClass);
+    
+    /**
+     * Creates a new {@link BeanPool} of reusable dynabean instances of the given beanInterfaceClass.
+     *
+     * @param beanInterfaceClass the class of the interface of the pooled beans
+     * @param maxIdlePerThread   the maximum number of released beans kept for reuse per thread
+     * @param <T>                The generic type of the pooled beans
+     * @return the new, empty pool
+     */
+    <T> BeanPool<T> createPool(Class<T> beanInterfaceClass, int maxIdlePerThread);
+    
+    /**
+     * Opens the {@link BeanJournal} of dynabean instances of the given beanInterfaceClass at the given path. If the
+     * file exists, its records are replayed to rebuild the beans journaled before, otherwise a new, empty journal is
+     * created. Properties which do not exist any more in the bean interface are dropped from the journal.
+     *
+     * @param beanInterfaceClass the class of the interface of the journaled beans
+     * @param path               the path of the journal file
+     * @param <T>                The generic type of the journaled beans
+     * @return the open journal, which must be closed by the caller
+     * @throws IOException if the file cannot be read or written, or if it is the journal of another bean type
+     */
+    <T> BeanJournal<T> openJournal(Class<T> beanInterfaceClass, Path path) throws IOException;
+    
+    /**
+     * Returns a builder of a {@link DelimitedLoader} which loads instances of the given beanInterfaceClass from CSV,
+     * TSV and other delimited text files, parsing large files in parallel.
+     *
+     * @param beanInterfaceClass the class of the interface of the beans to load
+     * @param <T>                The generic type of the beans to load
+     * @return a new builder of a loader of comma separated files
+     */
+    <T> DelimitedLoader.Builder<T> delimitedLoader(Class<T> beanInterfaceClass);
+    
+    /**
+     * Returns the statistics of the property storage of the dynabean instances of the given beanInterfaceClass: the
+     * {@link StorageLayout} used, the average number of properties set, the estimated memory use per instance and the
+     * average access times. The statistics are collected from a sample of the instances created.
+     *
+     * @param beanInterfaceClass the class of the interface of the beans
+     * @return a snapshot of the current statistics
+     */
+    StorageStats getStorageStats(Class<?> beanInterfaceClass);
+    
+    /**
+     * Compares the property values of the two given dynabean instances of the same type and returns the differences,
+     * which can be applied to other instances as well. The properties are compared in their natural order by
+     * {@link Object#equals(Object)}, directly in the storage of the beans without calling their getters.
+     *
+     * @param from the original state
+     * @param to   the changed state
+     * @param <T>  The generic type of the dynabeans
+     * @return the properties whose values differ in the two beans, with their values in the changed state
+     * @throws IllegalArgumentException if either bean is not a dynabean instance, or their types differ
+     */
+    <T> BeanDiff<T> diff(T from, T to);
+    
+    /**
+     * Merges the changes made to the base bean in two other beans (ours and theirs) into a new dynabean instance. A
+     * property changed on one side only gets the changed value, while a property changed on both sides to different
+     * values is reported as a conflict and gets the value of ours. The values in the merged bean are copied the same
+     * way as by {@link #copyProperties(Class, Object)}.
+     *
+     * @param base   the common original state of the two others
+     * @param ours   the state with our changes
+     * @param theirs the state with their changes
+     * @param <T>    The generic type of the dynabeans
+     * @return the merged bean and the conflicts
+     * @throws IllegalArgumentException if any of the beans is not a dynabean instance, or their types differ
+     */
+    <T> MergeResult<T> merge(T base, T ours, T theirs);
+    
+    /**
+     * Starts counting the getter and setter calls of the dynabean instances of the given beanInterfaceClass, per
+     * property. Only every samplingInterval-th call is counted on average, to keep the overhead low. Calling it again
+     * restarts the profiling with all counters reset.
+     *
+     * @param beanInterfaceClass the class of the interface of the beans to profile
+     * @param samplingInterval   1 to count all calls, or the average number of calls per sampled call
+     * @throws IllegalArgumentException if the samplingInterval is not positive
+     */
+    void enableAccessProfiling(Class<?> beanInterfaceClass, int samplingInterval);
+    
+    /**
+     * Stops counting the getter and setter calls of the dynabean instances of the given beanInterfaceClass, and
+     * discards the counters.
+     *
+     * @param beanInterfaceClass the class of the interface of the profiled beans
+     */
+    void disableAccessProfiling(Class<?> beanInterfaceClass);
+    
+    /**
+     * Returns the estimated number of getter and setter calls per property of the given beanInterfaceClass since the
+     * profiling was enabled by {@link #enableAccessProfiling(Class, int)}. All counts are zero if profiling is not
+     * enabled.
+     *
+     * @param beanInterfaceClass the class of the interface of the profiled beans
+     * @return a snapshot of the current counts
+     */
+    AccessReport getAccessReport(Class<?> beanInterfaceClass);
+    
+    /**
+     * Estimates the memory taken by the given dynabean instance: its proxy, invocation handler and property storage,
+     * and the property values it references. Values shared by design, such as enum constants, are not counted.
+     *
+     * @param bean a dynabean instance
+     * @param deep whether the elements of collections and the properties of nested dynabeans are counted recursively
+     * @return the estimated footprint of the bean
+     * @throws IllegalArgumentException if bean is not a dynabean instance
+     */
+    BeanFootprint estimateFootprint(Object bean, boolean deep);
+    
+    /**
+     * Starts tracking the dynabean instances of the given beanInterfaceClass created from now on, so that their total
+     * footprint can be estimated by {@link #getFootprint(Class, boolean)}. The instances are referenced weakly, thus
+     * tracking does not prevent them from being garbage collected. Calling it again restarts the tracking.
+     *
+     * @param beanInterfaceClass the class of the interface of the beans to track
+     */
+    void enableFootprintTracking(Class<?> beanInterfaceClass);
+    
+    /**
+     * Stops tracking the dynabean instances of the given beanInterfaceClass, and forgets the ones tracked.
+     *
+     * @param beanInterfaceClass the class of the interface of the tracked beans
+     */
+    void disableFootprintTracking(Class<?> beanInterfaceClass);
+    
+    /**
+     * Estimates the total memory taken by the instances of the given beanInterfaceClass tracked since
+     * {@link #enableFootprintTracking(Class)} and not garbage collected yet. Values shared by several beans are counted
+     * once. The estimate is empty if tracking is not enabled.
+     *
+     * @param beanInterfaceClass the class of the interface of the tracked beans
+     * @param deep               whether the elements of collections and the properties of nested dynabeans are counted
+     *                           recursively
+     * @return the estimated footprint of the tracked beans
+     */
+    BeanFootprint getFootprint(Class<?> beanInterfaceClass, boolean deep);
+    
 }
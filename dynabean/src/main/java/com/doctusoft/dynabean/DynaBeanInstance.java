@@ -1,11 +1,12 @@
 package com.doctusoft.dynabean;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.*;
-import java.util.Map.*;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import static java.util.Objects.*;
 
@@ -14,30 +15,95 @@ import static java.util.Objects.*;
  */
 final class DynaBeanInstance implements InvocationHandler, BeanProperties {
 
-    static <T> T createProxy(BeanDefinition beanDefinition, TreeMap<String, Object> propertiesMap) {
+    static <T> T createProxy(BeanDefinition beanDefinition, PropertyStorage storage) {
+        return createProxy(beanDefinition, storage, false);
+    }
+
+    /**
+     * @param lazy whether the storage may contain {@link LazyValue}s to be resolved on first access
+     */
+    static <T> T createProxy(BeanDefinition beanDefinition, PropertyStorage storage, boolean lazy) {
         Class<?>[] interfaces = { beanDefinition.beanInterfaceClass, DynaBean.class };
-        DynaBeanInstance invoker = new DynaBeanInstance(beanDefinition, propertiesMap);
+        DynaBeanInstance invoker = new DynaBeanInstance(beanDefinition, storage, lazy);
         Object dynaBeanInstance = Proxy.newProxyInstance(beanDefinition.classLoader, interfaces, invoker);
+        FootprintTracker tracker = beanDefinition.footprintTracker;
+        if (tracker != null) {
+            tracker.track(dynaBeanInstance);
+        }
         return (T) dynaBeanInstance;
     }
 
+    private static final PropertyChangeListener[] NO_LISTENERS = {};
+
+    private static final AtomicReferenceFieldUpdater<DynaBeanInstance, PropertyChangeListener[]> LISTENERS =
+        AtomicReferenceFieldUpdater.newUpdater(DynaBeanInstance.class, PropertyChangeListener[].class, "listeners");
+
+    static final long ANY_VERSION = Long.MIN_VALUE;
+
     final BeanDefinition beanDefinition;
 
-    private final TreeMap<String, Object> propertiesMap;
+    private final PropertyStorage storage;
+
+    private final boolean lazy;
+
+    private volatile PropertyChangeListener[] listeners = NO_LISTENERS;
+
+    /**
+     * Whether this instance is released to a {@link BeanPool} and not handed out again yet.
+     */
+    private boolean released;
+
+    /**
+     * Whether the setters maintain {@link #immutableValuesHash} and {@link #mutableValueCount}. They are computed on
+     * the first call of {@link #hashCode()}, unless the storage is versioned, as those publish or discard the values
+     * of patches as a whole. The fields are computed and updated together with writing the storage while holding the
+     * monitor of this instance, so concurrent setters cannot corrupt them. Written last, so readers seeing it set see
+     * the other two fields as well.
+     */
+    private volatile boolean hashMaintained;
+
+    /**
+     * The sum of the hashes of the properties holding immutable values: strings, boxed primitives and enum constants.
+     */
+    private int immutableValuesHash;
+
+    /**
+     * The number of the properties holding other values, whose hashes are computed on every call of hashCode, as the
+     * values can change without calling a setter.
+     */
+    private int mutableValueCount;
 
     DynaBeanInstance(BeanDefinition beanDefinition) {
-        this.beanDefinition = requireNonNull(beanDefinition);
-        this.propertiesMap = new TreeMap<>();
+        this(beanDefinition, beanDefinition.newStorage(), false);
+    }
+
+    DynaBeanInstance(BeanDefinition beanDefinition, PropertyStorage storage) {
+        this(beanDefinition, storage, false);
     }
 
-    DynaBeanInstance(BeanDefinition beanDefinition, TreeMap<String, Object> propertiesMap) {
+    DynaBeanInstance(BeanDefinition beanDefinition, PropertyStorage storage, boolean lazy) {
         this.beanDefinition = requireNonNull(beanDefinition);
-        this.propertiesMap = requireNonNull(propertiesMap);
+        this.storage = requireNonNull(storage);
+        this.lazy = lazy;
     }
 
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+                case "equals":
+                    return equals(asDynaBeanInstanceOrNull(args[0]));
+                case "hashCode":
+                    return hashCode();
+                default:
+                    return toString();
+            }
+        }
         MethodDefinition methodDefinition = beanDefinition.getMethodDefinition(method);
         if (methodDefinition != null) {
+            AccessProfiler profiler = beanDefinition.accessProfiler;
+            if (profiler != null) {
+                profiler.sample(methodDefinition);
+            }
             return methodDefinition.invoke(proxy, this, args);
         }
         if (method.getDeclaringClass().equals(DynaBean.class)) {
@@ -46,40 +112,417 @@ final class DynaBeanInstance implements InvocationHandler, BeanProperties {
                 return cloneProxy();
             }
         }
-        if (method.getDeclaringClass().equals(Object.class)) {
-            String methodName = method.getName();
-            if (methodName.equals("equals")) {
-                args[0] = asDynaBeanInstanceOrNull(args[0]);
-            }
-            return method.invoke(this, args);
-        }
         throw new UnsupportedOperationException("Unimplemented dynabean method: " + method);
     }
 
     public Object get(String propertyName) {
-        return propertiesMap.get(propertyName);
+        BeanDefinition.PropertySlot slot = beanDefinition.getPropertySlot(propertyName);
+        return slot == null ? null : get(slot.index);
+    }
+
+    Object get(int slotIndex) {
+        Object value = storage.read(slotIndex);
+        if (lazy && value instanceof LazyValue) {
+            LazyValue lazyValue = (LazyValue) value;
+            if (lazyValue.isResolved()) {
+                return lazyValue.get();
+            }
+            Object resolved = lazyValue.get();
+            if (resolved != null) {
+                // placeholders are not counted as set by the profile of the storage until they are resolved
+                storage.recordResolved();
+            }
+            return resolved;
+        }
+        return value;
     }
 
     public void set(String propertyName, Object value) {
-        if (value == null) {
-            propertiesMap.remove(propertyName);
-        } else {
-            propertiesMap.put(propertyName, value);
+        BeanDefinition.PropertySlot slot = beanDefinition.getPropertySlot(propertyName);
+        if (slot == null) {
+            throw new IllegalArgumentException(
+                "Unknown property: " + propertyName + " for: " + beanDefinition.beanInterfaceClass);
+        }
+        set(slot, value);
+    }
+
+    void set(BeanDefinition.PropertySlot slot, Object value) {
+        checkValue(slot, value);
+        store(slot, value);
+    }
+
+    private void checkValue(BeanDefinition.PropertySlot slot, Object value) {
+        if (beanDefinition.typeChecking == TypeChecking.STRICT && !slot.accepts(value)) {
+            throw BeanDefinition.notInstanceOf(value, slot.type);
+        }
+    }
+
+    /**
+     * Stores the given value after the change listeners accepted it, without checking its type. The listeners are
+     * notified and the value is written while holding the monitor of this instance (and the write lock of versioned
+     * storages), so the listeners see the changes of concurrent setters in the order they are written, each with the
+     * actual old value.
+     */
+    private void store(BeanDefinition.PropertySlot slot, Object value) {
+        synchronized (this) {
+            if (isVersioned()) {
+                storage.beginUpdate();
+                boolean commit = false;
+                try {
+                    fireChanging(slot.propertyName, value);
+                    storage.write(slot.index, value);
+                    commit = true;
+                } finally {
+                    storage.endUpdate(commit);
+                }
+                return;
+            }
+            fireChanging(slot.propertyName, value);
+            if (hashMaintained) {
+                updateHash(slot.index, storage.get(slot.index), value);
+            }
+            storage.write(slot.index, value);
         }
     }
 
+    private void updateHash(int slotIndex, Object oldValue, Object newValue) {
+        if (oldValue != null) {
+            if (isImmutable(oldValue)) {
+                immutableValuesHash -= propertyHash(slotIndex, oldValue);
+            } else {
+                --mutableValueCount;
+            }
+        }
+        if (newValue != null) {
+            if (isImmutable(newValue)) {
+                immutableValuesHash += propertyHash(slotIndex, newValue);
+            } else {
+                ++mutableValueCount;
+            }
+        }
+    }
+
+    private void fireChanging(String propertyName, Object newValue) {
+        PropertyChangeListener[] listeners = this.listeners;
+        if (listeners.length == 0) {
+            return;
+        }
+        Object oldValue = get(propertyName);
+        for (int i = 0; i < listeners.length; ++i) {
+            try {
+                listeners[i].propertyChanging(this, propertyName, oldValue, newValue);
+            } catch (RuntimeException e) {
+                for (int j = i - 1; j >= 0; --j) {
+                    listeners[j].propertyChanging(this, propertyName, newValue, oldValue);
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Registers the given listener without locking this instance, so the callers can hold their own locks, which the
+     * listeners take while this instance is locked by {@link #store}.
+     */
+    void addListener(PropertyChangeListener listener) {
+        requireNonNull(listener);
+        PropertyChangeListener[] current;
+        PropertyChangeListener[] extended;
+        do {
+            current = listeners;
+            extended = Arrays.copyOf(current, current.length + 1);
+            extended[current.length] = listener;
+        } while (!LISTENERS.compareAndSet(this, current, extended));
+    }
+
+    /**
+     * Unregisters the given listener without locking this instance, see {@link #addListener}.
+     */
+    void removeListener(PropertyChangeListener listener) {
+        PropertyChangeListener[] current;
+        PropertyChangeListener[] remaining;
+        do {
+            current = listeners;
+            ArrayList<PropertyChangeListener> list = new ArrayList<>(Arrays.asList(current));
+            if (!list.remove(listener)) {
+                return;
+            }
+            remaining = list.isEmpty() ? NO_LISTENERS : list.toArray(NO_LISTENERS);
+        } while (!LISTENERS.compareAndSet(this, current, remaining));
+    }
+
+    /**
+     * Estimates the number of bytes taken by the proxy, this invocation handler, the property storage and the listeners
+     * of this instance, excluding the property values.
+     */
+    long estimateShallowBytes() {
+        long bytes = FootprintEstimator.instanceBytes(Proxy.class) + FootprintEstimator.instanceBytes(getClass())
+            + storage.estimateBytes();
+        PropertyChangeListener[] current = listeners;
+        return current.length == 0 ? bytes : bytes + FootprintEstimator.arrayBytes(4, current.length);
+    }
+
+    /**
+     * Estimates the number of bytes taken by the property values of this instance by the given estimator.
+     */
+    long estimateValueBytes(FootprintEstimator estimator) {
+        long bytes = 0L;
+        for (int i = storage.nextSetIndex(0); i >= 0; i = storage.nextSetIndex(i + 1)) {
+            bytes += estimator.estimateValue(storage.get(i));
+        }
+        return bytes;
+    }
+
+    /**
+     * Marks this instance as released to a {@link BeanPool}, resetting all of its properties if it is kept for reuse.
+     *
+     * @param reset whether the properties are reset, reusing the storage of this instance
+     * @throws IllegalArgumentException if this instance is already released, or it still has change listeners: it is
+     *                                  an element of an indexed collection or attached to a journal
+     */
+    synchronized void release(boolean reset) {
+        if (released) {
+            throw new IllegalArgumentException("Dynabean instance already released: " + this);
+        }
+        if (listeners.length > 0) {
+            throw new IllegalArgumentException(
+                "Dynabean instance still in an indexed collection or attached to a journal: " + this);
+        }
+        if (reset) {
+            storage.removeAll();
+            hashMaintained = false;
+        }
+        released = true;
+    }
+
+    /**
+     * Marks this released instance as handed out again by its {@link BeanPool}.
+     */
+    synchronized void reuse() {
+        released = false;
+    }
+
+    /**
+     * Sets the given values atomically. The slots may belong to the definition of a super-interface, in which case
+     * they are resolved by their property names.
+     */
+    void setAll(BeanDefinition.PropertySlot[] slots, Object[] values) {
+        setAllIfVersion(slots, values, ANY_VERSION);
+    }
+
+    /**
+     * Sets the given values atomically, if the current version of the storage is the expected one or the expected
+     * version is {@link #ANY_VERSION}. Versioned storages publish all the values as a single new version, or none of
+     * them if a value is rejected.
+     * <p>
+     * The types of all the values are checked before notifying any change listener. If a listener vetoes a value of a
+     * versioned bean, the listeners are notified about changing the values already accepted back to their old values,
+     * as those are discarded together with the rejected one.
+     *
+     * @return whether the values were set
+     */
+    boolean setAllIfVersion(BeanDefinition.PropertySlot[] slots, Object[] values, long expectedVersion) {
+        BeanDefinition.PropertySlot[] ownSlots = beanDefinition.propertySlots();
+        BeanDefinition.PropertySlot[] resolved = new BeanDefinition.PropertySlot[slots.length];
+        for (int i = 0; i < slots.length; ++i) {
+            BeanDefinition.PropertySlot slot = slots[i];
+            if (slot.index >= ownSlots.length || ownSlots[slot.index] != slot) {
+                slot = beanDefinition.getPropertySlot(slot.propertyName);
+            }
+            checkValue(slot, values[i]);
+            resolved[i] = slot;
+        }
+        synchronized (this) {
+            storage.beginUpdate();
+            boolean commit = false;
+            Object[] oldValues = null;
+            int stored = 0;
+            try {
+                if (expectedVersion != ANY_VERSION && storage.version() != expectedVersion) {
+                    return false;
+                }
+                if (listeners.length > 0 && isVersioned()) {
+                    oldValues = new Object[resolved.length];
+                }
+                for (; stored < resolved.length; ++stored) {
+                    if (oldValues != null) {
+                        oldValues[stored] = get(resolved[stored].index);
+                    }
+                    store(resolved[stored], values[stored]);
+                }
+                commit = true;
+                return true;
+            } finally {
+                storage.endUpdate(commit);
+                if (!commit && oldValues != null) {
+                    revertChanges(resolved, values, oldValues, stored);
+                }
+            }
+        }
+    }
+
+    /**
+     * Notifies the listeners about changing the first count values back to their old values, in reverse order.
+     */
+    private void revertChanges(BeanDefinition.PropertySlot[] slots, Object[] values, Object[] oldValues, int count) {
+        PropertyChangeListener[] listeners = this.listeners;
+        for (int i = count - 1; i >= 0; --i) {
+            for (int j = listeners.length - 1; j >= 0; --j) {
+                listeners[j].propertyChanging(this, slots[i].propertyName, values[i], oldValues[i]);
+            }
+        }
+    }
+
+    long version() {
+        return storage.version();
+    }
+
+    boolean isVersioned() {
+        return storage.layout() == StorageLayout.VERSIONED;
+    }
+
+    /**
+     * Creates a frozen view of the current version of this versioned instance, sharing its property values, unless the
+     * given proxy of this instance is a snapshot itself.
+     */
+    Object snapshotProxy(Object proxy) {
+        PropertyStorage snapshot = storage.snapshot();
+        return snapshot == storage ? proxy : createProxy(beanDefinition, snapshot, lazy);
+    }
+
     public boolean equals(Object obj) {
         if (obj == this) return true;
         if (obj instanceof DynaBeanInstance) {
             DynaBeanInstance other = (DynaBeanInstance) obj;
-            return beanDefinition.equals(other.beanDefinition)
-                && propertiesMap.equals(other.propertiesMap);
+            return beanDefinition.equals(other.beanDefinition) && !hashesDiffer(other) && propertiesEqual(other);
         }
         return false;
     }
 
+    /**
+     * Returns whether the maintained hashes prove the two instances of the same type different without comparing their
+     * properties, which is the case if both of them hold immutable values only.
+     */
+    private boolean hashesDiffer(DynaBeanInstance other) {
+        return hashMaintained && other.hashMaintained && mutableValueCount == 0 && other.mutableValueCount == 0
+            && immutableValuesHash != other.immutableValuesHash;
+    }
+
+    /**
+     * Compares the property values of the two instances of the same type, visiting only the properties set in either
+     * of them (regardless of their storage layouts), with lazy values resolved.
+     */
+    private boolean propertiesEqual(DynaBeanInstance other) {
+        int index = storage.nextSetIndex(0);
+        int otherIndex = other.storage.nextSetIndex(0);
+        while (index >= 0 || otherIndex >= 0) {
+            int current = index < 0 ? otherIndex : otherIndex < 0 ? index : Math.min(index, otherIndex);
+            if (!Objects.equals(get(current), other.get(current))) {
+                return false;
+            }
+            if (index == current) {
+                index = storage.nextSetIndex(current + 1);
+            }
+            if (otherIndex == current) {
+                otherIndex = other.storage.nextSetIndex(current + 1);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collects the indexes of the properties whose values differ in the other instance of the same type, and the
+     * values of those properties in the other instance, in the order of the indexes. Lazy values are resolved.
+     */
+    void diff(DynaBeanInstance other, BitSet changed, List<Object> otherValues) {
+        int index = storage.nextSetIndex(0);
+        int otherIndex = other.storage.nextSetIndex(0);
+        while (index >= 0 || otherIndex >= 0) {
+            int current = index < 0 ? otherIndex : otherIndex < 0 ? index : Math.min(index, otherIndex);
+            Object otherValue = other.get(current);
+            if (!Objects.equals(get(current), otherValue)) {
+                changed.set(current);
+                otherValues.add(otherValue);
+            }
+            if (index == current) {
+                index = storage.nextSetIndex(current + 1);
+            }
+            if (otherIndex == current) {
+                otherIndex = other.storage.nextSetIndex(current + 1);
+            }
+        }
+    }
+
+    /**
+     * Computes the same hash code as a sorted map of the property names and values would, with lazy values resolved.
+     * The hashes of the immutable values are summed once and maintained by the setters, so only the properties holding
+     * mutable values (like lists or other dynabeans) are visited by later calls.
+     */
     public int hashCode() {
-        return 961 + 31 * beanDefinition.hashCode() + propertiesMap.hashCode();
+        int propertiesHash;
+        if (hashMaintained) {
+            propertiesHash = mutableValueCount == 0 ? immutableValuesHash : immutableValuesHash + mutableValuesHash();
+        } else if (isVersioned()) {
+            propertiesHash = computePropertiesHash();
+        } else {
+            synchronized (this) {
+                propertiesHash = computePropertiesHash();
+            }
+        }
+        return 961 + 31 * beanDefinition.hashCode() + propertiesHash;
+    }
+
+    /**
+     * Sums the hashes of all the properties, and starts maintaining the hashes of the immutable values if the storage
+     * is not versioned, in which case the caller must hold the monitor of this instance.
+     */
+    private int computePropertiesHash() {
+        int immutableHash = 0;
+        int mutableHash = 0;
+        int mutableCount = 0;
+        for (int i = storage.nextSetIndex(0); i >= 0; i = storage.nextSetIndex(i + 1)) {
+            Object value = storage.get(i);
+            if (value == null) {
+                continue;
+            }
+            if (isImmutable(value)) {
+                immutableHash += propertyHash(i, value);
+            } else {
+                mutableHash += propertyHash(i, value);
+                ++mutableCount;
+            }
+        }
+        if (!isVersioned()) {
+            immutableValuesHash = immutableHash;
+            mutableValueCount = mutableCount;
+            hashMaintained = true;
+        }
+        return immutableHash + mutableHash;
+    }
+
+    private int mutableValuesHash() {
+        int sum = 0;
+        for (int i = storage.nextSetIndex(0); i >= 0; i = storage.nextSetIndex(i + 1)) {
+            Object value = storage.get(i);
+            if (value != null && !isImmutable(value)) {
+                sum += propertyHash(i, value);
+            }
+        }
+        return sum;
+    }
+
+    private int propertyHash(int slotIndex, Object value) {
+        if (lazy && value instanceof LazyValue) {
+            value = get(slotIndex);
+            if (value == null) {
+                return 0;
+            }
+        }
+        return beanDefinition.propertySlots()[slotIndex].propertyName.hashCode() ^ value.hashCode();
+    }
+
+    private static boolean isImmutable(Object value) {
+        return value instanceof String || value instanceof Enum || Primitives.isWrapperType(value.getClass());
     }
 
     public String toString() {
@@ -87,11 +530,40 @@ final class DynaBeanInstance implements InvocationHandler, BeanProperties {
     }
 
     public Object cloneProxy() {
-        TreeMap<String, Object> copy = new TreeMap<>();
-        for (Entry<String, Object> entry : propertiesMap.entrySet()) {
-            copy.put(entry.getKey(), copyPropertyValue(entry.getValue()));
+        return cloneProxy(false);
+    }
+
+    Object cloneProxy(boolean parallel) {
+        PropertyStorage copy = beanDefinition.newStorage();
+        for (int i = storage.nextSetIndex(0); i >= 0; i = storage.nextSetIndex(i + 1)) {
+            Object value = storage.get(i);
+            if (lazy && value instanceof LazyValue) {
+                copy.write(i, ((LazyValue) value).copy(parallel));
+            } else {
+                copy.write(i, copyPropertyValue(value, parallel));
+            }
+        }
+        return createProxy(beanDefinition, copy, lazy);
+    }
+
+    /**
+     * Creates a new dynabean instance of the same type with no properties set, to be filled by
+     * {@link #copyPropertiesInto(PropertyStorage, GraphCopier)}.
+     */
+    Object createEmptyCopy(PropertyStorage copy) {
+        return createProxy(beanDefinition, copy, lazy);
+    }
+
+    void copyPropertiesInto(PropertyStorage copy, GraphCopier copier) {
+        for (int i = storage.nextSetIndex(0); i >= 0; i = storage.nextSetIndex(i + 1)) {
+            Object value = storage.get(i);
+            if (lazy && value instanceof LazyValue) {
+                LazyValue lazyValue = (LazyValue) value;
+                copy.write(i, lazyValue.isResolved() ? copier.copy(lazyValue.get()) : lazyValue.copy(false));
+            } else {
+                copy.write(i, copier.copy(value));
+            }
         }
-        return createProxy(beanDefinition, copy);
     }
 
     static BeanProperties accessProperties(Object dynabean) {
@@ -115,42 +587,182 @@ final class DynaBeanInstance implements InvocationHandler, BeanProperties {
         return invocationHandler instanceof DynaBeanInstance ? (DynaBeanInstance) invocationHandler : null;
     }
 
+    private static Object[] copyElementsInParallel(Collection<?> original) {
+        final Object[] elements = original.toArray();
+        ParallelSupport.forEachRange(elements.length, new ParallelSupport.RangeAction() {
+            public void apply(int from, int to) {
+                for (int i = from; i < to; ++i) {
+                    elements[i] = copyPropertyValue(elements[i], true);
+                }
+            }
+        });
+        return elements;
+    }
+
+    /**
+     * Returns the internal property storage behind the given dynabean, view or columnar row instance, or null if the
+     * given object is of any other kind.
+     */
+    static BeanProperties propertiesOrNull(Object instance) {
+        if (instance == null || !Proxy.isProxyClass(instance.getClass())) return null;
+        InvocationHandler invocationHandler = Proxy.getInvocationHandler(instance);
+        if (invocationHandler instanceof BeanProperties) {
+            return (BeanProperties) invocationHandler;
+        }
+        if (invocationHandler instanceof DynaBeanView) {
+            return ((DynaBeanView) invocationHandler).target;
+        }
+        return null;
+    }
+
     static Object copyPropertyValue(Object original) {
+        return copyPropertyValue(original, false);
+    }
+
+    /**
+     * Copies the given property value, splitting the copy of large lists and sets across the fork-join pool of
+     * {@link ParallelSupport} if parallel is true.
+     */
+    static Object copyPropertyValue(Object original, boolean parallel) {
+        if (original instanceof PersistentVector || original instanceof PersistentHashSet) {
+            return original;
+        }
         if (List.class.isInstance(original)) {
             List originalList = (List) original;
+            if (parallel && originalList.size() > ParallelSupport.THRESHOLD) {
+                return new ArrayList(Arrays.asList(copyElementsInParallel(originalList)));
+            }
             ArrayList copy = new ArrayList(originalList.size());
             for (Object element : originalList) {
-                copy.add(copyPropertyValue(element));
+                copy.add(copyPropertyValue(element, parallel));
             }
             return copy;
         }
         if (Set.class.isInstance(original)) {
             Set originalSet = (Set) original;
+            if (parallel && originalSet.size() > ParallelSupport.THRESHOLD) {
+                return new LinkedHashSet(Arrays.asList(copyElementsInParallel(originalSet)));
+            }
             Set copy = new LinkedHashSet();
             for (Object element : originalSet) {
-                copy.add(copyPropertyValue(element));
+                copy.add(copyPropertyValue(element, parallel));
             }
             return copy;
         }
         DynaBeanInstance dynabean = asDynaBeanInstanceOrNull(original);
         if (dynabean != null) {
-            return dynabean.cloneProxy();
+            return dynabean.cloneProxy(parallel);
         }
+        return cloneIfCloneable(original);
+    }
+
+    /**
+     * Returns the result of the public clone method of the given value if it implements Cloneable, otherwise the value
+     * itself.
+     */
+    static Object cloneIfCloneable(Object original) {
         if (original instanceof Cloneable) {
             try {
-                Method cloneMethod = original.getClass().getMethod("clone");
-                return cloneMethod.invoke(original);
-
-            } catch (NoSuchMethodException e) {
-                return original;
-            } catch (IllegalAccessException e) {
+                return (Object) CLONE_METHODS.get(original.getClass()).invokeExact(original);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
                 throw new RuntimeException("Failed to clone value. " + e.getMessage(), e);
-            } catch (InvocationTargetException e) {
-                Throwable targetException = e.getTargetException();
-                throw new RuntimeException("Failed to clone value. " + targetException.getMessage(), targetException);
             }
         }
         return original;
     }
 
+    /**
+     * The public clone methods of cloneable classes as handles of type (Object) -> Object, resolved once per class
+     * instead of per value, or the identity for classes without one, whose values are not cloned.
+     */
+    private static final ClassValue<MethodHandle> CLONE_METHODS = new ClassValue<MethodHandle>() {
+        protected MethodHandle computeValue(Class<?> type) {
+            try {
+                return CopyPlan.getterHandle(type.getMethod("clone"));
+            } catch (NoSuchMethodException e) {
+                return MethodHandles.identity(Object.class);
+            }
+        }
+    };
+
+    /**
+     * Placeholder of a property value in the properties map of lazily initialized dynabean instances. The initializer is
+     * called on the first access and its result is memoized. The thread-safe variant guarantees that the initializer is
+     * called at most once even if the bean is shared between threads.
+     */
+    static final class LazyValue {
+
+        private final PropertyInitializer initializer;
+
+        private final String propertyName;
+
+        private final Method getter;
+
+        private final boolean threadSafe;
+
+        /**
+         * The slot of the property if the initialized value must be type checked, otherwise null.
+         */
+        private final BeanDefinition.PropertySlot checkedSlot;
+
+        private volatile boolean resolved;
+
+        private Object value;
+
+        LazyValue(PropertyInitializer initializer, String propertyName, Method getter, boolean threadSafe) {
+            this(initializer, propertyName, getter, threadSafe, null);
+        }
+
+        LazyValue(PropertyInitializer initializer, String propertyName, Method getter, boolean threadSafe,
+            BeanDefinition.PropertySlot checkedSlot) {
+            this.initializer = requireNonNull(initializer);
+            this.propertyName = requireNonNull(propertyName);
+            this.getter = requireNonNull(getter);
+            this.threadSafe = threadSafe;
+            this.checkedSlot = checkedSlot;
+        }
+
+        Object get() {
+            if (resolved) {
+                return value;
+            }
+            if (threadSafe) {
+                synchronized (this) {
+                    if (!resolved) {
+                        resolve();
+                    }
+                }
+            } else {
+                resolve();
+            }
+            return value;
+        }
+
+        boolean isResolved() {
+            return resolved;
+        }
+
+        private void resolve() {
+            Object initialValue = initializer.get(propertyName, getter);
+            if (checkedSlot != null && !checkedSlot.accepts(initialValue)) {
+                throw BeanDefinition.notInstanceOf(initialValue, checkedSlot.type);
+            }
+            value = initialValue;
+            resolved = true;
+        }
+
+        /**
+         * Returns an unresolved placeholder of the same property if this one is not resolved yet, otherwise the copy of
+         * the resolved value.
+         */
+        Object copy(boolean parallel) {
+            if (resolved) {
+                return value == null ? null : copyPropertyValue(value, parallel);
+            }
+            return new LazyValue(initializer, propertyName, getter, threadSafe, checkedSlot);
+        }
+    }
+
 }
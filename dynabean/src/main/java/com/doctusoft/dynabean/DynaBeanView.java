@@ -0,0 +1,164 @@
+package com.doctusoft.dynabean;
+
+import com.doctusoft.dynabean.BeanDefinition.GetterMethod;
+import com.doctusoft.dynabean.BeanDefinition.PropertySlot;
+import com.doctusoft.dynabean.BeanDefinition.SetterMethod;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.Map.*;
+
+import static java.util.Objects.*;
+
+/**
+ * Internal implementation class of the proxy invoker of a view: an instance of another bean interface backed by the
+ * property storage of an existing dynabean instance. Reads and writes through the view go directly to the original
+ * instance, nothing is copied.
+ */
+final class DynaBeanView implements InvocationHandler {
+    
+    @SuppressWarnings("unchecked")
+    static <V> V createProxy(ViewDefinition viewDefinition, DynaBeanInstance target) {
+        Class<?>[] interfaces = { viewDefinition.viewDefinition.beanInterfaceClass };
+        DynaBeanView invoker = new DynaBeanView(viewDefinition, target);
+        Object view = Proxy.newProxyInstance(viewDefinition.viewDefinition.classLoader, interfaces, invoker);
+        return (V) view;
+    }
+    
+    final ViewDefinition viewDefinition;
+    
+    final DynaBeanInstance target;
+    
+    private DynaBeanView(ViewDefinition viewDefinition, DynaBeanInstance target) {
+        this.viewDefinition = requireNonNull(viewDefinition);
+        this.target = requireNonNull(target);
+    }
+    
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+                case "equals":
+                    return equals(asDynaBeanViewOrNull(args[0]));
+                case "hashCode":
+                    return hashCode();
+                default:
+                    return toString();
+            }
+        }
+        MethodDefinition methodDefinition = viewDefinition.getMethodDefinition(method);
+        if (methodDefinition != null) {
+            return methodDefinition.invoke(proxy, target, args);
+        }
+        throw new UnsupportedOperationException("Unimplemented dynabean view method: " + method);
+    }
+    
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        if (obj instanceof DynaBeanView) {
+            DynaBeanView other = (DynaBeanView) obj;
+            return target == other.target && viewDefinition.equals(other.viewDefinition);
+        }
+        return false;
+    }
+    
+    public int hashCode() {
+        return 31 * System.identityHashCode(target) + viewDefinition.hashCode();
+    }
+    
+    public String toString() {
+        return "DynaBeanView(type=" + viewDefinition.viewDefinition.beanInterfaceClass.getSimpleName()
+            + ", of=" + target + ")";
+    }
+    
+    static DynaBeanView asDynaBeanViewOrNull(Object instance) {
+        if (instance == null || !Proxy.isProxyClass(instance.getClass())) return null;
+        InvocationHandler invocationHandler = Proxy.getInvocationHandler(instance);
+        return invocationHandler instanceof DynaBeanView ? (DynaBeanView) invocationHandler : null;
+    }
+    
+    /**
+     * The mapping of the methods of a view interface onto the properties of a source bean type. It is computed and type
+     * checked once per pair of types, then cached in the source {@link BeanDefinition}.
+     */
+    static final class ViewDefinition {
+        
+        final BeanDefinition viewDefinition;
+        
+        final BeanDefinition sourceDefinition;
+        
+        private final HashMap<Method, MethodDefinition> methodDefinitionMap;
+        
+        ViewDefinition(BeanDefinition viewDefinition, BeanDefinition sourceDefinition) {
+            this.viewDefinition = requireNonNull(viewDefinition, "viewDefinition");
+            this.sourceDefinition = requireNonNull(sourceDefinition, "sourceDefinition");
+            this.methodDefinitionMap = new HashMap<>();
+            for (Entry<Method, MethodDefinition> e : viewDefinition.getMethodDefinitions().entrySet()) {
+                methodDefinitionMap.put(e.getKey(), mapMethod(e.getKey(), e.getValue()));
+            }
+        }
+        
+        MethodDefinition getMethodDefinition(Method method) {
+            return methodDefinitionMap.get(method);
+        }
+        
+        private MethodDefinition mapMethod(Method method, MethodDefinition methodDefinition) {
+            if (methodDefinition instanceof GetterMethod) {
+                GetterMethod getter = (GetterMethod) methodDefinition;
+                PropertySlot sourceSlot = sourceDefinition.getPropertySlot(getter.propertyName);
+                if (sourceSlot != null && sourceSlot.isReadable() && !getter.wrap.isAssignableFrom(sourceSlot.wrap)) {
+                    throw incompatible(method, sourceSlot);
+                }
+                return getter;
+            }
+            if (methodDefinition instanceof SetterMethod) {
+                SetterMethod setter = (SetterMethod) methodDefinition;
+                PropertySlot sourceSlot = sourceDefinition.getPropertySlot(setter.propertyName);
+                if (sourceSlot == null) {
+                    return new UnsupportedMethod(method);
+                }
+                if (sourceSlot.isReadable() && !sourceSlot.wrap.isAssignableFrom(setter.wrap)) {
+                    throw incompatible(method, sourceSlot);
+                }
+                return setter;
+            }
+            return methodDefinition;
+        }
+        
+        private IllegalArgumentException incompatible(Method method, PropertySlot sourceSlot) {
+            return new IllegalArgumentException("Cannot view " + sourceDefinition.beanInterfaceClass + " as "
+                + viewDefinition.beanInterfaceClass + ": " + method + " is incompatible with type: " + sourceSlot.type);
+        }
+        
+        public boolean equals(Object obj) {
+            if (obj == this) return true;
+            if (obj instanceof ViewDefinition) {
+                ViewDefinition other = (ViewDefinition) obj;
+                return viewDefinition.equals(other.viewDefinition) && sourceDefinition.equals(other.sourceDefinition);
+            }
+            return false;
+        }
+        
+        public int hashCode() {
+            return 31 * viewDefinition.hashCode() + sourceDefinition.hashCode();
+        }
+    }
+    
+    /**
+     * Setters of properties unknown to the source bean type cannot write through.
+     */
+    private static final class UnsupportedMethod implements MethodDefinition {
+        
+        private final Method method;
+        
+        UnsupportedMethod(Method method) {
+            this.method = method;
+        }
+        
+        public Object invoke(Object proxy, BeanProperties beanProperties, Object... arguments) {
+            throw new UnsupportedOperationException("Property not backed by the viewed dynabean: " + method);
+        }
+    }
+    
+}
@@ -0,0 +1,191 @@
+package com.doctusoft.dynabean;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * Internal estimator of the memory taken by dynabean instances and their property values, assuming a 64-bit JVM with
+ * compressed references and a 12 bytes object header. The sizes of objects are computed from the types of their
+ * instance fields, the sizes of the common collections from their sizes, so no agent is needed. Each value is counted
+ * once per estimator, regardless of how many times it is referenced.
+ * <p>
+ * Values which are shared by design are never counted: enum constants, classes, booleans and the cached small boxed
+ * integers and characters.
+ */
+final class FootprintEstimator {
+    
+    private static final int HEADER_BYTES = 12;
+    
+    private static final int ARRAY_HEADER_BYTES = 16;
+    
+    private static final ClassValue<Long> INSTANCE_BYTES = new ClassValue<Long>() {
+        protected Long computeValue(Class<?> type) {
+            long fieldBytes = 0L;
+            int wideFields = 0;
+            for (Class<?> declaring = type; declaring != null; declaring = declaring.getSuperclass()) {
+                for (Field field : declaring.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers())) {
+                        int size = fieldBytes(field.getType());
+                        fieldBytes += size;
+                        if (size == 8) ++wideFields;
+                    }
+                }
+            }
+            // long and double fields cannot fill the gap after the header, only narrower ones
+            long padding = wideFields > 0 && fieldBytes == 8L * wideFields ? 4 : 0;
+            return StorageProfile.align(HEADER_BYTES + padding + fieldBytes);
+        }
+    };
+    
+    private final boolean deep;
+    
+    private final Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    
+    /**
+     * @param deep whether the elements of collections, maps and arrays and the property values of nested dynabeans are
+     *             counted as well
+     */
+    FootprintEstimator(boolean deep) {
+        this.deep = deep;
+    }
+    
+    /**
+     * Marks the given object as counted already, so references to it are not counted again.
+     */
+    void exclude(Object object) {
+        visited.add(object);
+    }
+    
+    /**
+     * Estimates the size of the given property value, unless it is shared or counted already: the value itself and
+     * its internal structure (such as the characters of a string or the entries of a map), and in deep mode the
+     * elements and the property values of nested dynabeans too.
+     */
+    long estimateValue(Object value) {
+        if (value == null || isShared(value) || !visited.add(value)) {
+            return 0L;
+        }
+        DynaBeanInstance dynabean = DynaBeanInstance.asDynaBeanInstanceOrNull(value);
+        if (dynabean != null) {
+            long bytes = dynabean.estimateShallowBytes();
+            return deep ? bytes + dynabean.estimateValueBytes(this) : bytes;
+        }
+        long bytes = estimateStructure(value);
+        if (deep) {
+            try {
+                if (value instanceof Collection) {
+                    for (Object element : (Collection<?>) value) {
+                        bytes += estimateValue(element);
+                    }
+                } else if (value instanceof Map) {
+                    for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                        bytes += estimateValue(entry.getKey()) + estimateValue(entry.getValue());
+                    }
+                } else if (value instanceof Object[]) {
+                    for (Object element : (Object[]) value) {
+                        bytes += estimateValue(element);
+                    }
+                }
+            } catch (ConcurrentModificationException e) {
+                // the elements counted so far are kept, the estimate is not exact anyway
+            }
+        }
+        return bytes;
+    }
+    
+    private static long estimateStructure(Object value) {
+        Class<?> type = value.getClass();
+        if (value instanceof String) {
+            String string = (String) value;
+            return instanceBytes(type) + arrayBytes(isLatin1(string) ? 1 : 2, string.length());
+        }
+        if (type.isArray()) {
+            Class<?> componentType = type.getComponentType();
+            return arrayBytes(componentType.isPrimitive() ? fieldBytes(componentType) : 4, Array.getLength(value));
+        }
+        if (value instanceof ArrayList || value instanceof ArrayDeque || value instanceof Vector) {
+            return instanceBytes(type) + arrayBytes(4, ((Collection<?>) value).size());
+        }
+        if (value instanceof LinkedList) {
+            long nodeBytes = StorageProfile.align(HEADER_BYTES + 4 + 4 + 4);
+            return instanceBytes(type) + ((LinkedList<?>) value).size() * nodeBytes;
+        }
+        if (value instanceof HashSet) {
+            return instanceBytes(type) + hashMapBytes(((HashSet<?>) value).size(), value instanceof LinkedHashSet);
+        }
+        if (value instanceof HashMap) {
+            return hashMapBytes(((HashMap<?, ?>) value).size(), value instanceof LinkedHashMap);
+        }
+        if (value instanceof TreeSet) {
+            return instanceBytes(type) + treeMapBytes(((TreeSet<?>) value).size());
+        }
+        if (value instanceof TreeMap) {
+            return treeMapBytes(((TreeMap<?, ?>) value).size());
+        }
+        if (value instanceof Collection) {
+            return instanceBytes(type) + arrayBytes(4, ((Collection<?>) value).size());
+        }
+        if (value instanceof Map) {
+            int size = ((Map<?, ?>) value).size();
+            return instanceBytes(type) + arrayBytes(4, size) + size * StorageProfile.align(HEADER_BYTES + 4 + 4 + 4);
+        }
+        return instanceBytes(type);
+    }
+    
+    private static long hashMapBytes(int size, boolean linked) {
+        long mapBytes = instanceBytes(linked ? LinkedHashMap.class : HashMap.class);
+        if (size == 0) {
+            return mapBytes;
+        }
+        int tableLength = Math.max(16, Integer.highestOneBit((int) Math.ceil(size / 0.75) - 1) << 1);
+        long entryBytes = StorageProfile.align(HEADER_BYTES + 4 + 4 + 4 + 4 + (linked ? 4 + 4 : 0));
+        return mapBytes + arrayBytes(4, tableLength) + size * entryBytes;
+    }
+    
+    private static long treeMapBytes(int size) {
+        return instanceBytes(TreeMap.class) + size * StorageProfile.align(HEADER_BYTES + 4 + 4 + 4 + 4 + 4 + 1);
+    }
+    
+    private static boolean isLatin1(String string) {
+        for (int i = 0; i < string.length(); ++i) {
+            if (string.charAt(i) > 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static boolean isShared(Object value) {
+        if (value instanceof Enum || value instanceof Class || value instanceof Boolean || value instanceof Byte) {
+            return true;
+        }
+        if (value instanceof Integer || value instanceof Short || value instanceof Long) {
+            long number = ((Number) value).longValue();
+            return number >= -128 && number <= 127;
+        }
+        return value instanceof Character && (Character) value <= 127;
+    }
+    
+    /**
+     * Returns the estimated size of an instance of the given class, excluding the objects referenced by its fields.
+     */
+    static long instanceBytes(Class<?> type) {
+        return INSTANCE_BYTES.get(type);
+    }
+    
+    static long arrayBytes(int elementBytes, int length) {
+        return StorageProfile.align(ARRAY_HEADER_BYTES + (long) elementBytes * length);
+    }
+    
+    private static int fieldBytes(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == boolean.class || type == byte.class) {
+            return 1;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        }
+        return 4;
+    }
+    
+}
@@ -0,0 +1,64 @@
+package com.doctusoft.dynabean;
+
+import java.lang.ref.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static java.util.Objects.*;
+
+/**
+ * Internal tracker of the dynabean instances of a single type created while footprint tracking is enabled. The
+ * instances are referenced weakly, so tracking does not keep them alive; the references of the collected instances
+ * are dropped whenever a new instance is tracked or a footprint is estimated.
+ */
+final class FootprintTracker {
+    
+    private final BeanDefinition beanDefinition;
+    
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+    
+    private final Set<Reference<Object>> tracked =
+        Collections.newSetFromMap(new ConcurrentHashMap<Reference<Object>, Boolean>());
+    
+    FootprintTracker(BeanDefinition beanDefinition) {
+        this.beanDefinition = requireNonNull(beanDefinition, "beanDefinition");
+    }
+    
+    void track(Object bean) {
+        expungeCollected();
+        tracked.add(new WeakReference<>(bean, collected));
+    }
+    
+    private void expungeCollected() {
+        Reference<?> reference;
+        while ((reference = collected.poll()) != null) {
+            tracked.remove(reference);
+        }
+    }
+    
+    /**
+     * Estimates the total footprint of the tracked instances alive. Values shared by several instances are counted
+     * once, and so are instances which are property values of others.
+     */
+    BeanFootprint estimate(boolean deep) {
+        expungeCollected();
+        ArrayList<DynaBeanInstance> alive = new ArrayList<>(tracked.size());
+        FootprintEstimator estimator = new FootprintEstimator(deep);
+        for (Reference<Object> reference : tracked) {
+            Object bean = reference.get();
+            if (bean != null) {
+                alive.add(DynaBeanInstance.asDynaBeanInstanceOrNull(bean));
+                estimator.exclude(bean);
+            }
+        }
+        long shallowBytes = 0L;
+        long retainedBytes = 0L;
+        for (DynaBeanInstance dynabean : alive) {
+            long beanBytes = dynabean.estimateShallowBytes();
+            shallowBytes += beanBytes;
+            retainedBytes += beanBytes + dynabean.estimateValueBytes(estimator);
+        }
+        return new BeanFootprint(beanDefinition.beanInterfaceClass, deep, alive.size(), shallowBytes, retainedBytes);
+    }
+    
+}
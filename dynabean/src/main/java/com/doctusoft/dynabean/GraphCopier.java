@@ -0,0 +1,89 @@
+package com.doctusoft.dynabean;
+
+import java.util.*;
+
+/**
+ * Internal, single-use deep copier of an object graph which preserves the aliasing of the original graph: every
+ * dynabean, list and set reachable from the root is copied exactly once, no matter how many references point to it,
+ * and cycles are reproduced in the copy. The graph is traversed iteratively using an explicit work queue, so the depth
+ * of the graph is not limited by the stack size.
+ * <p>
+ * Copies of sets are populated only after all the other copies are complete, so that the hash codes of dynabean
+ * elements are computed from their final property values.
+ */
+final class GraphCopier {
+    
+    private final IdentityHashMap<Object, Object> copies = new IdentityHashMap<>();
+    
+    private final ArrayDeque<Object[]> pending = new ArrayDeque<>();
+    
+    private final ArrayList<Object[]> pendingSets = new ArrayList<>();
+    
+    Object copyGraph(Object root) {
+        Object copy = copy(root);
+        Object[] work;
+        while ((work = pending.poll()) != null) {
+            fill(work[0], work[1]);
+        }
+        for (int i = pendingSets.size() - 1; i >= 0; --i) {
+            Object[] setWork = pendingSets.get(i);
+            @SuppressWarnings("unchecked")
+            Set<Object> setCopy = (Set<Object>) setWork[0];
+            Object[] elements = (Object[]) setWork[1];
+            setCopy.addAll(Arrays.asList(elements));
+        }
+        return copy;
+    }
+    
+    /**
+     * Returns the copy of the given value, which might not be filled with its contents yet.
+     */
+    Object copy(Object original) {
+        if (original == null || original instanceof PersistentVector || original instanceof PersistentHashSet) {
+            return original;
+        }
+        Object copy = copies.get(original);
+        if (copy != null) {
+            return copy;
+        }
+        if (original instanceof List) {
+            copy = new ArrayList<>(((List<?>) original).size());
+        } else if (original instanceof Set) {
+            copy = new LinkedHashSet<>();
+        } else {
+            DynaBeanInstance dynabean = DynaBeanInstance.asDynaBeanInstanceOrNull(original);
+            if (dynabean == null) {
+                copy = DynaBeanInstance.cloneIfCloneable(original);
+                copies.put(original, copy);
+                return copy;
+            }
+            PropertyStorage storage = dynabean.beanDefinition.newStorage();
+            copy = dynabean.createEmptyCopy(storage);
+            copies.put(original, copy);
+            pending.add(new Object[] { dynabean, storage });
+            return copy;
+        }
+        copies.put(original, copy);
+        pending.add(new Object[] { original, copy });
+        return copy;
+    }
+    
+    private void fill(Object original, Object copy) {
+        if (original instanceof DynaBeanInstance) {
+            ((DynaBeanInstance) original).copyPropertiesInto((PropertyStorage) copy, this);
+        } else if (original instanceof List) {
+            @SuppressWarnings("unchecked")
+            List<Object> listCopy = (List<Object>) copy;
+            for (Object element : (List<?>) original) {
+                listCopy.add(copy(element));
+            }
+        } else {
+            Object[] elements = ((Set<?>) original).toArray();
+            for (int i = 0; i < elements.length; ++i) {
+                elements[i] = copy(elements[i]);
+            }
+            pendingSets.add(new Object[] { copy, elements });
+        }
+    }
+    
+}
@@ -0,0 +1,560 @@
+package com.doctusoft.dynabean;
+
+import com.doctusoft.dynabean.BeanDefinition.PropertySlot;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+import static java.util.Objects.*;
+
+/**
+ * A collection of dynabean instances of the same type which maintains secondary indexes on their properties, so
+ * lookups by property values do not need to scan all the elements. Hash indexes (unique or not) answer equality queries,
+ * sorted indexes answer range queries as well. The indexes are kept consistent when the setters of the contained beans
+ * are called: a change violating a unique index is rejected by throwing {@link IllegalArgumentException} from the
+ * setter.
+ * <p>
+ * Elements are held by identity, just like they are indexed by the current values of their properties, regardless of
+ * the equals method of the beans. Only dynabean instances can be added, since other implementations cannot notify the
+ * collection about changes of their properties.
+ * <p>
+ * Instances created by {@link DynaBeanFactory#createIndexedCollection(Class)} are NOT thread-safe, while the ones created
+ * by {@link DynaBeanFactory#createSharedIndexedCollection(Class)} can be shared between threads: they are guarded by a
+ * read-write lock which allows concurrent queries, thus suits read-mostly workloads best.
+ *
+ * @param <T> the type of the beans stored
+ */
+public final class IndexedBeanCollection<T> extends AbstractCollection<T> {
+    
+    final BeanDefinition beanDefinition;
+    
+    private final Lock readLock;
+    
+    private final Lock writeLock;
+    
+    private final IdentityHashMap<DynaBeanInstance, T> elements = new IdentityHashMap<>();
+    
+    private volatile Map<String, List<Index>> indexMap = Collections.emptyMap();
+    
+    private final Listener listener = new Listener();
+    
+    IndexedBeanCollection(BeanDefinition beanDefinition, boolean shared) {
+        this.beanDefinition = requireNonNull(beanDefinition, "beanDefinition");
+        ReadWriteLock lock = shared ? new ReentrantReadWriteLock() : NoLock.INSTANCE;
+        this.readLock = lock.readLock();
+        this.writeLock = lock.writeLock();
+    }
+    
+    @SuppressWarnings("unchecked")
+    public Class<T> getBeanInterfaceClass() {
+        return (Class<T>) beanDefinition.beanInterfaceClass;
+    }
+    
+    /**
+     * Declares a hash index on the given property for answering {@link #findEqual(String, Object)} queries.
+     */
+    public IndexedBeanCollection<T> addHashIndex(String propertyName) {
+        return addIndex(new HashIndex(readableSlot(propertyName), false));
+    }
+    
+    /**
+     * Declares a hash index on the given property which rejects adding or changing beans to have the same value of this
+     * property as another element of the collection. Multiple null values are allowed, unless the property type is
+     * primitive.
+     *
+     * @throws IllegalArgumentException if the current elements already violate the uniqueness of the property
+     */
+    public IndexedBeanCollection<T> addUniqueIndex(String propertyName) {
+        return addIndex(new HashIndex(readableSlot(propertyName), true));
+    }
+    
+    /**
+     * Declares a sorted index on the given property for answering both {@link #findEqual(String, Object)} and
+     * {@link #findRange(String, Object, boolean, Object, boolean)} queries. The property type must be comparable.
+     */
+    public IndexedBeanCollection<T> addSortedIndex(String propertyName) {
+        PropertySlot slot = readableSlot(propertyName);
+        if (!slot.type.isPrimitive() && !Comparable.class.isAssignableFrom(slot.type)) {
+            throw new IllegalArgumentException("Property " + propertyName + " is not comparable: " + slot.type);
+        }
+        return addIndex(new SortedIndex(slot));
+    }
+    
+    private IndexedBeanCollection<T> addIndex(Index index) {
+        writeLock.lock();
+        try {
+            for (Map.Entry<DynaBeanInstance, T> e : elements.entrySet()) {
+                Object key = index.keyOf(e.getKey());
+                index.check(key, e.getValue());
+                index.add(key, e.getValue());
+            }
+            String propertyName = index.slot.propertyName;
+            List<Index> indexes = indexMap.get(propertyName);
+            indexes = indexes == null ? new ArrayList<Index>(1) : new ArrayList<>(indexes);
+            indexes.add(index);
+            HashMap<String, List<Index>> extended = new HashMap<>(indexMap);
+            extended.put(propertyName, indexes);
+            indexMap = extended;
+            return this;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    public int size() {
+        readLock.lock();
+        try {
+            return elements.size();
+        } finally {
+            readLock.unlock();
+        }
+    }
+    
+    public boolean contains(Object bean) {
+        DynaBeanInstance instance = DynaBeanInstance.asDynaBeanInstanceOrNull(bean);
+        if (instance == null) {
+            return false;
+        }
+        readLock.lock();
+        try {
+            return elements.get(instance) == bean;
+        } finally {
+            readLock.unlock();
+        }
+    }
+    
+    /**
+     * Returns an iterator over a snapshot of the elements, its remove method removes the element from the collection.
+     */
+    public Iterator<T> iterator() {
+        final Iterator<T> snapshot = snapshot(elements.values()).iterator();
+        return new Iterator<T>() {
+            private T last;
+            
+            public boolean hasNext() {
+                return snapshot.hasNext();
+            }
+            
+            public T next() {
+                return last = snapshot.next();
+            }
+            
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                IndexedBeanCollection.this.remove(last);
+                last = null;
+            }
+        };
+    }
+    
+    /**
+     * Adds the given dynabean instance to the collection and all of its indexes.
+     *
+     * @return false if the bean was already an element of this collection
+     * @throws IllegalArgumentException if the bean is not a dynabean instance of the right type, or if its property
+     *                                  values violate a unique index
+     */
+    public boolean add(T bean) {
+        DynaBeanInstance instance = DynaBeanInstance.asDynaBeanInstanceOrNull(bean);
+        if (instance == null || !beanDefinition.beanInterfaceClass.isInstance(bean)) {
+            throw new IllegalArgumentException(
+                "Not a dynabean instance of " + beanDefinition.beanInterfaceClass + ": " + bean);
+        }
+        // the setters of the bean notify its listeners and write the new value while holding its monitor, so no value
+        // can change between registering the listener and reading the keys
+        synchronized (instance) {
+            writeLock.lock();
+            try {
+                if (elements.containsKey(instance)) {
+                    return false;
+                }
+                instance.addListener(listener);
+                boolean added = false;
+                try {
+                    for (List<Index> indexes : indexMap.values()) {
+                        for (Index index : indexes) {
+                            index.check(index.keyOf(instance), bean);
+                        }
+                    }
+                    for (List<Index> indexes : indexMap.values()) {
+                        for (Index index : indexes) {
+                            index.add(index.keyOf(instance), bean);
+                        }
+                    }
+                    elements.put(instance, bean);
+                    added = true;
+                } finally {
+                    if (!added) {
+                        instance.removeListener(listener);
+                    }
+                }
+                return true;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+    
+    public boolean remove(Object bean) {
+        DynaBeanInstance instance = DynaBeanInstance.asDynaBeanInstanceOrNull(bean);
+        if (instance == null) {
+            return false;
+        }
+        // the keys are read while holding the monitor of the bean, see add
+        synchronized (instance) {
+            writeLock.lock();
+            try {
+                T element = elements.remove(instance);
+                if (element == null) {
+                    return false;
+                }
+                instance.removeListener(listener);
+                for (List<Index> indexes : indexMap.values()) {
+                    for (Index index : indexes) {
+                        index.remove(index.keyOf(instance), element);
+                    }
+                }
+                return true;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+    
+    public void clear() {
+        writeLock.lock();
+        try {
+            for (DynaBeanInstance instance : elements.keySet()) {
+                instance.removeListener(listener);
+            }
+            elements.clear();
+            for (List<Index> indexes : indexMap.values()) {
+                for (Index index : indexes) {
+                    index.clear();
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Returns the element having the given value of the property covered by a unique index, or null if there is none.
+     *
+     * @throws IllegalArgumentException if there is no unique index declared on the property
+     */
+    public T findUnique(String propertyName, Object value) {
+        readLock.lock();
+        try {
+            for (Index index : indexesOf(propertyName)) {
+                if (index instanceof IndexedBeanCollection.HashIndex && ((HashIndex) index).unique) {
+                    return ((HashIndex) index).findUnique(value);
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+        throw new IllegalArgumentException("No unique index on property: " + propertyName);
+    }
+    
+    /**
+     * Returns the elements having the given value of the property, using any index declared on it.
+     *
+     * @throws IllegalArgumentException if there is no index declared on the property
+     */
+    public List<T> findEqual(String propertyName, Object value) {
+        readLock.lock();
+        try {
+            return snapshot(indexesOf(propertyName).get(0).find(value));
+        } finally {
+            readLock.unlock();
+        }
+    }
+    
+    /**
+     * Returns the elements whose value of the given property is within the given range, ordered by that value. Beans
+     * with a null value of the property never match a range.
+     *
+     * @param fromValue the lower bound of the range, or null for an unbounded range
+     * @param toValue   the upper bound of the range, or null for an unbounded range
+     * @throws IllegalArgumentException if there is no sorted index declared on the property
+     */
+    public List<T> findRange(String propertyName, Object fromValue, boolean fromInclusive,
+        Object toValue, boolean toInclusive) {
+        readLock.lock();
+        try {
+            for (Index index : indexesOf(propertyName)) {
+                if (index instanceof IndexedBeanCollection.SortedIndex) {
+                    return ((SortedIndex) index).findRange(fromValue, fromInclusive, toValue, toInclusive);
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+        throw new IllegalArgumentException("No sorted index on property: " + propertyName);
+    }
+    
+    private List<Index> indexesOf(String propertyName) {
+        List<Index> indexes = indexMap.get(propertyName);
+        if (indexes == null) {
+            throw new IllegalArgumentException("No index on property: " + propertyName);
+        }
+        return indexes;
+    }
+    
+    private List<T> snapshot(Collection<T> collection) {
+        readLock.lock();
+        try {
+            return collection.isEmpty() ? Collections.<T>emptyList() : new ArrayList<>(collection);
+        } finally {
+            readLock.unlock();
+        }
+    }
+    
+    private PropertySlot readableSlot(String propertyName) {
+        PropertySlot slot = beanDefinition.getPropertySlot(propertyName);
+        if (slot == null || !slot.isReadable()) {
+            throw new IllegalArgumentException(
+                "Unknown property: " + propertyName + " for: " + beanDefinition.beanInterfaceClass);
+        }
+        return slot;
+    }
+    
+    private static <E> Set<E> newIdentitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<E, Boolean>());
+    }
+    
+    private final class Listener implements PropertyChangeListener {
+        
+        public void propertyChanging(DynaBeanInstance bean, String propertyName, Object oldValue, Object newValue) {
+            List<Index> indexes = indexMap.get(propertyName);
+            if (indexes == null) {
+                return;
+            }
+            writeLock.lock();
+            try {
+                T element = elements.get(bean);
+                if (element == null) {
+                    return;
+                }
+                for (Index index : indexes) {
+                    Object oldKey = index.keyOf(oldValue);
+                    Object newKey = index.keyOf(newValue);
+                    if (!Objects.equals(oldKey, newKey)) {
+                        index.check(newKey, element);
+                    }
+                }
+                for (Index index : indexes) {
+                    index.remove(index.keyOf(oldValue), element);
+                    index.add(index.keyOf(newValue), element);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+    
+    private abstract class Index {
+        
+        final PropertySlot slot;
+        
+        Index(PropertySlot slot) {
+            this.slot = slot;
+        }
+        
+        final Object keyOf(DynaBeanInstance instance) {
+            return slot.readFrom((BeanProperties) instance);
+        }
+        
+        final Object keyOf(Object value) {
+            return value == null ? slot.defaultValue : value;
+        }
+        
+        void check(Object key, T bean) {}
+        
+        abstract void add(Object key, T bean);
+        
+        abstract void remove(Object key, T bean);
+        
+        abstract Collection<T> find(Object key);
+        
+        abstract void clear();
+    }
+    
+    private final class HashIndex extends Index {
+        
+        final boolean unique;
+        
+        private final HashMap<Object, Object> map = new HashMap<>();
+        
+        HashIndex(PropertySlot slot, boolean unique) {
+            super(slot);
+            this.unique = unique;
+        }
+        
+        void check(Object key, T bean) {
+            if (unique && key != null) {
+                Object existing = map.get(key);
+                if (existing != null && existing != bean) {
+                    throw new IllegalArgumentException(
+                        "Duplicate value of unique property " + slot.propertyName + ": " + key);
+                }
+            }
+        }
+        
+        @SuppressWarnings("unchecked")
+        void add(Object key, T bean) {
+            if (unique && key != null) {
+                map.put(key, bean);
+                return;
+            }
+            Set<T> bucket = (Set<T>) map.get(key);
+            if (bucket == null) {
+                bucket = newIdentitySet();
+                map.put(key, bucket);
+            }
+            bucket.add(bean);
+        }
+        
+        @SuppressWarnings("unchecked")
+        void remove(Object key, T bean) {
+            if (unique && key != null) {
+                if (map.get(key) == bean) {
+                    map.remove(key);
+                }
+                return;
+            }
+            Set<T> bucket = (Set<T>) map.get(key);
+            if (bucket != null && bucket.remove(bean) && bucket.isEmpty()) {
+                map.remove(key);
+            }
+        }
+        
+        @SuppressWarnings("unchecked")
+        T findUnique(Object value) {
+            Object key = keyOf(value);
+            Object found = map.get(key);
+            if (key == null && found != null) {
+                Set<T> bucket = (Set<T>) found;
+                return bucket.iterator().next();
+            }
+            return (T) found;
+        }
+        
+        @SuppressWarnings("unchecked")
+        Collection<T> find(Object value) {
+            Object key = keyOf(value);
+            Object found = map.get(key);
+            if (found == null) {
+                return Collections.emptySet();
+            }
+            return unique && key != null ? Collections.singleton((T) found) : (Set<T>) found;
+        }
+        
+        void clear() {
+            map.clear();
+        }
+    }
+    
+    private final class SortedIndex extends Index {
+        
+        private final TreeMap<Object, Set<T>> map = new TreeMap<>();
+        
+        private final Set<T> nulls = newIdentitySet();
+        
+        SortedIndex(PropertySlot slot) {
+            super(slot);
+        }
+        
+        void add(Object key, T bean) {
+            if (key == null) {
+                nulls.add(bean);
+                return;
+            }
+            Set<T> bucket = map.get(key);
+            if (bucket == null) {
+                bucket = newIdentitySet();
+                map.put(key, bucket);
+            }
+            bucket.add(bean);
+        }
+        
+        void remove(Object key, T bean) {
+            if (key == null) {
+                nulls.remove(bean);
+                return;
+            }
+            Set<T> bucket = map.get(key);
+            if (bucket != null && bucket.remove(bean) && bucket.isEmpty()) {
+                map.remove(key);
+            }
+        }
+        
+        Collection<T> find(Object value) {
+            Object key = keyOf(value);
+            if (key == null) {
+                return nulls;
+            }
+            Set<T> bucket = map.get(key);
+            return bucket == null ? Collections.<T>emptySet() : bucket;
+        }
+        
+        List<T> findRange(Object fromValue, boolean fromInclusive, Object toValue, boolean toInclusive) {
+            NavigableMap<Object, Set<T>> range = map;
+            if (fromValue != null) {
+                range = range.tailMap(fromValue, fromInclusive);
+            }
+            if (toValue != null) {
+                range = range.headMap(toValue, toInclusive);
+            }
+            ArrayList<T> result = new ArrayList<>();
+            for (Set<T> bucket : range.values()) {
+                result.addAll(bucket);
+            }
+            return result;
+        }
+        
+        void clear() {
+            map.clear();
+            nulls.clear();
+        }
+    }
+    
+    /**
+     * The locks of the collections which are not shared between threads.
+     */
+    private static final class NoLock implements ReadWriteLock, Lock {
+        
+        static final NoLock INSTANCE = new NoLock();
+        
+        public Lock readLock() {
+            return this;
+        }
+        
+        public Lock writeLock() {
+            return this;
+        }
+        
+        public void lock() {}
+        
+        public void lockInterruptibly() {}
+        
+        public boolean tryLock() {
+            return true;
+        }
+        
+        public boolean tryLock(long time, TimeUnit unit) {
+            return true;
+        }
+        
+        public void unlock() {}
+        
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
+    }
+    
+}
@@ -0,0 +1,363 @@
+package com.doctusoft.dynabean;
+
+import com.doctusoft.dynabean.BeanDefinition.PropertySlot;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Internal binary format of the files of a {@link BeanJournal}. A journal file starts with a header: a magic number,
+ * the length of the rest of the header, the format version, the name of the bean interface and the names of its
+ * properties in the order of their ordinals. The header is followed by the change records, each of them framed as:
+ * <ul>
+ * <li>the length of the record body (int)</li>
+ * <li>the body: the kind of the record (byte), the id of the bean (long), the ordinal of the property (short, -1 for
+ * records not changing a single property) and the encoded value of the property, if any</li>
+ * <li>the CRC32 checksum of the body (int)</li>
+ * </ul>
+ * A record torn by a crash while being written is detected by its length or checksum, and ends the journal.
+ */
+final class JournalRecords {
+    
+    static final int MAGIC = 0x444A524E;
+    
+    static final byte FORMAT_VERSION = 1;
+    
+    static final byte CREATE = 1;
+    
+    static final byte SET = 2;
+    
+    static final byte DELETE = 3;
+    
+    /**
+     * The length of the kind, the bean id and the property ordinal at the start of the record body.
+     */
+    static final int BODY_PREFIX = 1 + 8 + 2;
+    
+    static final int MAX_BODY_LENGTH = 1 << 26;
+    
+    private static final byte NULL = 0;
+    
+    private static final byte BOOLEAN = 1;
+    
+    private static final byte BYTE = 2;
+    
+    private static final byte SHORT = 3;
+    
+    private static final byte CHAR = 4;
+    
+    private static final byte INT = 5;
+    
+    private static final byte LONG = 6;
+    
+    private static final byte FLOAT = 7;
+    
+    private static final byte DOUBLE = 8;
+    
+    private static final byte STRING = 9;
+    
+    private static final byte ENUM = 10;
+    
+    private static final byte SERIALIZED = 11;
+    
+    private JournalRecords() {}
+    
+    static byte[] header(BeanDefinition beanDefinition) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(FORMAT_VERSION);
+            out.writeUTF(beanDefinition.beanInterfaceClass.getName());
+            PropertySlot[] slots = beanDefinition.propertySlots();
+            out.writeShort(slots.length);
+            for (PropertySlot slot : slots) {
+                out.writeUTF(slot.propertyName);
+            }
+            byte[] header = bytes.toByteArray();
+            bytes.reset();
+            out.writeInt(MAGIC);
+            out.writeInt(header.length);
+            out.write(header);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * Reads the header of a journal of the given bean type, mapping the ordinals of the properties in the journal to the
+     * indexes of the current property slots, or -1 for properties which do not exist any more.
+     *
+     * @throws IOException if the header is invalid or the journal belongs to another bean type
+     */
+    static int[] readHeader(DataInputStream in, BeanDefinition beanDefinition) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a dynabean journal");
+        }
+        in.readInt();
+        byte version = in.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported journal format: " + version);
+        }
+        String interfaceName = in.readUTF();
+        if (!interfaceName.equals(beanDefinition.beanInterfaceClass.getName())) {
+            throw new IOException("Journal of " + interfaceName + " cannot be opened for: "
+                + beanDefinition.beanInterfaceClass);
+        }
+        int[] ordinalToSlot = new int[in.readUnsignedShort()];
+        for (int i = 0; i < ordinalToSlot.length; ++i) {
+            PropertySlot slot = beanDefinition.getPropertySlot(in.readUTF());
+            ordinalToSlot[i] = slot == null ? -1 : slot.index;
+        }
+        return ordinalToSlot;
+    }
+    
+    static int headerLength(DataInputStream in) throws IOException {
+        in.mark(8);
+        in.readInt();
+        int length = 8 + in.readInt();
+        in.reset();
+        return length;
+    }
+    
+    static byte[] record(byte kind, long beanId) {
+        return frame(kind, beanId, -1, null, null);
+    }
+    
+    /**
+     * Encodes a record setting the value of the given property.
+     *
+     * @throws IllegalArgumentException if the value is of a type which cannot be written into a journal
+     */
+    static byte[] setRecord(long beanId, PropertySlot slot, Object value) {
+        return frame(SET, beanId, slot.index, slot, value);
+    }
+    
+    /**
+     * Replaces the bean id of the given framed record in place, so values can be encoded before the id of their bean
+     * is looked up.
+     */
+    static void assignBeanId(byte[] record, long beanId) {
+        writeInt(record, 5, (int) (beanId >>> 32));
+        writeInt(record, 9, (int) beanId);
+        seal(record);
+    }
+    
+    private static byte[] frame(byte kind, long beanId, int ordinal, PropertySlot slot, Object value) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            out.writeByte(kind);
+            out.writeLong(beanId);
+            out.writeShort(ordinal);
+            if (kind == SET) {
+                writeValue(out, slot, value);
+            }
+            out.writeInt(0);
+            byte[] record = bytes.toByteArray();
+            seal(record);
+            return record;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * Fills in the length and the checksum of the framed record in place.
+     */
+    static void seal(byte[] record) {
+        int bodyLength = record.length - 8;
+        writeInt(record, 0, bodyLength);
+        CRC32 crc = new CRC32();
+        crc.update(record, 4, bodyLength);
+        writeInt(record, record.length - 4, (int) crc.getValue());
+    }
+    
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+    
+    private static void writeValue(DataOutputStream out, PropertySlot slot, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Character) {
+            out.writeByte(CHAR);
+            out.writeChar((Character) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeBytes(out, ((String) value).getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof Enum && slot.type.isEnum()) {
+            out.writeByte(ENUM);
+            out.writeUTF(((Enum<?>) value).name());
+        } else if (value instanceof Serializable) {
+            out.writeByte(SERIALIZED);
+            ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+            try (ObjectOutputStream objectOut = new ObjectOutputStream(serialized)) {
+                objectOut.writeObject(value);
+            } catch (NotSerializableException e) {
+                throw notJournalable(slot, value);
+            }
+            writeBytes(out, serialized.toByteArray());
+        } else {
+            throw notJournalable(slot, value);
+        }
+    }
+    
+    private static IllegalArgumentException notJournalable(PropertySlot slot, Object value) {
+        return new IllegalArgumentException("Cannot journal value of property: " + slot.propertyName + ": " + value);
+    }
+    
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    /**
+     * Reads the next record, or returns null at the end of the journal or at a torn record.
+     */
+    static Record readRecord(DataInputStream in) throws IOException {
+        try {
+            int bodyLength = in.readInt();
+            if (bodyLength < BODY_PREFIX || bodyLength > MAX_BODY_LENGTH) {
+                return null;
+            }
+            byte[] record = new byte[bodyLength + 8];
+            writeInt(record, 0, bodyLength);
+            in.readFully(record, 4, bodyLength + 4);
+            CRC32 crc = new CRC32();
+            crc.update(record, 4, bodyLength);
+            DataInputStream body = new DataInputStream(new ByteArrayInputStream(record, 4, bodyLength + 4));
+            byte kind = body.readByte();
+            long beanId = body.readLong();
+            short ordinal = body.readShort();
+            body.skipBytes(bodyLength - BODY_PREFIX);
+            if (body.readInt() != (int) crc.getValue()) {
+                return null;
+            }
+            return new Record(record, kind, beanId, ordinal);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * A record read from a journal, with its framed bytes.
+     */
+    static final class Record {
+        
+        final byte[] bytes;
+        
+        final byte kind;
+        
+        final long beanId;
+        
+        final int ordinal;
+        
+        Record(byte[] bytes, byte kind, long beanId, int ordinal) {
+            this.bytes = bytes;
+            this.kind = kind;
+            this.beanId = beanId;
+            this.ordinal = ordinal;
+        }
+        
+        boolean isNullValue() {
+            return bytes[4 + BODY_PREFIX] == NULL;
+        }
+        
+        /**
+         * Returns a copy of this record with the property ordinal replaced.
+         */
+        byte[] withOrdinal(int newOrdinal) {
+            if (newOrdinal == ordinal) {
+                return bytes;
+            }
+            byte[] copy = bytes.clone();
+            copy[4 + 9] = (byte) (newOrdinal >>> 8);
+            copy[4 + 10] = (byte) newOrdinal;
+            seal(copy);
+            return copy;
+        }
+        
+        Object readValue(PropertySlot slot, ClassLoader classLoader) throws IOException {
+            DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes, 4 + BODY_PREFIX, bytes.length - 8 - BODY_PREFIX));
+            byte tag = in.readByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case BOOLEAN:
+                    return in.readBoolean();
+                case BYTE:
+                    return in.readByte();
+                case SHORT:
+                    return in.readShort();
+                case CHAR:
+                    return in.readChar();
+                case INT:
+                    return in.readInt();
+                case LONG:
+                    return in.readLong();
+                case FLOAT:
+                    return in.readFloat();
+                case DOUBLE:
+                    return in.readDouble();
+                case STRING:
+                    return new String(readBytes(in), StandardCharsets.UTF_8);
+                case ENUM:
+                    return enumValue(slot.type, in.readUTF());
+                case SERIALIZED:
+                    return deserialize(slot, readBytes(in), classLoader);
+                default:
+                    throw new IOException("Unknown value tag: " + tag);
+            }
+        }
+        
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        private static Object enumValue(Class<?> enumClass, String name) {
+            return Enum.valueOf((Class) enumClass, name);
+        }
+        
+        private static byte[] readBytes(DataInputStream in) throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return bytes;
+        }
+        
+        private static Object deserialize(PropertySlot slot, byte[] bytes, ClassLoader classLoader)
+            throws IOException {
+            try (ObjectInputStream in =
+                     new RestrictedObjectInputStream(new ByteArrayInputStream(bytes), slot, classLoader)) {
+                return in.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Cannot deserialize journaled value", e);
+            }
+        }
+    }
+    
+}
@@ -24,16 +24,42 @@ final class JvmInternals {
         requireNonNull(clazz);
         try {
             return makeAccessible(clazz.getDeclaredConstructor(parameterTypes));
-        } catch (NoSuchMethodException | SecurityException e) {
+        } catch (NoSuchMethodException | RuntimeException e) {
+            // RuntimeException covers both SecurityException and InaccessibleObjectException of Java 9+
+            return null;
+        }
+    }
+    
+    /**
+     * The MethodHandles.privateLookupIn(Class, Lookup) method available since Java 9, or null on older runtimes.
+     */
+    private static final Method PRIVATE_LOOKUP_IN = publicMethodOrNull(MethodHandles.class, "privateLookupIn",
+        Class.class, Lookup.class);
+    
+    /**
+     * The private Lookup(Class, int) constructor used on Java 8 and older runtimes, where it is accessible.
+     */
+    private static final Constructor<Lookup> LOOKUP_CONSTRUCTOR = PRIVATE_LOOKUP_IN != null ? null
+        : spyConstructorOrNull(MethodHandles.Lookup.class, Class.class, int.class);
+    
+    private static Method publicMethodOrNull(Class<?> clazz, String name, Class<?>... parameterTypes) {
+        try {
+            return clazz.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
             return null;
         }
     }
     
-    private static final Constructor<Lookup> LOOKUP_CONSTRUCTOR =
-        spyConstructorOrNull(MethodHandles.Lookup.class, Class.class, int.class);
-
     static Lookup privateLookupOrNull(Class<?> clazz) {
         requireNonNull(clazz);
+        if (PRIVATE_LOOKUP_IN != null) {
+            try {
+                return (Lookup) PRIVATE_LOOKUP_IN.invoke(null, clazz, MethodHandles.lookup());
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                // the module of the class is not open to dynabean
+                return null;
+            }
+        }
         if (LOOKUP_CONSTRUCTOR == null) {
             return null;
         }
@@ -0,0 +1,87 @@
+package com.doctusoft.dynabean;
+
+import java.util.*;
+
+import static java.util.Objects.*;
+
+/**
+ * The result of a three-way merge computed by {@link DynaBeanFactory#merge(Object, Object, Object)}: a new dynabean
+ * instance with the merged property values and the list of the conflicting properties.
+ *
+ * @param <T> the type of the merged dynabeans
+ */
+public final class MergeResult<T> {
+    
+    private final T merged;
+    
+    private final List<Conflict> conflicts;
+    
+    MergeResult(T merged, List<Conflict> conflicts) {
+        this.merged = requireNonNull(merged, "merged");
+        this.conflicts = Collections.unmodifiableList(conflicts);
+    }
+    
+    /**
+     * Returns the merged dynabean instance. Conflicting properties hold the value of "ours".
+     */
+    public T getMerged() {
+        return merged;
+    }
+    
+    public boolean hasConflicts() {
+        return !conflicts.isEmpty();
+    }
+    
+    /**
+     * Returns the conflicting properties in their natural order.
+     */
+    public List<Conflict> getConflicts() {
+        return conflicts;
+    }
+    
+    public String toString() {
+        return "MergeResult(conflicts=" + conflicts + ")";
+    }
+    
+    /**
+     * A property changed to different values on the two sides of a merge.
+     */
+    public static final class Conflict {
+        
+        private final String propertyName;
+        
+        private final Object baseValue;
+        
+        private final Object ourValue;
+        
+        private final Object theirValue;
+        
+        Conflict(String propertyName, Object baseValue, Object ourValue, Object theirValue) {
+            this.propertyName = requireNonNull(propertyName, "propertyName");
+            this.baseValue = baseValue;
+            this.ourValue = ourValue;
+            this.theirValue = theirValue;
+        }
+        
+        public String getPropertyName() {
+            return propertyName;
+        }
+        
+        public Object getBaseValue() {
+            return baseValue;
+        }
+        
+        public Object getOurValue() {
+            return ourValue;
+        }
+        
+        public Object getTheirValue() {
+            return theirValue;
+        }
+        
+        public String toString() {
+            return propertyName + "(base=" + baseValue + ", ours=" + ourValue + ", theirs=" + theirValue + ")";
+        }
+    }
+    
+}
@@ -0,0 +1,221 @@
+package com.doctusoft.dynabean;
+
+import java.util.concurrent.*;
+
+/**
+ * Internal helpers for splitting bulk operations on beans across a fork-join pool.
+ */
+final class ParallelSupport {
+    
+    private ParallelSupport() {}
+    
+    /**
+     * Ranges smaller than this are processed sequentially in the calling thread.
+     */
+    static final int THRESHOLD = 8192;
+    
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+    
+    static final ForkJoinPool POOL = new ForkJoinPool();
+    
+    interface IndexComparator {
+        
+        int compare(int index1, int index2);
+        
+    }
+    
+    interface RangeAction {
+        
+        void apply(int from, int to);
+        
+    }
+    
+    interface RangeReducer<R> {
+        
+        R apply(int from, int to);
+        
+        /**
+         * Combines the results of two adjacent ranges, the left one preceding the right one.
+         */
+        R merge(R left, R right);
+        
+    }
+    
+    /**
+     * Calls the given action for consecutive, non-overlapping ranges covering [0, size), in parallel when worthwhile.
+     */
+    static void forEachRange(int size, RangeAction action) {
+        forEachRange(size, THRESHOLD, action);
+    }
+    
+    /**
+     * Calls the given action for consecutive, non-overlapping ranges covering [0, size), splitting them in parallel
+     * down to the given threshold, which is 1 when each index is an expensive unit of work on its own.
+     */
+    static void forEachRange(int size, int threshold, RangeAction action) {
+        if (size <= threshold) {
+            action.apply(0, size);
+        } else {
+            invoke(new RangeTask(action, 0, size, threshold));
+        }
+    }
+    
+    /**
+     * Computes the result of the given reducer for consecutive, non-overlapping ranges covering [0, size), in parallel
+     * when worthwhile, and merges the results in the order of the ranges.
+     */
+    static <R> R reduceRanges(int size, RangeReducer<R> reducer) {
+        if (size <= THRESHOLD) {
+            return reducer.apply(0, size);
+        }
+        ReduceTask<R> task = new ReduceTask<>(reducer, 0, size);
+        invoke(task);
+        return task.join();
+    }
+    
+    /**
+     * Returns the indexes [0, size) ordered by the given comparator. The sort is stable.
+     */
+    static int[] sortIndexes(int size, IndexComparator comparator) {
+        int[] indexes = new int[size];
+        for (int i = 0; i < size; ++i) {
+            indexes[i] = i;
+        }
+        int[] buffer = new int[size];
+        if (size <= THRESHOLD) {
+            mergeSort(indexes, buffer, 0, size, comparator);
+        } else {
+            invoke(new SortTask(indexes, buffer, 0, size, comparator));
+        }
+        return indexes;
+    }
+    
+    /**
+     * Runs the task in the shared pool, or directly when already called from a task running in a fork-join pool.
+     */
+    private static void invoke(ForkJoinTask<?> task) {
+        if (ForkJoinTask.inForkJoinPool()) {
+            task.invoke();
+        } else {
+            POOL.invoke(task);
+        }
+    }
+    
+    private static void mergeSort(int[] a, int[] buffer, int from, int to, IndexComparator comparator) {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            insertionSort(a, from, to, comparator);
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(a, buffer, from, mid, comparator);
+        mergeSort(a, buffer, mid, to, comparator);
+        merge(a, buffer, from, mid, to, comparator);
+    }
+    
+    private static void insertionSort(int[] a, int from, int to, IndexComparator comparator) {
+        for (int i = from + 1; i < to; ++i) {
+            int current = a[i];
+            int j = i - 1;
+            while (j >= from && comparator.compare(a[j], current) > 0) {
+                a[j + 1] = a[j];
+                --j;
+            }
+            a[j + 1] = current;
+        }
+    }
+    
+    private static void merge(int[] a, int[] buffer, int from, int mid, int to, IndexComparator comparator) {
+        if (comparator.compare(a[mid - 1], a[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(a, from, buffer, from, to - from);
+        int left = from;
+        int right = mid;
+        for (int i = from; i < to; ++i) {
+            if (right >= to || (left < mid && comparator.compare(buffer[left], buffer[right]) <= 0)) {
+                a[i] = buffer[left++];
+            } else {
+                a[i] = buffer[right++];
+            }
+        }
+    }
+    
+    @SuppressWarnings("serial")
+    private static final class SortTask extends RecursiveAction {
+        
+        private final int[] a;
+        private final int[] buffer;
+        private final int from;
+        private final int to;
+        private final IndexComparator comparator;
+        
+        SortTask(int[] a, int[] buffer, int from, int to, IndexComparator comparator) {
+            this.a = a;
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+            this.comparator = comparator;
+        }
+        
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                mergeSort(a, buffer, from, to, comparator);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new SortTask(a, buffer, from, mid, comparator), new SortTask(a, buffer, mid, to, comparator));
+            merge(a, buffer, from, mid, to, comparator);
+        }
+    }
+    
+    @SuppressWarnings("serial")
+    private static final class ReduceTask<R> extends RecursiveTask<R> {
+        
+        private final RangeReducer<R> reducer;
+        private final int from;
+        private final int to;
+        
+        ReduceTask(RangeReducer<R> reducer, int from, int to) {
+            this.reducer = reducer;
+            this.from = from;
+            this.to = to;
+        }
+        
+        protected R compute() {
+            if (to - from <= THRESHOLD) {
+                return reducer.apply(from, to);
+            }
+            int mid = (from + to) >>> 1;
+            ReduceTask<R> left = new ReduceTask<>(reducer, from, mid);
+            ReduceTask<R> right = new ReduceTask<>(reducer, mid, to);
+            invokeAll(left, right);
+            return reducer.merge(left.join(), right.join());
+        }
+    }
+    
+    @SuppressWarnings("serial")
+    private static final class RangeTask extends RecursiveAction {
+        
+        private final RangeAction action;
+        private final int from;
+        private final int to;
+        private final int threshold;
+        
+        RangeTask(RangeAction action, int from, int to, int threshold) {
+            this.action = action;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+        
+        protected void compute() {
+            if (to - from <= threshold) {
+                action.apply(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RangeTask(action, from, mid, threshold), new RangeTask(action, mid, to, threshold));
+        }
+    }
+    
+}
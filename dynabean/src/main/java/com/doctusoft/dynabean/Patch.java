@@ -0,0 +1,117 @@
+package com.doctusoft.dynabean;
+
+import com.doctusoft.dynabean.BeanDefinition.PropertySlot;
+
+import java.util.*;
+import java.util.Map.*;
+
+import static com.doctusoft.dynabean.BeanDefinition.notInstanceOf;
+import static java.util.Objects.*;
+
+/**
+ * A precompiled set of property values which can be written into dynabean instances in a single pass. The property
+ * names are resolved and the values are type checked only once, when the patch is compiled by
+ * {@link DynaBeanFactory#compilePatch(Class, Map)}, thus applying the same patch to many instances is cheap.
+ * <p>
+ * The values are not copied: all instances the patch is applied to will share the same value objects, just as if the
+ * same objects were passed to their setters.
+ *
+ * @param <T> the type of dynabeans this patch can be applied to
+ */
+public final class Patch<T> {
+    
+    final BeanDefinition beanDefinition;
+    
+    private final PropertySlot[] slots;
+    
+    private final Object[] values;
+    
+    Patch(BeanDefinition beanDefinition, Map<String, ?> propertyValues) {
+        this.beanDefinition = requireNonNull(beanDefinition, "beanDefinition");
+        int size = propertyValues.size();
+        this.slots = new PropertySlot[size];
+        this.values = new Object[size];
+        int i = 0;
+        for (Entry<String, ?> entry : propertyValues.entrySet()) {
+            String propertyName = entry.getKey();
+            PropertySlot slot = beanDefinition.getPropertySlot(propertyName);
+            if (slot == null) {
+                throw new IllegalArgumentException(
+                    "Unknown property: " + propertyName + " for: " + beanDefinition.beanInterfaceClass);
+            }
+            Object value = entry.getValue();
+            if (!slot.accepts(value)) {
+                throw notInstanceOf(value, slot.type);
+            }
+            slots[i] = slot;
+            values[i] = value;
+            ++i;
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    public Class<T> getBeanInterfaceClass() {
+        return (Class<T>) beanDefinition.beanInterfaceClass;
+    }
+    
+    public Set<String> getPropertyNames() {
+        LinkedHashSet<String> propertyNames = new LinkedHashSet<>();
+        for (PropertySlot slot : slots) {
+            propertyNames.add(slot.propertyName);
+        }
+        return Collections.unmodifiableSet(propertyNames);
+    }
+    
+    /**
+     * Writes all the values of this patch into the given dynabean instance. The values are written while holding the
+     * monitor of the bean's internal state, so concurrent patches of the same instance are applied atomically with
+     * respect to each other. Beans in the {@link StorageLayout#VERSIONED} layout publish all the values as a single new
+     * version, thus they are applied atomically with respect to readers as well.
+     *
+     * @param bean a dynabean instance of the type (or a subtype) this patch was compiled for
+     * @return the same bean instance
+     * @throws IllegalArgumentException if the given bean is not a compatible dynabean instance
+     */
+    public T applyTo(T bean) {
+        checkCompatible(bean).setAll(slots, values);
+        return bean;
+    }
+    
+    /**
+     * Writes all the values of this patch into the given dynabean instance stored in the
+     * {@link StorageLayout#VERSIONED} layout, if its current version is still the expected one. This allows optimistic
+     * read-modify-write transactions: read the values from a {@link DynaBeanFactory#snapshot(Object) snapshot}, compute
+     * the patch, and retry with a new snapshot if the bean was updated in the meantime.
+     *
+     * @param bean            a versioned dynabean instance of the type (or a subtype) this patch was compiled for
+     * @param expectedVersion the version the patch was computed from
+     * @return whether the patch was applied
+     * @throws IllegalArgumentException if the given bean is not a compatible, versioned dynabean instance
+     * @see DynaBeanFactory#getVersion(Object)
+     */
+    public boolean applyIfVersion(T bean, long expectedVersion) {
+        DynaBeanInstance instance = checkCompatible(bean);
+        if (!instance.isVersioned()) {
+            throw new IllegalArgumentException("Not a versioned dynabean instance: " + bean);
+        }
+        return instance.setAllIfVersion(slots, values, expectedVersion);
+    }
+    
+    private DynaBeanInstance checkCompatible(T bean) {
+        DynaBeanInstance instance = DynaBeanInstance.asDynaBeanInstanceOrNull(bean);
+        if (instance == null) {
+            throw new IllegalArgumentException("Not a dynabean instance: " + bean);
+        }
+        if (!beanDefinition.beanInterfaceClass.isAssignableFrom(instance.beanDefinition.beanInterfaceClass)) {
+            throw new IllegalArgumentException("Cannot apply patch for: " + beanDefinition.beanInterfaceClass
+                + " on: " + instance);
+        }
+        return instance;
+    }
+    
+    public String toString() {
+        return "Patch(type=" + beanDefinition.beanInterfaceClass.getSimpleName()
+            + ", properties=" + getPropertyNames() + ")";
+    }
+    
+}
@@ -0,0 +1,336 @@
+package com.doctusoft.dynabean;
+
+import java.util.*;
+
+import static java.util.Objects.*;
+
+/**
+ * An immutable set which shares its structure with its modified copies. It is stored in a hash array mapped trie, thus
+ * {@link #plus(Object)} and {@link #minus(Object)} return a new set by copying only the path to the affected element,
+ * and leave the original set unchanged. Elements are iterated in the order of their hash codes and cannot be null.
+ * <p>
+ * Dynabean copy operations (like {@link DynaBeanFactory#copyProperties(Class, Object)} or {@link DynaBean#clone()})
+ * share persistent sets between the original and the copy instead of copying them, so the elements of persistent sets
+ * are never copied either. Use them for collection-valued properties holding immutable values.
+ *
+ * @param <E> the type of the elements
+ */
+public final class PersistentHashSet<E> extends AbstractSet<E> {
+    
+    private static final int BITS = 5;
+    
+    private static final int MASK = (1 << BITS) - 1;
+    
+    private static final PersistentHashSet<Object> EMPTY = new PersistentHashSet<>(null, 0);
+    
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentHashSet<E> empty() {
+        return (PersistentHashSet<E>) EMPTY;
+    }
+    
+    @SafeVarargs
+    public static <E> PersistentHashSet<E> of(E... elements) {
+        return PersistentHashSet.<E>empty().plusAll(Arrays.asList(elements));
+    }
+    
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentHashSet<E> copyOf(Collection<? extends E> elements) {
+        if (elements instanceof PersistentHashSet) {
+            return (PersistentHashSet<E>) elements;
+        }
+        return PersistentHashSet.<E>empty().plusAll(elements);
+    }
+    
+    private final Node root;
+    
+    private final int size;
+    
+    private PersistentHashSet(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public boolean contains(Object element) {
+        return element != null && root != null && root.contains(element, hash(element), 0);
+    }
+    
+    /**
+     * Returns a new set with the given element added, or this set if it already contains the element.
+     */
+    public PersistentHashSet<E> plus(E element) {
+        requireNonNull(element, "element");
+        Node base = root == null ? BitmapNode.EMPTY : root;
+        Node newRoot = base.plus(element, hash(element), 0);
+        return newRoot == base ? this : new PersistentHashSet<E>(newRoot, size + 1);
+    }
+    
+    /**
+     * Returns a new set with all the given elements added.
+     */
+    public PersistentHashSet<E> plusAll(Collection<? extends E> elements) {
+        PersistentHashSet<E> result = this;
+        for (E element : elements) {
+            result = result.plus(element);
+        }
+        return result;
+    }
+    
+    /**
+     * Returns a new set without the given element, or this set if it does not contain the element.
+     */
+    public PersistentHashSet<E> minus(Object element) {
+        if (!contains(element)) {
+            return this;
+        }
+        Node newRoot = root.minus(element, hash(element), 0);
+        return newRoot == null ? PersistentHashSet.<E>empty() : new PersistentHashSet<E>(newRoot, size - 1);
+    }
+    
+    public Iterator<E> iterator() {
+        return new NodeIterator<>(root);
+    }
+    
+    private static int hash(Object element) {
+        int h = element.hashCode();
+        return h ^ (h >>> 16);
+    }
+    
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+    
+    private abstract static class Node {
+        
+        abstract boolean contains(Object element, int hash, int shift);
+        
+        abstract Node plus(Object element, int hash, int shift);
+        
+        /**
+         * Returns the node without the element, or null if the node became empty.
+         */
+        abstract Node minus(Object element, int hash, int shift);
+        
+        /**
+         * Returns the only element of this node if it has exactly one element and no sub-nodes, otherwise null.
+         */
+        abstract Object singleElementOrNull();
+        
+        abstract Object[] entries();
+    }
+    
+    private static final class BitmapNode extends Node {
+        
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+        
+        private final int bitmap;
+        
+        private final Object[] array;
+        
+        BitmapNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+        
+        boolean contains(Object element, int hash, int shift) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return false;
+            }
+            Object entry = array[Integer.bitCount(bitmap & (bit - 1))];
+            if (entry instanceof Node) {
+                return ((Node) entry).contains(element, hash, shift + BITS);
+            }
+            return entry.equals(element);
+        }
+        
+        Node plus(Object element, int hash, int shift) {
+            int bit = bit(hash, shift);
+            int index = Integer.bitCount(bitmap & (bit - 1));
+            if ((bitmap & bit) == 0) {
+                Object[] newArray = new Object[array.length + 1];
+                System.arraycopy(array, 0, newArray, 0, index);
+                newArray[index] = element;
+                System.arraycopy(array, index, newArray, index + 1, array.length - index);
+                return new BitmapNode(bitmap | bit, newArray);
+            }
+            Object entry = array[index];
+            Object newEntry;
+            if (entry instanceof Node) {
+                newEntry = ((Node) entry).plus(element, hash, shift + BITS);
+                if (newEntry == entry) {
+                    return this;
+                }
+            } else if (entry.equals(element)) {
+                return this;
+            } else {
+                int entryHash = hash(entry);
+                if (entryHash == hash) {
+                    newEntry = new CollisionNode(hash, new Object[] { entry, element });
+                } else {
+                    newEntry = EMPTY.plus(entry, entryHash, shift + BITS).plus(element, hash, shift + BITS);
+                }
+            }
+            Object[] newArray = array.clone();
+            newArray[index] = newEntry;
+            return new BitmapNode(bitmap, newArray);
+        }
+        
+        Node minus(Object element, int hash, int shift) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int index = Integer.bitCount(bitmap & (bit - 1));
+            Object entry = array[index];
+            if (entry instanceof Node) {
+                Node child = ((Node) entry).minus(element, hash, shift + BITS);
+                if (child == entry) {
+                    return this;
+                }
+                if (child != null) {
+                    Object single = child.singleElementOrNull();
+                    Object[] newArray = array.clone();
+                    newArray[index] = single == null ? child : single;
+                    return new BitmapNode(bitmap, newArray);
+                }
+            } else if (!entry.equals(element)) {
+                return this;
+            }
+            if (array.length == 1) {
+                return null;
+            }
+            Object[] newArray = new Object[array.length - 1];
+            System.arraycopy(array, 0, newArray, 0, index);
+            System.arraycopy(array, index + 1, newArray, index, array.length - index - 1);
+            return new BitmapNode(bitmap & ~bit, newArray);
+        }
+        
+        Object singleElementOrNull() {
+            return array.length == 1 && !(array[0] instanceof Node) ? array[0] : null;
+        }
+        
+        Object[] entries() {
+            return array;
+        }
+    }
+    
+    private static final class CollisionNode extends Node {
+        
+        private final int hash;
+        
+        private final Object[] elements;
+        
+        CollisionNode(int hash, Object[] elements) {
+            this.hash = hash;
+            this.elements = elements;
+        }
+        
+        boolean contains(Object element, int hash, int shift) {
+            return hash == this.hash && indexOf(element) >= 0;
+        }
+        
+        Node plus(Object element, int hash, int shift) {
+            if (hash != this.hash) {
+                return new BitmapNode(bit(this.hash, shift), new Object[] { this }).plus(element, hash, shift);
+            }
+            if (indexOf(element) >= 0) {
+                return this;
+            }
+            Object[] newElements = Arrays.copyOf(elements, elements.length + 1);
+            newElements[elements.length] = element;
+            return new CollisionNode(hash, newElements);
+        }
+        
+        Node minus(Object element, int hash, int shift) {
+            int index = hash == this.hash ? indexOf(element) : -1;
+            if (index < 0) {
+                return this;
+            }
+            if (elements.length == 1) {
+                return null;
+            }
+            Object[] newElements = new Object[elements.length - 1];
+            System.arraycopy(elements, 0, newElements, 0, index);
+            System.arraycopy(elements, index + 1, newElements, index, elements.length - index - 1);
+            return new CollisionNode(hash, newElements);
+        }
+        
+        Object singleElementOrNull() {
+            return elements.length == 1 ? elements[0] : null;
+        }
+        
+        Object[] entries() {
+            return elements;
+        }
+        
+        private int indexOf(Object element) {
+            for (int i = 0; i < elements.length; ++i) {
+                if (elements[i].equals(element)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+    
+    private static final class NodeIterator<E> implements Iterator<E> {
+        
+        private final ArrayDeque<Object[]> arrays = new ArrayDeque<>();
+        
+        private final ArrayDeque<Integer> positions = new ArrayDeque<>();
+        
+        private Object next;
+        
+        NodeIterator(Node root) {
+            if (root != null) {
+                arrays.push(root.entries());
+                positions.push(0);
+            }
+            advance();
+        }
+        
+        private void advance() {
+            next = null;
+            while (!arrays.isEmpty()) {
+                Object[] array = arrays.peek();
+                int position = positions.pop();
+                if (position >= array.length) {
+                    arrays.pop();
+                    continue;
+                }
+                positions.push(position + 1);
+                Object entry = array[position];
+                if (entry instanceof Node) {
+                    arrays.push(((Node) entry).entries());
+                    positions.push(0);
+                } else {
+                    next = entry;
+                    return;
+                }
+            }
+        }
+        
+        public boolean hasNext() {
+            return next != null;
+        }
+        
+        @SuppressWarnings("unchecked")
+        public E next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Object result = next;
+            advance();
+            return (E) result;
+        }
+        
+        public void remove() {
+            throw new UnsupportedOperationException("Persistent sets are immutable");
+        }
+    }
+    
+}
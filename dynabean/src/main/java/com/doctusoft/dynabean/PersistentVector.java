@@ -0,0 +1,219 @@
+package com.doctusoft.dynabean;
+
+import java.util.*;
+
+/**
+ * An immutable, random access list which shares its structure with its modified copies. It is stored in a tree of
+ * 32-element arrays, thus {@link #plus(Object)}, {@link #with(int, Object)} and {@link #minusLast()} return a new
+ * vector by copying only the path to the affected element, and leave the original vector unchanged.
+ * <p>
+ * Dynabean copy operations (like {@link DynaBeanFactory#copyProperties(Class, Object)} or {@link DynaBean#clone()})
+ * share persistent vectors between the original and the copy instead of copying them, so the elements of persistent
+ * vectors are never copied either. Use them for collection-valued properties holding immutable values.
+ *
+ * @param <E> the type of the elements
+ */
+public final class PersistentVector<E> extends AbstractList<E> implements RandomAccess {
+    
+    private static final int BITS = 5;
+    
+    private static final int WIDTH = 1 << BITS;
+    
+    private static final int MASK = WIDTH - 1;
+    
+    private static final Object[] EMPTY_NODE = new Object[WIDTH];
+    
+    private static final PersistentVector<Object> EMPTY = new PersistentVector<>(0, BITS, EMPTY_NODE, new Object[0]);
+    
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentVector<E> empty() {
+        return (PersistentVector<E>) EMPTY;
+    }
+    
+    @SafeVarargs
+    public static <E> PersistentVector<E> of(E... elements) {
+        return PersistentVector.<E>empty().plusAll(Arrays.asList(elements));
+    }
+    
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentVector<E> copyOf(Collection<? extends E> elements) {
+        if (elements instanceof PersistentVector) {
+            return (PersistentVector<E>) elements;
+        }
+        return PersistentVector.<E>empty().plusAll(elements);
+    }
+    
+    private final int size;
+    
+    private final int shift;
+    
+    private final Object[] root;
+    
+    private final Object[] tail;
+    
+    private PersistentVector(int size, int shift, Object[] root, Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        return (E) arrayFor(index)[index & MASK];
+    }
+    
+    /**
+     * Returns a new vector with the given element appended.
+     */
+    public PersistentVector<E> plus(E element) {
+        if (size - tailOffset() < WIDTH) {
+            Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = element;
+            return new PersistentVector<>(size + 1, shift, root, newTail);
+        }
+        Object[] newRoot;
+        int newShift = shift;
+        if ((size >>> BITS) > (1 << shift)) {
+            newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            newRoot[1] = newPath(shift, tail);
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(shift, root, tail);
+        }
+        return new PersistentVector<>(size + 1, newShift, newRoot, new Object[] { element });
+    }
+    
+    /**
+     * Returns a new vector with all the given elements appended.
+     */
+    public PersistentVector<E> plusAll(Collection<? extends E> elements) {
+        PersistentVector<E> result = this;
+        for (E element : elements) {
+            result = result.plus(element);
+        }
+        return result;
+    }
+    
+    /**
+     * Returns a new vector with the element at the given index replaced.
+     */
+    public PersistentVector<E> with(int index, E element) {
+        checkIndex(index);
+        if (index >= tailOffset()) {
+            Object[] newTail = tail.clone();
+            newTail[index & MASK] = element;
+            return new PersistentVector<>(size, shift, root, newTail);
+        }
+        return new PersistentVector<>(size, shift, assoc(shift, root, index, element), tail);
+    }
+    
+    /**
+     * Returns a new vector without the last element.
+     *
+     * @throws NoSuchElementException if this vector is empty
+     */
+    public PersistentVector<E> minusLast() {
+        if (size == 0) {
+            throw new NoSuchElementException("Empty vector");
+        }
+        if (size == 1) {
+            return empty();
+        }
+        if (size - tailOffset() > 1) {
+            return new PersistentVector<>(size - 1, shift, root, Arrays.copyOf(tail, tail.length - 1));
+        }
+        Object[] newTail = arrayFor(size - 2);
+        Object[] newRoot = popTail(shift, root);
+        int newShift = shift;
+        if (newRoot == null) {
+            newRoot = EMPTY_NODE;
+        }
+        if (shift > BITS && newRoot[1] == null) {
+            newRoot = (Object[]) newRoot[0];
+            newShift -= BITS;
+        }
+        return new PersistentVector<>(size - 1, newShift, newRoot, newTail);
+    }
+    
+    private int tailOffset() {
+        return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+    
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+    
+    private Object[] arrayFor(int index) {
+        checkIndex(index);
+        if (index >= tailOffset()) {
+            return tail;
+        }
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(index >>> level) & MASK];
+        }
+        return node;
+    }
+    
+    private Object[] pushTail(int level, Object[] parent, Object[] tailNode) {
+        int subIndex = ((size - 1) >>> level) & MASK;
+        Object[] result = parent.clone();
+        if (level == BITS) {
+            result[subIndex] = tailNode;
+        } else {
+            Object[] child = (Object[]) parent[subIndex];
+            result[subIndex] = child == null
+                ? newPath(level - BITS, tailNode)
+                : pushTail(level - BITS, child, tailNode);
+        }
+        return result;
+    }
+    
+    private static Object[] newPath(int level, Object[] node) {
+        if (level == 0) {
+            return node;
+        }
+        Object[] path = new Object[WIDTH];
+        path[0] = newPath(level - BITS, node);
+        return path;
+    }
+    
+    private static Object[] assoc(int level, Object[] node, int index, Object element) {
+        Object[] result = node.clone();
+        if (level == 0) {
+            result[index & MASK] = element;
+        } else {
+            int subIndex = (index >>> level) & MASK;
+            result[subIndex] = assoc(level - BITS, (Object[]) node[subIndex], index, element);
+        }
+        return result;
+    }
+    
+    private Object[] popTail(int level, Object[] node) {
+        int subIndex = ((size - 2) >>> level) & MASK;
+        if (level > BITS) {
+            Object[] newChild = popTail(level - BITS, (Object[]) node[subIndex]);
+            if (newChild == null && subIndex == 0) {
+                return null;
+            }
+            Object[] result = node.clone();
+            result[subIndex] = newChild;
+            return result;
+        } else if (subIndex == 0) {
+            return null;
+        } else {
+            Object[] result = node.clone();
+            result[subIndex] = null;
+            return result;
+        }
+    }
+    
+}
@@ -14,6 +14,8 @@ final class Primitives {
     private static final Map<Class<?>, Object> DEFAULTS;
     
     private static final Map<Class<?>, Class<?>> PRIMITIVE_TO_WRAPPER_TYPE;
+    
+    private static final Map<Class<?>, Class<?>> WRAPPER_TO_PRIMITIVE_TYPE;
 
     static {
         Internal internal = new Internal();
@@ -27,6 +29,7 @@ final class Primitives {
         internal.put(double.class, Double.class, 0d);
         DEFAULTS = Collections.unmodifiableMap(internal.defaultsMap);
         PRIMITIVE_TO_WRAPPER_TYPE = Collections.unmodifiableMap(internal.wrappersMap);
+        WRAPPER_TO_PRIMITIVE_TYPE = Collections.unmodifiableMap(internal.primitivesMap);
     }
 
     @SuppressWarnings("unchecked")
@@ -45,14 +48,32 @@ final class Primitives {
         return wrapper == null ? type : wrapper;
     }
     
+    /**
+     * Returns the primitive type of the given wrapper type, or the given type itself if it is not a wrapper.
+     */
+    public static Class<?> unwrap(Class<?> type) {
+        requireNonNull(type);
+        Class<?> primitive = WRAPPER_TO_PRIMITIVE_TYPE.get(type);
+        return primitive == null ? type : primitive;
+    }
+    
+    /**
+     * Returns whether the given type is one of the wrapper types of the primitive types.
+     */
+    public static boolean isWrapperType(Class<?> type) {
+        return WRAPPER_TO_PRIMITIVE_TYPE.containsKey(requireNonNull(type));
+    }
+    
     private static final class Internal {
         
         private final Map<Class<?>, Object> defaultsMap = new HashMap<>();
         private final Map<Class<?>, Class<?>> wrappersMap = new HashMap<>();
+        private final Map<Class<?>, Class<?>> primitivesMap = new HashMap<>();
         
         private <T> void put(Class<T> type, Class<?> wrapperClass, T defaultValue) {
             defaultsMap.put(type, defaultValue);
             wrappersMap.put(type, wrapperClass);
+            primitivesMap.put(wrapperClass, type);
         }
 
     }
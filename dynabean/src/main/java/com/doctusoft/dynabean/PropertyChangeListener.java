@@ -0,0 +1,11 @@
+package com.doctusoft.dynabean;
+
+/**
+ * Internal callback notified by {@link DynaBeanInstance} before a property value is changed. The listener can veto the
+ * change by throwing an exception, in which case the property keeps its old value.
+ */
+interface PropertyChangeListener {
+    
+    void propertyChanging(DynaBeanInstance bean, String propertyName, Object oldValue, Object newValue);
+    
+}
@@ -0,0 +1,484 @@
+package com.doctusoft.dynabean;
+
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Internal storage of the property values of a single dynabean instance, indexed by the index of the
+ * {@link BeanDefinition.PropertySlot} of the properties. Null values are not stored. The layout of the storage is
+ * invisible to the dynabean instance: instances of the same type with different layouts are equal if their property
+ * values are equal.
+ */
+abstract class PropertyStorage {
+    
+    /**
+     * The profile of the bean type if this storage is sampled for its fill ratio and access times, otherwise null.
+     */
+    final StorageProfile profile;
+    
+    PropertyStorage(StorageProfile profile) {
+        this.profile = profile;
+    }
+    
+    abstract StorageLayout layout();
+    
+    abstract Object get(int index);
+    
+    /**
+     * Stores the value of the property with the given index, or removes it if the value is null.
+     */
+    abstract void set(int index, Object value);
+    
+    /**
+     * Returns the index of the first property set at or after the given index, or -1 if there is none.
+     */
+    abstract int nextSetIndex(int fromIndex);
+    
+    abstract int countSet();
+    
+    abstract void clear();
+    
+    /**
+     * Estimates the number of bytes taken by this storage, excluding the property values, assuming a 64-bit JVM with
+     * compressed references.
+     */
+    abstract long estimateBytes();
+    
+    /**
+     * Returns the number of the version currently published by this storage, or -1 if it is not versioned.
+     */
+    long version() {
+        return -1L;
+    }
+    
+    /**
+     * Returns an immutable view of the current version of this storage, or null if it is not versioned.
+     */
+    PropertyStorage snapshot() {
+        return null;
+    }
+    
+    /**
+     * Starts an update of multiple properties, which must be finished by {@link #endUpdate(boolean)} in the same
+     * thread. Versioned storages publish the values written in between as a single version, and block other writers
+     * until then; other storages write the values immediately.
+     */
+    void beginUpdate() {
+    }
+    
+    /**
+     * @param commit whether the values written since {@link #beginUpdate()} are published or discarded
+     */
+    void endUpdate(boolean commit) {
+    }
+    
+    /**
+     * Returns the value of the property with the given index, recording the access time if this storage is sampled.
+     */
+    final Object read(int index) {
+        if (profile == null) {
+            return get(index);
+        }
+        long start = System.nanoTime();
+        Object value = get(index);
+        profile.recordRead(System.nanoTime() - start);
+        return value;
+    }
+    
+    /**
+     * Stores the value of the property with the given index, recording the access time and the change of the number of
+     * properties set if this storage is sampled. Unresolved lazy values are not counted as set, see
+     * {@link #recordResolved()}.
+     */
+    final void write(int index, Object value) {
+        if (profile == null) {
+            set(index, value);
+            return;
+        }
+        long start = System.nanoTime();
+        Object previous = get(index);
+        set(index, value);
+        profile.recordWrite(System.nanoTime() - start, countFilled(value) - countFilled(previous));
+    }
+    
+    final void removeAll() {
+        if (profile != null) {
+            int count = 0;
+            for (int i = nextSetIndex(0); i >= 0; i = nextSetIndex(i + 1)) {
+                count += countFilled(get(i));
+            }
+            profile.recordWrite(0L, -count);
+        }
+        clear();
+    }
+    
+    /**
+     * Records that a lazy value of this storage has been resolved to a non-null value, which makes its property set.
+     */
+    final void recordResolved() {
+        if (profile != null) {
+            profile.recordFill(1);
+        }
+    }
+    
+    private static int countFilled(Object value) {
+        if (value instanceof DynaBeanInstance.LazyValue) {
+            DynaBeanInstance.LazyValue lazyValue = (DynaBeanInstance.LazyValue) value;
+            return lazyValue.isResolved() && lazyValue.get() != null ? 1 : 0;
+        }
+        return value == null ? 0 : 1;
+    }
+    
+    static final class DenseStorage extends PropertyStorage {
+        
+        private final Object[] values;
+        
+        private int count;
+        
+        DenseStorage(int countSlots, StorageProfile profile) {
+            super(profile);
+            this.values = new Object[countSlots];
+        }
+        
+        StorageLayout layout() {
+            return StorageLayout.DENSE;
+        }
+        
+        Object get(int index) {
+            return values[index];
+        }
+        
+        void set(int index, Object value) {
+            Object previous = values[index];
+            values[index] = value;
+            if (previous == null) {
+                if (value != null) ++count;
+            } else if (value == null) {
+                --count;
+            }
+        }
+        
+        int nextSetIndex(int fromIndex) {
+            for (int i = fromIndex; i < values.length; ++i) {
+                if (values[i] != null) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        
+        int countSet() {
+            return count;
+        }
+        
+        void clear() {
+            Arrays.fill(values, null);
+            count = 0;
+        }
+        
+        long estimateBytes() {
+            return StorageProfile.estimateDenseBytes(values.length);
+        }
+    }
+    
+    static final class SparseStorage extends PropertyStorage {
+        
+        private static final Object[] NO_VALUES = {};
+        
+        private final long[] bitmap;
+        
+        /**
+         * The values of the properties set, in the order of their indexes.
+         */
+        private Object[] values = NO_VALUES;
+        
+        private int count;
+        
+        SparseStorage(int countSlots, StorageProfile profile) {
+            super(profile);
+            this.bitmap = new long[(countSlots + 63) >>> 6];
+        }
+        
+        StorageLayout layout() {
+            return StorageLayout.SPARSE;
+        }
+        
+        /**
+         * Returns the position in the packed values array of the property with the given index.
+         */
+        private int rank(int index) {
+            int word = index >>> 6;
+            int rank = Long.bitCount(bitmap[word] & ((1L << index) - 1));
+            for (int i = 0; i < word; ++i) {
+                rank += Long.bitCount(bitmap[i]);
+            }
+            return rank;
+        }
+        
+        private boolean isSet(int index) {
+            return (bitmap[index >>> 6] & (1L << index)) != 0;
+        }
+        
+        Object get(int index) {
+            return isSet(index) ? values[rank(index)] : null;
+        }
+        
+        void set(int index, Object value) {
+            if (isSet(index)) {
+                int position = rank(index);
+                if (value != null) {
+                    values[position] = value;
+                } else {
+                    System.arraycopy(values, position + 1, values, position, count - position - 1);
+                    values[--count] = null;
+                    bitmap[index >>> 6] &= ~(1L << index);
+                }
+            } else if (value != null) {
+                int position = rank(index);
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, count + (count >> 1) + 1);
+                }
+                System.arraycopy(values, position, values, position + 1, count - position);
+                values[position] = value;
+                ++count;
+                bitmap[index >>> 6] |= 1L << index;
+            }
+        }
+        
+        int nextSetIndex(int fromIndex) {
+            int word = fromIndex >>> 6;
+            if (word >= bitmap.length) {
+                return -1;
+            }
+            long bits = bitmap[word] & (-1L << fromIndex);
+            while (true) {
+                if (bits != 0) {
+                    return (word << 6) + Long.numberOfTrailingZeros(bits);
+                }
+                if (++word == bitmap.length) {
+                    return -1;
+                }
+                bits = bitmap[word];
+            }
+        }
+        
+        int countSet() {
+            return count;
+        }
+        
+        void clear() {
+            Arrays.fill(bitmap, 0L);
+            values = NO_VALUES;
+            count = 0;
+        }
+        
+        long estimateBytes() {
+            long valuesBytes = values.length == 0 ? 0 : StorageProfile.align(16 + 4L * values.length);
+            long bitmapBytes = StorageProfile.align(16 + 8L * bitmap.length);
+            return StorageProfile.align(12 + 4 + 4 + 4 + 4) + bitmapBytes + valuesBytes;
+        }
+    }
+    
+    /**
+     * Multi-version storage of the {@link StorageLayout#VERSIONED} layout. Every write publishes a new immutable
+     * {@link Version} by a single volatile write, so readers never lock and never see the values of a version partially
+     * written. Old versions are not retained: a version is garbage once it is neither current nor referenced by a
+     * snapshot, which bounds the memory taken by the versions of an instance.
+     */
+    static final class VersionedStorage extends PropertyStorage {
+        
+        private final ReentrantLock writeLock = new ReentrantLock();
+        
+        private volatile Version current;
+        
+        /**
+         * The values written by the update in progress, accessed only by the thread holding the write lock.
+         */
+        private Object[] pending;
+        
+        private int pendingCount;
+        
+        VersionedStorage(int countSlots, StorageProfile profile) {
+            super(profile);
+            this.current = new Version(0L, new Object[countSlots], 0);
+        }
+        
+        StorageLayout layout() {
+            return StorageLayout.VERSIONED;
+        }
+        
+        private boolean isUpdating() {
+            return pending != null && writeLock.isHeldByCurrentThread();
+        }
+        
+        Object get(int index) {
+            return isUpdating() ? pending[index] : current.values[index];
+        }
+        
+        void set(int index, Object value) {
+            writeLock.lock();
+            try {
+                if (pending != null) {
+                    pendingCount += countChange(pending[index], value);
+                    pending[index] = value;
+                } else {
+                    Version version = current;
+                    Object[] values = version.values.clone();
+                    int count = version.count + countChange(values[index], value);
+                    values[index] = value;
+                    current = new Version(version.number + 1, values, count);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        
+        private static int countChange(Object previous, Object value) {
+            return previous == null ? (value == null ? 0 : 1) : (value == null ? -1 : 0);
+        }
+        
+        int nextSetIndex(int fromIndex) {
+            Object[] values = isUpdating() ? pending : current.values;
+            return Version.nextSetIndex(values, fromIndex);
+        }
+        
+        int countSet() {
+            return isUpdating() ? pendingCount : current.count;
+        }
+        
+        void clear() {
+            writeLock.lock();
+            try {
+                if (pending != null) {
+                    Arrays.fill(pending, null);
+                    pendingCount = 0;
+                } else {
+                    Version version = current;
+                    current = new Version(version.number + 1, new Object[version.values.length], 0);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        
+        long version() {
+            return current.number;
+        }
+        
+        long estimateBytes() {
+            return StorageProfile.estimateVersionedBytes(current.values.length);
+        }
+        
+        PropertyStorage snapshot() {
+            return new FrozenStorage(current);
+        }
+        
+        void beginUpdate() {
+            writeLock.lock();
+            if (writeLock.getHoldCount() == 1) {
+                Version version = current;
+                pending = version.values.clone();
+                pendingCount = version.count;
+            }
+        }
+        
+        void endUpdate(boolean commit) {
+            try {
+                if (writeLock.getHoldCount() == 1) {
+                    if (commit) {
+                        current = new Version(current.number + 1, pending, pendingCount);
+                    }
+                    pending = null;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * An immutable version of the property values of a versioned storage. The values array is never modified once the
+     * version is published.
+     */
+    static final class Version {
+        
+        final long number;
+        
+        final Object[] values;
+        
+        final int count;
+        
+        Version(long number, Object[] values, int count) {
+            this.number = number;
+            this.values = values;
+            this.count = count;
+        }
+        
+        static int nextSetIndex(Object[] values, int fromIndex) {
+            for (int i = fromIndex; i < values.length; ++i) {
+                if (values[i] != null) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+    
+    /**
+     * Read-only view of a single version of a versioned storage, backing the snapshots of versioned dynabeans.
+     */
+    static final class FrozenStorage extends PropertyStorage {
+        
+        private final Version version;
+        
+        FrozenStorage(Version version) {
+            super(null);
+            this.version = version;
+        }
+        
+        StorageLayout layout() {
+            return StorageLayout.VERSIONED;
+        }
+        
+        Object get(int index) {
+            return version.values[index];
+        }
+        
+        void set(int index, Object value) {
+            throw new UnsupportedOperationException("Snapshots of dynabeans cannot be modified");
+        }
+        
+        int nextSetIndex(int fromIndex) {
+            return Version.nextSetIndex(version.values, fromIndex);
+        }
+        
+        int countSet() {
+            return version.count;
+        }
+        
+        /**
+         * The version is included, since the snapshot keeps it alive once the versioned storage moved on.
+         */
+        long estimateBytes() {
+            return StorageProfile.align(12 + 4 + 4) + StorageProfile.align(12 + 8 + 4 + 4)
+                + StorageProfile.align(16 + 4L * version.values.length);
+        }
+        
+        void clear() {
+            throw new UnsupportedOperationException("Snapshots of dynabeans cannot be modified");
+        }
+        
+        long version() {
+            return version.number;
+        }
+        
+        PropertyStorage snapshot() {
+            return this;
+        }
+        
+        void beginUpdate() {
+            throw new UnsupportedOperationException("Snapshots of dynabeans cannot be modified");
+        }
+    }
+    
+}
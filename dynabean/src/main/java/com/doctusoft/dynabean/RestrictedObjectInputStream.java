@@ -0,0 +1,99 @@
+package com.doctusoft.dynabean;
+
+import com.doctusoft.dynabean.BeanDefinition.PropertySlot;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+
+import static java.util.Objects.*;
+
+/**
+ * Internal object input stream deserializing the value of a single property, which only resolves the classes expected
+ * for that property: the declared type of the property and the type arguments of its generic type (like the element
+ * type of a list), strings, primitive wrappers, enums, arrays of these and the standard collections. Any other class in
+ * the stream is rejected before it is instantiated, so bytes from untrusted sources cannot instantiate arbitrary
+ * serializable classes of the class path.
+ */
+final class RestrictedObjectInputStream extends ObjectInputStream {
+    
+    private static final Set<Class<?>> STANDARD_TYPES = new HashSet<Class<?>>(Arrays.asList(
+        Object.class, String.class, Boolean.class, Byte.class, Short.class, Character.class, Integer.class, Long.class,
+        Float.class, Double.class, Number.class, Enum.class, BigInteger.class, BigDecimal.class, UUID.class, Date.class,
+        ArrayList.class, LinkedList.class, ArrayDeque.class, HashSet.class, LinkedHashSet.class, TreeSet.class,
+        HashMap.class, LinkedHashMap.class, TreeMap.class));
+    
+    /**
+     * The prefixes of the names of the non-public collection classes of java.util: the views and wrappers returned by
+     * {@link Collections} and {@link Arrays#asList(Object[])}, and the serial form of the immutable collections.
+     */
+    private static final String[] STANDARD_TYPE_PREFIXES = { "java.util.Collections$", "java.util.Arrays$ArrayList",
+        "java.util.CollSer" };
+    
+    private final ClassLoader classLoader;
+    
+    private final Set<Class<?>> propertyTypes = new HashSet<>();
+    
+    RestrictedObjectInputStream(InputStream in, PropertySlot slot, ClassLoader classLoader) throws IOException {
+        super(in);
+        this.classLoader = requireNonNull(classLoader, "classLoader");
+        propertyTypes.add(slot.type);
+        if (slot.getter != null) {
+            collectTypes(slot.getter.getGenericReturnType());
+        }
+    }
+    
+    private void collectTypes(Type type) {
+        if (type instanceof Class) {
+            propertyTypes.add((Class<?>) type);
+        } else if (type instanceof ParameterizedType) {
+            ParameterizedType parameterizedType = (ParameterizedType) type;
+            collectTypes(parameterizedType.getRawType());
+            for (Type typeArgument : parameterizedType.getActualTypeArguments()) {
+                collectTypes(typeArgument);
+            }
+        } else if (type instanceof WildcardType) {
+            for (Type upperBound : ((WildcardType) type).getUpperBounds()) {
+                collectTypes(upperBound);
+            }
+        } else if (type instanceof GenericArrayType) {
+            collectTypes(((GenericArrayType) type).getGenericComponentType());
+        }
+    }
+    
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+        Class<?> type;
+        try {
+            type = Class.forName(desc.getName(), false, classLoader);
+        } catch (ClassNotFoundException e) {
+            type = super.resolveClass(desc);
+        }
+        if (!isAllowed(type)) {
+            throw new InvalidClassException(desc.getName(), "Not expected in a property value");
+        }
+        return type;
+    }
+    
+    protected Class<?> resolveProxyClass(String[] interfaces) throws InvalidClassException {
+        throw new InvalidClassException(Arrays.toString(interfaces), "Proxies are not expected in a property value");
+    }
+    
+    private boolean isAllowed(Class<?> type) {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        if (type.isPrimitive() || type.isEnum() || STANDARD_TYPES.contains(type) || propertyTypes.contains(type)) {
+            return true;
+        }
+        String name = type.getName();
+        for (String prefix : STANDARD_TYPE_PREFIXES) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+}
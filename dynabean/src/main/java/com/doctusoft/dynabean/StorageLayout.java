@@ -0,0 +1,36 @@
+package com.doctusoft.dynabean;
+
+/**
+ * The layouts in which dynabean instances can store their property values.
+ *
+ * @see AbstractDynaBeanFactory#storageLayout(Class)
+ * @see StorageStats
+ */
+public enum StorageLayout {
+    
+    /**
+     * An array with a slot for every property of the bean type. Best for beans with most of their properties set.
+     */
+    DENSE,
+    
+    /**
+     * A bitmap of the properties set and a packed array of their values. Best for bean types with many properties, of
+     * which only a few are set in each instance.
+     */
+    SPARSE,
+    
+    /**
+     * The dense or the sparse layout, chosen for new instances based on the number of properties observed to be set in
+     * a sample of the instances of the same bean type.
+     */
+    ADAPTIVE,
+    
+    /**
+     * Immutable versions of a dense array, replaced atomically by every write. Readers never lock and always see the
+     * values of a single version, and {@link DynaBeanFactory#snapshot(Object)} can take a frozen view of the current
+     * version without copying. Writes copy the whole array, so this layout is best for beans read much more often than
+     * written, and shared between threads.
+     */
+    VERSIONED
+    
+}
@@ -0,0 +1,134 @@
+package com.doctusoft.dynabean;
+
+import com.doctusoft.dynabean.PropertyStorage.DenseStorage;
+import com.doctusoft.dynabean.PropertyStorage.SparseStorage;
+import com.doctusoft.dynabean.PropertyStorage.VersionedStorage;
+
+import java.util.concurrent.atomic.*;
+
+import static java.util.Objects.*;
+
+/**
+ * Internal, per bean type chooser of the {@link StorageLayout} of new dynabean instances. Every
+ * {@value #SAMPLING_INTERVAL}th instance is sampled: the number of its properties set and the time taken by its
+ * property accesses are recorded. In adaptive mode the sparse layout is chosen once enough instances are sampled and
+ * they have less than a quarter of their properties set on average.
+ */
+final class StorageProfile {
+    
+    static final int SAMPLING_INTERVAL = 64;
+    
+    private static final int MIN_SAMPLES = 16;
+    
+    private static final int MIN_SPARSE_SLOTS = 16;
+    
+    private final int countSlots;
+    
+    private final StorageLayout configuredLayout;
+    
+    private volatile StorageLayout currentLayout;
+    
+    /**
+     * Counts the created instances for sampling only, thus lost updates are acceptable.
+     */
+    private int countCreated;
+    
+    private final AtomicLong sampledInstances = new AtomicLong();
+    
+    private final AtomicLong sampledProperties = new AtomicLong();
+    
+    private final AtomicLong sampledReads = new AtomicLong();
+    
+    private final AtomicLong sampledReadNanos = new AtomicLong();
+    
+    private final AtomicLong sampledWrites = new AtomicLong();
+    
+    private final AtomicLong sampledWriteNanos = new AtomicLong();
+    
+    StorageProfile(int countSlots, StorageLayout configuredLayout) {
+        this.countSlots = countSlots;
+        this.configuredLayout = requireNonNull(configuredLayout, "configuredLayout");
+        this.currentLayout = configuredLayout == StorageLayout.ADAPTIVE ? StorageLayout.DENSE : configuredLayout;
+    }
+    
+    PropertyStorage newStorage() {
+        StorageProfile sampledBy = null;
+        if (countCreated++ % SAMPLING_INTERVAL == 0) {
+            sampledBy = this;
+            long samples = sampledInstances.incrementAndGet();
+            if (configuredLayout == StorageLayout.ADAPTIVE && samples > MIN_SAMPLES) {
+                currentLayout = chooseLayout(samples);
+            }
+        }
+        if (currentLayout == StorageLayout.VERSIONED) {
+            return new VersionedStorage(countSlots, sampledBy);
+        }
+        if (currentLayout == StorageLayout.SPARSE) {
+            return new SparseStorage(countSlots, sampledBy);
+        }
+        return new DenseStorage(countSlots, sampledBy);
+    }
+    
+    private StorageLayout chooseLayout(long samples) {
+        double averageFill = (double) sampledProperties.get() / samples;
+        return countSlots >= MIN_SPARSE_SLOTS && averageFill * 4 < countSlots
+            ? StorageLayout.SPARSE
+            : StorageLayout.DENSE;
+    }
+    
+    void recordRead(long nanos) {
+        sampledReads.incrementAndGet();
+        sampledReadNanos.addAndGet(nanos);
+    }
+    
+    void recordWrite(long nanos, int propertiesAdded) {
+        sampledWrites.incrementAndGet();
+        sampledWriteNanos.addAndGet(nanos);
+        recordFill(propertiesAdded);
+    }
+    
+    void recordFill(int propertiesAdded) {
+        if (propertiesAdded != 0) {
+            sampledProperties.addAndGet(propertiesAdded);
+        }
+    }
+    
+    StorageStats getStats(Class<?> beanInterfaceClass) {
+        long samples = sampledInstances.get();
+        double averageFill = samples == 0 ? 0.0 : (double) sampledProperties.get() / samples;
+        return new StorageStats(beanInterfaceClass, configuredLayout, currentLayout, countSlots, samples, averageFill,
+            estimateDenseBytes(countSlots), estimateSparseBytes(countSlots, averageFill),
+            sampledReads.get(), sampledReadNanos.get(), sampledWrites.get(), sampledWriteNanos.get());
+    }
+    
+    /**
+     * Estimates the size of a dense storage assuming a 64-bit JVM with compressed references.
+     */
+    static long estimateDenseBytes(int countSlots) {
+        return align(12 + 4 + 4 + 4) + align(16 + 4L * countSlots);
+    }
+    
+    /**
+     * Estimates the size of a sparse storage assuming a 64-bit JVM with compressed references.
+     */
+    static long estimateSparseBytes(int countSlots, double averageFill) {
+        long countWords = (countSlots + 63) >>> 6;
+        long countValues = (long) Math.ceil(averageFill);
+        long valuesBytes = countValues == 0 ? 0 : align(16 + 4 * countValues);
+        return align(12 + 4 + 4 + 4 + 4) + align(16 + 8 * countWords) + valuesBytes;
+    }
+    
+    /**
+     * Estimates the size of a versioned storage assuming a 64-bit JVM with compressed references: a dense array wrapped
+     * in a version, and the lock of the writers.
+     */
+    static long estimateVersionedBytes(int countSlots) {
+        return align(12 + 4 + 4 + 4 + 4 + 4) + align(12 + 8 + 4 + 4) + align(16 + 4L * countSlots)
+            + align(12 + 4) + align(12 + 4 + 4 + 4 + 4);
+    }
+    
+    static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+    
+}
@@ -0,0 +1,144 @@
+package com.doctusoft.dynabean;
+
+import static java.util.Objects.*;
+
+/**
+ * An immutable snapshot of the storage statistics of a dynabean type. The statistics are collected from a sample of
+ * the instances created by the factory, and the memory estimates assume a 64-bit JVM with compressed references.
+ *
+ * @see DynaBeanFactory#getStorageStats(Class)
+ */
+public final class StorageStats {
+    
+    private final Class<?> beanInterfaceClass;
+    
+    private final StorageLayout configuredLayout;
+    
+    private final StorageLayout currentLayout;
+    
+    private final int propertyCount;
+    
+    private final long sampledInstances;
+    
+    private final double averageFilledProperties;
+    
+    private final long denseBytesPerInstance;
+    
+    private final long sparseBytesPerInstance;
+    
+    private final long sampledReads;
+    
+    private final long sampledReadNanos;
+    
+    private final long sampledWrites;
+    
+    private final long sampledWriteNanos;
+    
+    StorageStats(Class<?> beanInterfaceClass, StorageLayout configuredLayout, StorageLayout currentLayout,
+        int propertyCount, long sampledInstances, double averageFilledProperties, long denseBytesPerInstance,
+        long sparseBytesPerInstance, long sampledReads, long sampledReadNanos, long sampledWrites,
+        long sampledWriteNanos) {
+        this.beanInterfaceClass = requireNonNull(beanInterfaceClass, "beanInterfaceClass");
+        this.configuredLayout = requireNonNull(configuredLayout, "configuredLayout");
+        this.currentLayout = requireNonNull(currentLayout, "currentLayout");
+        this.propertyCount = propertyCount;
+        this.sampledInstances = sampledInstances;
+        this.averageFilledProperties = averageFilledProperties;
+        this.denseBytesPerInstance = denseBytesPerInstance;
+        this.sparseBytesPerInstance = sparseBytesPerInstance;
+        this.sampledReads = sampledReads;
+        this.sampledReadNanos = sampledReadNanos;
+        this.sampledWrites = sampledWrites;
+        this.sampledWriteNanos = sampledWriteNanos;
+    }
+    
+    public Class<?> getBeanInterfaceClass() {
+        return beanInterfaceClass;
+    }
+    
+    /**
+     * Returns the layout configured for the bean type, which is {@link StorageLayout#ADAPTIVE} unless the factory
+     * specified otherwise.
+     */
+    public StorageLayout getConfiguredLayout() {
+        return configuredLayout;
+    }
+    
+    /**
+     * Returns the layout used for new instances: either {@link StorageLayout#DENSE} or {@link StorageLayout#SPARSE}, or
+     * {@link StorageLayout#VERSIONED} if that is the configured layout.
+     */
+    public StorageLayout getCurrentLayout() {
+        return currentLayout;
+    }
+    
+    /**
+     * Returns the number of properties of the bean type, including the ones which only have a setter.
+     */
+    public int getPropertyCount() {
+        return propertyCount;
+    }
+    
+    public long getSampledInstances() {
+        return sampledInstances;
+    }
+    
+    /**
+     * Returns the average number of properties set in the sampled instances.
+     */
+    public double getAverageFilledProperties() {
+        return averageFilledProperties;
+    }
+    
+    /**
+     * Returns the estimated number of bytes taken by the property storage of an instance in the given layout, based on
+     * the average number of properties set. The size of the proxy, its invocation handler and of the property values
+     * themselves are not included.
+     */
+    public long getEstimatedBytesPerInstance(StorageLayout layout) {
+        switch (requireNonNull(layout, "layout")) {
+            case DENSE:
+                return denseBytesPerInstance;
+            case SPARSE:
+                return sparseBytesPerInstance;
+            case VERSIONED:
+                return StorageProfile.estimateVersionedBytes(propertyCount);
+            default:
+                return getEstimatedBytesPerInstance(currentLayout);
+        }
+    }
+    
+    public long getSampledReads() {
+        return sampledReads;
+    }
+    
+    /**
+     * Returns the average time of reading a property value from the storage of the sampled instances, including the
+     * overhead of measuring it.
+     */
+    public double getAverageReadNanos() {
+        return sampledReads == 0 ? 0.0 : (double) sampledReadNanos / sampledReads;
+    }
+    
+    public long getSampledWrites() {
+        return sampledWrites;
+    }
+    
+    /**
+     * Returns the average time of writing a property value into the storage of the sampled instances, including the
+     * overhead of measuring it.
+     */
+    public double getAverageWriteNanos() {
+        return sampledWrites == 0 ? 0.0 : (double) sampledWriteNanos / sampledWrites;
+    }
+    
+    public String toString() {
+        return "StorageStats(type=" + beanInterfaceClass.getSimpleName() + ", layout=" + currentLayout
+            + ", properties=" + propertyCount + ", sampled=" + sampledInstances
+            + ", averageFilled=" + String.format("%.1f", averageFilledProperties)
+            + ", bytesPerInstance=" + getEstimatedBytesPerInstance(currentLayout)
+            + ", readNanos=" + String.format("%.1f", getAverageReadNanos())
+            + ", writeNanos=" + String.format("%.1f", getAverageWriteNanos()) + ")";
+    }
+    
+}
@@ -0,0 +1,31 @@
+package com.doctusoft.dynabean;
+
+/**
+ * The modes of checking the types of the property values of dynabean instances.
+ *
+ * @see AbstractDynaBeanFactory#typeChecking(Class)
+ */
+public enum TypeChecking {
+    
+    /**
+     * Setters check the type of their argument, while initial values (see
+     * {@link DynaBeanFactory#createWithInitialValues(Class, java.util.Map)} and the similar methods) are stored
+     * unchecked. Thus getters check the type of the stored value on every read.
+     */
+    ON_READ,
+    
+    /**
+     * Values are checked against the types of all the getters of their property once, when they enter the bean:
+     * initial values, the results of initializers (including lazy ones) and the arguments of setters. Getters read the
+     * stored values without checks.
+     */
+    STRICT,
+    
+    /**
+     * Only setters check the type of their argument, initial values and the results of initializers are trusted to
+     * have the right types. Getters read the stored values without checks, so misused initial values cause a
+     * {@link ClassCastException} when read.
+     */
+    TRUSTED
+    
+}
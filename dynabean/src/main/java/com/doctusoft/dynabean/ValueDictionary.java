@@ -0,0 +1,134 @@
+package com.doctusoft.dynabean;
+
+import java.util.*;
+
+import static java.util.Objects.*;
+
+/**
+ * Internal mapping between the distinct values of a property and small integer codes, used by dictionary encoded
+ * columns. Code 0 always stands for null, the codes of the values start from 1.
+ */
+abstract class ValueDictionary {
+    
+    static ValueDictionary forEnum(Class<?> enumType) {
+        return new EnumDictionary(enumType);
+    }
+    
+    /**
+     * Returns the code of the given non-null value, assigning a new code to it if necessary.
+     */
+    abstract int encode(Object value);
+    
+    /**
+     * Returns the code of the given value, or -1 if the value has no code assigned, so it cannot be stored in any
+     * column using this dictionary.
+     */
+    abstract int codeOf(Object value);
+    
+    abstract Object decode(int code);
+    
+    /**
+     * Returns the number of codes assigned, including the one of null.
+     */
+    abstract int size();
+    
+    /**
+     * Whether the codes are assigned in the natural order of the values, thus values can be compared by their codes.
+     */
+    abstract boolean isOrdered();
+    
+    /**
+     * Codes the constants of an enum type by their ordinal.
+     */
+    static final class EnumDictionary extends ValueDictionary {
+        
+        private final Class<?> enumType;
+        
+        private final Object[] constants;
+        
+        EnumDictionary(Class<?> enumType) {
+            this.enumType = requireNonNull(enumType, "enumType");
+            this.constants = enumType.getEnumConstants();
+        }
+        
+        int encode(Object value) {
+            int code = codeOf(value);
+            if (code < 0) {
+                throw BeanDefinition.notInstanceOf(value, enumType);
+            }
+            return code;
+        }
+        
+        int codeOf(Object value) {
+            if (value == null) {
+                return 0;
+            }
+            return enumType.isInstance(value) ? ((Enum<?>) value).ordinal() + 1 : -1;
+        }
+        
+        Object decode(int code) {
+            return code == 0 ? null : constants[code - 1];
+        }
+        
+        int size() {
+            return constants.length + 1;
+        }
+        
+        boolean isOrdered() {
+            return true;
+        }
+    }
+    
+    /**
+     * Assigns codes to values in the order they are first encoded. The dictionary is shared by all the columns of the
+     * same property of a bean type, possibly used by multiple threads: new codes are assigned under a lock, while
+     * decoding is lock-free.
+     */
+    static final class SharedDictionary extends ValueDictionary {
+        
+        private final HashMap<Object, Integer> codes = new HashMap<>();
+        
+        private volatile Object[] values = new Object[16];
+        
+        private int size = 1;
+        
+        synchronized int encode(Object value) {
+            if (value == null) {
+                return 0;
+            }
+            Integer code = codes.get(value);
+            if (code != null) {
+                return code;
+            }
+            Object[] values = this.values;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size] = value;
+            this.values = values;
+            codes.put(value, size);
+            return size++;
+        }
+        
+        synchronized int codeOf(Object value) {
+            if (value == null) {
+                return 0;
+            }
+            Integer code = codes.get(value);
+            return code == null ? -1 : code;
+        }
+        
+        Object decode(int code) {
+            return values[code];
+        }
+        
+        synchronized int size() {
+            return size;
+        }
+        
+        boolean isOrdered() {
+            return false;
+        }
+    }
+    
+}
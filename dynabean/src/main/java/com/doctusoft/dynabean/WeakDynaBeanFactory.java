@@ -0,0 +1,170 @@
+package com.doctusoft.dynabean;
+
+import java.lang.ref.*;
+import java.util.*;
+
+/**
+ * A thread-safe implementation of the {@link DynaBeanFactory} interface for environments where bean interfaces are
+ * loaded by short-lived class loaders, like plugin hosts or application servers with redeployment. The bean definitions
+ * are attached to the interface classes using a {@link ClassValue}, and the proxy classes are defined in the class
+ * loader of the bean interface, so the factory never keeps a bean interface or its class loader reachable: they can be
+ * garbage collected together with their bean definitions.
+ * <p>
+ * Optionally the number of resident bean definitions can be bounded, in which case the least recently used definitions
+ * are evicted, to be recomputed on their next use. This is useful for dynamically generated bean interfaces. Dynabean
+ * instances created by an evicted definition remain fully functional and equal to the ones created by its replacement.
+ * Note that in bounded mode every definition lookup records the access under a lock.
+ */
+public class WeakDynaBeanFactory extends AbstractDynaBeanFactory {
+    
+    private final ClassValue<Entry> definitions = new ClassValue<Entry>() {
+        protected Entry computeValue(Class<?> type) {
+            return new Entry(computeBeanDefinition(type));
+        }
+    };
+    
+    private final int maxResidentDefinitions;
+    
+    private final ReferenceQueue<Class<?>> unloadedClasses = new ReferenceQueue<>();
+    
+    /**
+     * The references to the interface classes with resident definitions, in access order if the number of definitions
+     * is bounded. Guarded by itself.
+     */
+    private final LinkedHashMap<Reference<Class<?>>, Boolean> residents;
+    
+    private long computeCount;
+    
+    private long evictionCount;
+    
+    private long unloadCount;
+    
+    public WeakDynaBeanFactory() {
+        this(0);
+    }
+    
+    /**
+     * @param maxResidentDefinitions the maximum number of bean definitions to keep, or 0 for no limit
+     */
+    public WeakDynaBeanFactory(int maxResidentDefinitions) {
+        if (maxResidentDefinitions < 0) {
+            throw new IllegalArgumentException("Negative maxResidentDefinitions: " + maxResidentDefinitions);
+        }
+        this.maxResidentDefinitions = maxResidentDefinitions;
+        this.residents = new LinkedHashMap<>(16, 0.75f, maxResidentDefinitions > 0);
+    }
+    
+    protected ClassLoader proxyClassLoader(Class<?> beanInterfaceClass) {
+        ClassLoader classLoader = beanInterfaceClass.getClassLoader();
+        return classLoader == null ? super.proxyClassLoader(beanInterfaceClass) : classLoader;
+    }
+    
+    protected BeanDefinition getOrComputeBeanDefinition(Class<?> beanInterfaceClass) {
+        Entry entry = definitions.get(beanInterfaceClass);
+        if (entry.reference == null || maxResidentDefinitions > 0) {
+            synchronized (residents) {
+                if (entry.reference == null) {
+                    register(entry, beanInterfaceClass);
+                } else {
+                    residents.get(entry.reference);
+                }
+            }
+        }
+        return entry.definition;
+    }
+    
+    /**
+     * Registers the first entry returned for the given class as resident, possibly evicting the least recently used
+     * one.
+     * Concurrently computed entries for the same class are dropped by the {@link ClassValue} and never registered.
+     */
+    private void register(Entry entry, Class<?> beanInterfaceClass) {
+        expungeUnloaded();
+        Reference<Class<?>> reference = new WeakReference<Class<?>>(beanInterfaceClass, unloadedClasses);
+        entry.reference = reference;
+        residents.put(reference, Boolean.TRUE);
+        ++computeCount;
+        if (maxResidentDefinitions > 0 && residents.size() > maxResidentDefinitions) {
+            Iterator<Reference<Class<?>>> iterator = residents.keySet().iterator();
+            Reference<Class<?>> eldest = iterator.next();
+            iterator.remove();
+            Class<?> evicted = eldest.get();
+            if (evicted != null) {
+                definitions.remove(evicted);
+                ++evictionCount;
+            } else {
+                ++unloadCount;
+            }
+        }
+    }
+    
+    private void expungeUnloaded() {
+        Reference<? extends Class<?>> reference;
+        while ((reference = unloadedClasses.poll()) != null) {
+            if (residents.remove(reference) != null) {
+                ++unloadCount;
+            }
+        }
+    }
+    
+    /**
+     * Returns the number of bean definitions currently kept by this factory.
+     */
+    public int getResidentCount() {
+        synchronized (residents) {
+            expungeUnloaded();
+            return residents.size();
+        }
+    }
+    
+    /**
+     * Returns the number of bean definitions computed by this factory, including the recomputation of evicted ones.
+     */
+    public long getComputeCount() {
+        synchronized (residents) {
+            return computeCount;
+        }
+    }
+    
+    /**
+     * Returns the number of bean definitions evicted because of the limit on resident definitions.
+     */
+    public long getEvictionCount() {
+        synchronized (residents) {
+            return evictionCount;
+        }
+    }
+    
+    /**
+     * Returns the number of bean definitions dropped because their bean interface was garbage collected.
+     */
+    public long getUnloadCount() {
+        synchronized (residents) {
+            expungeUnloaded();
+            return unloadCount;
+        }
+    }
+    
+    public String toString() {
+        synchronized (residents) {
+            expungeUnloaded();
+            return "WeakDynaBeanFactory(resident=" + residents.size() + ", computed=" + computeCount
+                + ", evicted=" + evictionCount + ", unloaded=" + unloadCount + ")";
+        }
+    }
+    
+    private static final class Entry {
+        
+        final BeanDefinition definition;
+        
+        /**
+         * Set once the entry is registered as resident. Guarded by the residents map.
+         */
+        volatile Reference<Class<?>> reference;
+        
+        Entry(BeanDefinition definition) {
+            this.definition = definition;
+        }
+    }
+    
+}
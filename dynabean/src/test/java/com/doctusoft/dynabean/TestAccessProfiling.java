@@ -0,0 +1,109 @@
+package com.doctusoft.dynabean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestAccessProfiling {
+
+    private DynaBeanFactory factory;
+
+    @Before
+    public void setup() {
+        factory = new LocalDynaBeanFactory();
+    }
+
+    @Test
+    public void countsEveryCallWithoutSampling() {
+        factory.enableAccessProfiling(Event.class, 1);
+        Event event = factory.create(Event.class);
+        event.setName("login");
+        event.setSource("web");
+        event.setPayload("{}");
+        for (int i = 0; i < 10; ++i) {
+            event.getName();
+        }
+        event.getSource();
+        AccessReport report = factory.getAccessReport(Event.class);
+        assertEquals(1, report.getSamplingInterval());
+        assertEquals(10, report.getEstimatedReads("name"));
+        assertEquals(1, report.getEstimatedWrites("name"));
+        assertEquals(1, report.getEstimatedReads("source"));
+        assertEquals(0, report.getEstimatedReads("payload"));
+        assertEquals(1, report.getEstimatedWrites("payload"));
+        assertEquals(Arrays.asList("payload"), report.getUnreadPropertyNames());
+        assertEquals("name", report.getPropertyNamesByAccessCount().get(0));
+    }
+
+    @Test
+    public void sampledCountsAreEstimates() {
+        factory.enableAccessProfiling(Event.class, 16);
+        Event event = factory.create(Event.class);
+        for (int i = 0; i < 100000; ++i) {
+            event.setName("name");
+            event.getName();
+        }
+        AccessReport report = factory.getAccessReport(Event.class);
+        assertEquals(100000, report.getEstimatedReads("name"), 10000);
+        assertEquals(100000, report.getEstimatedWrites("name"), 10000);
+        assertEquals(0, report.getEstimatedReads("source"));
+        assertEquals(0, report.getEstimatedReads("payload"));
+    }
+
+    @Test
+    public void disabledProfilingReportsNothing() {
+        factory.enableAccessProfiling(Event.class, 1);
+        Event event = factory.create(Event.class);
+        event.getName();
+        factory.disableAccessProfiling(Event.class);
+        event.getName();
+        AccessReport report = factory.getAccessReport(Event.class);
+        assertEquals(0, report.getSamplingInterval());
+        assertEquals(0, report.getEstimatedReads("name"));
+    }
+
+    @Test
+    public void inheritedPropertiesAreCountedInTheirOwnSlots() {
+        factory.create(Event.class).setName("login");
+        factory.enableAccessProfiling(TaggedEvent.class, 1);
+        TaggedEvent event = factory.create(TaggedEvent.class);
+        event.setName("login");
+        for (int i = 0; i < 3; ++i) {
+            event.getName();
+        }
+        event.setCategory("audit");
+        AccessReport report = factory.getAccessReport(TaggedEvent.class);
+        assertEquals(3, report.getEstimatedReads("name"));
+        assertEquals(1, report.getEstimatedWrites("name"));
+        assertEquals(0, report.getEstimatedReads("category"));
+        assertEquals(1, report.getEstimatedWrites("category"));
+    }
+
+    public interface Event {
+
+        String getName();
+
+        void setName(String name);
+
+        String getSource();
+
+        void setSource(String source);
+
+        String getPayload();
+
+        void setPayload(String payload);
+
+    }
+
+    public interface TaggedEvent extends Event {
+
+        String getCategory();
+
+        void setCategory(String category);
+
+    }
+
+}
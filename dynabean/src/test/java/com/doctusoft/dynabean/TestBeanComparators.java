@@ -0,0 +1,147 @@
+package com.doctusoft.dynabean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static com.doctusoft.dynabean.BeanComparator.NullOrdering.NULLS_LAST;
+import static org.junit.Assert.*;
+
+public class TestBeanComparators {
+
+    private DynaBeanFactory factory;
+
+    @Before
+    public void setup() {
+        factory = new LocalDynaBeanFactory();
+    }
+
+    @Test
+    public void compareByMultipleProperties() {
+        BeanComparator<Employee> comparator = factory.comparing(Employee.class)
+            .ascending("department")
+            .descending("salary")
+            .build();
+        Employee first = employee("IT", 300L, "Anna");
+        Employee second = employee("IT", 200L, "Bob");
+        Employee third = employee("Sales", 500L, "Cecil");
+        assertTrue(comparator.compare(first, second) < 0);
+        assertTrue(comparator.compare(second, third) < 0);
+        assertTrue(comparator.compare(third, first) > 0);
+        assertEquals(0, comparator.compare(first, employee("IT", 300L, "Dora")));
+    }
+
+    @Test
+    public void nullOrdering() {
+        Employee nobody = employee(null, 0L, null);
+        Employee someone = employee("IT", 0L, null);
+        assertTrue(factory.comparing(Employee.class).ascending("department").build().compare(nobody, someone) < 0);
+        assertTrue(factory.comparing(Employee.class).ascending("department", NULLS_LAST).build()
+            .compare(nobody, someone) > 0);
+        assertTrue(factory.comparing(Employee.class).descending("department").build().compare(nobody, someone) > 0);
+    }
+
+    @Test
+    public void foreignImplementationsAreComparedByTheirGetters() {
+        BeanComparator<Employee> comparator = factory.comparing(Employee.class).ascending("salary").build();
+        EmployeeVO vo = new EmployeeVO();
+        vo.setSalary(100L);
+        assertTrue(comparator.compare(vo, employee("IT", 200L, "Anna")) < 0);
+    }
+
+    @Test
+    public void sortLargeListInParallel() {
+        Random rnd = new Random(42);
+        List<Employee> employees = new ArrayList<>();
+        for (int i = 0; i < 20000; ++i) {
+            employees.add(employee(rnd.nextBoolean() ? "IT" : "Sales", rnd.nextInt(1000), "E" + i));
+        }
+        BeanComparator<Employee> comparator = factory.comparing(Employee.class)
+            .ascending("department")
+            .descending("salary")
+            .build();
+        List<Employee> expected = new ArrayList<>(employees);
+        Collections.sort(expected, comparator);
+        comparator.sort(employees);
+        assertEquals(expected, employees);
+    }
+
+    @Test
+    public void sortColumnarList() {
+        ColumnarBeanList<Employee> employees = factory.createColumnarList(Employee.class);
+        employees.add(employee("IT", 200L, "Bob"));
+        employees.add(employee("Sales", 500L, "Cecil"));
+        employees.add(employee(null, 300L, "Anna"));
+        Employee bob = employees.get(0);
+        factory.comparing(Employee.class).ascending("name").build().sort(employees);
+        assertEquals("Anna", employees.get(0).getName());
+        assertEquals(300L, employees.get(0).getSalary());
+        assertEquals("Bob", employees.get(1).getName());
+        assertEquals("Cecil", employees.get(2).getName());
+        assertEquals("Anna", bob.getName());
+
+        factory.comparing(Employee.class).descending("salary").build().sort(employees);
+        assertEquals("Cecil", employees.get(0).getName());
+        assertEquals("Sales", employees.get(0).getDepartment());
+        assertNull(employees.get(1).getDepartment());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonComparablePropertiesAreRejected() {
+        factory.comparing(Employee.class).ascending("tags");
+    }
+
+    private Employee employee(String department, long salary, String name) {
+        Employee employee = factory.create(Employee.class);
+        employee.setDepartment(department);
+        employee.setSalary(salary);
+        employee.setName(name);
+        return employee;
+    }
+
+    public interface Employee {
+
+        String getName();
+
+        void setName(String name);
+
+        String getDepartment();
+
+        void setDepartment(String department);
+
+        long getSalary();
+
+        void setSalary(long salary);
+
+        List<String> getTags();
+
+        void setTags(List<String> tags);
+
+    }
+
+    public static class EmployeeVO implements Employee {
+
+        private String name;
+        private String department;
+        private long salary;
+        private List<String> tags;
+
+        public String getName() { return name; }
+
+        public void setName(String name) { this.name = name; }
+
+        public String getDepartment() { return department; }
+
+        public void setDepartment(String department) { this.department = department; }
+
+        public long getSalary() { return salary; }
+
+        public void setSalary(long salary) { this.salary = salary; }
+
+        public List<String> getTags() { return tags; }
+
+        public void setTags(List<String> tags) { this.tags = tags; }
+    }
+
+}
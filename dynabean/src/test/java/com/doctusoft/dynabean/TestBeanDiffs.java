@@ -0,0 +1,122 @@
+package com.doctusoft.dynabean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestBeanDiffs {
+
+    private DynaBeanFactory factory;
+
+    @Before
+    public void setup() {
+        factory = new LocalDynaBeanFactory();
+    }
+
+    @Test
+    public void diffContainsChangedPropertiesInOrder() {
+        Account cached = account("John", 100L, "active");
+        Account incoming = account("John", 120L, null);
+        incoming.setTags(Arrays.asList("vip"));
+
+        BeanDiff<Account> diff = factory.diff(cached, incoming);
+        assertEquals(Arrays.asList("balance", "status", "tags"), diff.getChangedPropertyNames());
+        assertEquals(3, diff.size());
+        assertTrue(diff.isChanged("status"));
+        assertFalse(diff.isChanged("name"));
+        assertEquals(120L, diff.getNewValue("balance"));
+        assertNull(diff.getNewValue("status"));
+        assertEquals(Arrays.asList("vip"), diff.getNewValue("tags"));
+
+        Account other = account("Jane", 5L, "closed");
+        diff.applyTo(other);
+        assertEquals("Jane", other.getName());
+        assertEquals(120L, other.getBalance());
+        assertNull(other.getStatus());
+        assertEquals(Arrays.asList("vip"), other.getTags());
+
+        diff.applyTo(cached);
+        assertEquals(incoming, cached);
+        assertTrue(factory.diff(cached, incoming).isEmpty());
+    }
+
+    @Test
+    public void mergeCombinesNonConflictingChanges() {
+        Account base = account("John", 100L, "active");
+        Account ours = account("John", 150L, "active");
+        Account theirs = account("Johnny", 100L, "active");
+
+        MergeResult<Account> result = factory.merge(base, ours, theirs);
+        assertFalse(result.hasConflicts());
+        Account merged = result.getMerged();
+        assertEquals("Johnny", merged.getName());
+        assertEquals(150L, merged.getBalance());
+        assertEquals("active", merged.getStatus());
+        assertEquals("John", base.getName());
+    }
+
+    @Test
+    public void mergeReportsConflicts() {
+        Account base = account("John", 100L, "active");
+        Account ours = account("John", 150L, "blocked");
+        Account theirs = account("John", 150L, null);
+
+        MergeResult<Account> result = factory.merge(base, ours, theirs);
+        assertTrue(result.hasConflicts());
+        assertEquals(1, result.getConflicts().size());
+        MergeResult.Conflict conflict = result.getConflicts().get(0);
+        assertEquals("status", conflict.getPropertyName());
+        assertEquals("active", conflict.getBaseValue());
+        assertEquals("blocked", conflict.getOurValue());
+        assertNull(conflict.getTheirValue());
+        assertEquals("blocked", result.getMerged().getStatus());
+        assertEquals(150L, result.getMerged().getBalance());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void diffRequiresSameType() {
+        Account account = factory.create(Account.class);
+        Account other = factory.create(Savings.class);
+        factory.diff(account, other);
+    }
+
+    private Account account(String name, long balance, String status) {
+        Account account = factory.create(Account.class);
+        account.setName(name);
+        account.setBalance(balance);
+        account.setStatus(status);
+        return account;
+    }
+
+    public interface Account {
+
+        String getName();
+
+        void setName(String name);
+
+        long getBalance();
+
+        void setBalance(long balance);
+
+        String getStatus();
+
+        void setStatus(String status);
+
+        List<String> getTags();
+
+        void setTags(List<String> tags);
+
+    }
+
+    public interface Savings extends Account {
+
+        double getRate();
+
+        void setRate(double rate);
+
+    }
+
+}
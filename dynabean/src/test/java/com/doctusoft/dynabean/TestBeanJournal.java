@@ -0,0 +1,237 @@
+package com.doctusoft.dynabean;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestBeanJournal {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DynaBeanFactory factory;
+
+    private Path path;
+
+    @Before
+    public void setup() throws IOException {
+        factory = new LocalDynaBeanFactory();
+        path = folder.getRoot().toPath().resolve("orders.journal");
+    }
+
+    @Test
+    public void changesAreReplayedOnOpen() throws IOException {
+        long firstId;
+        long secondId;
+        try (BeanJournal<Order> journal = factory.openJournal(Order.class, path)) {
+            Order first = journal.create();
+            first.setCustomer("John");
+            first.setQuantity(3);
+            first.setStatus(Status.OPEN);
+            first.setTags(new ArrayList<>(Arrays.asList("urgent")));
+            Order second = factory.create(Order.class);
+            second.setCustomer("Jane");
+            secondId = journal.attach(second);
+            second.setQuantity(7);
+            Order deleted = journal.create();
+            deleted.setCustomer("Nobody");
+            assertTrue(journal.delete(deleted));
+            first.setCustomer(null);
+            firstId = journal.getId(first);
+            journal.commit();
+        }
+        try (BeanJournal<Order> journal = factory.openJournal(Order.class, path)) {
+            assertEquals(2, journal.getBeans().size());
+            Order first = journal.get(firstId);
+            assertNull(first.getCustomer());
+            assertEquals(3, first.getQuantity());
+            assertEquals(Status.OPEN, first.getStatus());
+            assertEquals(Arrays.asList("urgent"), first.getTags());
+            Order second = journal.get(secondId);
+            assertEquals("Jane", second.getCustomer());
+            assertEquals(7, second.getQuantity());
+            second.setStatus(Status.SHIPPED);
+            assertTrue(journal.create() != null);
+        }
+        try (BeanJournal<Order> journal = factory.openJournal(Order.class, path)) {
+            assertEquals(Status.SHIPPED, journal.get(secondId).getStatus());
+            assertEquals(3, journal.getBeans().size());
+        }
+    }
+
+    @Test
+    public void tornRecordsAreDropped() throws IOException {
+        try (BeanJournal<Order> journal = factory.openJournal(Order.class, path)) {
+            journal.create().setQuantity(5);
+            journal.commit();
+        }
+        long validSize = Files.size(path);
+        Files.write(path, new byte[] { 0, 0, 0, 40, 2, 0, 0 }, StandardOpenOption.APPEND);
+        try (BeanJournal<Order> journal = factory.openJournal(Order.class, path)) {
+            assertEquals(validSize, Files.size(path));
+            Order order = journal.getBeans().values().iterator().next();
+            assertEquals(5, order.getQuantity());
+            order.setQuantity(6);
+        }
+        try (BeanJournal<Order> journal = factory.openJournal(Order.class, path)) {
+            assertEquals(6, journal.getBeans().values().iterator().next().getQuantity());
+        }
+    }
+
+    @Test
+    public void compactionKeepsLastValuesOnly() throws IOException {
+        long id;
+        try (BeanJournal<Order> journal = factory.openJournal(Order.class, path)) {
+            Order order = journal.create();
+            id = journal.getId(order);
+            for (int i = 0; i < 1000; ++i) {
+                order.setQuantity(i);
+            }
+            journal.create().setCustomer("Temporary");
+            journal.delete(journal.get(id + 1));
+            journal.commit();
+            long sizeBefore = Files.size(path);
+            journal.compact();
+            assertTrue(Files.size(path) < sizeBefore / 10);
+            order.setCustomer("John");
+            journal.commit();
+        }
+        try (BeanJournal<Order> journal = factory.openJournal(Order.class, path)) {
+            assertEquals(Collections.singleton(id), journal.getBeans().keySet());
+            assertEquals(999, journal.get(id).getQuantity());
+            assertEquals("John", journal.get(id).getCustomer());
+        }
+    }
+
+    @Test
+    public void concurrentCommitsAreGrouped() throws Exception {
+        try (final BeanJournal<Order> journal = factory.openJournal(Order.class, path)) {
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; ++t) {
+                threads[t] = new Thread() {
+                    public void run() {
+                        try {
+                            Order order = journal.create();
+                            for (int i = 0; i < 50; ++i) {
+                                order.setQuantity(i);
+                                journal.commit();
+                            }
+                        } catch (IOException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(200, journal.getCommitCount());
+            assertTrue(journal.getSyncCount() <= journal.getCommitCount());
+            assertEquals(204, journal.getRecordCount());
+        }
+    }
+
+    @Test
+    public void concurrentSettersOfTheSameBeanAreReplayedInWriteOrder() throws Exception {
+        Map<Long, Order> orders = new HashMap<>();
+        IndexedBeanCollection<Order> byQuantity = factory.createSharedIndexedCollection(Order.class)
+            .addHashIndex("quantity");
+        try (BeanJournal<Order> journal = factory.openJournal(Order.class, path)) {
+            for (int round = 0; round < 400; ++round) {
+                final Order order = journal.create();
+                orders.put(journal.getId(order), order);
+                byQuantity.add(order);
+                Thread[] setters = new Thread[4];
+                for (int t = 0; t < setters.length; ++t) {
+                    final int firstQuantity = t * 1000;
+                    setters[t] = new Thread() {
+                        public void run() {
+                            for (int i = 0; i < 1000; ++i) {
+                                order.setQuantity(firstQuantity + i);
+                            }
+                        }
+                    };
+                    setters[t].start();
+                }
+                for (Thread setter : setters) {
+                    setter.join();
+                }
+            }
+            journal.commit();
+        }
+        try (BeanJournal<Order> journal = factory.openJournal(Order.class, path)) {
+            for (Map.Entry<Long, Order> e : orders.entrySet()) {
+                assertEquals(e.getValue().getQuantity(), journal.get(e.getKey()).getQuantity());
+            }
+        }
+    }
+
+    @Test
+    public void valuesWhichCannotBeJournaledAreRejected() throws IOException {
+        try (BeanJournal<Order> journal = factory.openJournal(Order.class, path)) {
+            Order order = journal.create();
+            try {
+                order.setAttachment(new Object());
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+            assertNull(order.getAttachment());
+        }
+    }
+
+    @Test
+    public void unexpectedClassesAreNotDeserializedOnReplay() throws IOException {
+        try (BeanJournal<Order> journal = factory.openJournal(Order.class, path)) {
+            journal.create().setAttachment(new TestBufferBeans.Payload("unexpected"));
+            journal.commit();
+        }
+        try {
+            factory.openJournal(Order.class, path);
+            fail();
+        } catch (java.io.InvalidClassException expected) {
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void journalsOfOtherTypesCannotBeOpened() throws IOException {
+        factory.openJournal(Order.class, path).close();
+        factory.openJournal(TestDynaBeans.SimpleBean.class, path);
+    }
+
+    public enum Status {
+        OPEN, SHIPPED
+    }
+
+    public interface Order {
+
+        String getCustomer();
+
+        void setCustomer(String customer);
+
+        int getQuantity();
+
+        void setQuantity(int quantity);
+
+        Status getStatus();
+
+        void setStatus(Status status);
+
+        List<String> getTags();
+
+        void setTags(List<String> tags);
+
+        Object getAttachment();
+
+        void setAttachment(Object attachment);
+
+    }
+
+}
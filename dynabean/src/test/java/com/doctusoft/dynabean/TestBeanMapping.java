@@ -0,0 +1,179 @@
+package com.doctusoft.dynabean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestBeanMapping {
+
+    private DynaBeanFactory factory;
+
+    @Before
+    public void setup() {
+        factory = new LocalDynaBeanFactory();
+    }
+
+    @Test
+    public void propertiesAreMappedAcrossInterfacesByName() {
+        Person person = factory.create(Person.class);
+        person.setName("John");
+        person.setAge(42);
+        person.setNicknames(new ArrayList<>(Arrays.asList("Johnny", "J")));
+        Contact contact = factory.mapProperties(Contact.class, person);
+        assertEquals("John", contact.getName());
+        assertEquals(Integer.valueOf(42), contact.getAge());
+        assertNull(contact.getEmail());
+        assertEquals(person.getNicknames(), contact.getNicknames());
+        assertNotSame(person.getNicknames(), contact.getNicknames());
+        Person back = factory.mapProperties(Person.class, contact);
+        assertEquals(person, back);
+    }
+
+    @Test
+    public void gettersOfPlainObjectsAreMapped() {
+        ContactVO vo = new ContactVO("Jane", 31, "jane@example.com");
+        Contact contact = factory.mapProperties(Contact.class, vo);
+        assertEquals("Jane", contact.getName());
+        assertEquals(Integer.valueOf(31), contact.getAge());
+        assertEquals("jane@example.com", contact.getEmail());
+        Person person = factory.mapProperties(Person.class, new PackagePrivatePerson("Joe", 7));
+        assertEquals("Joe", person.getName());
+        assertEquals(7, person.getAge());
+        assertTrue(person.isActive());
+    }
+
+    @Test
+    public void gettersOfOtherProxiesAreMapped() {
+        ClassLoader classLoader = Contact.class.getClassLoader();
+        Contact proxy = (Contact) Proxy.newProxyInstance(classLoader, new Class<?>[] { Contact.class },
+            new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return method.getName().equals("getName") ? "Proxied" : null;
+                }
+            });
+        Person person = factory.mapProperties(Person.class, proxy);
+        assertEquals("Proxied", person.getName());
+        assertEquals(0, person.getAge());
+        assertNull(person.getNicknames());
+    }
+
+    @Test
+    public void incompatibleGettersAreRejected() {
+        try {
+            factory.mapProperties(Person.class, new AgeAsText());
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().contains("getAge"));
+        }
+    }
+
+    @Test
+    public void mapAllPreservesOrder() {
+        List<Object> sources = new ArrayList<>();
+        for (int i = 0; i < 10000; ++i) {
+            sources.add(i % 2 == 0 ? new PackagePrivatePerson("P" + i, i) : new ContactVO("P" + i, i, null));
+        }
+        List<Contact> contacts = factory.mapAll(Contact.class, sources);
+        assertEquals(sources.size(), contacts.size());
+        for (int i = 0; i < sources.size(); ++i) {
+            assertEquals("P" + i, contacts.get(i).getName());
+            assertEquals(Integer.valueOf(i), contacts.get(i).getAge());
+        }
+    }
+
+    public interface Person {
+
+        String getName();
+
+        void setName(String name);
+
+        int getAge();
+
+        void setAge(int age);
+
+        boolean isActive();
+
+        void setActive(boolean active);
+
+        List<String> getNicknames();
+
+        void setNicknames(List<String> nicknames);
+
+    }
+
+    public interface Contact {
+
+        String getName();
+
+        void setName(String name);
+
+        Integer getAge();
+
+        void setAge(Integer age);
+
+        String getEmail();
+
+        void setEmail(String email);
+
+        List<String> getNicknames();
+
+        void setNicknames(List<String> nicknames);
+
+    }
+
+    public static class ContactVO {
+
+        private final String name;
+
+        private final Integer age;
+
+        private final String email;
+
+        public ContactVO(String name, Integer age, String email) {
+            this.name = name;
+            this.age = age;
+            this.email = email;
+        }
+
+        public String getName() { return name; }
+
+        public Integer getAge() { return age; }
+
+        public String getEmail() { return email; }
+
+        public static String getIgnored() { return "ignored"; }
+
+    }
+
+    public static class AgeAsText {
+
+        public String getAge() { return "unknown"; }
+
+    }
+
+    static class PackagePrivatePerson {
+
+        private final String name;
+
+        private final int age;
+
+        PackagePrivatePerson(String name, int age) {
+            this.name = name;
+            this.age = age;
+        }
+
+        public String getName() { return name; }
+
+        public int getAge() { return age; }
+
+        public boolean isActive() { return true; }
+
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.doctusoft.dynabean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.*;
+
+public class TestBeanPatches {
+
+    private DynaBeanFactory factory;
+
+    @Before
+    public void setup() {
+        factory = new LocalDynaBeanFactory();
+    }
+
+    @Test
+    public void applyPatchWritesAllValues() {
+        Order order = factory.create(Order.class);
+        order.setStatus("NEW");
+        HashMap<String, Object> changes = new HashMap<>();
+        changes.put("status", "SHIPPED");
+        changes.put("quantity", 3);
+        assertSame(order, factory.applyPatch(order, changes));
+        assertEquals("SHIPPED", order.getStatus());
+        assertEquals(3, order.getQuantity());
+        assertNull(order.getId());
+    }
+
+    @Test
+    public void compiledPatchCanBeAppliedToManyInstances() {
+        LinkedHashMap<String, Object> changes = new LinkedHashMap<>();
+        changes.put("status", "CANCELLED");
+        changes.put("quantity", 0);
+        Patch<Order> patch = factory.compilePatch(Order.class, changes);
+        assertEquals(Order.class, patch.getBeanInterfaceClass());
+        assertThat(patch.getPropertyNames(), contains("status", "quantity"));
+        changes.clear();
+
+        for (int i = 0; i < 3; ++i) {
+            Order order = factory.create(Order.class);
+            order.setQuantity(i + 1);
+            patch.applyTo(order);
+            assertEquals("CANCELLED", order.getStatus());
+            assertEquals(0, order.getQuantity());
+        }
+    }
+
+    @Test
+    public void patchCanSetReadOnlyPropertiesAndResetValues() {
+        Order order = factory.create(Order.class);
+        order.setQuantity(5);
+        HashMap<String, Object> changes = new HashMap<>();
+        changes.put("id", 42L);
+        changes.put("quantity", null);
+        factory.applyPatch(order, changes);
+        assertEquals(Long.valueOf(42L), order.getId());
+        assertEquals(0, order.getQuantity());
+    }
+
+    @Test
+    public void patchCanBeAppliedToSubtypes() {
+        Patch<Order> patch = factory.compilePatch(Order.class, Collections.singletonMap("status", "NEW"));
+        PriorityOrder order = factory.create(PriorityOrder.class);
+        patch.applyTo(order);
+        assertEquals("NEW", order.getStatus());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownPropertiesAreRejected() {
+        factory.compilePatch(Order.class, Collections.singletonMap("unknown", "value"));
+    }
+
+    @Test
+    public void incompatibleValuesAreRejectedBeforeWriting() {
+        Order order = factory.create(Order.class);
+        HashMap<String, Object> changes = new HashMap<>();
+        changes.put("status", "SHIPPED");
+        changes.put("quantity", "three");
+        try {
+            factory.applyPatch(order, changes);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertNull(order.getStatus());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cannotPatchNonDynabeans() {
+        factory.applyPatch(new Object(), Collections.singletonMap("status", "NEW"));
+    }
+
+    public interface Order {
+
+        Long getId();
+
+        String getStatus();
+
+        void setStatus(String status);
+
+        int getQuantity();
+
+        void setQuantity(int quantity);
+
+    }
+
+    public interface PriorityOrder extends Order {
+
+        int getPriority();
+
+        void setPriority(int priority);
+
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.doctusoft.dynabean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestBeanPool {
+
+    private DynaBeanFactory factory;
+
+    @Before
+    public void setup() {
+        factory = new LocalDynaBeanFactory();
+    }
+
+    @Test
+    public void releasedBeansAreResetAndReused() {
+        BeanPool<Message> pool = factory.createPool(Message.class, 4);
+        Message first = pool.acquire();
+        first.setTopic("orders");
+        first.setOffset(10L);
+        pool.release(first);
+        assertEquals(1, pool.getIdleCount());
+
+        Message second = pool.acquire();
+        assertSame(first, second);
+        assertNull(second.getTopic());
+        assertEquals(0L, second.getOffset());
+        assertEquals(factory.create(Message.class), second);
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(2, pool.getAcquireCount());
+        assertEquals(1, pool.getMissCount());
+    }
+
+    @Test
+    public void fullFreeListDiscardsBeans() {
+        BeanPool<Message> pool = factory.createPool(Message.class, 1);
+        Message first = pool.acquire();
+        Message second = pool.acquire();
+        pool.release(first);
+        pool.release(second);
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(2, pool.getReleaseCount());
+        assertEquals(1, pool.getDiscardCount());
+    }
+
+    @Test
+    public void freeListsAreThreadLocal() throws Exception {
+        final BeanPool<Message> pool = factory.createPool(Message.class, 4);
+        pool.release(pool.acquire());
+        final Message[] acquired = new Message[1];
+        Thread thread = new Thread() {
+            public void run() {
+                acquired[0] = pool.acquire();
+            }
+        };
+        thread.start();
+        thread.join();
+        assertNotNull(acquired[0]);
+        assertEquals(2, pool.getMissCount());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void beansCannotBeReleasedTwice() {
+        BeanPool<Message> pool = factory.createPool(Message.class, 4);
+        Message bean = pool.acquire();
+        pool.release(bean);
+        try {
+            pool.release(bean);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(1, pool.getIdleCount());
+        assertSame(bean, pool.acquire());
+        assertNotSame(bean, pool.acquire());
+        pool.release(bean);
+    }
+
+    @Test
+    public void beansInIndexedCollectionsCannotBeReleased() {
+        BeanPool<Message> pool = factory.createPool(Message.class, 4);
+        IndexedBeanCollection<Message> messages = factory.createIndexedCollection(Message.class).addHashIndex("topic");
+        Message bean = pool.acquire();
+        bean.setTopic("orders");
+        messages.add(bean);
+        try {
+            pool.release(bean);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals("orders", bean.getTopic());
+        assertEquals(0, pool.getReleaseCount());
+        messages.remove(bean);
+        pool.release(bean);
+        assertTrue(messages.findEqual("topic", "orders").isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cannotReleaseBeansOfOtherTypes() {
+        BeanPool<Object> pool = (BeanPool) factory.createPool(Message.class, 4);
+        pool.release(factory.create(TestDynaBeans.SimpleBean.class));
+    }
+
+    public interface Message {
+
+        String getTopic();
+
+        void setTopic(String topic);
+
+        long getOffset();
+
+        void setOffset(long offset);
+
+    }
+
+}
@@ -0,0 +1,120 @@
+package com.doctusoft.dynabean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+
+import static org.junit.Assert.*;
+
+public class TestBeanViews {
+
+    private DynaBeanFactory factory;
+
+    @Before
+    public void setup() {
+        factory = new LocalDynaBeanFactory();
+    }
+
+    @Test
+    public void viewReadsAndWritesThroughToOriginal() {
+        Customer customer = factory.create(Customer.class);
+        customer.setName("John");
+        customer.setEmail("john@example.com");
+        CustomerSummary summary = factory.view(CustomerSummary.class, customer);
+        assertFalse(summary instanceof DynaBean);
+        assertEquals("John", summary.getName());
+
+        customer.setName("Jane");
+        assertEquals("Jane", summary.getName());
+        summary.setName("Joe");
+        assertEquals("Joe", customer.getName());
+        assertEquals("john@example.com", customer.getEmail());
+    }
+
+    @Test
+    public void propertiesUnknownToOriginalAreReadOnlyDefaults() {
+        Customer customer = factory.create(Customer.class);
+        Overlapping view = factory.view(Overlapping.class, customer);
+        view.setName("John");
+        assertEquals("John", customer.getName());
+        assertEquals(0, view.getLoyaltyPoints());
+        try {
+            view.setLoyaltyPoints(10);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            assertEquals(0, view.getLoyaltyPoints());
+        }
+    }
+
+    @Test
+    public void viewOfViewSharesTheOriginal() {
+        Customer customer = factory.create(Customer.class);
+        CustomerSummary summary = factory.view(CustomerSummary.class, customer);
+        Overlapping overlapping = factory.view(Overlapping.class, summary);
+        overlapping.setName("John");
+        assertEquals("John", customer.getName());
+        assertEquals(summary, factory.view(CustomerSummary.class, overlapping));
+        assertNotEquals(summary, factory.view(CustomerSummary.class, factory.create(Customer.class)));
+    }
+
+    @Test
+    public void viewDefinitionsAreComputedOncePerTypePair() {
+        CustomerSummary first = factory.view(CustomerSummary.class, factory.create(Customer.class));
+        WeakReference<Object> definition =
+            new WeakReference<Object>(DynaBeanView.asDynaBeanViewOrNull(first).viewDefinition);
+        first = null;
+        System.gc();
+        CustomerSummary second = factory.view(CustomerSummary.class, factory.create(Customer.class));
+        assertSame(definition.get(), DynaBeanView.asDynaBeanViewOrNull(second).viewDefinition);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void incompatibleTypesAreRejected() {
+        factory.view(Incompatible.class, factory.create(Customer.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cannotViewNonDynabeans() {
+        factory.view(CustomerSummary.class, new Object());
+    }
+
+    public interface Customer {
+
+        String getName();
+
+        void setName(String name);
+
+        String getEmail();
+
+        void setEmail(String email);
+
+    }
+
+    public interface CustomerSummary {
+
+        String getName();
+
+        void setName(String name);
+
+    }
+
+    public interface Overlapping {
+
+        CharSequence getName();
+
+        void setName(String name);
+
+        int getLoyaltyPoints();
+
+        void setLoyaltyPoints(int loyaltyPoints);
+
+    }
+
+    public interface Incompatible {
+
+        Long getName();
+
+    }
+
+}
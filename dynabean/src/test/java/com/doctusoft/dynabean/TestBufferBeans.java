@@ -0,0 +1,214 @@
+package com.doctusoft.dynabean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestBufferBeans {
+
+    private DynaBeanFactory factory;
+
+    @Before
+    public void setup() {
+        factory = new LocalDynaBeanFactory();
+    }
+
+    @Test
+    public void wrappedBeansReturnEncodedValues() {
+        Trade trade = factory.create(Trade.class);
+        trade.setSymbol("ACME");
+        trade.setQuantity(42);
+        trade.setPrice(12.5);
+        trade.setSide(Side.SELL);
+        trade.setSettled(Boolean.TRUE);
+        trade.setNotes(new ArrayList<>(Arrays.asList("first", "second")));
+        Trade wrapped = factory.wrap(Trade.class, factory.encode(Trade.class, trade));
+        assertEquals("ACME", wrapped.getSymbol());
+        assertEquals(42, wrapped.getQuantity());
+        assertEquals(12.5, wrapped.getPrice(), 0.0);
+        assertEquals(Side.SELL, wrapped.getSide());
+        assertEquals(Boolean.TRUE, wrapped.getSettled());
+        assertEquals(Arrays.asList("first", "second"), wrapped.getNotes());
+        assertFalse(wrapped instanceof DynaBean);
+    }
+
+    @Test
+    public void unsetPropertiesAreDecodedAsDefaults() {
+        Trade wrapped = factory.wrap(Trade.class, factory.encode(Trade.class, factory.create(Trade.class)));
+        assertNull(wrapped.getSymbol());
+        assertEquals(0, wrapped.getQuantity());
+        assertNull(wrapped.getSide());
+        assertNull(wrapped.getSettled());
+        assertNull(wrapped.getNotes());
+    }
+
+    @Test
+    public void consecutiveBeansAreWrappedOneByOne() {
+        List<ByteBuffer> encoded = new ArrayList<>();
+        int totalLength = 0;
+        for (int i = 0; i < 3; ++i) {
+            Trade trade = factory.create(Trade.class);
+            trade.setSymbol("S" + i);
+            trade.setQuantity(i);
+            ByteBuffer buffer = factory.encode(Trade.class, trade);
+            totalLength += buffer.remaining();
+            encoded.add(buffer);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(totalLength);
+        for (ByteBuffer each : encoded) {
+            buffer.put(each);
+        }
+        buffer.flip();
+        for (int i = 0; i < 3; ++i) {
+            Trade wrapped = factory.wrap(Trade.class, buffer);
+            assertEquals("S" + i, wrapped.getSymbol());
+            assertEquals(i, wrapped.getQuantity());
+        }
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void wrappedBeansAreReadOnlyButCanBeCopied() {
+        Trade trade = factory.create(Trade.class);
+        trade.setSymbol("ACME");
+        trade.setQuantity(42);
+        Trade wrapped = factory.wrap(Trade.class, factory.encode(Trade.class, trade));
+        try {
+            wrapped.setQuantity(1);
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+        Trade copy = factory.copyProperties(Trade.class, wrapped);
+        assertTrue(copy instanceof DynaBean);
+        assertEquals(trade, copy);
+        copy.setQuantity(1);
+        assertEquals(42, wrapped.getQuantity());
+    }
+
+    @Test
+    public void wrappedBeansAreEqualByEncodedBytes() {
+        Trade trade = factory.create(Trade.class);
+        trade.setSymbol("ACME");
+        Trade first = factory.wrap(Trade.class, factory.encode(Trade.class, trade));
+        Trade second = factory.wrap(Trade.class, factory.encode(Trade.class, trade));
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+        trade.setSymbol("OTHER");
+        assertNotEquals(first, factory.wrap(Trade.class, factory.encode(Trade.class, trade)));
+    }
+
+    @Test
+    public void otherImplementationsCanBeEncoded() {
+        Trade trade = new Trade() {
+            public String getSymbol() { return "ACME"; }
+            public void setSymbol(String symbol) { }
+            public int getQuantity() { return 7; }
+            public void setQuantity(int quantity) { }
+            public double getPrice() { return 1.5; }
+            public void setPrice(double price) { }
+            public Side getSide() { return Side.BUY; }
+            public void setSide(Side side) { }
+            public Boolean getSettled() { return null; }
+            public void setSettled(Boolean settled) { }
+            public List<String> getNotes() { return null; }
+            public void setNotes(List<String> notes) { }
+        };
+        Trade wrapped = factory.wrap(Trade.class, factory.encode(Trade.class, trade));
+        assertEquals("ACME", wrapped.getSymbol());
+        assertEquals(7, wrapped.getQuantity());
+        assertEquals(Side.BUY, wrapped.getSide());
+        assertNull(wrapped.getSettled());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void buffersOfOtherTypesAreRejected() {
+        TestDynaBeans.SimpleBean bean = factory.create(TestDynaBeans.SimpleBean.class);
+        factory.wrap(Trade.class, factory.encode(TestDynaBeans.SimpleBean.class, bean));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedBuffersAreRejected() {
+        Trade trade = factory.create(Trade.class);
+        trade.setSymbol("ACME");
+        ByteBuffer buffer = factory.encode(Trade.class, trade);
+        buffer.limit(buffer.limit() - 1);
+        factory.wrap(Trade.class, buffer);
+    }
+
+    @Test
+    public void onlyExpectedClassesAreDeserialized() {
+        Attached attached = factory.create(Attached.class);
+        attached.setPayload(new Payload("declared"));
+        attached.setAttachment(new ArrayList<>(Arrays.asList("allowed")));
+        Attached wrapped = factory.wrap(Attached.class, factory.encode(Attached.class, attached));
+        assertEquals("declared", wrapped.getPayload().text);
+        assertEquals(Arrays.asList("allowed"), wrapped.getAttachment());
+        attached.setAttachment(new Payload("unexpected"));
+        wrapped = factory.wrap(Attached.class, factory.encode(Attached.class, attached));
+        try {
+            wrapped.getAttachment();
+            fail();
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getCause() instanceof java.io.InvalidClassException);
+        }
+    }
+
+    public enum Side {
+        BUY, SELL
+    }
+
+    public interface Trade {
+
+        String getSymbol();
+
+        void setSymbol(String symbol);
+
+        int getQuantity();
+
+        void setQuantity(int quantity);
+
+        double getPrice();
+
+        void setPrice(double price);
+
+        Side getSide();
+
+        void setSide(Side side);
+
+        Boolean getSettled();
+
+        void setSettled(Boolean settled);
+
+        List<String> getNotes();
+
+        void setNotes(List<String> notes);
+
+    }
+
+    public interface Attached {
+
+        Payload getPayload();
+
+        void setPayload(Payload payload);
+
+        Object getAttachment();
+
+        void setAttachment(Object attachment);
+
+    }
+
+    public static class Payload implements java.io.Serializable {
+
+        final String text;
+
+        Payload(String text) {
+            this.text = text;
+        }
+
+    }
+
+}
@@ -0,0 +1,215 @@
+package com.doctusoft.dynabean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestColumnarBeanList {
+
+    private DynaBeanFactory factory;
+
+    @Before
+    public void setup() {
+        factory = new LocalDynaBeanFactory();
+    }
+
+    @Test
+    public void elementsAreViewsOfColumns() {
+        ColumnarBeanList<Measurement> list = factory.createColumnarList(Measurement.class);
+        for (int i = 0; i < 100; ++i) {
+            Measurement measurement = factory.create(Measurement.class);
+            measurement.setSensor("S" + i);
+            measurement.setValue(i / 2d);
+            measurement.setCount((short) i);
+            list.add(measurement);
+        }
+        assertEquals(100, list.size());
+        Measurement element = list.get(42);
+        assertFalse(element instanceof DynaBean);
+        assertEquals("S42", element.getSensor());
+        assertEquals(21d, element.getValue(), 0d);
+        assertEquals((short) 42, element.getCount());
+        assertFalse(element.isValid());
+
+        element.setValid(true);
+        element.setSensor(null);
+        assertTrue(list.get(42).isValid());
+        assertNull(list.get(42).getSensor());
+        assertEquals(element, list.get(42));
+        assertNotEquals(element, list.get(41));
+    }
+
+    @Test
+    public void detachedElementsAreIndependentDynabeans() {
+        ColumnarBeanList<Measurement> list = factory.createColumnarList(Measurement.class);
+        Measurement original = factory.create(Measurement.class);
+        original.setSensor("S1");
+        original.setValue(1.5d);
+        list.add(original);
+        Measurement detached = list.detach(0);
+        assertTrue(detached instanceof DynaBean);
+        assertEquals("S1", detached.getSensor());
+        assertEquals(1.5d, detached.getValue(), 0d);
+        detached.setSensor("S2");
+        assertEquals("S1", list.get(0).getSensor());
+
+        Measurement previous = list.set(0, detached);
+        assertEquals("S1", previous.getSensor());
+        assertEquals("S2", list.get(0).getSensor());
+    }
+
+    @Test
+    public void dictionaryEncodedPropertiesSupportFiltersAndSorting() {
+        ColumnarBeanList<Trade> list = factory.createColumnarList(Trade.class);
+        String[] currencies = { "EUR", "USD", "HUF" };
+        for (int i = 0; i < 600; ++i) {
+            Trade trade = factory.create(Trade.class);
+            trade.setCurrency(i % 10 == 9 ? null : currencies[i % 3]);
+            trade.setSide(i % 2 == 0 ? Side.BUY : Side.SELL);
+            trade.setReference("R" + i);
+            list.add(trade);
+        }
+        list.dictionaryEncode("currency");
+        list.dictionaryEncode("reference");
+        assertEquals("HUF", list.get(2).getCurrency());
+        assertNull(list.get(9).getCurrency());
+        assertEquals(Side.SELL, list.get(1).getSide());
+        assertEquals("R599", list.get(599).getReference());
+
+        BitSet usd = list.filterEqual("currency", "USD");
+        assertEquals(180, usd.cardinality());
+        assertTrue(usd.get(1));
+        assertFalse(usd.get(19));
+        assertEquals(60, list.filterEqual("currency", null).cardinality());
+        assertTrue(list.filterEqual("currency", "GBP").isEmpty());
+        assertEquals(300, list.filterEqual("side", Side.BUY).cardinality());
+        assertEquals(1, list.filterEqual("reference", "R300").cardinality());
+
+        list.get(0).setCurrency("GBP");
+        assertEquals("GBP", list.get(0).getCurrency());
+        assertEquals(1, list.filterEqual("currency", "GBP").cardinality());
+
+        factory.comparing(Trade.class).descending("side").ascending("currency").build().sort(list);
+        assertEquals(Side.SELL, list.get(0).getSide());
+        assertNull(list.get(0).getCurrency());
+        assertNull(list.get(59).getCurrency());
+        assertEquals("EUR", list.get(60).getCurrency());
+        assertEquals(Side.BUY, list.get(599).getSide());
+        assertEquals("USD", list.get(599).getCurrency());
+    }
+
+    @Test
+    public void numericColumnsAreAggregatedInParallel() {
+        ColumnarBeanList<Measurement> list = factory.createColumnarList(Measurement.class);
+        int size = 50000;
+        for (int i = 0; i < size; ++i) {
+            Measurement measurement = factory.create(Measurement.class);
+            measurement.setSensor("S" + i % 7);
+            measurement.setValue(i % 100);
+            measurement.setCount((short) (i % 1000));
+            measurement.setValid(i % 4 == 0);
+            list.add(measurement);
+        }
+        ColumnSummary counts = list.summarize("count");
+        assertTrue(counts.isIntegral());
+        assertEquals(size, counts.getCount());
+        assertEquals(50L * 999 * 1000 / 2, counts.getLongSum());
+        assertEquals(0L, counts.getLongMin());
+        assertEquals(999L, counts.getLongMax());
+        assertEquals(49.5d, list.summarize("value").getAverage(), 1e-9);
+
+        Map<Object, ColumnSummary> byValidity = list.groupBy("valid", "value");
+        assertEquals(Arrays.<Object>asList(false, true), new ArrayList<>(byValidity.keySet()));
+        assertEquals(size / 4, byValidity.get(true).getCount());
+        assertEquals(96d, byValidity.get(true).getMax(), 0d);
+
+        Map<Object, ColumnSummary> bySensor = list.groupBy("sensor", "count");
+        assertEquals(Arrays.<Object>asList("S0", "S1", "S2", "S3", "S4", "S5", "S6"),
+            new ArrayList<>(bySensor.keySet()));
+        long total = 0;
+        for (ColumnSummary summary : bySensor.values()) {
+            total += summary.getLongSum();
+        }
+        assertEquals(counts.getLongSum(), total);
+        assertEquals(Long.valueOf(size / 7 + 1), list.countBy("sensor").get("S0"));
+
+        list.dictionaryEncode("sensor");
+        BitSet valid = list.filterEqual("valid", true);
+        assertEquals(byValidity.get(true).getSum(), list.summarize("value", valid).getSum(), 0d);
+        Map<Object, ColumnSummary> validBySensor = list.groupBy("sensor", "value", valid);
+        assertEquals(7, validBySensor.size());
+        assertEquals(size / 28 + 1, validBySensor.get("S0").getCount());
+    }
+
+    @Test
+    public void enumKeysAreGroupedByCodes() {
+        ColumnarBeanList<Trade> list = factory.createColumnarList(Trade.class);
+        for (int i = 0; i < 10; ++i) {
+            Trade trade = factory.create(Trade.class);
+            trade.setSide(i < 3 ? Side.SELL : null);
+            list.add(trade);
+        }
+        Map<Object, Long> counts = list.countBy("side");
+        assertEquals(Arrays.asList(null, Side.SELL), new ArrayList<>(counts.keySet()));
+        assertEquals(Long.valueOf(7), counts.get(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void onlyNumericPropertiesCanBeSummarized() {
+        factory.createColumnarList(Measurement.class).summarize("sensor");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void primitivePropertiesCannotBeDictionaryEncoded() {
+        factory.createColumnarList(Measurement.class).dictionaryEncode("count");
+    }
+
+    public enum Side {
+        BUY, SELL
+    }
+
+    public interface Trade {
+
+        String getCurrency();
+
+        void setCurrency(String currency);
+
+        Side getSide();
+
+        void setSide(Side side);
+
+        String getReference();
+
+        void setReference(String reference);
+
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void cannotAccessBeyondSize() {
+        factory.createColumnarList(Measurement.class).get(0);
+    }
+
+    public interface Measurement {
+
+        String getSensor();
+
+        void setSensor(String sensor);
+
+        double getValue();
+
+        void setValue(double value);
+
+        short getCount();
+
+        void setCount(short count);
+
+        boolean isValid();
+
+        void setValid(boolean valid);
+
+    }
+
+}
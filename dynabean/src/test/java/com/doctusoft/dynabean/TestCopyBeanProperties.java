@@ -125,6 +125,117 @@ public class TestCopyBeanProperties {
         assertNotSame(bean.getMainAddress(), copy.getMainAddress());
     }
 
+    @Test
+    public void copyAllPreservesOrder() {
+        List<AddressDetails> originals = new ArrayList<>();
+        for (int i = 0; i < 20000; ++i) {
+            AddressDetails address;
+            if (i % 2 == 0) {
+                address = factory.create(AddressDetails.class);
+            } else {
+                address = new AddressDetailsVO();
+            }
+            address.setPostalCode(i);
+            address.setCity("City" + i);
+            originals.add(address);
+        }
+        List<AddressDetails> copies = factory.copyAll(AddressDetails.class, originals);
+        assertEquals(originals.size(), copies.size());
+        for (int i = 0; i < copies.size(); ++i) {
+            AddressDetails copy = copies.get(i);
+            assertTrue(copy instanceof DynaBean);
+            assertNotSame(originals.get(i), copy);
+            assertEquals(i, copy.getPostalCode());
+            assertEquals("City" + i, copy.getCity());
+        }
+    }
+
+    @Test
+    public void copyGraphCopiesLargeCollectionsDeeply() {
+        Bean bean = factory.create(Bean.class);
+        List<AddressDetails> addresses = new ArrayList<>();
+        for (int i = 0; i < 10000; ++i) {
+            AddressDetails address = factory.create(AddressDetails.class);
+            address.setPostalCode(i);
+            addresses.add(address);
+        }
+        bean.setNotificationAddresses(addresses);
+        List<Bean> graph = Collections.singletonList(bean);
+
+        List<Bean> copy = factory.copyGraph(graph);
+        assertEquals(graph, copy);
+        assertNotSame(bean, copy.get(0));
+        List<AddressDetails> copiedAddresses = copy.get(0).getNotificationAddresses();
+        assertNotSame(addresses, copiedAddresses);
+        for (int i = 0; i < addresses.size(); ++i) {
+            assertEquals(i, copiedAddresses.get(i).getPostalCode());
+            assertNotSame(addresses.get(i), copiedAddresses.get(i));
+        }
+    }
+
+    @Test
+    public void copyGraphPreservingReferencesKeepsSharingAndCycles() {
+        AddressDetails shared = factory.create(AddressDetails.class);
+        shared.setCity("Budapest");
+        Bean bean = factory.create(Bean.class);
+        bean.setMainAddress(shared);
+        bean.setNotificationAddresses(new ArrayList<>(Arrays.asList(shared, shared)));
+        List<Bean> beans = Arrays.asList(bean, bean);
+
+        List<Bean> copy = factory.copyGraphPreservingReferences(beans);
+        Bean beanCopy = copy.get(0);
+        assertSame(beanCopy, copy.get(1));
+        assertNotSame(bean, beanCopy);
+        assertEquals(bean, beanCopy);
+        AddressDetails sharedCopy = beanCopy.getMainAddress();
+        assertNotSame(shared, sharedCopy);
+        assertSame(sharedCopy, beanCopy.getNotificationAddresses().get(0));
+        assertSame(sharedCopy, beanCopy.getNotificationAddresses().get(1));
+
+        Node first = factory.create(Node.class);
+        Node second = factory.create(Node.class);
+        first.setName("first");
+        first.setNext(second);
+        second.setName("second");
+        second.setNext(first);
+        Node firstCopy = factory.copyGraphPreservingReferences(first);
+        assertEquals("second", firstCopy.getNext().getName());
+        assertSame(firstCopy, firstCopy.getNext().getNext());
+        assertNotSame(first, firstCopy.getNext().getNext());
+    }
+
+    @Test
+    public void copyGraphPreservingReferencesHandlesDeepGraphs() {
+        Node head = factory.create(Node.class);
+        Node node = head;
+        for (int i = 1; i < 100000; ++i) {
+            Node next = factory.create(Node.class);
+            next.setName(String.valueOf(i));
+            node.setNext(next);
+            node = next;
+        }
+        Node copy = factory.copyGraphPreservingReferences(head);
+        int count = 0;
+        for (Node n = copy, original = head; n != null; n = n.getNext(), original = original.getNext()) {
+            assertNotSame(original, n);
+            assertEquals(original.getName(), n.getName());
+            count++;
+        }
+        assertEquals(100000, count);
+    }
+
+    public interface Node {
+
+        String getName();
+
+        void setName(String name);
+
+        Node getNext();
+
+        void setNext(Node next);
+
+    }
+
     public interface Bean {
 
         String getName();
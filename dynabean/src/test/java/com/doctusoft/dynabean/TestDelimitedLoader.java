@@ -0,0 +1,158 @@
+package com.doctusoft.dynabean;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestDelimitedLoader {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DynaBeanFactory factory;
+
+    @Before
+    public void setup() {
+        factory = new LocalDynaBeanFactory();
+    }
+
+    private Path write(String content) throws IOException {
+        Path path = folder.newFile().toPath();
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    @Test
+    public void valuesAreParsedByPropertyTypes() throws IOException {
+        Path path = write("id,symbol,quantity,price,side,settled\n"
+            + "1,ACME,42,12.5,SELL,true\n"
+            + "9000000000,\"Big, Corp \"\"Ltd\"\"\",-7,1e3,BUY,\n");
+        List<Trade> trades = factory.delimitedLoader(Trade.class).build().load(path);
+        assertEquals(2, trades.size());
+        Trade first = trades.get(0);
+        assertEquals(1L, first.getId());
+        assertEquals("ACME", first.getSymbol());
+        assertEquals(42, first.getQuantity());
+        assertEquals(12.5, first.getPrice(), 0.0);
+        assertEquals(Side.SELL, first.getSide());
+        assertEquals(Boolean.TRUE, first.getSettled());
+        Trade second = trades.get(1);
+        assertEquals(9000000000L, second.getId());
+        assertEquals("Big, Corp \"Ltd\"", second.getSymbol());
+        assertEquals(-7, second.getQuantity());
+        assertEquals(1000.0, second.getPrice(), 0.0);
+        assertNull(second.getSettled());
+        assertTrue(second instanceof DynaBean);
+    }
+
+    @Test
+    public void tabSeparatedFilesWithCrLfAndBlankLinesAreLoaded() throws IOException {
+        Path path = write("\uFEFFsymbol\tquantity\r\nACME\t1\r\n\r\n\u00c1RV\u00cdZ\t\r\n\tthird\textra\n");
+        DelimitedLoader<Trade> loader = factory.delimitedLoader(Trade.class).delimiter('\t').build();
+        try {
+            loader.load(path);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        path = write("\uFEFFsymbol\tquantity\r\nACME\t1\r\n\r\n\u00c1RV\u00cdZ\t\r\n\t3\textra\n");
+        List<Trade> trades = loader.load(path);
+        assertEquals(3, trades.size());
+        assertEquals("ACME", trades.get(0).getSymbol());
+        assertEquals("\u00c1RV\u00cdZ", trades.get(1).getSymbol());
+        assertEquals(0, trades.get(1).getQuantity());
+        assertNull(trades.get(2).getSymbol());
+        assertEquals(3, trades.get(2).getQuantity());
+    }
+
+    @Test
+    public void largeFilesAreLoadedInOrderInParallel() throws IOException {
+        StringBuilder content = new StringBuilder("quantity,price,symbol,side\n");
+        int count = 20000;
+        for (int i = 0; i < count; ++i) {
+            content.append(i).append(',').append(i / 4.0).append(",S").append(i % 10).append(',')
+                .append(i % 2 == 0 ? "BUY" : "SELL").append('\n');
+        }
+        Path path = write(content.toString());
+        DelimitedLoader<Trade> loader = factory.delimitedLoader(Trade.class).chunkBytes(4096).build();
+        List<Trade> trades = loader.load(path);
+        ColumnarBeanList<Trade> columnar = loader.loadColumnar(path);
+        assertEquals(count, trades.size());
+        assertEquals(count, columnar.size());
+        for (int i = 0; i < count; ++i) {
+            Trade trade = trades.get(i);
+            assertEquals(i, trade.getQuantity());
+            assertEquals(i / 4.0, trade.getPrice(), 0.0);
+            assertEquals("S" + (i % 10), trade.getSymbol());
+            Trade row = columnar.get(i);
+            assertEquals(i, row.getQuantity());
+            assertEquals(i / 4.0, row.getPrice(), 0.0);
+            assertEquals(trade.getSymbol(), row.getSymbol());
+            assertEquals(trade.getSide(), row.getSide());
+        }
+        assertEquals(count / 2, columnar.countBy("side").get(Side.BUY).longValue());
+    }
+
+    @Test
+    public void unknownColumnsAreRejectedUnlessIgnored() throws IOException {
+        Path path = write("symbol,comment\nACME,whatever\n");
+        try {
+            factory.delimitedLoader(Trade.class).build().load(path);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        List<Trade> trades = factory.delimitedLoader(Trade.class).ignoreUnknownColumns().build().load(path);
+        assertEquals("ACME", trades.get(0).getSymbol());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void valuesOutOfRangeAreRejected() throws IOException {
+        factory.delimitedLoader(Trade.class).build().loadColumnar(write("quantity\n3000000000\n"));
+    }
+
+    @Test
+    public void emptyFilesLoadNoBeans() throws IOException {
+        assertTrue(factory.delimitedLoader(Trade.class).build().load(write("")).isEmpty());
+        assertTrue(factory.delimitedLoader(Trade.class).build().loadColumnar(write("symbol\n")).isEmpty());
+    }
+
+    public enum Side {
+        BUY, SELL
+    }
+
+    public interface Trade {
+
+        long getId();
+
+        void setId(long id);
+
+        String getSymbol();
+
+        void setSymbol(String symbol);
+
+        int getQuantity();
+
+        void setQuantity(int quantity);
+
+        double getPrice();
+
+        void setPrice(double price);
+
+        Side getSide();
+
+        void setSide(Side side);
+
+        Boolean getSettled();
+
+        void setSettled(Boolean settled);
+
+    }
+
+}
@@ -366,6 +366,53 @@ public class TestDynaBeans {
         assertEquals(Long.valueOf(10), bean.getValue());
     }
 
+    @Test
+    public void asMapIsLiveView() {
+        SimpleBean bean = factory.create(SimpleBean.class);
+        bean.setStr("a string");
+        Map<String, Object> map = factory.asMap(bean);
+        assertEquals(2, map.size());
+        assertThat(map.keySet(), contains("str", "value"));
+        assertEquals("a string", map.get("str"));
+        assertNull(map.get("value"));
+        assertTrue(map.containsKey("value"));
+        assertFalse(map.containsKey("age"));
+
+        bean.setValue(5L);
+        assertEquals(Long.valueOf(5L), map.get("value"));
+        assertEquals("a string", map.put("str", "another"));
+        assertEquals("another", bean.getStr());
+        map.put("str", null);
+        assertNull(bean.getStr());
+
+        HashMap<String, Object> expected = new HashMap<>();
+        expected.put("str", null);
+        expected.put("value", 5L);
+        assertEquals(expected, map);
+        assertEquals(bean, factory.createWithInitialValues(SimpleBean.class, map));
+    }
+
+    @Test
+    public void asMapReturnsPrimitiveDefaultsAndChecksTypes() {
+        AutoboxingBean bean = factory.create(AutoboxingBean.class);
+        Map<String, Object> map = factory.asMap(bean);
+        assertEquals(0, map.get("index"));
+        assertEquals(false, map.get("flag"));
+        map.put("index", 3);
+        assertEquals(3, bean.getIndex());
+        try {
+            map.put("index", "three");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals(3, bean.getIndex());
+        }
+        try {
+            map.put("unknown", 1);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
     @Test
     public void getClassReturnsNonNull() {
         SimpleBean bean = factory.create(SimpleBean.class);
@@ -429,6 +476,66 @@ public class TestDynaBeans {
         assertNotEquals(firstBean, secondBean);
     }
 
+    @Test
+    public void hashCodeIsMaintainedBySetters() {
+        SimpleBean bean = factory.create(SimpleBean.class);
+        int emptyHash = bean.hashCode();
+        bean.setStr("first");
+        bean.setValue(1L);
+        bean.setStr("second");
+        SimpleBean expected = factory.create(SimpleBean.class);
+        expected.setStr("second");
+        expected.setValue(1L);
+        assertEquals(expected.hashCode(), bean.hashCode());
+        assertEquals(expected, bean);
+        assertEquals(bean.hashCode(), ((DynaBean) bean).clone().hashCode());
+        bean.setStr(null);
+        bean.setValue(null);
+        assertEquals(emptyHash, bean.hashCode());
+        assertNotEquals(expected, bean);
+    }
+
+    @Test
+    public void hashCodeSurvivesConcurrentSetters() throws InterruptedException {
+        final SimpleBean bean = factory.create(SimpleBean.class);
+        bean.hashCode();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            final long offset = t * 1000000L;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (long i = 0; i < 100000; ++i) {
+                        bean.setValue(offset + i);
+                        bean.setStr(String.valueOf(i));
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Object clone = ((DynaBean) bean).clone();
+        assertEquals(clone.hashCode(), bean.hashCode());
+        assertEquals(clone, bean);
+        assertEquals(bean, clone);
+    }
+
+    @Test
+    public void hashCodeFollowsMutableValues() {
+        BeanWithGenericProperty<List<String>> first = factory.create(BeanWithGenericProperty.class);
+        BeanWithGenericProperty<List<String>> second = factory.create(BeanWithGenericProperty.class);
+        first.setValue(new ArrayList<String>());
+        second.setValue(new ArrayList<>(Arrays.asList("element")));
+        int emptyListHash = first.hashCode();
+        assertNotEquals(first, second);
+        first.getValue().add("element");
+        assertNotEquals(emptyListHash, first.hashCode());
+        assertEquals(second.hashCode(), first.hashCode());
+        assertEquals(second, first);
+        assertTrue(new HashSet<>(Collections.singleton(first)).contains(second));
+    }
+
     public static class SimpleVO implements SimpleBean {
 
         private String str;
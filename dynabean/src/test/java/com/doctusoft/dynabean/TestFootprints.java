@@ -0,0 +1,116 @@
+package com.doctusoft.dynabean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestFootprints {
+
+    private DynaBeanFactory factory;
+
+    @Before
+    public void setup() {
+        factory = new LocalDynaBeanFactory();
+    }
+
+    @Test
+    public void emptyBeanRetainsItsShallowSizeOnly() {
+        BeanFootprint footprint = factory.estimateFootprint(factory.create(Node.class), false);
+        assertEquals(1, footprint.getInstances());
+        assertTrue(footprint.getShallowBytes() > 0);
+        assertEquals(footprint.getShallowBytes(), footprint.getRetainedBytes());
+    }
+
+    @Test
+    public void sharedValuesAreNotCounted() {
+        Node node = factory.create(Node.class);
+        long emptyBytes = factory.estimateFootprint(node, false).getRetainedBytes();
+        node.setKind(Kind.LEAF);
+        node.setWeight(100);
+        assertEquals(emptyBytes, factory.estimateFootprint(node, false).getRetainedBytes());
+        node.setWeight(100000);
+        assertEquals(emptyBytes + 16, factory.estimateFootprint(node, false).getRetainedBytes());
+    }
+
+    @Test
+    public void valuesReferencedTwiceAreCountedOnce() {
+        Node node = factory.create(Node.class);
+        node.setName("some name");
+        long withName = factory.estimateFootprint(node, false).getRetainedBytes();
+        node.setPayload(node.getName());
+        assertEquals(withName, factory.estimateFootprint(node, false).getRetainedBytes());
+    }
+
+    @Test
+    public void deepEstimatesIncludeNestedBeansAndElements() {
+        Node parent = factory.create(Node.class);
+        Node child = factory.create(Node.class);
+        child.setName("a rather long name of the child node");
+        parent.setChildren(new ArrayList<>(Collections.singletonList(child)));
+        parent.setPayload(parent);
+        BeanFootprint shallow = factory.estimateFootprint(parent, false);
+        BeanFootprint deep = factory.estimateFootprint(parent, true);
+        assertEquals(shallow.getShallowBytes(), deep.getShallowBytes());
+        assertEquals(deep.getRetainedBytes() - shallow.getRetainedBytes(),
+            factory.estimateFootprint(child, false).getRetainedBytes());
+    }
+
+    @Test
+    public void trackedBeansAreEstimatedPerType() {
+        assertEquals(0, factory.getFootprint(Node.class, false).getInstances());
+        factory.enableFootprintTracking(Node.class);
+        List<Node> nodes = new ArrayList<>();
+        String sharedName = "shared name";
+        for (int i = 0; i < 10; ++i) {
+            Node node = factory.create(Node.class);
+            node.setName(sharedName);
+            nodes.add(node);
+        }
+        BeanFootprint footprint = factory.getFootprint(Node.class, false);
+        assertEquals(10, footprint.getInstances());
+        assertEquals(10 * factory.estimateFootprint(factory.create(Node.class), false).getShallowBytes(),
+            footprint.getShallowBytes());
+        long nameBytes = factory.estimateFootprint(nodes.get(0), false).getRetainedBytes()
+            - factory.estimateFootprint(nodes.get(0), false).getShallowBytes();
+        assertEquals(footprint.getShallowBytes() + nameBytes, footprint.getRetainedBytes());
+        factory.disableFootprintTracking(Node.class);
+        assertEquals(0, factory.getFootprint(Node.class, false).getInstances());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void otherObjectsAreRejected() {
+        factory.estimateFootprint(new Object(), false);
+    }
+
+    public enum Kind {
+        LEAF, BRANCH
+    }
+
+    public interface Node {
+
+        String getName();
+
+        void setName(String name);
+
+        Kind getKind();
+
+        void setKind(Kind kind);
+
+        Integer getWeight();
+
+        void setWeight(Integer weight);
+
+        List<Node> getChildren();
+
+        void setChildren(List<Node> children);
+
+        Object getPayload();
+
+        void setPayload(Object payload);
+
+    }
+
+}
@@ -0,0 +1,201 @@
+package com.doctusoft.dynabean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class TestIndexedBeanCollection {
+
+    private DynaBeanFactory factory;
+
+    @Before
+    public void setup() {
+        factory = new LocalDynaBeanFactory();
+    }
+
+    @Test
+    public void equalityAndRangeQueries() {
+        IndexedBeanCollection<Product> products = factory.createIndexedCollection(Product.class)
+            .addUniqueIndex("sku")
+            .addHashIndex("category")
+            .addSortedIndex("price");
+        Product apple = product("A1", "fruit", 120);
+        Product pear = product("P1", "fruit", 150);
+        Product saw = product("S1", "tools", 3000);
+        products.addAll(Arrays.asList(apple, pear, saw));
+        assertEquals(3, products.size());
+
+        assertSame(pear, products.findUnique("sku", "P1"));
+        assertNull(products.findUnique("sku", "X1"));
+        assertThat(products.findEqual("category", "fruit"), containsInAnyOrder(apple, pear));
+        assertThat(products.findEqual("price", 3000), contains(saw));
+        assertThat(products.findRange("price", 120, false, null, false), contains(pear, saw));
+        assertThat(products.findRange("price", null, false, 150, true), contains(apple, pear));
+    }
+
+    @Test
+    public void indexesFollowSetters() {
+        IndexedBeanCollection<Product> products = factory.createSharedIndexedCollection(Product.class)
+            .addUniqueIndex("sku")
+            .addSortedIndex("price");
+        Product apple = product("A1", "fruit", 120);
+        products.add(apple);
+        apple.setSku("A2");
+        apple.setPrice(99);
+        assertNull(products.findUnique("sku", "A1"));
+        assertSame(apple, products.findUnique("sku", "A2"));
+        assertThat(products.findRange("price", 100, true, null, false), empty());
+        assertThat(products.findRange("price", 0, true, 100, true), contains(apple));
+
+        products.remove(apple);
+        apple.setSku("A3");
+        assertNull(products.findUnique("sku", "A2"));
+        assertNull(products.findUnique("sku", "A3"));
+        assertFalse(products.contains(apple));
+    }
+
+    @Test
+    public void uniqueIndexVetoesConflictingChanges() {
+        IndexedBeanCollection<Product> products = factory.createIndexedCollection(Product.class)
+            .addUniqueIndex("sku")
+            .addHashIndex("category");
+        Product apple = product("A1", "fruit", 120);
+        Product pear = product("P1", "fruit", 150);
+        products.add(apple);
+        products.add(pear);
+        try {
+            pear.setSku("A1");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("P1", pear.getSku());
+            assertSame(pear, products.findUnique("sku", "P1"));
+        }
+        try {
+            products.add(product("A1", "other", 1));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals(2, products.size());
+            assertThat(products.findEqual("category", "other"), empty());
+        }
+    }
+
+    @Test
+    public void elementsAreHeldByIdentity() {
+        IndexedBeanCollection<Product> products = factory.createIndexedCollection(Product.class);
+        Product apple = product("A1", "fruit", 120);
+        Product copy = product("A1", "fruit", 120);
+        assertEquals(apple, copy);
+        assertTrue(products.add(apple));
+        assertFalse(products.add(apple));
+        assertTrue(products.add(copy));
+        assertEquals(2, products.size());
+        products.addSortedIndex("price");
+        assertThat(products.findEqual("price", 120), containsInAnyOrder(apple, copy));
+    }
+
+    @Test(timeout = 30000)
+    public void patchesAndRemovalsOfTheSameBeanDoNotDeadlock() throws InterruptedException {
+        final IndexedBeanCollection<Product> products = factory.createSharedIndexedCollection(Product.class)
+            .addUniqueIndex("sku")
+            .addHashIndex("category")
+            .addSortedIndex("price");
+        final Product apple = product("A1", "fruit", 120);
+        final Patch<Product> discount = factory.compilePatch(Product.class, productValues("groceries", 99));
+        final Patch<Product> restore = factory.compilePatch(Product.class, productValues("fruit", 120));
+        final int rounds = 200000;
+        Thread patcher = new Thread() {
+            public void run() {
+                for (int i = 0; i < rounds; ++i) {
+                    (i % 2 == 0 ? discount : restore).applyTo(apple);
+                }
+            }
+        };
+        patcher.start();
+        for (int i = 0; i < rounds; ++i) {
+            products.add(apple);
+            products.remove(apple);
+        }
+        products.add(apple);
+        patcher.join();
+        boolean discounted = apple.getPrice() == 99;
+        assertEquals(discounted ? "groceries" : "fruit", apple.getCategory());
+        assertThat(products.findEqual("price", apple.getPrice()), contains(apple));
+        assertThat(products.findEqual("price", discounted ? 120 : 99), empty());
+        assertThat(products.findEqual("category", apple.getCategory()), contains(apple));
+        assertThat(products.findEqual("category", discounted ? "fruit" : "groceries"), empty());
+    }
+
+    @Test(timeout = 30000)
+    public void concurrentSettersLeaveTheBeanInOneBucket() throws InterruptedException {
+        final IndexedBeanCollection<Product> products = factory.createSharedIndexedCollection(Product.class)
+            .addHashIndex("price");
+        final Product apple = product("A1", "fruit", -1);
+        final int threadCount = 4;
+        final int keysPerThread = 100;
+        Thread[] setters = new Thread[threadCount];
+        for (int t = 0; t < threadCount; ++t) {
+            final int firstKey = t * keysPerThread;
+            setters[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 200000; ++i) {
+                        apple.setPrice(firstKey + i % keysPerThread);
+                    }
+                }
+            };
+            setters[t].start();
+        }
+        products.add(apple);
+        for (Thread setter : setters) {
+            setter.join();
+        }
+        assertThat(products.findEqual("price", -1), empty());
+        for (int key = 0; key < threadCount * keysPerThread; ++key) {
+            if (key == apple.getPrice()) {
+                assertThat(products.findEqual("price", key), contains(apple));
+            } else {
+                assertThat(products.findEqual("price", key), empty());
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void queriesRequireIndex() {
+        factory.createIndexedCollection(Product.class).findEqual("sku", "A1");
+    }
+
+    private static Map<String, Object> productValues(String category, int price) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("category", category);
+        values.put("price", price);
+        return values;
+    }
+
+    private Product product(String sku, String category, int price) {
+        Product product = factory.create(Product.class);
+        product.setSku(sku);
+        product.setCategory(category);
+        product.setPrice(price);
+        return product;
+    }
+
+    public interface Product {
+
+        String getSku();
+
+        void setSku(String sku);
+
+        String getCategory();
+
+        void setCategory(String category);
+
+        int getPrice();
+
+        void setPrice(int price);
+
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.doctusoft.dynabean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.*;
+
+public class TestLazyInitialization {
+
+    private DynaBeanFactory factory;
+
+    private List<String> initialized;
+
+    private PropertyInitializer initializer;
+
+    @Before
+    public void setup() {
+        factory = new LocalDynaBeanFactory();
+        initialized = new ArrayList<>();
+        initializer = new PropertyInitializer() {
+            public Object get(String propertyName, Method getter) {
+                initialized.add(propertyName);
+                if (getter.getReturnType() == int.class) {
+                    return 42;
+                }
+                return propertyName.equals("description") ? null : propertyName + "-value";
+            }
+        };
+    }
+
+    @Test
+    public void initializerRunsOnFirstAccessOnly() {
+        Row row = factory.createWithLazyInitializer(Row.class, initializer, false);
+        assertThat(initialized, empty());
+        assertEquals("name-value", row.getName());
+        assertEquals("name-value", row.getName());
+        assertNull(row.getDescription());
+        assertNull(row.getDescription());
+        assertThat(initialized, contains("name", "description"));
+    }
+
+    @Test
+    public void settingPropertySkipsInitialization() {
+        Row row = factory.createWithLazyInitializer(Row.class, initializer, false);
+        row.setCount(7);
+        assertEquals(7, row.getCount());
+        assertThat(initialized, empty());
+    }
+
+    @Test
+    public void clonesCarryUnresolvedPropertiesForward() {
+        Row row = factory.createWithLazyInitializer(Row.class, initializer, false);
+        assertEquals("name-value", row.getName());
+        Row clone = (Row) ((DynaBean) row).clone();
+        assertThat(initialized, contains("name"));
+        assertEquals("name-value", clone.getName());
+        assertThat(initialized, contains("name"));
+        assertEquals(42, clone.getCount());
+        assertThat(initialized, contains("name", "count"));
+        assertEquals(42, row.getCount());
+        assertThat(initialized, contains("name", "count", "count"));
+    }
+
+    @Test
+    public void equalityForcesInitialization() {
+        Row lazy = factory.createWithLazyInitializer(Row.class, initializer, false);
+        Row eager = factory.createWithInitializer(Row.class, initializer);
+        assertEquals(eager, lazy);
+        assertEquals(eager.hashCode(), lazy.hashCode());
+        lazy.setName("other");
+        assertNotEquals(eager, lazy);
+    }
+
+    @Test
+    public void threadSafeInitializationRunsOnce() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final Row row = factory.createWithLazyInitializer(Row.class, new PropertyInitializer() {
+            public Object get(String propertyName, Method getter) {
+                calls.incrementAndGet();
+                return propertyName;
+            }
+        }, true);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 64; ++i) {
+                results.add(executor.submit(new Callable<String>() {
+                    public String call() {
+                        return row.getName();
+                    }
+                }));
+            }
+            for (Future<String> result : results) {
+                assertEquals("name", result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, calls.get());
+    }
+
+    public interface Row {
+
+        String getName();
+
+        void setName(String name);
+
+        String getDescription();
+
+        int getCount();
+
+        void setCount(int count);
+
+    }
+
+}
@@ -0,0 +1,124 @@
+package com.doctusoft.dynabean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestPersistentCollections {
+
+    private DynaBeanFactory factory;
+
+    @Before
+    public void setup() {
+        factory = new LocalDynaBeanFactory();
+    }
+
+    @Test
+    public void vectorBehavesLikeList() {
+        Random random = new Random(42);
+        List<Integer> model = new ArrayList<>();
+        PersistentVector<Integer> vector = PersistentVector.empty();
+        for (int i = 0; i < 40000; ++i) {
+            model.add(i);
+            vector = vector.plus(i);
+        }
+        assertEquals(model, vector);
+        PersistentVector<Integer> snapshot = vector;
+        for (int i = 0; i < 1000; ++i) {
+            int index = random.nextInt(model.size());
+            model.set(index, -i);
+            vector = vector.with(index, -i);
+        }
+        assertEquals(model, vector);
+        while (!model.isEmpty()) {
+            model.remove(model.size() - 1);
+            vector = vector.minusLast();
+            if (model.size() % 997 == 0) {
+                assertEquals(model, vector);
+            }
+        }
+        assertTrue(vector.isEmpty());
+        assertEquals(40000, snapshot.size());
+        assertEquals(Integer.valueOf(39999), snapshot.get(39999));
+    }
+
+    @Test
+    public void hashSetBehavesLikeSet() {
+        Random random = new Random(42);
+        Set<Key> model = new HashSet<>();
+        PersistentHashSet<Key> set = PersistentHashSet.empty();
+        for (int i = 0; i < 20000; ++i) {
+            Key key = new Key(random.nextInt(10000));
+            assertEquals(model.add(key), set.plus(key) != set);
+            set = set.plus(key);
+        }
+        assertEquals(model.size(), set.size());
+        assertEquals(model, set);
+        assertEquals(model, new HashSet<>(set));
+        PersistentHashSet<Key> snapshot = set;
+        for (int i = 0; i < 20000; ++i) {
+            Key key = new Key(random.nextInt(10000));
+            assertEquals(model.remove(key), set.minus(key) != set);
+            set = set.minus(key);
+        }
+        assertEquals(model, set);
+        for (Key key : new ArrayList<>(model)) {
+            set = set.minus(key);
+        }
+        assertTrue(set.isEmpty());
+        assertFalse(snapshot.isEmpty());
+        assertTrue(snapshot.contains(snapshot.iterator().next()));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void vectorIsImmutable() {
+        PersistentVector.of("a", "b").add("c");
+    }
+
+    @Test
+    public void copiesSharePersistentCollections() {
+        Tagged tagged = factory.create(Tagged.class);
+        tagged.setNames(PersistentVector.of("a", "b"));
+        tagged.setTags(PersistentHashSet.of("x", "y"));
+        Tagged copy = factory.copyProperties(Tagged.class, tagged);
+        assertSame(tagged.getNames(), copy.getNames());
+        assertSame(tagged.getTags(), copy.getTags());
+        Tagged clone = (Tagged) ((DynaBean) tagged).clone();
+        assertSame(tagged.getNames(), clone.getNames());
+        copy.setNames(((PersistentVector<String>) copy.getNames()).plus("c"));
+        assertEquals(Arrays.asList("a", "b"), tagged.getNames());
+        assertEquals(Arrays.asList("a", "b", "c"), copy.getNames());
+    }
+
+    static final class Key {
+        
+        final int value;
+        
+        Key(int value) {
+            this.value = value;
+        }
+        
+        public boolean equals(Object obj) {
+            return obj instanceof Key && ((Key) obj).value == value;
+        }
+        
+        public int hashCode() {
+            return value % 300;
+        }
+    }
+
+    public interface Tagged {
+        
+        List<String> getNames();
+        
+        void setNames(List<String> names);
+        
+        Set<String> getTags();
+        
+        void setTags(Set<String> tags);
+    }
+
+}
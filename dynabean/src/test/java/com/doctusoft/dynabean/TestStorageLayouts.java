@@ -0,0 +1,149 @@
+package com.doctusoft.dynabean;
+
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestStorageLayouts {
+
+    @Test
+    public void layoutsAreInvisibleToCallers() {
+        DynaBeanFactory denseFactory = new FixedLayoutFactory(StorageLayout.DENSE);
+        DynaBeanFactory sparseFactory = new FixedLayoutFactory(StorageLayout.SPARSE);
+        Wide dense = denseFactory.create(Wide.class);
+        Wide sparse = sparseFactory.create(Wide.class);
+        assertEquals(StorageLayout.SPARSE, sparseFactory.getStorageStats(Wide.class).getCurrentLayout());
+        for (Wide bean : Arrays.asList(dense, sparse)) {
+            bean.setP15("last");
+            bean.setP00("first");
+            bean.setP07("middle");
+            bean.setP07(null);
+            bean.setP03("third");
+        }
+        assertEquals("first", sparse.getP00());
+        assertEquals("third", sparse.getP03());
+        assertNull(sparse.getP07());
+        assertEquals("last", sparse.getP15());
+        assertEquals(dense, sparse);
+        assertEquals(sparse, dense);
+        assertEquals(dense.hashCode(), sparse.hashCode());
+
+        Wide clone = (Wide) ((DynaBean) sparse).clone();
+        assertEquals(dense, clone);
+        clone.setP03(null);
+        assertNotEquals(dense, clone);
+        assertEquals("third", sparse.getP03());
+    }
+
+    @Test
+    public void adaptiveLayoutFollowsObservedFill() {
+        LocalDynaBeanFactory factory = new LocalDynaBeanFactory();
+        Wide first = factory.createWithInitialValues(Wide.class, Collections.singletonMap("p05", "value"));
+        List<Wide> beans = new ArrayList<>();
+        for (int i = 0; i < 2000; ++i) {
+            beans.add(factory.createWithInitialValues(Wide.class, Collections.singletonMap("p05", "value")));
+        }
+        StorageStats stats = factory.getStorageStats(Wide.class);
+        assertEquals(StorageLayout.ADAPTIVE, stats.getConfiguredLayout());
+        assertEquals(StorageLayout.SPARSE, stats.getCurrentLayout());
+        assertEquals(16, stats.getPropertyCount());
+        assertEquals(1.0, stats.getAverageFilledProperties(), 0.001);
+        assertTrue(stats.getEstimatedBytesPerInstance(StorageLayout.SPARSE)
+            < stats.getEstimatedBytesPerInstance(StorageLayout.DENSE));
+        Wide last = beans.get(beans.size() - 1);
+        assertEquals(first, last);
+        assertEquals(first.hashCode(), last.hashCode());
+    }
+
+    @Test
+    public void unresolvedLazyValuesAreNotCountedAsSet() {
+        LocalDynaBeanFactory factory = new LocalDynaBeanFactory();
+        PropertyInitializer initializer = new PropertyInitializer() {
+            public Object get(String propertyName, Method getter) {
+                return propertyName.equals("p05") ? "value" : null;
+            }
+        };
+        for (int i = 0; i < 2000; ++i) {
+            Wide bean = factory.createWithLazyInitializer(Wide.class, initializer, false);
+            assertEquals("value", bean.getP05());
+            assertNull(bean.getP00());
+        }
+        StorageStats stats = factory.getStorageStats(Wide.class);
+        assertEquals(1.0, stats.getAverageFilledProperties(), 0.001);
+        assertEquals(StorageLayout.SPARSE, stats.getCurrentLayout());
+    }
+
+    @Test
+    public void fullyPopulatedTypesStayDense() {
+        LocalDynaBeanFactory factory = new LocalDynaBeanFactory();
+        Map<String, Object> values = new HashMap<>();
+        for (int i = 0; i < 16; ++i) {
+            values.put(String.format("p%02d", i), "value");
+        }
+        for (int i = 0; i < 2000; ++i) {
+            factory.createWithInitialValues(Wide.class, values);
+        }
+        assertEquals(StorageLayout.DENSE, factory.getStorageStats(Wide.class).getCurrentLayout());
+    }
+
+    static final class FixedLayoutFactory extends LocalDynaBeanFactory {
+
+        private final StorageLayout layout;
+
+        FixedLayoutFactory(StorageLayout layout) {
+            this.layout = layout;
+        }
+
+        protected StorageLayout storageLayout(Class<?> beanInterfaceClass) {
+            return layout;
+        }
+    }
+
+    public interface Wide {
+
+        String getP00();
+
+        void setP00(String value);
+
+        String getP01();
+
+        String getP02();
+
+        String getP03();
+
+        void setP03(String value);
+
+        String getP04();
+
+        String getP05();
+
+        String getP06();
+
+        String getP07();
+
+        void setP07(String value);
+
+        String getP08();
+
+        String getP09();
+
+        String getP10();
+
+        String getP11();
+
+        String getP12();
+
+        String getP13();
+
+        String getP14();
+
+        String getP15();
+
+        void setP15(String value);
+
+    }
+
+}
@@ -0,0 +1,101 @@
+package com.doctusoft.dynabean;
+
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestTypeChecking {
+
+    private static final Map<String, Object> WRONG_VALUES = Collections.<String, Object>singletonMap("age", "old");
+
+    @Test
+    public void defaultModeChecksOnRead() {
+        DynaBeanFactory factory = new LocalDynaBeanFactory();
+        Person person = factory.createWithInitialValues(Person.class, WRONG_VALUES);
+        try {
+            person.getAge();
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void strictModeChecksInitialValues() {
+        DynaBeanFactory factory = new TypeCheckingFactory(TypeChecking.STRICT);
+        Person person = factory.createWithInitialValues(Person.class,
+            Collections.<String, Object>singletonMap("age", 42));
+        assertEquals(42, person.getAge());
+        person.setName("John");
+        assertEquals("John", person.getName());
+        try {
+            factory.createWithInitialValues(Person.class, WRONG_VALUES);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            factory.createWithInitializer(Person.class, new WrongInitializer());
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            factory.applyPatch(person, WRONG_VALUES);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void strictModeChecksLazyInitializedValuesWhenResolved() {
+        DynaBeanFactory factory = new TypeCheckingFactory(TypeChecking.STRICT);
+        Person person = factory.createWithLazyInitializer(Person.class, new WrongInitializer(), false);
+        assertNull(person.getName());
+        try {
+            person.getAge();
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test(expected = ClassCastException.class)
+    public void trustedModeDoesNotCheckInitialValues() {
+        DynaBeanFactory factory = new TypeCheckingFactory(TypeChecking.TRUSTED);
+        Person person = factory.createWithInitialValues(Person.class, WRONG_VALUES);
+        person.getAge();
+    }
+
+    static final class TypeCheckingFactory extends LocalDynaBeanFactory {
+
+        private final TypeChecking typeChecking;
+
+        TypeCheckingFactory(TypeChecking typeChecking) {
+            this.typeChecking = typeChecking;
+        }
+
+        protected TypeChecking typeChecking(Class<?> beanInterfaceClass) {
+            return typeChecking;
+        }
+    }
+
+    static final class WrongInitializer implements PropertyInitializer {
+
+        public Object get(String propertyName, Method getterMethod) {
+            return propertyName.equals("age") ? "old" : null;
+        }
+    }
+
+    public interface Person {
+
+        String getName();
+
+        void setName(String name);
+
+        int getAge();
+
+        void setAge(int age);
+
+    }
+
+}
@@ -0,0 +1,182 @@
+package com.doctusoft.dynabean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import static org.junit.Assert.*;
+
+public class TestVersionedBeans {
+
+    private DynaBeanFactory factory;
+
+    @Before
+    public void setup() {
+        factory = new LocalDynaBeanFactory() {
+            protected StorageLayout storageLayout(Class<?> beanInterfaceClass) {
+                return StorageLayout.VERSIONED;
+            }
+        };
+    }
+
+    @Test
+    public void snapshotsKeepTheirVersion() {
+        Price price = factory.create(Price.class);
+        price.setSymbol("ACME");
+        price.setBid(10L);
+        assertEquals(2L, factory.getVersion(price));
+        Price snapshot = factory.snapshot(price);
+        price.setBid(11L);
+        price.setSymbol(null);
+        assertEquals(10L, snapshot.getBid());
+        assertEquals("ACME", snapshot.getSymbol());
+        assertEquals(2L, factory.getVersion(snapshot));
+        assertEquals(4L, factory.getVersion(price));
+        assertSame(snapshot, factory.snapshot(snapshot));
+        assertEquals(StorageLayout.VERSIONED, factory.getStorageStats(Price.class).getCurrentLayout());
+    }
+
+    @Test
+    public void snapshotsAreFrozenButTheirClonesAreNot() {
+        Price price = factory.create(Price.class);
+        price.setBid(10L);
+        Price snapshot = factory.snapshot(price);
+        assertEquals(price, snapshot);
+        assertEquals(price.hashCode(), snapshot.hashCode());
+        try {
+            snapshot.setBid(12L);
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+        Price clone = (Price) ((DynaBean) snapshot).clone();
+        clone.setBid(12L);
+        assertEquals(12L, clone.getBid());
+        assertEquals(10L, price.getBid());
+    }
+
+    @Test
+    public void patchesArePublishedAsSingleVersion() {
+        Price price = factory.create(Price.class);
+        Patch<Price> patch = factory.compilePatch(Price.class, quote(10L, 11L));
+        patch.applyTo(price);
+        assertEquals(1L, factory.getVersion(price));
+        assertEquals(10L, price.getBid());
+        assertEquals(11L, price.getAsk());
+    }
+
+    @Test
+    public void rejectedPatchesAreRolledBack() {
+        Price price = factory.create(Price.class);
+        price.setBid(5L);
+        DynaBeanInstance.asDynaBeanInstanceOrNull(price).addListener(new PropertyChangeListener() {
+            public void propertyChanging(DynaBeanInstance bean, String propertyName, Object oldValue, Object newValue) {
+                if (propertyName.equals("ask")) {
+                    throw new IllegalStateException();
+                }
+            }
+        });
+        try {
+            factory.applyPatch(price, quote(10L, 11L));
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(5L, price.getBid());
+        assertEquals(1L, factory.getVersion(price));
+    }
+
+    @Test
+    public void indexesAreRestoredWhenPatchesAreRejected() {
+        IndexedBeanCollection<Price> prices = factory.createSharedIndexedCollection(Price.class)
+            .addUniqueIndex("symbol")
+            .addSortedIndex("bid");
+        Price acme = factory.create(Price.class);
+        acme.setSymbol("ACME");
+        acme.setBid(5L);
+        Price other = factory.create(Price.class);
+        other.setSymbol("XYZ");
+        other.setBid(7L);
+        prices.addAll(Arrays.asList(acme, other));
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("bid", 10L);
+        values.put("symbol", "ACME");
+        try {
+            factory.applyPatch(other, values);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(7L, other.getBid());
+        assertEquals("XYZ", other.getSymbol());
+        assertTrue(prices.findEqual("bid", 10L).isEmpty());
+        assertEquals(Collections.singletonList(other), prices.findEqual("bid", 7L));
+        assertSame(other, prices.findUnique("symbol", "XYZ"));
+    }
+
+    @Test
+    public void patchesCanBeAppliedOptimistically() {
+        Price price = factory.create(Price.class);
+        Price snapshot = factory.snapshot(price);
+        long version = factory.getVersion(snapshot);
+        price.setBid(9L);
+        Patch<Price> patch = factory.compilePatch(Price.class, quote(10L, 11L));
+        assertFalse(patch.applyIfVersion(price, version));
+        assertEquals(9L, price.getBid());
+        assertTrue(patch.applyIfVersion(price, factory.getVersion(price)));
+        assertEquals(11L, price.getAsk());
+    }
+
+    @Test
+    public void readersNeverSeeTornUpdates() throws Exception {
+        final Price price = factory.create(Price.class);
+        factory.applyPatch(price, quote(0L, 0L));
+        final AtomicBoolean torn = new AtomicBoolean();
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread reader = new Thread() {
+            public void run() {
+                while (!done.get()) {
+                    Price snapshot = factory.snapshot(price);
+                    if (snapshot.getBid() != snapshot.getAsk()) {
+                        torn.set(true);
+                    }
+                }
+            }
+        };
+        reader.start();
+        for (long i = 1; i <= 10000; ++i) {
+            factory.applyPatch(price, quote(i, i));
+        }
+        done.set(true);
+        reader.join();
+        assertFalse(torn.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void otherLayoutsHaveNoSnapshots() {
+        new LocalDynaBeanFactory().snapshot(new LocalDynaBeanFactory().create(Price.class));
+    }
+
+    private static Map<String, Object> quote(long bid, long ask) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("bid", bid);
+        values.put("ask", ask);
+        return values;
+    }
+
+    public interface Price {
+
+        String getSymbol();
+
+        void setSymbol(String symbol);
+
+        long getBid();
+
+        void setBid(long bid);
+
+        long getAsk();
+
+        void setAsk(long ask);
+
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.doctusoft.dynabean;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestWeakDynaBeanFactory {
+
+    @Test
+    public void definitionsAreComputedOnce() {
+        WeakDynaBeanFactory factory = new WeakDynaBeanFactory();
+        Person person = factory.create(Person.class);
+        person.setName("John");
+        factory.create(Person.class);
+        factory.create(Employee.class);
+        assertEquals("John", person.getName());
+        assertEquals(2, factory.getResidentCount());
+        assertEquals(2, factory.getComputeCount());
+        assertEquals(0, factory.getEvictionCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedDefinitionsAreEvicted() {
+        WeakDynaBeanFactory factory = new WeakDynaBeanFactory(2);
+        Person person = factory.create(Person.class);
+        person.setName("John");
+        factory.create(Company.class);
+        factory.create(Person.class);
+        factory.create(Address.class);
+        assertEquals(2, factory.getResidentCount());
+        assertEquals(1, factory.getEvictionCount());
+
+        factory.create(Person.class);
+        assertEquals(3, factory.getComputeCount());
+        factory.create(Company.class);
+        assertEquals(4, factory.getComputeCount());
+        assertEquals(2, factory.getEvictionCount());
+
+        Person copy = factory.copyProperties(Person.class, person);
+        assertEquals(person, copy);
+        assertEquals("John", copy.getName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeLimitIsRejected() {
+        new WeakDynaBeanFactory(-1);
+    }
+
+    public interface Person {
+
+        String getName();
+
+        void setName(String name);
+    }
+
+    public interface Employee extends Person {
+
+        int getSalary();
+
+        void setSalary(int salary);
+    }
+
+    public interface Company {
+
+        String getName();
+    }
+
+    public interface Address {
+
+        String getCity();
+    }
+
+}